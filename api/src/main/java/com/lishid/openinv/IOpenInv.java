@@ -23,6 +23,7 @@ import com.lishid.openinv.internal.ISpecialInventory;
 import com.lishid.openinv.internal.ISpecialPlayerInventory;
 import com.lishid.openinv.util.InventoryAccess;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
@@ -210,12 +211,29 @@ public interface IOpenInv {
      * Load a {@link Player} from an {@link OfflinePlayer}. If the user has not played before or the default world for
      * the server is not loaded, this will return {@code null}.
      *
+     * <p>Offline players are kept loaded and shared until they have not been accessed for a while, at which point they
+     * are saved if changed and unloaded. Use {@link #leasePlayer(OfflinePlayer, Plugin)} to keep a player loaded.
+     *
      * @param offline the {@code OfflinePlayer} to load a {@code Player} for
      * @return the loaded {@code Player}
      * @throws IllegalStateException if the server version is unsupported
      */
     @Nullable Player loadPlayer(@NotNull final OfflinePlayer offline);
 
+    /**
+     * Lease a loaded {@link Player} from an {@link OfflinePlayer}. The player stays loaded and shared with OpenInv
+     * while the lease is held, so repeated leases and calls to {@link #loadPlayer(OfflinePlayer)} do not load the user
+     * again. If the user has not played before, offline access is disabled, or the default world for the server is not
+     * loaded, this will return {@code null}.
+     *
+     * @param offline the {@code OfflinePlayer} to lease a {@code Player} for
+     * @param plugin the plugin holding the lease
+     * @return the lease
+     * @throws IllegalStateException if the server version is unsupported
+     * @since 4.4.4
+     */
+    @Nullable PlayerLease leasePlayer(@NotNull OfflinePlayer offline, @NotNull Plugin plugin);
+
     /**
      * Match an existing {@link OfflinePlayer}. If the name is a {@link UUID#toString() UUID string}, this will only
      * return the user if they have actually played on the server before, unlike {@link Bukkit#getOfflinePlayer(UUID)}.
@@ -229,6 +247,60 @@ public interface IOpenInv {
      */
     @Nullable OfflinePlayer matchPlayer(@NotNull String name);
 
+    /**
+     * Match an existing {@link OfflinePlayer} off the main thread. See {@link #matchPlayer(String)}.
+     *
+     * <p>Like all asynchronous methods, the returned future is completed on the main thread. Cancelling the future or
+     * letting it time out, i.e. with {@link CompletableFuture#orTimeout}, skips work that has not started yet.
+     *
+     * @param name the string to match
+     * @return a future completed with the user with the closest matching name or null if no user matches
+     * @since 4.4.4
+     */
+    @NotNull CompletableFuture<@Nullable OfflinePlayer> matchPlayerAsync(@NotNull String name);
+
+    /**
+     * Load a {@link Player} from an {@link OfflinePlayer} without blocking the calling thread. See
+     * {@link #loadPlayer(OfflinePlayer)}. Loading is done on the main thread.
+     *
+     * @param offline the {@code OfflinePlayer} to load a {@code Player} for
+     * @return a future completed on the main thread with the loaded {@code Player} or null if it cannot be loaded
+     * @since 4.4.4
+     */
+    @NotNull CompletableFuture<@Nullable Player> loadPlayerAsync(@NotNull OfflinePlayer offline);
+
+    /**
+     * Load an {@link OfflinePlayer} if necessary and get their {@link ISpecialPlayerInventory} without blocking the
+     * calling thread.
+     *
+     * @param offline the {@code OfflinePlayer} owning the inventory
+     * @return a future completed on the main thread with the inventory or null if the player cannot be loaded
+     * @since 4.4.4
+     */
+    @NotNull CompletableFuture<@Nullable ISpecialPlayerInventory> getSpecialInventoryAsync(@NotNull OfflinePlayer offline);
+
+    /**
+     * Load an {@link OfflinePlayer} if necessary and get their {@link ISpecialEnderChest} without blocking the calling
+     * thread.
+     *
+     * @param offline the {@code OfflinePlayer} owning the ender chest
+     * @return a future completed on the main thread with the ender chest or null if the player cannot be loaded
+     * @since 4.4.4
+     */
+    @NotNull CompletableFuture<@Nullable ISpecialEnderChest> getSpecialEnderChestAsync(@NotNull OfflinePlayer offline);
+
+    /**
+     * Save a {@link Player Player's} data. Data is serialized on the main thread and written to disk off it. If saving
+     * is disabled, this does nothing. Online players are saved by the server as usual.
+     *
+     * <p>Once serialization has started, cancelling the future does not stop the write.
+     *
+     * @param player the {@code Player} to save
+     * @return a future completed on the main thread once the data is written
+     * @since 4.4.4
+     */
+    @NotNull CompletableFuture<Void> saveAsync(@NotNull Player player);
+
     /**
      * @deprecated OpenInv uses action bar chat for notifications. Whether they show is based on language settings.
      */
@@ -246,14 +318,14 @@ public interface IOpenInv {
     }
 
     /**
-     * @deprecated see {@link #retainPlayer(Player, Plugin)}
+     * @deprecated Use {@link #leasePlayer(OfflinePlayer, Plugin)} and {@link PlayerLease#close()}.
      */
     @Deprecated(forRemoval = true, since = "4.2.0")
     default void releasePlayer(@NotNull Player player, @NotNull Plugin plugin) {}
 
     /**
-     * @deprecated OpenInv no longer uses an internal cache beyond maintaining copies of currently open inventories.
-     * If you wish to use/modify a player, ensure either {@link IOpenInv#isPlayerLoaded(UUID)} is false or the player
+     * @deprecated Use {@link #leasePlayer(OfflinePlayer, Plugin)}, which keeps a player loaded and shared while held.
+     * This method does nothing. Without a lease, if you wish to use/modify a player, ensure either {@link IOpenInv#isPlayerLoaded(UUID)} is false or the player
      * instance is the same memory address as the one in use by OpenInv.
      * <pre>
      *  public &#64;NotNull Player savePlayerData(&#64;NotNull Player player) {
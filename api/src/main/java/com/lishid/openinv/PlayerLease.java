@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2011-2023 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv;
+
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A handle keeping a loaded {@link Player} resident and shared between users.
+ *
+ * <p>While any lease for a user is held, OpenInv and all lease holders use the same {@code Player} instance, so
+ * changes made by one are seen by all and nothing is loaded twice. After the last lease is closed the player stays
+ * loaded for a short idle period, so a lease taken again shortly after is still cheap. When evicted, offline players
+ * that changed while loaded are saved unless saving is disabled.
+ *
+ * <p>Leases must be closed when no longer needed, ideally with try-with-resources. Leases that are garbage collected
+ * without being closed are released and reported as leaks.
+ *
+ * @since 4.4.4
+ */
+public interface PlayerLease extends AutoCloseable {
+
+    /**
+     * Get the leased player. The instance changes when the user logs in or out, so it should be fetched each time it is
+     * used rather than stored. Must be called on the main thread.
+     *
+     * @return the leased player
+     * @throws IllegalStateException if the lease has been closed
+     */
+    @NotNull Player getPlayer();
+
+    /**
+     * Get the plugin holding the lease.
+     *
+     * @return the plugin
+     */
+    @NotNull Plugin getPlugin();
+
+    /**
+     * Check if the lease has been closed.
+     *
+     * @return true if the lease has been closed
+     */
+    boolean isClosed();
+
+    /**
+     * Release the lease. Closing a lease more than once has no effect.
+     */
+    @Override
+    void close();
+
+}
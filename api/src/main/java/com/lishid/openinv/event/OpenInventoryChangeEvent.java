@@ -0,0 +1,105 @@
+package com.lishid.openinv.event;
+
+import com.lishid.openinv.internal.ISpecialInventory;
+import com.lishid.openinv.internal.InventorySnapshot;
+import java.util.BitSet;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Event fired at the end of a tick in which the contents of a loaded {@link ISpecialInventory} changed. All changes
+ * made during the tick are combined into one event per inventory, whether they were made by viewers, plugins, or the
+ * owner while online.
+ *
+ * @since 4.4.4
+ */
+public class OpenInventoryChangeEvent extends Event {
+
+  private static final HandlerList HANDLERS = new HandlerList();
+
+  private final ISpecialInventory inventory;
+  private final InventorySnapshot before;
+  private final InventorySnapshot after;
+  private final BitSet changedSlots;
+
+  public OpenInventoryChangeEvent(
+      @NotNull ISpecialInventory inventory,
+      @NotNull InventorySnapshot before,
+      @NotNull InventorySnapshot after,
+      @NotNull BitSet changedSlots) {
+    this.inventory = inventory;
+    this.before = before;
+    this.after = after;
+    this.changedSlots = (BitSet) changedSlots.clone();
+  }
+
+  /**
+   * Get the {@link ISpecialInventory} that changed.
+   *
+   * @return the special inventory
+   */
+  public @NotNull ISpecialInventory getInventory() {
+    return inventory;
+  }
+
+  /**
+   * Get the slots that changed. Player inventory slots are ordered like
+   * {@link org.bukkit.inventory.PlayerInventory#getContents()}.
+   *
+   * @return a copy of the changed slots
+   */
+  public @NotNull BitSet getChangedSlots() {
+    return (BitSet) changedSlots.clone();
+  }
+
+  /**
+   * Get the contents at the end of the previous tick.
+   *
+   * @return the snapshot before the changes
+   */
+  public @NotNull InventorySnapshot getBefore() {
+    return before;
+  }
+
+  /**
+   * Get the contents at the end of this tick.
+   *
+   * @return the snapshot after the changes
+   */
+  public @NotNull InventorySnapshot getAfter() {
+    return after;
+  }
+
+  /**
+   * Get the item in a slot before the changes.
+   *
+   * @param slot the slot
+   * @return the item or null if the slot was empty
+   */
+  public @Nullable InventorySnapshot.Item getBefore(int slot) {
+    return before.getItem(slot);
+  }
+
+  /**
+   * Get the item in a slot after the changes.
+   *
+   * @param slot the slot
+   * @return the item or null if the slot is empty
+   */
+  public @Nullable InventorySnapshot.Item getAfter(int slot) {
+    return after.getItem(slot);
+  }
+
+  @NotNull
+  @Override
+  public HandlerList getHandlers() {
+    return HANDLERS;
+  }
+
+  public static HandlerList getHandlerList() {
+    return HANDLERS;
+  }
+
+}
@@ -61,4 +61,24 @@ public interface ISpecialInventory {
      */
     @NotNull HumanEntity getPlayer();
 
+    /**
+     * Take a snapshot of the inventory's contents. Must be called on the main thread. The snapshot may be read from
+     * any thread.
+     *
+     * <p>Player inventory slots are ordered like {@link org.bukkit.inventory.PlayerInventory#getContents()}.
+     *
+     * @return the snapshot
+     * @since 4.4.4
+     */
+    @NotNull InventorySnapshot snapshot();
+
+    /**
+     * Get the number of edits made through the inventory, i.e. by viewers or by plugins setting its items. Edits made
+     * to the owner's own inventory and changes to item stacks in place are not counted. May be read from any thread.
+     *
+     * @return the modification count
+     * @since 4.4.4
+     */
+    long getModificationCount();
+
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011-2023 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An immutable view of the contents of an {@link ISpecialInventory} at a point in time. Snapshots are safe to read
+ * from any thread.
+ *
+ * <p>Taking a new snapshot only copies slots that changed since the previous one; unchanged slots share the same
+ * {@link Item}. If nothing changed, the previous snapshot is returned as is, so comparing {@link #getVersion()
+ * versions} is a cheap way to skip repeated analysis.
+ *
+ * @since 4.4.4
+ */
+public final class InventorySnapshot {
+
+    private final long version;
+    private final @Nullable Item @NotNull [] items;
+
+    /**
+     * Construct a new snapshot. Snapshots are created by {@link ISpecialInventory#snapshot()}.
+     *
+     * @param version the modification version
+     * @param items the items by slot, null for empty slots
+     */
+    public InventorySnapshot(long version, @Nullable Item @NotNull [] items) {
+        this.version = version;
+        this.items = items.clone();
+    }
+
+    /**
+     * Get the modification version. The version increases whenever a snapshot of the same inventory differs from the
+     * previous one.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the number of slots.
+     *
+     * @return the number of slots
+     */
+    public int getSize() {
+        return items.length;
+    }
+
+    /**
+     * Get the item in a slot.
+     *
+     * @param slot the slot
+     * @return the item or null if the slot is empty
+     */
+    public @Nullable Item getItem(int slot) {
+        return items[slot];
+    }
+
+    /**
+     * Get the type of item in a slot.
+     *
+     * @param slot the slot
+     * @return the item type or {@link Material#AIR} if the slot is empty
+     */
+    public @NotNull Material getType(int slot) {
+        Item item = items[slot];
+        return item == null ? Material.AIR : item.getType();
+    }
+
+    /**
+     * Get the amount of items in a slot.
+     *
+     * @param slot the slot
+     * @return the amount or 0 if the slot is empty
+     */
+    public int getAmount(int slot) {
+        Item item = items[slot];
+        return item == null ? 0 : item.getAmount();
+    }
+
+    /**
+     * Get all items by slot.
+     *
+     * @return an unmodifiable list of items, null for empty slots
+     */
+    public @NotNull List<@Nullable Item> getItems() {
+        return Collections.unmodifiableList(Arrays.asList(items));
+    }
+
+    /**
+     * An immutable item in a snapshot.
+     */
+    public interface Item {
+
+        /**
+         * Get the item type.
+         *
+         * @return the item type
+         */
+        @NotNull Material getType();
+
+        /**
+         * Get the stack size.
+         *
+         * @return the amount
+         */
+        int getAmount();
+
+        /**
+         * Get whether the item has additional data such as a name or enchantments.
+         *
+         * @return true if the item has a tag
+         */
+        boolean hasTag();
+
+        /**
+         * Get the item's tag in SNBT form. The string is created on first use.
+         *
+         * @return the tag or null if the item has none
+         */
+        @Nullable String getTag();
+
+        /**
+         * Create a Bukkit copy of the item. Each call returns a new copy.
+         *
+         * @return the item
+         */
+        @NotNull ItemStack toItemStack();
+
+    }
+
+}
@@ -31,6 +31,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Set;
 
 public class OpenPlayer extends CraftPlayer {
@@ -85,28 +87,46 @@ public class OpenPlayer extends CraftPlayer {
 
     @Override
     public void saveData() {
+        try {
+            prepareSave().run();
+        } catch (Exception e) {
+            LogManager.getLogger().warn("Failed to save player data for {}: {}", getHandle().getScoreboardName(), e);
+        }
+    }
+
+    /**
+     * Serialize the player's data for saving. Must be called on the main thread.
+     *
+     * @return a task writing the data that may be run on any thread
+     */
+    public @NotNull Runnable prepareSave() {
         ServerPlayer player = this.getHandle();
         // See net.minecraft.world.level.storage.PlayerDataStorage#save(EntityHuman)
-        try {
-            PlayerDataStorage worldNBTStorage = player.server.getPlayerList().playerIo;
+        PlayerDataStorage worldNBTStorage = player.server.getPlayerList().playerIo;
 
-            CompoundTag oldData = isOnline() ? null : worldNBTStorage.load(player);
-            CompoundTag playerData = getWritableTag(oldData);
-            playerData = player.saveWithoutId(playerData);
-            setExtraData(playerData);
+        CompoundTag oldData = isOnline() ? null : worldNBTStorage.load(player);
+        CompoundTag playerData = player.saveWithoutId(getWritableTag(oldData));
+        setExtraData(playerData);
 
-            if (oldData != null) {
-                // Revert certain special data values when offline.
-                revertSpecialValues(playerData, oldData);
-            }
+        if (oldData != null) {
+            // Revert certain special data values when offline.
+            revertSpecialValues(playerData, oldData);
+        }
+
+        File playerDataDir = worldNBTStorage.getPlayerDir();
+        String uuid = player.getStringUUID();
+        return () -> write(playerDataDir, uuid, playerData);
+    }
 
-            File file = File.createTempFile(player.getStringUUID() + "-", ".dat", worldNBTStorage.getPlayerDir());
+    private static void write(@NotNull File playerDataDir, @NotNull String uuid, @NotNull CompoundTag playerData) {
+        try {
+            File file = File.createTempFile(uuid + "-", ".dat", playerDataDir);
             NbtIo.writeCompressed(playerData, file);
-            File file1 = new File(worldNBTStorage.getPlayerDir(), player.getStringUUID() + ".dat");
-            File file2 = new File(worldNBTStorage.getPlayerDir(), player.getStringUUID() + ".dat_old");
+            File file1 = new File(playerDataDir, uuid + ".dat");
+            File file2 = new File(playerDataDir, uuid + ".dat_old");
             Util.safeReplaceFile(file1, file, file2);
-        } catch (Exception e) {
-            LogManager.getLogger().warn("Failed to save player data for {}: {}", player.getScoreboardName(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -175,6 +175,18 @@ public class PlayerDataManager implements IPlayerDataManager {
         }
     }
 
+    @Override
+    public @NotNull Runnable prepareSave(@NotNull Player player) {
+        Player injected = inject(player);
+        if (injected instanceof OpenPlayer openPlayer) {
+            return openPlayer.prepareSave();
+        }
+
+        // Without the custom save process, data can only be written immediately.
+        injected.saveData();
+        return () -> {};
+    }
+
     @Nullable
     @Override
     public InventoryView openInventory(@NotNull Player player, @NotNull ISpecialInventory inventory) {
@@ -17,6 +17,7 @@
 package com.lishid.openinv.internal.v1_20_R2;
 
 import com.lishid.openinv.internal.ISpecialEnderChest;
+import com.lishid.openinv.internal.InventorySnapshot;
 import java.util.List;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -43,6 +44,8 @@ import org.jetbrains.annotations.Nullable;
 public class SpecialEnderChest extends PlayerEnderChestContainer implements ISpecialEnderChest {
 
     private final CraftInventory inventory;
+    private @Nullable InventorySnapshot snapshot;
+    private volatile long modificationCount;
     private ServerPlayer owner;
     private NonNullList<ItemStack> items;
     private boolean playerOnline;
@@ -97,8 +100,20 @@ public class SpecialEnderChest extends PlayerEnderChestContainer implements ISpe
         return owner.getBukkitEntity();
     }
 
+    @Override
+    public @NotNull InventorySnapshot snapshot() {
+        this.snapshot = SnapshotItem.snapshot(this.snapshot, this.items);
+        return this.snapshot;
+    }
+
+    @Override
+    public long getModificationCount() {
+        return this.modificationCount;
+    }
+
     @Override
     public void setChanged() {
+        ++this.modificationCount;
         this.owner.getEnderChestInventory().setChanged();
     }
 
@@ -174,6 +189,7 @@ public class SpecialEnderChest extends PlayerEnderChestContainer implements ISpe
 
     @Override
     public ItemStack removeItem(int i, int j) {
+        ++this.modificationCount;
         ItemStack itemstack = ContainerHelper.removeItem(this.items, i, j);
         if (!itemstack.isEmpty()) {
             this.setChanged();
@@ -240,6 +256,7 @@ public class SpecialEnderChest extends PlayerEnderChestContainer implements ISpe
 
     @Override
     public ItemStack removeItemNoUpdate(int i) {
+        ++this.modificationCount;
         ItemStack itemstack = this.items.get(i);
         if (itemstack.isEmpty()) {
             return ItemStack.EMPTY;
@@ -251,6 +268,7 @@ public class SpecialEnderChest extends PlayerEnderChestContainer implements ISpe
 
     @Override
     public void setItem(int i, ItemStack itemstack) {
+        ++this.modificationCount;
         this.items.set(i, itemstack);
         if (!itemstack.isEmpty() && itemstack.getCount() > this.getMaxStackSize()) {
             itemstack.setCount(this.getMaxStackSize());
@@ -284,6 +302,7 @@ public class SpecialEnderChest extends PlayerEnderChestContainer implements ISpe
 
     @Override
     public void clearContent() {
+        ++this.modificationCount;
         this.items.clear();
         this.setChanged();
     }
@@ -18,6 +18,7 @@ package com.lishid.openinv.internal.v1_20_R2;
 
 import com.google.common.collect.ImmutableList;
 import com.lishid.openinv.internal.ISpecialPlayerInventory;
+import com.lishid.openinv.internal.InventorySnapshot;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -57,6 +58,8 @@ import org.jetbrains.annotations.Nullable;
 public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerInventory {
 
     private final CraftInventory inventory;
+    private @Nullable InventorySnapshot snapshot;
+    private volatile long modificationCount;
     private boolean playerOnline;
     private Player player;
     private NonNullList<ItemStack> items;
@@ -126,6 +129,17 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
         return this.player.getBukkitEntity();
     }
 
+    @Override
+    public @NotNull InventorySnapshot snapshot() {
+        this.snapshot = SnapshotItem.snapshot(this.snapshot, getContents());
+        return this.snapshot;
+    }
+
+    @Override
+    public long getModificationCount() {
+        return this.modificationCount;
+    }
+
     private @NotNull ItemStack getRawItem(int i) {
         if (i < 0) {
             return ItemStack.EMPTY;
@@ -568,6 +582,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public ItemStack removeItem(int rawIndex, final int j) {
+        ++this.modificationCount;
         IndexedCompartment indexedCompartment = getIndexedContent(rawIndex);
 
         if (indexedCompartment.compartment() == null
@@ -580,6 +595,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void removeItem(ItemStack itemStack) {
+        ++this.modificationCount;
         for (NonNullList<ItemStack> compartment : this.compartments) {
             for (int i = 0; i < compartment.size(); ++i) {
                 if (compartment.get(i) == itemStack) {
@@ -592,6 +608,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public ItemStack removeItemNoUpdate(int rawIndex) {
+        ++this.modificationCount;
         IndexedCompartment indexedCompartment = getIndexedContent(rawIndex);
 
         if (indexedCompartment.compartment() == null) {
@@ -609,6 +626,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void setItem(int rawIndex, final ItemStack itemStack) {
+        ++this.modificationCount;
         IndexedCompartment indexedCompartment = getIndexedContent(rawIndex);
 
         if (indexedCompartment.compartment() == null) {
@@ -742,6 +760,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void setChanged() {
+        ++this.modificationCount;
         super.setChanged();
     }
 
@@ -785,6 +804,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void clearContent() {
+        ++this.modificationCount;
         for (NonNullList<ItemStack> compartment : this.compartments) {
             compartment.clear();
         }
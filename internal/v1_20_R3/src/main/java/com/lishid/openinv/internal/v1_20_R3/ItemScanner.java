@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.internal.v1_20_R3;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.internal.IItemScanner;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtList;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import net.minecraft.core.registries.BuiltInRegistries;
+import net.minecraft.nbt.ByteArrayTag;
+import net.minecraft.nbt.ByteTag;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.nbt.DoubleTag;
+import net.minecraft.nbt.FloatTag;
+import net.minecraft.nbt.IntArrayTag;
+import net.minecraft.nbt.IntTag;
+import net.minecraft.nbt.ListTag;
+import net.minecraft.nbt.LongArrayTag;
+import net.minecraft.nbt.LongTag;
+import net.minecraft.nbt.NumericTag;
+import net.minecraft.nbt.ShortTag;
+import net.minecraft.nbt.StringTag;
+import net.minecraft.nbt.Tag;
+import net.minecraft.world.Container;
+import net.minecraft.world.entity.LivingEntity;
+import net.minecraft.world.entity.decoration.ItemFrame;
+import net.minecraft.world.entity.item.ItemEntity;
+import net.minecraft.world.item.ItemStack;
+import org.bukkit.craftbukkit.v1_20_R3.entity.CraftEntity;
+import org.bukkit.craftbukkit.v1_20_R3.inventory.CraftInventory;
+import org.bukkit.craftbukkit.v1_20_R3.inventory.CraftItemStack;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public class ItemScanner implements IItemScanner {
+
+    private @Nullable Field handle;
+
+    public ItemScanner() {
+        try {
+            handle = CraftItemStack.class.getDeclaredField("handle");
+            handle.setAccessible(true);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            OpenInv.getPlugin(OpenInv.class).getLogger().log(Level.WARNING, "Unable to access item handles, items will be copied", e);
+            handle = null;
+        }
+    }
+
+    @Override
+    public boolean scan(@NotNull Inventory inventory, @NotNull Predicate<ScannableItem> visitor) {
+        if (!(inventory instanceof CraftInventory craftInventory)) {
+            // Custom implementation, fall through to Bukkit copies.
+            for (org.bukkit.inventory.ItemStack itemStack : inventory.getContents()) {
+                if (itemStack != null && !visitor.test(wrap(itemStack))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        Container container = craftInventory.getInventory();
+        return visit(container.getContents(), new StackItem(), visitor);
+    }
+
+    @Override
+    public boolean scan(@NotNull Entity entity, @NotNull Predicate<ScannableItem> visitor) {
+        if (entity instanceof HumanEntity || !(entity instanceof CraftEntity craftEntity)) {
+            return true;
+        }
+
+        // Entity inventories are thin views of the internal container, not copies.
+        if (entity instanceof InventoryHolder holder && !scan(holder.getInventory(), visitor)) {
+            return false;
+        }
+
+        net.minecraft.world.entity.Entity handle = craftEntity.getHandle();
+        StackItem view = new StackItem();
+        if (handle instanceof ItemFrame itemFrame) {
+            return visit(List.of(itemFrame.getItem()), view, visitor);
+        }
+        if (handle instanceof ItemEntity itemEntity) {
+            return visit(List.of(itemEntity.getItem()), view, visitor);
+        }
+        if (handle instanceof LivingEntity livingEntity) {
+            return visit(livingEntity.getAllSlots(), view, visitor);
+        }
+        return true;
+    }
+
+    private static boolean visit(
+            @NotNull Iterable<ItemStack> items,
+            @NotNull StackItem view,
+            @NotNull Predicate<ScannableItem> visitor) {
+        for (ItemStack itemStack : items) {
+            if (itemStack.isEmpty()) {
+                continue;
+            }
+            // Reuse a single view per scan; views are documented as only valid during the visit.
+            view.itemStack = itemStack;
+            view.convertedTag = null;
+            if (!visitor.test(view)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public @NotNull ScannableItem wrap(@NotNull org.bukkit.inventory.ItemStack itemStack) {
+        StackItem view = new StackItem();
+        view.itemStack = getHandle(itemStack);
+        return view;
+    }
+
+    @Override
+    public @NotNull org.bukkit.inventory.ItemStack toItemStack(@NotNull NbtCompound item) {
+        return CraftItemStack.asBukkitCopy(ItemStack.of((CompoundTag) fromNbt(item)));
+    }
+
+    private @NotNull ItemStack getHandle(@NotNull org.bukkit.inventory.ItemStack itemStack) {
+        if (handle != null && itemStack instanceof CraftItemStack) {
+            try {
+                ItemStack nmsStack = (ItemStack) handle.get(itemStack);
+                return nmsStack == null ? ItemStack.EMPTY : nmsStack;
+            } catch (IllegalAccessException ignored) {
+                // Fall through to copy.
+            }
+        }
+        return CraftItemStack.asNMSCopy(itemStack);
+    }
+
+    /**
+     * Convert an internal tag into a version-independent value.
+     *
+     * @param tag the internal tag
+     * @return the converted value
+     */
+    static @NotNull Object toNbt(@NotNull Tag tag) {
+        if (tag instanceof CompoundTag compoundTag) {
+            NbtCompound compound = new NbtCompound();
+            for (String key : compoundTag.getAllKeys()) {
+                Tag value = compoundTag.get(key);
+                if (value != null) {
+                    compound.put(key, toNbt(value));
+                }
+            }
+            return compound;
+        }
+        if (tag instanceof ListTag listTag) {
+            NbtList list = new NbtList();
+            for (Tag value : listTag) {
+                list.add(toNbt(value));
+            }
+            return list;
+        }
+        if (tag instanceof ByteArrayTag array) {
+            return array.getAsByteArray().clone();
+        }
+        if (tag instanceof IntArrayTag array) {
+            return array.getAsIntArray().clone();
+        }
+        if (tag instanceof LongArrayTag array) {
+            return array.getAsLongArray().clone();
+        }
+        if (tag instanceof NumericTag number) {
+            return switch (tag.getId()) {
+                case Tag.TAG_BYTE -> number.getAsByte();
+                case Tag.TAG_SHORT -> number.getAsShort();
+                case Tag.TAG_INT -> number.getAsInt();
+                case Tag.TAG_LONG -> number.getAsLong();
+                case Tag.TAG_FLOAT -> number.getAsFloat();
+                default -> number.getAsDouble();
+            };
+        }
+        return tag.getAsString();
+    }
+
+    /**
+     * Convert a version-independent value into an internal tag.
+     *
+     * @param value the value
+     * @return the converted tag
+     */
+    static @NotNull Tag fromNbt(@NotNull Object value) {
+        if (value instanceof NbtCompound compound) {
+            CompoundTag compoundTag = new CompoundTag();
+            for (Map.Entry<String, Object> entry : compound.entrySet()) {
+                compoundTag.put(entry.getKey(), fromNbt(entry.getValue()));
+            }
+            return compoundTag;
+        }
+        if (value instanceof NbtList list) {
+            ListTag listTag = new ListTag();
+            for (Object element : list) {
+                listTag.add(fromNbt(element));
+            }
+            return listTag;
+        }
+        if (value instanceof Byte number) {
+            return ByteTag.valueOf(number);
+        }
+        if (value instanceof Short number) {
+            return ShortTag.valueOf(number);
+        }
+        if (value instanceof Integer number) {
+            return IntTag.valueOf(number);
+        }
+        if (value instanceof Long number) {
+            return LongTag.valueOf(number);
+        }
+        if (value instanceof Float number) {
+            return FloatTag.valueOf(number);
+        }
+        if (value instanceof Double number) {
+            return DoubleTag.valueOf(number);
+        }
+        if (value instanceof byte[] array) {
+            return new ByteArrayTag(array.clone());
+        }
+        if (value instanceof int[] array) {
+            return new IntArrayTag(array.clone());
+        }
+        if (value instanceof long[] array) {
+            return new LongArrayTag(array.clone());
+        }
+        return StringTag.valueOf(value.toString());
+    }
+
+    private static @NotNull List<ScannableItem> getContents(@Nullable CompoundTag tag) {
+        if (tag == null) {
+            return Collections.emptyList();
+        }
+
+        List<ScannableItem> contents = new ArrayList<>();
+        // Container items such as shulker boxes.
+        if (tag.contains("BlockEntityTag", Tag.TAG_COMPOUND)) {
+            addAll(tag.getCompound("BlockEntityTag").getList("Items", Tag.TAG_COMPOUND), contents);
+        }
+        // Bundles.
+        addAll(tag.getList("Items", Tag.TAG_COMPOUND), contents);
+        return contents;
+    }
+
+    private static int getEnchantmentLevel(@Nullable CompoundTag tag, @Nullable String enchantment) {
+        if (tag == null) {
+            return 0;
+        }
+
+        ListTag enchantments = tag.getList("Enchantments", Tag.TAG_COMPOUND);
+        int level = 0;
+        for (int i = 0; i < enchantments.size(); ++i) {
+            CompoundTag entry = enchantments.getCompound(i);
+            if (enchantment == null || enchantment.equals(ScannableItem.normalizeId(entry.getString("id")))) {
+                level = Math.max(level, entry.getInt("lvl"));
+            }
+        }
+        return level;
+    }
+
+    private static void addAll(@NotNull ListTag items, @NotNull List<ScannableItem> contents) {
+        for (int i = 0; i < items.size(); ++i) {
+            contents.add(new TagItem(items.getCompound(i)));
+        }
+    }
+
+    /**
+     * A view of a live item stack.
+     */
+    private static final class StackItem implements ScannableItem {
+
+        private ItemStack itemStack = ItemStack.EMPTY;
+        private @Nullable NbtCompound convertedTag;
+
+        @Override
+        public @NotNull String getId() {
+            return BuiltInRegistries.ITEM.getKey(itemStack.getItem()).toString();
+        }
+
+        @Override
+        public int getAmount() {
+            return itemStack.getCount();
+        }
+
+        @Override
+        public @Nullable NbtCompound getTag() {
+            CompoundTag tag = itemStack.getTag();
+            if (tag == null) {
+                return null;
+            }
+            if (convertedTag == null) {
+                convertedTag = (NbtCompound) toNbt(tag);
+            }
+            return convertedTag;
+        }
+
+        @Override
+        public @NotNull List<ScannableItem> getContents() {
+            return ItemScanner.getContents(itemStack.getTag());
+        }
+
+        @Override
+        public int getEnchantmentLevel(@Nullable String enchantment) {
+            return ItemScanner.getEnchantmentLevel(itemStack.getTag(), enchantment);
+        }
+
+    }
+
+    /**
+     * A view of an item stored as a tag inside another item.
+     */
+    private static final class TagItem implements ScannableItem {
+
+        private final CompoundTag compound;
+        private @Nullable NbtCompound convertedTag;
+
+        private TagItem(@NotNull CompoundTag compound) {
+            this.compound = compound;
+        }
+
+        @Override
+        public @NotNull String getId() {
+            return compound.getString("id");
+        }
+
+        @Override
+        public int getAmount() {
+            return compound.getByte("Count");
+        }
+
+        @Override
+        public @Nullable NbtCompound getTag() {
+            if (!compound.contains("tag", Tag.TAG_COMPOUND)) {
+                return null;
+            }
+            if (convertedTag == null) {
+                convertedTag = (NbtCompound) toNbt(compound.getCompound("tag"));
+            }
+            return convertedTag;
+        }
+
+        @Override
+        public @NotNull List<ScannableItem> getContents() {
+            return ItemScanner.getContents(getRawTag());
+        }
+
+        @Override
+        public int getEnchantmentLevel(@Nullable String enchantment) {
+            return ItemScanner.getEnchantmentLevel(getRawTag(), enchantment);
+        }
+
+        private @Nullable CompoundTag getRawTag() {
+            return compound.contains("tag", Tag.TAG_COMPOUND) ? compound.getCompound("tag") : null;
+        }
+
+    }
+
+}
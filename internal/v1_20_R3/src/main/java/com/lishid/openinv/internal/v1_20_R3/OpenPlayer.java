@@ -30,6 +30,8 @@ import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Set;
@@ -81,29 +83,46 @@ public class OpenPlayer extends CraftPlayer {
 
     @Override
     public void saveData() {
+        try {
+            prepareSave().run();
+        } catch (Exception e) {
+            LogUtils.getLogger().warn("Failed to save player data for {}: {}", getHandle().getScoreboardName(), e);
+        }
+    }
+
+    /**
+     * Serialize the player's data for saving. Must be called on the main thread.
+     *
+     * @return a task writing the data that may be run on any thread
+     */
+    public @NotNull Runnable prepareSave() {
         ServerPlayer player = this.getHandle();
         // See net.minecraft.world.level.storage.PlayerDataStorage#save(EntityHuman)
-        try {
-            PlayerDataStorage worldNBTStorage = player.server.getPlayerList().playerIo;
+        PlayerDataStorage worldNBTStorage = player.server.getPlayerList().playerIo;
 
-            CompoundTag oldData = isOnline() ? null : worldNBTStorage.load(player);
-            CompoundTag playerData = getWritableTag(oldData);
-            playerData = player.saveWithoutId(playerData);
-            setExtraData(playerData);
+        CompoundTag oldData = isOnline() ? null : worldNBTStorage.load(player);
+        CompoundTag playerData = player.saveWithoutId(getWritableTag(oldData));
+        setExtraData(playerData);
 
-            if (oldData != null) {
-                // Revert certain special data values when offline.
-                revertSpecialValues(playerData, oldData);
-            }
+        if (oldData != null) {
+            // Revert certain special data values when offline.
+            revertSpecialValues(playerData, oldData);
+        }
+
+        Path playerDataDir = worldNBTStorage.getPlayerDir().toPath();
+        String uuid = player.getStringUUID();
+        return () -> write(playerDataDir, uuid, playerData);
+    }
 
-            Path playerDataDir = worldNBTStorage.getPlayerDir().toPath();
-            Path file = Files.createTempFile(playerDataDir, player.getStringUUID() + "-", ".dat");
+    private static void write(@NotNull Path playerDataDir, @NotNull String uuid, @NotNull CompoundTag playerData) {
+        try {
+            Path file = Files.createTempFile(playerDataDir, uuid + "-", ".dat");
             NbtIo.writeCompressed(playerData, file);
-            Path dataFile = playerDataDir.resolve(player.getStringUUID() + ".dat");
-            Path backupFile = playerDataDir.resolve(player.getStringUUID() + ".dat_old");
+            Path dataFile = playerDataDir.resolve(uuid + ".dat");
+            Path backupFile = playerDataDir.resolve(uuid + ".dat_old");
             Util.safeReplaceFile(dataFile, file, backupFile);
-        } catch (Exception e) {
-            LogUtils.getLogger().warn("Failed to save player data for {}: {}", player.getScoreboardName(), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
         }
     }
 
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2011-2023 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv.internal.v1_20_R3;
+
+import com.lishid.openinv.internal.InventorySnapshot;
+import java.util.List;
+import net.minecraft.nbt.CompoundTag;
+import net.minecraft.world.item.ItemStack;
+import org.bukkit.Material;
+import org.bukkit.craftbukkit.v1_20_R3.inventory.CraftItemStack;
+import org.bukkit.craftbukkit.v1_20_R3.util.CraftMagicNumbers;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An item in an {@link InventorySnapshot} backed by a private copy of the stack, which is never modified.
+ */
+final class SnapshotItem implements InventorySnapshot.Item {
+
+    private final ItemStack handle;
+    private final Material type;
+    private @Nullable String tag;
+
+    private SnapshotItem(@NotNull ItemStack handle) {
+        this.handle = handle;
+        this.type = CraftMagicNumbers.getMaterial(handle.getItem());
+    }
+
+    /**
+     * Take a snapshot of inventory contents, copying only slots that differ from the previous snapshot.
+     *
+     * @param previous the previous snapshot of the same inventory or null
+     * @param contents the live contents
+     * @return the previous snapshot if nothing changed or a new snapshot
+     */
+    static @NotNull InventorySnapshot snapshot(@Nullable InventorySnapshot previous, @NotNull List<ItemStack> contents) {
+        boolean comparable = previous != null && previous.getSize() == contents.size();
+        boolean changed = !comparable;
+        InventorySnapshot.Item[] items = new InventorySnapshot.Item[contents.size()];
+        for (int slot = 0; slot < items.length; ++slot) {
+            ItemStack live = contents.get(slot);
+            InventorySnapshot.Item old = comparable ? previous.getItem(slot) : null;
+            if (old instanceof SnapshotItem item && ItemStack.matches(live, item.handle)) {
+                items[slot] = old;
+            } else if (!live.isEmpty()) {
+                items[slot] = new SnapshotItem(live.copy());
+                changed = true;
+            } else if (old != null) {
+                changed = true;
+            }
+        }
+
+        if (!changed) {
+            return previous;
+        }
+        return new InventorySnapshot(previous == null ? 0 : previous.getVersion() + 1, items);
+    }
+
+    @Override
+    public @NotNull Material getType() {
+        return type;
+    }
+
+    @Override
+    public int getAmount() {
+        return handle.getCount();
+    }
+
+    @Override
+    public boolean hasTag() {
+        return handle.hasTag();
+    }
+
+    @Override
+    public @Nullable String getTag() {
+        // Racy but idempotent; the tag is never modified.
+        String tag = this.tag;
+        if (tag == null) {
+            CompoundTag compound = handle.getTag();
+            if (compound == null) {
+                return null;
+            }
+            tag = compound.getAsString();
+            this.tag = tag;
+        }
+        return tag;
+    }
+
+    @Override
+    public @NotNull org.bukkit.inventory.ItemStack toItemStack() {
+        return CraftItemStack.asBukkitCopy(handle);
+    }
+
+}
@@ -18,6 +18,7 @@ package com.lishid.openinv.internal.v1_20_R3;
 
 import com.google.common.collect.ImmutableList;
 import com.lishid.openinv.internal.ISpecialPlayerInventory;
+import com.lishid.openinv.internal.InventorySnapshot;
 import net.minecraft.CrashReport;
 import net.minecraft.CrashReportCategory;
 import net.minecraft.ReportedException;
@@ -58,6 +59,8 @@ import java.util.stream.Collectors;
 public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerInventory {
 
     private final CraftInventory inventory;
+    private @Nullable InventorySnapshot snapshot;
+    private volatile long modificationCount;
     private boolean playerOnline;
     private Player player;
     private NonNullList<ItemStack> items;
@@ -127,6 +130,17 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
         return this.player.getBukkitEntity();
     }
 
+    @Override
+    public @NotNull InventorySnapshot snapshot() {
+        this.snapshot = SnapshotItem.snapshot(this.snapshot, getContents());
+        return this.snapshot;
+    }
+
+    @Override
+    public long getModificationCount() {
+        return this.modificationCount;
+    }
+
     private @NotNull ItemStack getRawItem(int i) {
         if (i < 0) {
             return ItemStack.EMPTY;
@@ -569,6 +583,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public ItemStack removeItem(int rawIndex, final int j) {
+        ++this.modificationCount;
         IndexedCompartment indexedCompartment = getIndexedContent(rawIndex);
 
         if (indexedCompartment.compartment() == null
@@ -581,6 +596,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void removeItem(ItemStack itemStack) {
+        ++this.modificationCount;
         for (NonNullList<ItemStack> compartment : this.compartments) {
             for (int i = 0; i < compartment.size(); ++i) {
                 if (compartment.get(i) == itemStack) {
@@ -593,6 +609,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public ItemStack removeItemNoUpdate(int rawIndex) {
+        ++this.modificationCount;
         IndexedCompartment indexedCompartment = getIndexedContent(rawIndex);
 
         if (indexedCompartment.compartment() == null) {
@@ -610,6 +627,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void setItem(int rawIndex, final ItemStack itemStack) {
+        ++this.modificationCount;
         IndexedCompartment indexedCompartment = getIndexedContent(rawIndex);
 
         if (indexedCompartment.compartment() == null) {
@@ -743,6 +761,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void setChanged() {
+        ++this.modificationCount;
         super.setChanged();
     }
 
@@ -786,6 +805,7 @@ public class SpecialPlayerInventory extends Inventory implements ISpecialPlayerI
 
     @Override
     public void clearContent() {
+        ++this.modificationCount;
         for (NonNullList<ItemStack> compartment : this.compartments) {
             compartment.clear();
         }
@@ -17,6 +17,7 @@
 package com.lishid.openinv;
 
 import com.lishid.openinv.internal.IAnySilentContainer;
+import com.lishid.openinv.internal.IItemScanner;
 import com.lishid.openinv.internal.IPlayerDataManager;
 import com.lishid.openinv.internal.ISpecialEnderChest;
 import com.lishid.openinv.internal.ISpecialInventory;
@@ -35,6 +36,7 @@ class InternalAccessor {
     private boolean supported = false;
     private IPlayerDataManager playerDataManager;
     private IAnySilentContainer anySilentContainer;
+    private IItemScanner itemScanner;
 
     InternalAccessor(@NotNull Plugin plugin) {
         this.plugin = plugin;
@@ -47,6 +49,7 @@ class InternalAccessor {
             Class.forName("com.lishid.openinv.internal." + this.version + ".SpecialEnderChest");
             this.playerDataManager = this.createObject(IPlayerDataManager.class, "PlayerDataManager");
             this.anySilentContainer = this.createObject(IAnySilentContainer.class, "AnySilentContainer");
+            this.itemScanner = this.createObject(IItemScanner.class, "ItemScanner");
             this.supported = InventoryAccess.isUsable();
         } catch (Exception ignored) {}
     }
@@ -142,6 +145,19 @@ class InternalAccessor {
         return this.anySilentContainer;
     }
 
+    /**
+     * Gets the IItemScanner implementation for the current server version.
+     *
+     * @return the IItemScanner
+     * @throws IllegalStateException if server version is unsupported
+     */
+    public @NotNull IItemScanner getItemScanner() {
+        if (!this.supported) {
+            throw new IllegalStateException(String.format("Unsupported server version %s!", this.version));
+        }
+        return this.itemScanner;
+    }
+
     /**
      * Creates an instance of the IPlayerDataManager implementation for the current server version.
      *
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv;
+
+import com.lishid.openinv.event.OpenInventoryChangeEvent;
+import com.lishid.openinv.internal.ISpecialInventory;
+import com.lishid.openinv.internal.InventorySnapshot;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Compares special inventories against their snapshot from the previous tick and fires one
+ * {@link OpenInventoryChangeEvent} per changed inventory.
+ *
+ * <p>Comparing snapshots catches every change, including stacks modified in place, without hooking each way of
+ * editing an inventory. Only inventories that are being viewed or were edited through their own methods since the last
+ * comparison are compared, and each comparison runs on the owner's thread, or the global region for offline owners.
+ * Nothing is tracked while no plugin listens for the event.
+ */
+final class InventoryChangeTracker {
+
+    private final OpenInv plugin;
+    private final Map<ISpecialInventory, InventorySnapshot> snapshots = new WeakHashMap<>();
+    private final Map<ISpecialInventory, Long> modificationCounts = new WeakHashMap<>();
+
+    InventoryChangeTracker(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Start comparing loaded special inventories at the end of every tick.
+     */
+    void start() {
+        plugin.getTaskScheduler().runTimer(this::tick, 1, 1);
+    }
+
+    /**
+     * Record the initial contents of a newly created special inventory. Must be called on a tick thread owning the
+     * inventory.
+     *
+     * @param inventory the special inventory
+     */
+    synchronized void track(@NotNull ISpecialInventory inventory) {
+        if (hasListeners() && !snapshots.containsKey(inventory)) {
+            modificationCounts.put(inventory, inventory.getModificationCount());
+            snapshots.put(inventory, inventory.snapshot());
+        }
+    }
+
+    /**
+     * Fire an event for pending changes to a special inventory before it is unloaded. Must be called on a tick thread.
+     *
+     * @param inventory the special inventory
+     */
+    synchronized void flush(@NotNull ISpecialInventory inventory) {
+        InventorySnapshot before = snapshots.get(inventory);
+        if (before == null) {
+            // Not tracked or no listeners.
+            return;
+        }
+
+        modificationCounts.put(inventory, inventory.getModificationCount());
+        InventorySnapshot after = inventory.snapshot();
+        snapshots.put(inventory, after);
+        if (before == after) {
+            return;
+        }
+
+        BitSet changed = new BitSet(Math.max(before.getSize(), after.getSize()));
+        for (int slot = 0; slot < Math.max(before.getSize(), after.getSize()); ++slot) {
+            if (!isSame(getItem(before, slot), getItem(after, slot))) {
+                changed.set(slot);
+            }
+        }
+
+        if (!changed.isEmpty()) {
+            plugin.getServer().getPluginManager().callEvent(new OpenInventoryChangeEvent(inventory, before, after, changed));
+        }
+    }
+
+    private synchronized void tick() {
+        if (!hasListeners()) {
+            snapshots.clear();
+            modificationCounts.clear();
+            return;
+        }
+
+        plugin.getSpecialInventories().forEach(inventory -> {
+            Long modificationCount = modificationCounts.get(inventory);
+            if (modificationCount != null
+                    && modificationCount == inventory.getModificationCount()
+                    && !inventory.isInUse()) {
+                // Unviewed and not edited through the inventory since the last comparison.
+                return;
+            }
+
+            Runnable compare = () -> {
+                if (snapshots.containsKey(inventory)) {
+                    flush(inventory);
+                } else {
+                    track(inventory);
+                }
+            };
+            if (!plugin.getTaskScheduler().isRegionized()) {
+                compare.run();
+            } else {
+                // Inventories may only be read by the thread owning them. Offline owners are not in any region.
+                HumanEntity owner = inventory.getPlayer();
+                Player online = owner instanceof Player player && player.isOnline() ? player : null;
+                plugin.getTaskScheduler().run(online, compare);
+            }
+        });
+    }
+
+    private static boolean hasListeners() {
+        return OpenInventoryChangeEvent.getHandlerList().getRegisteredListeners().length > 0;
+    }
+
+    private static @Nullable InventorySnapshot.Item getItem(@NotNull InventorySnapshot snapshot, int slot) {
+        return slot < snapshot.getSize() ? snapshot.getItem(slot) : null;
+    }
+
+    private static boolean isSame(@Nullable InventorySnapshot.Item before, @Nullable InventorySnapshot.Item after) {
+        // Unchanged slots share items between snapshots. Different items may still be equal if another plugin's
+        // snapshot saw a change that was reverted within the tick.
+        if (before == after) {
+            return true;
+        }
+        return before != null && after != null
+                && before.getType() == after.getType()
+                && before.getAmount() == after.getAmount()
+                && Objects.equals(before.getTag(), after.getTag());
+    }
+
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Diagnostic tracker for offline players and special inventories that stay in memory after OpenInv is done with them.
+ *
+ * <p>Instances are held weakly. Once OpenInv no longer retains an instance, it is expected to be collected; if it is
+ * still reachable after the configured delay, it is reported once along with the stack trace of the call that loaded
+ * it. As collection depends on the garbage collector, a single report may be a false positive, but instances that pile
+ * up point to an integration holding references.
+ */
+final class LeakDetector {
+
+    private static final long CHECK_TICKS = 20L * 60;
+
+    private final OpenInv plugin;
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final Set<Tracked> tracked = new HashSet<>();
+    private final long reportMillis;
+
+    LeakDetector(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+        long minutes = Math.max(1, plugin.getConfig().getLong("settings.leak-detector.report-after-minutes", 10));
+        this.reportMillis = TimeUnit.MINUTES.toMillis(minutes);
+    }
+
+    /**
+     * Start periodically checking tracked instances.
+     */
+    void start() {
+        plugin.getTaskScheduler().runTimer(this::check, CHECK_TICKS, CHECK_TICKS);
+    }
+
+    /**
+     * Track an instance loaded by OpenInv.
+     *
+     * @param instance the player or special inventory
+     * @param owner the {@link UUID} of the player the instance belongs to
+     * @param site the trace of the call that caused the load
+     */
+    synchronized void track(@NotNull Object instance, @NotNull UUID owner, @NotNull Throwable site) {
+        tracked.add(new Tracked(instance, queue, owner, site));
+    }
+
+    private synchronized void check() {
+        // Drop collected instances.
+        for (Object reference = queue.poll(); reference != null; reference = queue.poll()) {
+            tracked.remove(reference);
+        }
+
+        long now = System.currentTimeMillis();
+        int leaked = 0;
+        for (Tracked reference : tracked) {
+            Object instance = reference.get();
+            if (instance == null) {
+                continue;
+            }
+
+            if (plugin.isRetained(reference.owner, instance)) {
+                reference.releasedAt = 0;
+                continue;
+            }
+
+            if (reference.releasedAt == 0) {
+                reference.releasedAt = now;
+                continue;
+            }
+
+            if (now - reference.releasedAt < reportMillis) {
+                continue;
+            }
+
+            ++leaked;
+            if (!reference.reported) {
+                reference.reported = true;
+                plugin.getLogger().log(
+                        Level.WARNING,
+                        String.format(
+                                "%s for %s is still in memory %d minutes after OpenInv released it",
+                                reference.type,
+                                reference.owner,
+                                TimeUnit.MILLISECONDS.toMinutes(now - reference.releasedAt)),
+                        reference.site);
+            }
+        }
+
+        if (leaked > 0) {
+            plugin.getLogger().warning(leaked + " instances released by OpenInv are still in memory.");
+        }
+    }
+
+    private static final class Tracked extends WeakReference<Object> {
+
+        private final UUID owner;
+        private final String type;
+        private final Throwable site;
+        private long releasedAt;
+        private boolean reported;
+
+        private Tracked(
+                @NotNull Object referent,
+                @NotNull ReferenceQueue<Object> queue,
+                @NotNull UUID owner,
+                @NotNull Throwable site) {
+            super(referent, queue);
+            this.owner = owner;
+            this.type = referent.getClass().getSimpleName();
+            this.site = site;
+        }
+
+    }
+
+}
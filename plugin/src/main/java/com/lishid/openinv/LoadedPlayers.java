@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv;
+
+import com.lishid.openinv.search.PlayerDataSearch;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import org.bukkit.GameMode;
+import org.bukkit.Location;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Registry of players loaded by OpenInv while offline, including players held by {@link PlayerLease LoadedPlayers}.
+ *
+ * <p>Methods changing lease counts or tracked players synchronize on the registry; leases may be closed from any thread,
+ * and regionized servers load players from several region threads at once. Players without leases or open special
+ * inventories are dropped once they have not been accessed for the configured idle time, or sooner, least recently
+ * accessed first, if more players are loaded than the configured maximum.
+ *
+ * <p>Dropped players are only saved if they changed since they were loaded or last saved. Each entry keeps a copy of
+ * the player's inventories and basic state, so read-only access never rewrites the data file or replaces the
+ * {@code .dat_old} backup.
+ */
+public final class LoadedPlayers {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+    /** Rough heap cost of a loaded player excluding their saved data: entity, containers, stats and advancements. */
+    private static final long BYTES_PER_PLAYER = 48 * 1024;
+    /** Rough expansion of uncompressed saved data once parsed into items and entity state. */
+    private static final long DATA_EXPANSION = 3;
+    private static final long SWEEP_TICKS = 100;
+
+    private final OpenInv plugin;
+    private final Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    LoadedPlayers(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Start periodically unloading idle players.
+     */
+    void start() {
+        plugin.getTaskScheduler().runTimer(this::sweep, SWEEP_TICKS, SWEEP_TICKS);
+    }
+
+    /**
+     * Get a tracked player without counting as access.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return the tracked player or null if the player is not tracked
+     */
+    @Nullable Player get(@NotNull UUID playerId) {
+        Entry entry = entries.get(playerId);
+        return entry == null || entry.stale ? null : entry.player;
+    }
+
+    /**
+     * Get a tracked player and reset their idle time.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return the tracked player or null if the player is not tracked
+     */
+    synchronized @Nullable Player access(@NotNull UUID playerId) {
+        Entry entry = entries.get(playerId);
+        if (entry == null || entry.stale) {
+            // Stale entries are replaced by the caller loading the player again.
+            return null;
+        }
+        entry.touch();
+        return entry.player;
+    }
+
+    /**
+     * Track a newly loaded offline player.
+     *
+     * @param player the loaded player
+     * @return the player
+     */
+    synchronized @Nullable Player track(@Nullable Player player) {
+        if (player != null) {
+            Entry entry = entries.get(player.getUniqueId());
+            if (entry != null && entry.stale) {
+                // Leases of a player who logged out move to the freshly loaded copy.
+                entry.player = player;
+                entry.saved = State.capture(player);
+                entry.stale = false;
+            } else {
+                entries.putIfAbsent(player.getUniqueId(), new Entry(player, estimateBytes(player)));
+            }
+            sweep();
+        }
+        return player;
+    }
+
+    /**
+     * Lease a player. Must be called on a tick thread.
+     *
+     * @param offline the player
+     * @param owner the plugin holding the lease
+     * @return the lease or null if the player cannot be loaded
+     */
+    synchronized @Nullable PlayerLease lease(@NotNull OfflinePlayer offline, @NotNull Plugin owner) {
+        // Shares any instance already in use by OpenInv.
+        Player player = plugin.loadPlayer(offline);
+        if (player == null) {
+            return null;
+        }
+
+        UUID playerId = player.getUniqueId();
+        Entry entry = entries.computeIfAbsent(playerId, key -> new Entry(player, estimateBytes(player)));
+        ++entry.count;
+        entry.touch();
+        boolean trace = plugin.getConfig().getBoolean("settings.lease.leak-traces", false);
+        return new Lease(this, playerId, owner, trace ? new Throwable("Lease acquired here") : null);
+    }
+
+    private synchronized void release(@NotNull UUID playerId) {
+        Entry entry = entries.get(playerId);
+        if (entry != null) {
+            --entry.count;
+            // Idle time starts when the last lease is released.
+            entry.touch();
+        }
+    }
+
+    /**
+     * Save and drop idle players, then the least recently accessed players while over the maximum. Must be called on
+     * a tick thread.
+     */
+    synchronized void sweep() {
+        long now = System.currentTimeMillis();
+        long idleMillis = getIdleSeconds() * 1000;
+        int max = getMaxLoaded();
+
+        List<Map.Entry<UUID, Entry>> evictable = new ArrayList<>();
+        for (Map.Entry<UUID, Entry> mapping : entries.entrySet()) {
+            Entry entry = mapping.getValue();
+            if (entry.count > 0) {
+                continue;
+            }
+            if (entry.player.isOnline()) {
+                // The server owns online players.
+                entries.remove(mapping.getKey(), entry);
+            } else if (plugin.isSpecialInventoryLoaded(mapping.getKey())) {
+                // Closing the inventory saves the player. Idle time starts afterwards.
+                entry.touch();
+            } else {
+                evictable.add(mapping);
+            }
+        }
+
+        evictable.sort(Comparator.comparingLong(mapping -> mapping.getValue().lastAccess));
+        int excess = entries.size() - max;
+        for (Map.Entry<UUID, Entry> mapping : evictable) {
+            Entry entry = mapping.getValue();
+            if ((excess > 0 || now - entry.lastAccess >= idleMillis) && evict(mapping.getKey(), entry)) {
+                --excess;
+            }
+        }
+    }
+
+    private boolean evict(@NotNull UUID playerId, @NotNull Entry entry) {
+        // Removal and save hold the file lock so that file edits never run between them.
+        try (PlayerDataWriter.FileLock ignored = plugin.lockPlayerFile(playerId)) {
+            if (!entries.remove(playerId, entry)) {
+                return false;
+            }
+            evict(entry);
+            return true;
+        }
+    }
+
+    private void evict(@NotNull Entry entry) {
+        Player player = entry.player;
+        // Online players and players with open special inventories are saved elsewhere. Stale copies were saved by the
+        // server when the player logged out.
+        if (entry.stale
+                || player.isOnline()
+                || plugin.isSpecialInventoryLoaded(player.getUniqueId())
+                || !entry.isDirty()) {
+            return;
+        }
+        plugin.saveOfflinePlayer(player);
+    }
+
+    /**
+     * Record that a tracked player was saved, so they are not saved again when dropped unless changed further. Must be
+     * called on a tick thread.
+     *
+     * @param player the saved player
+     */
+    synchronized void markSaved(@NotNull Player player) {
+        Entry entry = entries.get(player.getUniqueId());
+        if (entry != null && entry.player == player) {
+            entry.saved = State.capture(player);
+        }
+    }
+
+    /**
+     * Save and drop a player unless they are leased. Must be called on a tick thread.
+     *
+     * @param playerId the player's {@link UUID}
+     */
+    synchronized void unload(@NotNull UUID playerId) {
+        Entry entry = entries.get(playerId);
+        if (entry != null && entry.count <= 0) {
+            evict(playerId, entry);
+        }
+    }
+
+    /**
+     * Save a changed tracked copy of a player before the server loads their data for login.
+     *
+     * @param playerId the player's {@link UUID}
+     */
+    synchronized void onLogin(@NotNull UUID playerId) {
+        Entry entry = entries.get(playerId);
+        if (entry != null
+                && !entry.stale
+                && !entry.player.isOnline()
+                && !plugin.isSpecialInventoryLoaded(playerId)
+                && entry.isDirty()) {
+            plugin.saveOfflinePlayer(entry.player);
+            entry.saved = State.capture(entry.player);
+        }
+    }
+
+    /**
+     * Replace a leased copy of a player with the online instance and stop tracking unleased copies.
+     *
+     * @param player the player who joined
+     */
+    synchronized void onJoin(@NotNull Player player) {
+        Entry entry = entries.get(player.getUniqueId());
+        if (entry == null) {
+            return;
+        }
+        if (entry.count > 0) {
+            entry.player = player;
+            entry.stale = false;
+        } else {
+            entries.remove(player.getUniqueId(), entry);
+        }
+    }
+
+    /**
+     * Stop handing out the instance of a player who logged out. Leased entries are loaded again from the data the
+     * server saves on logout when next accessed; unleased entries are dropped.
+     *
+     * @param player the player who quit
+     */
+    synchronized void onQuit(@NotNull Player player) {
+        Entry entry = entries.get(player.getUniqueId());
+        if (entry == null || entry.player != player) {
+            return;
+        }
+        if (entry.count > 0) {
+            entry.stale = true;
+        } else {
+            entries.remove(player.getUniqueId(), entry);
+        }
+    }
+
+    /**
+     * Save all tracked offline players. Called when the plugin is disabled.
+     */
+    synchronized void saveAll() {
+        for (Entry entry : entries.values()) {
+            evict(entry);
+        }
+        entries.clear();
+    }
+
+    /**
+     * Get the time players are kept after they were last accessed.
+     *
+     * @return the idle time in seconds
+     */
+    public long getIdleSeconds() {
+        return Math.max(0, plugin.getConfig().getLong("settings.loaded-players.idle-seconds", 60));
+    }
+
+    /**
+     * Get the number of players kept before the least recently accessed are unloaded early. Leased players and players
+     * with open inventories may exceed the limit.
+     *
+     * @return the maximum number of loaded players
+     */
+    public int getMaxLoaded() {
+        return Math.max(0, plugin.getConfig().getInt("settings.loaded-players.max", 50));
+    }
+
+    /**
+     * Get the state of all tracked players, largest first.
+     *
+     * @return the tracked players
+     */
+    public @NotNull List<Status> getStatus() {
+        long now = System.currentTimeMillis();
+        List<Status> status = new ArrayList<>();
+        for (Map.Entry<UUID, Entry> mapping : entries.entrySet()) {
+            Entry entry = mapping.getValue();
+            status.add(new Status(
+                    entry.player,
+                    entry.count,
+                    plugin.isSpecialInventoryLoaded(mapping.getKey()),
+                    Math.max(0, now - entry.lastAccess),
+                    entry.estimatedBytes));
+        }
+        status.sort(Comparator.comparingLong(Status::estimatedBytes).reversed());
+        return status;
+    }
+
+    private long estimateBytes(@NotNull Player player) {
+        Path file = PlayerDataSearch.getPlayerDataFolder(plugin.getServer()).resolve(player.getUniqueId() + ".dat");
+        if (!Files.isRegularFile(file)) {
+            return BYTES_PER_PLAYER;
+        }
+        // The gzip trailer records the uncompressed size, so the data does not need to be read again.
+        try (RandomAccessFile input = new RandomAccessFile(file.toFile(), "r")) {
+            if (input.length() < 4) {
+                return BYTES_PER_PLAYER;
+            }
+            input.seek(input.length() - 4);
+            long size = Integer.toUnsignedLong(Integer.reverseBytes(input.readInt()));
+            return BYTES_PER_PLAYER + size * DATA_EXPANSION;
+        } catch (IOException e) {
+            return BYTES_PER_PLAYER;
+        }
+    }
+
+    /**
+     * The state of a tracked player.
+     *
+     * @param player the player
+     * @param leases the number of open leases
+     * @param inUse whether a special inventory is loaded for the player
+     * @param idleMillis the time since the player was last accessed
+     * @param estimatedBytes the rough heap cost of the player
+     */
+    public record Status(@NotNull Player player, int leases, boolean inUse, long idleMillis, long estimatedBytes) {}
+
+    private static final class Entry {
+
+        private final long estimatedBytes;
+        private volatile Player player;
+        private volatile long lastAccess = System.currentTimeMillis();
+        private int count;
+        private @NotNull State saved;
+        private volatile boolean stale;
+
+        private Entry(@NotNull Player player, long estimatedBytes) {
+            this.player = player;
+            this.estimatedBytes = estimatedBytes;
+            this.saved = State.capture(player);
+        }
+
+        private void touch() {
+            lastAccess = System.currentTimeMillis();
+        }
+
+        private boolean isDirty() {
+            return !saved.matches(player);
+        }
+
+    }
+
+    /**
+     * The saved state of a player compared to detect changes: inventories and the values commonly edited through the
+     * API.
+     */
+    private record State(
+            ItemStack @NotNull [] inventory,
+            ItemStack @NotNull [] enderChest,
+            int totalExperience,
+            int level,
+            float exp,
+            double health,
+            int foodLevel,
+            float saturation,
+            @NotNull GameMode gameMode,
+            @NotNull Location location) {
+
+        private static @NotNull State capture(@NotNull Player player) {
+            return new State(
+                    copy(player.getInventory().getContents()),
+                    copy(player.getEnderChest().getContents()),
+                    player.getTotalExperience(),
+                    player.getLevel(),
+                    player.getExp(),
+                    player.getHealth(),
+                    player.getFoodLevel(),
+                    player.getSaturation(),
+                    player.getGameMode(),
+                    player.getLocation());
+        }
+
+        private static ItemStack @NotNull [] copy(ItemStack @NotNull [] contents) {
+            // Inventory contents mirror the live stacks, so they must be copied to detect later edits.
+            ItemStack[] copy = new ItemStack[contents.length];
+            for (int i = 0; i < contents.length; ++i) {
+                copy[i] = contents[i] == null ? null : contents[i].clone();
+            }
+            return copy;
+        }
+
+        private boolean matches(@NotNull Player player) {
+            return totalExperience == player.getTotalExperience()
+                    && level == player.getLevel()
+                    && Float.compare(exp, player.getExp()) == 0
+                    && Double.compare(health, player.getHealth()) == 0
+                    && foodLevel == player.getFoodLevel()
+                    && Float.compare(saturation, player.getSaturation()) == 0
+                    && gameMode == player.getGameMode()
+                    && location.equals(player.getLocation())
+                    && Arrays.equals(inventory, player.getInventory().getContents())
+                    && Arrays.equals(enderChest, player.getEnderChest().getContents());
+        }
+
+    }
+
+    /**
+     * Releases a lease once, either when closed or when the lease is garbage collected without being closed.
+     */
+    private record Release(
+            @NotNull LoadedPlayers leases,
+            @NotNull UUID playerId,
+            @NotNull String owner,
+            @Nullable Throwable trace,
+            @NotNull AtomicBoolean closed) implements Runnable {
+
+        @Override
+        public void run() {
+            if (!closed.getAndSet(true)) {
+                String message = "A player lease held by " + owner + " for " + playerId + " was never closed";
+                if (trace != null) {
+                    leases.plugin.getLogger().log(Level.WARNING, message, trace);
+                } else {
+                    leases.plugin.getLogger().warning(message + ". Enable settings.lease.leak-traces to find where it was acquired.");
+                }
+            }
+            leases.release(playerId);
+        }
+
+    }
+
+    private static final class Lease implements PlayerLease {
+
+        private final LoadedPlayers leases;
+        private final UUID playerId;
+        private final Plugin owner;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final Cleaner.Cleanable cleanable;
+
+        private Lease(@NotNull LoadedPlayers leases, @NotNull UUID playerId, @NotNull Plugin owner, @Nullable Throwable trace) {
+            this.leases = leases;
+            this.playerId = playerId;
+            this.owner = owner;
+            // The cleanup action must not reference the lease, or the lease could never be collected.
+            this.cleanable = CLEANER.register(this, new Release(leases, playerId, owner.getName(), trace, closed));
+        }
+
+        @Override
+        public @NotNull Player getPlayer() {
+            Entry entry = leases.entries.get(playerId);
+            if (closed.get() || entry == null) {
+                throw new IllegalStateException("Lease is closed");
+            }
+            if (entry.stale) {
+                // The player logged out; loading them again replaces the entry's copy.
+                leases.plugin.loadPlayer(leases.plugin.getServer().getOfflinePlayer(playerId));
+            }
+            return entry.player;
+        }
+
+        @Override
+        public @NotNull Plugin getPlugin() {
+            return owner;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed.get();
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                cleanable.clean();
+            }
+        }
+
+    }
+
+}
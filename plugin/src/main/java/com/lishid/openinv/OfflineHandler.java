@@ -20,22 +20,22 @@ import com.lishid.openinv.internal.ISpecialInventory;
 import com.lishid.openinv.util.Permissions;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
-import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
 
 record OfflineHandler(
         @NotNull BiFunction<Map<UUID, ? extends ISpecialInventory>, UUID, ISpecialInventory> fetch,
-        @NotNull Consumer<@NotNull ISpecialInventory> handle) {
+        @NotNull BiConsumer<@NotNull OpenInv, @NotNull ISpecialInventory> handle) {
 
     static final OfflineHandler REMOVE_AND_CLOSE = new OfflineHandler(
             Map::remove,
-            inventory -> OpenInv.ejectViewers(inventory, viewer -> true)
+            (plugin, inventory) -> plugin.ejectViewers(inventory, viewer -> true)
     );
 
     static final OfflineHandler REQUIRE_PERMISSIONS = new OfflineHandler(
             Map::get,
-            inventory -> OpenInv.ejectViewers(inventory, viewer -> !Permissions.OPENOFFLINE.hasPermission(viewer))
+            (plugin, inventory) -> plugin.ejectViewers(inventory, viewer -> !Permissions.OPENOFFLINE.hasPermission(viewer))
     );
 
 }
@@ -18,29 +18,48 @@ package com.lishid.openinv;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.lishid.openinv.commands.AuditItemsCommand;
+import com.lishid.openinv.commands.BulkEditCommand;
+import com.lishid.openinv.commands.InventoryArchiveCommand;
 import com.lishid.openinv.commands.ContainerSettingCommand;
 import com.lishid.openinv.commands.OpenInvCommand;
 import com.lishid.openinv.commands.SearchContainerCommand;
+import com.lishid.openinv.commands.SearchDuplicatesCommand;
 import com.lishid.openinv.commands.SearchEnchantCommand;
 import com.lishid.openinv.commands.SearchInvCommand;
+import com.lishid.openinv.commands.SearchPlayersCommand;
 import com.lishid.openinv.event.OpenPlayerSaveEvent;
+import com.lishid.openinv.history.InventoryHistory;
 import com.lishid.openinv.internal.IAnySilentContainer;
+import com.lishid.openinv.internal.IItemScanner;
 import com.lishid.openinv.internal.ISpecialEnderChest;
 import com.lishid.openinv.internal.ISpecialInventory;
 import com.lishid.openinv.internal.ISpecialPlayerInventory;
+import com.lishid.openinv.search.ContainerIndex;
+import com.lishid.openinv.search.PlayerDataIndex;
+import com.lishid.openinv.search.PlayerDataSearch;
+import com.lishid.openinv.search.SearchJobManager;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.search.WatchList;
 import com.lishid.openinv.util.ConfigUpdater;
 import com.lishid.openinv.util.Permissions;
 import com.lishid.openinv.util.StringMetric;
 import com.lishid.openinv.util.lang.LanguageManager;
 import com.lishid.openinv.util.lang.Replacement;
+import com.lishid.openinv.util.scheduler.TaskScheduler;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -57,6 +76,7 @@ import org.bukkit.entity.HumanEntity;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.InventoryView;
+import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.bukkit.profile.PlayerProfile;
@@ -73,11 +93,23 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
     private final Cache<String, PlayerProfile> offlineLookUpCache = CacheBuilder.newBuilder().maximumSize(10).build();
     private final Map<UUID, ISpecialPlayerInventory> inventories = new ConcurrentHashMap<>();
     private final Map<UUID, ISpecialEnderChest> enderChests = new ConcurrentHashMap<>();
+    private final Map<String, SearchResults> searchResults = new ConcurrentHashMap<>();
 
     private InternalAccessor accessor;
     private LanguageManager languageManager;
     private boolean isSpigot = false;
     private OfflineHandler offlineHandler;
+    private @Nullable ExecutorService searchExecutor;
+    private SearchJobManager searchJobs;
+    private @Nullable ContainerIndex containerIndex;
+    private @Nullable PlayerDataIndex playerDataIndex;
+    private WatchList watchList;
+    private @Nullable InventoryHistory inventoryHistory;
+    private LoadedPlayers loadedPlayers;
+    private PlayerDataWriter playerDataWriter;
+    private InventoryChangeTracker changeTracker;
+    private @Nullable LeakDetector leakDetector;
+    private TaskScheduler scheduler;
 
     @Override
     public void reloadConfig() {
@@ -96,6 +128,28 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
 
     @Override
     public void onDisable() {
+        if (this.searchJobs != null) {
+            this.searchJobs.shutdown();
+        }
+
+        if (this.searchExecutor != null) {
+            this.searchExecutor.shutdownNow();
+            this.searchExecutor = null;
+        }
+
+        if (this.inventoryHistory != null) {
+            this.inventoryHistory.shutdown();
+            this.inventoryHistory = null;
+        }
+
+        if (this.playerDataWriter != null) {
+            this.playerDataWriter.shutdown();
+        }
+
+        if (this.loadedPlayers != null) {
+            this.loadedPlayers.saveAll();
+        }
+
         if (this.disableSaving()) {
             return;
         }
@@ -127,7 +181,12 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
         // Get plugin manager
         PluginManager pm = this.getServer().getPluginManager();
 
+        this.scheduler = TaskScheduler.create(this);
         this.accessor = new InternalAccessor(this);
+        this.searchJobs = new SearchJobManager(this);
+        this.loadedPlayers = new LoadedPlayers(this);
+        this.playerDataWriter = new PlayerDataWriter(this);
+        this.changeTracker = new InventoryChangeTracker(this);
 
         this.languageManager = new LanguageManager(this, "en_us");
         this.offlineHandler = disableOfflineAccess() ? OfflineHandler.REMOVE_AND_CLOSE : OfflineHandler.REQUIRE_PERMISSIONS;
@@ -145,15 +204,48 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
             // Update existing configuration. May require internal access.
             new ConfigUpdater(this).checkForUpdates();
 
+            this.loadedPlayers.start();
+            this.changeTracker.start();
+            if (this.getConfig().getBoolean("settings.leak-detector.enabled", false)) {
+                this.leakDetector = new LeakDetector(this);
+                this.leakDetector.start();
+            }
+
             // Register listeners
             pm.registerEvents(new PlayerListener(this), this);
             pm.registerEvents(new InventoryListener(this), this);
+            this.watchList = new WatchList(this);
+            pm.registerEvents(this.watchList, this);
+            if (this.getConfig().getBoolean("settings.search.index.enabled", false)) {
+                this.containerIndex = new ContainerIndex(this);
+                pm.registerEvents(this.containerIndex, this);
+            }
+            if (this.getConfig().getBoolean("settings.history.enabled", false)) {
+                this.inventoryHistory = new InventoryHistory(this);
+                long interval = InventoryHistory.getInterval(this);
+                if (interval > 0) {
+                    this.scheduler.runTimer(this::captureInUse, interval, interval);
+                }
+            }
+            if (this.getConfig().getBoolean("settings.search.player-index.enabled", false)) {
+                this.playerDataIndex = new PlayerDataIndex(this);
+                pm.registerEvents(this.playerDataIndex, this);
+                this.playerDataIndex.build().exceptionally(throwable -> {
+                    this.getLogger().log(Level.WARNING, "Unable to build player data index", throwable);
+                    return null;
+                });
+            }
 
             // Register commands to their executors
             this.setCommandExecutor(new OpenInvCommand(this), "openinv", "openender");
             this.setCommandExecutor(new SearchContainerCommand(this), "searchcontainer");
             this.setCommandExecutor(new SearchInvCommand(this), "searchinv", "searchender");
             this.setCommandExecutor(new SearchEnchantCommand(this), "searchenchant");
+            this.setCommandExecutor(new SearchPlayersCommand(this), "searchplayers");
+            this.setCommandExecutor(new SearchDuplicatesCommand(this), "searchduplicates");
+            this.setCommandExecutor(new AuditItemsCommand(this), "audititems");
+            this.setCommandExecutor(new BulkEditCommand(this), "bulkedit");
+            this.setCommandExecutor(new InventoryArchiveCommand(this), "invarchive");
             this.setCommandExecutor(new ContainerSettingCommand(this), "silentcontainer", "anycontainer");
 
         } else {
@@ -184,6 +276,24 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
         }
     }
 
+    /**
+     * Get the executor used for off-thread searches of saved data.
+     *
+     * @return the search executor
+     */
+    public synchronized @NotNull ExecutorService getSearchExecutor() {
+        if (this.searchExecutor == null) {
+            int threads = Math.max(1, this.getConfig().getInt("settings.search.worker-threads", 2));
+            AtomicInteger threadId = new AtomicInteger();
+            this.searchExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "OpenInv Search Worker " + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.searchExecutor;
+    }
+
     @Override
     public boolean isSupportedVersion() {
         return this.accessor != null && this.accessor.isSupported();
@@ -209,6 +319,155 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
         return this.accessor.getAnySilentContainer();
     }
 
+    /**
+     * Get the active {@link IItemScanner} implementation.
+     *
+     * @return the active implementation for the server version
+     * @throws IllegalStateException if the server version is unsupported
+     */
+    public @NotNull IItemScanner getItemScanner() {
+        return this.accessor.getItemScanner();
+    }
+
+    /**
+     * Get the maximum depth to search inside container items such as shulker boxes and bundles.
+     *
+     * @return the maximum nested search depth, 0 to search top-level items only
+     */
+    public int getNestedSearchDepth() {
+        return Math.max(0, this.getConfig().getInt("settings.search.nested-depth", 2));
+    }
+
+    /**
+     * Get the scheduler for tasks that must run on the main thread or, on regionized servers, the owning region.
+     *
+     * @return the task scheduler
+     */
+    public @NotNull TaskScheduler getTaskScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Get the queue of running and pending searches.
+     *
+     * @return the search job manager
+     */
+    public @NotNull SearchJobManager getSearchJobs() {
+        return this.searchJobs;
+    }
+
+    /**
+     * Get the index of loaded container contents.
+     *
+     * @return the container index or null if indexing is disabled
+     */
+    public @Nullable ContainerIndex getContainerIndex() {
+        return this.containerIndex;
+    }
+
+    /**
+     * Get the index of scalar player data fields.
+     *
+     * @return the player data index or null if indexing is disabled
+     */
+    public @Nullable PlayerDataIndex getPlayerDataIndex() {
+        return this.playerDataIndex;
+    }
+
+    /**
+     * Get the list of flagged item queries.
+     *
+     * @return the watch list
+     */
+    public @NotNull WatchList getWatchList() {
+        return this.watchList;
+    }
+
+    /**
+     * Get the offline players loaded by OpenInv.
+     *
+     * @return the loaded players
+     */
+    public @NotNull LoadedPlayers getLoadedPlayers() {
+        return this.loadedPlayers;
+    }
+
+    /**
+     * Get the snapshot history of player inventories and ender chests.
+     *
+     * @return the inventory history or null if history is disabled
+     */
+    public @Nullable InventoryHistory getInventoryHistory() {
+        return this.inventoryHistory;
+    }
+
+    private void captureInUse() {
+        if (this.inventoryHistory == null) {
+            return;
+        }
+        for (ISpecialInventory inventory : inventories.values()) {
+            if (inventory.isInUse()) {
+                this.inventoryHistory.capture(inventory.getPlayer(), InventoryHistory.Kind.INVENTORY, InventoryHistory.Reason.INTERVAL);
+            }
+        }
+        for (ISpecialInventory inventory : enderChests.values()) {
+            if (inventory.isInUse()) {
+                this.inventoryHistory.capture(inventory.getPlayer(), InventoryHistory.Kind.ENDER_CHEST, InventoryHistory.Reason.INTERVAL);
+            }
+        }
+    }
+
+    private void captureHistory(@NotNull ISpecialInventory inventory, @NotNull InventoryHistory.Reason reason) {
+        if (this.inventoryHistory != null) {
+            InventoryHistory.Kind kind = inventory instanceof ISpecialPlayerInventory
+                    ? InventoryHistory.Kind.INVENTORY
+                    : InventoryHistory.Kind.ENDER_CHEST;
+            this.inventoryHistory.capture(inventory.getPlayer(), kind, reason);
+        }
+    }
+
+    /**
+     * Get the number of search results shown per page.
+     *
+     * @return the number of results per page
+     */
+    public int getSearchPageSize() {
+        return Math.max(1, this.getConfig().getInt("settings.search.page-size", 10));
+    }
+
+    /**
+     * Get the maximum number of search results kept per search.
+     *
+     * @return the maximum number of results
+     */
+    public int getSearchMaxResults() {
+        return Math.max(1, this.getConfig().getInt("settings.search.max-results", 10000));
+    }
+
+    /**
+     * Get the most recent search results of a {@link CommandSender}.
+     *
+     * @param sender the sender
+     * @return the sender's results or null if the sender has not searched
+     */
+    public @Nullable SearchResults getSearchResults(@NotNull CommandSender sender) {
+        return this.searchResults.get(getResultsKey(sender));
+    }
+
+    /**
+     * Replace the search results of a {@link CommandSender}.
+     *
+     * @param sender the sender
+     * @param results the new results
+     */
+    public void setSearchResults(@NotNull CommandSender sender, @NotNull SearchResults results) {
+        this.searchResults.put(getResultsKey(sender), results);
+    }
+
+    private @NotNull String getResultsKey(@NotNull CommandSender sender) {
+        return sender instanceof Player player ? player.getUniqueId().toString() : sender.getName();
+    }
+
     @Override
     public boolean getAnyContainerStatus(@NotNull final OfflinePlayer offline) {
         boolean defaultState = false;
@@ -254,13 +513,20 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
             throws InstantiationException {
         UUID key = player.getUniqueId();
 
-        if (this.enderChests.containsKey(key)) {
-            return this.enderChests.get(key);
-        }
+        synchronized (this.enderChests) {
+            ISpecialEnderChest inv = this.enderChests.get(key);
+            if (inv != null) {
+                return inv;
+            }
 
-        ISpecialEnderChest inv = this.accessor.newSpecialEnderChest(player, online);
-        this.enderChests.put(key, inv);
-        return inv;
+            inv = this.accessor.newSpecialEnderChest(player, online);
+            this.enderChests.put(key, inv);
+            this.changeTracker.track(inv);
+            if (this.leakDetector != null) {
+                this.leakDetector.track(inv, key, new Throwable("Ender chest created here"));
+            }
+            return inv;
+        }
     }
 
     @Override
@@ -268,22 +534,124 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
             throws InstantiationException {
         UUID key = player.getUniqueId();
 
-        if (this.inventories.containsKey(key)) {
-            return this.inventories.get(key);
-        }
+        synchronized (this.inventories) {
+            ISpecialPlayerInventory inv = this.inventories.get(key);
+            if (inv != null) {
+                return inv;
+            }
 
-        ISpecialPlayerInventory inv = this.accessor.newSpecialPlayerInventory(player, online);
-        this.inventories.put(key, inv);
-        return inv;
+            inv = this.accessor.newSpecialPlayerInventory(player, online);
+            this.inventories.put(key, inv);
+            this.changeTracker.track(inv);
+            if (this.leakDetector != null) {
+                this.leakDetector.track(inv, key, new Throwable("Inventory created here"));
+            }
+            return inv;
+        }
     }
 
     @Override
     public @Nullable InventoryView openInventory(@NotNull Player player, @NotNull ISpecialInventory inventory) {
+        captureHistory(inventory, InventoryHistory.Reason.OPEN);
         return this.accessor.getPlayerDataManager().openInventory(player, inventory);
     }
 
+    @Override
+    public @Nullable PlayerLease leasePlayer(@NotNull OfflinePlayer offline, @NotNull Plugin plugin) {
+        if (Bukkit.isPrimaryThread()) {
+            return this.loadedPlayers.lease(offline, plugin);
+        }
+
+        try {
+            return callSync(() -> this.loadedPlayers.lease(offline, plugin)).get();
+        } catch (InterruptedException | ExecutionException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Save an offline player loaded by OpenInv unless saving is disabled. Callers only save players that changed.
+     *
+     * @param player the player
+     */
+    void saveOfflinePlayer(@NotNull Player player) {
+        if (disableSaving() || player.isOnline()) {
+            return;
+        }
+        this.playerDataWriter.await(player.getUniqueId());
+        this.accessor.getPlayerDataManager().inject(player).saveData();
+    }
+
+    /**
+     * Method for handling a Player being allowed to log in, before their data is loaded.
+     *
+     * @param playerUuid the {@link UUID} of the Player
+     */
+    void handleLogin(@NotNull UUID playerUuid) {
+        // The server reads the player's data after this; pending writes and file edits must land first.
+        try (PlayerDataWriter.FileLock ignored = this.playerDataWriter.lock(playerUuid)) {
+            this.playerDataWriter.startLogin(playerUuid);
+            this.playerDataWriter.await(playerUuid);
+        }
+        this.loadedPlayers.onLogin(playerUuid);
+    }
+
+    /**
+     * Lock a player's saved data file.
+     *
+     * @param playerUuid the {@link UUID} of the player
+     * @return the held lock
+     */
+    @NotNull PlayerDataWriter.FileLock lockPlayerFile(@NotNull UUID playerUuid) {
+        return this.playerDataWriter.lock(playerUuid);
+    }
+
+    /**
+     * Edit a player's saved data file unless the server or OpenInv holds a copy of the player that would overwrite it.
+     * The edit runs on the calling thread while holding the player's file lock, which logins, loads and saves of
+     * offline players also take.
+     *
+     * @param playerUuid the {@link UUID} of the player
+     * @param edit the edit
+     * @return true if the edit ran, false if the player is online, logging in, or loaded
+     * @throws IOException if the edit fails
+     */
+    public boolean editOfflinePlayerFile(@NotNull UUID playerUuid, @NotNull PlayerDataSearch.FileEdit edit)
+            throws IOException {
+        try (PlayerDataWriter.FileLock ignored = this.playerDataWriter.lock(playerUuid)) {
+            if (getServer().getPlayer(playerUuid) != null
+                    || this.playerDataWriter.isLoggingIn(playerUuid)
+                    || isPlayerLoaded(playerUuid)) {
+                return false;
+            }
+            this.playerDataWriter.await(playerUuid);
+            edit.edit();
+            return true;
+        }
+    }
+
     @Override
     public boolean isPlayerLoaded(@NotNull UUID playerUuid) {
+        return isSpecialInventoryLoaded(playerUuid) || this.loadedPlayers.get(playerUuid) != null;
+    }
+
+    /**
+     * Get all loaded special inventories and ender chests.
+     *
+     * @return the loaded special inventories
+     */
+    @NotNull Stream<ISpecialInventory> getSpecialInventories() {
+        return Stream.concat(this.inventories.values().stream(), this.enderChests.values().stream());
+    }
+
+    /**
+     * Check if a player has a special inventory or ender chest loaded.
+     *
+     * @param playerUuid the player's {@link UUID}
+     * @return true if a special inventory is loaded
+     */
+    boolean isSpecialInventoryLoaded(@NotNull UUID playerUuid) {
         return this.inventories.containsKey(playerUuid) || this.enderChests.containsKey(playerUuid);
     }
 
@@ -304,19 +672,24 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
             return player;
         }
 
+        player = this.loadedPlayers.access(key);
+        if (player != null) {
+            return player;
+        }
+
         if (disableOfflineAccess() || !this.isSupportedVersion()) {
             return null;
         }
 
+        // Record the original caller; loading may be handed off to the main thread.
+        Throwable site = this.leakDetector != null ? new Throwable("Player loaded here") : null;
+
         if (Bukkit.isPrimaryThread()) {
-            return this.accessor.getPlayerDataManager().loadPlayer(offline);
+            return loadOfflinePlayer(offline, site);
         }
 
-        Future<Player> future = Bukkit.getScheduler().callSyncMethod(this,
-                () -> OpenInv.this.accessor.getPlayerDataManager().loadPlayer(offline));
-
         try {
-            player = future.get();
+            player = callSync(() -> loadOfflinePlayer(offline, site)).get();
         } catch (InterruptedException | ExecutionException e) {
             e.printStackTrace();
             return null;
@@ -325,6 +698,147 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
         return player;
     }
 
+    @Override
+    public @NotNull CompletableFuture<@Nullable OfflinePlayer> matchPlayerAsync(@NotNull String name) {
+        CompletableFuture<OfflinePlayer> future = new CompletableFuture<>();
+        this.scheduler.runAsync(() -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                OfflinePlayer match = matchPlayer(name);
+                this.scheduler.run(() -> future.complete(match));
+            } catch (RuntimeException e) {
+                this.scheduler.run(() -> future.completeExceptionally(e));
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public @NotNull CompletableFuture<@Nullable Player> loadPlayerAsync(@NotNull OfflinePlayer offline) {
+        return callSync(() -> loadPlayer(offline));
+    }
+
+    @Override
+    public @NotNull CompletableFuture<@Nullable ISpecialPlayerInventory> getSpecialInventoryAsync(
+            @NotNull OfflinePlayer offline) {
+        return callSync(() -> {
+            Player player = loadPlayer(offline);
+            return player == null ? null : getSpecialInventory(player, offline.isOnline());
+        });
+    }
+
+    @Override
+    public @NotNull CompletableFuture<@Nullable ISpecialEnderChest> getSpecialEnderChestAsync(
+            @NotNull OfflinePlayer offline) {
+        return callSync(() -> {
+            Player player = loadPlayer(offline);
+            return player == null ? null : getSpecialEnderChest(player, offline.isOnline());
+        });
+    }
+
+    @Override
+    public @NotNull CompletableFuture<Void> saveAsync(@NotNull Player player) {
+        if (disableSaving()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        callSync(() -> {
+            if (future.isDone()) {
+                // Cancelled or timed out before serialization.
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            if (getServer().getPlayer(player.getUniqueId()) == player) {
+                player.saveData();
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+            Runnable write = this.accessor.getPlayerDataManager().prepareSave(player);
+            this.loadedPlayers.markSaved(player);
+            return this.playerDataWriter.write(player.getUniqueId(), write);
+        }).thenCompose(write -> write).whenComplete((ignored, throwable) -> {
+            if (Bukkit.isPrimaryThread() || !isEnabled()) {
+                complete(future, throwable);
+            } else {
+                this.scheduler.run(() -> complete(future, throwable));
+            }
+        });
+        return future;
+    }
+
+    private static void complete(@NotNull CompletableFuture<Void> future, @Nullable Throwable throwable) {
+        if (throwable == null) {
+            future.complete(null);
+        } else {
+            future.completeExceptionally(throwable);
+        }
+    }
+
+    /**
+     * Run a task on the main thread or global region. If the returned future is cancelled or times out before the task
+     * runs, the task is skipped.
+     *
+     * @param task the task
+     * @return a future completed on a tick thread with the result of the task
+     * @param <T> the type of result
+     */
+    private <T> @NotNull CompletableFuture<T> callSync(@NotNull Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Runnable runnable = () -> {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        if (Bukkit.isPrimaryThread()) {
+            runnable.run();
+        } else {
+            this.scheduler.run(runnable);
+        }
+        return future;
+    }
+
+    private @Nullable Player loadOfflinePlayer(@NotNull OfflinePlayer offline, @Nullable Throwable site) {
+        // Regionized servers may load the same player from several region threads at once.
+        synchronized (this.loadedPlayers) {
+            Player player = this.loadedPlayers.access(offline.getUniqueId());
+            if (player != null) {
+                return player;
+            }
+            try (PlayerDataWriter.FileLock ignored = this.playerDataWriter.lock(offline.getUniqueId())) {
+                player = this.accessor.getPlayerDataManager().loadPlayer(offline);
+            }
+            if (player != null && this.leakDetector != null && site != null) {
+                this.leakDetector.track(player, player.getUniqueId(), site);
+            }
+            return this.loadedPlayers.track(player);
+        }
+    }
+
+    /**
+     * Check if a player or special inventory is still in use by OpenInv or the server.
+     *
+     * @param key the {@link UUID} of the player the instance belongs to
+     * @param instance the player or special inventory
+     * @return true if the instance is retained
+     */
+    boolean isRetained(@NotNull UUID key, @NotNull Object instance) {
+        return getServer().getPlayer(key) == instance
+                || this.loadedPlayers.get(key) == instance
+                || isRetained(this.inventories.get(key), instance)
+                || isRetained(this.enderChests.get(key), instance);
+    }
+
+    private static boolean isRetained(@Nullable ISpecialInventory inventory, @NotNull Object instance) {
+        return inventory != null && (inventory == instance || inventory.getPlayer() == instance);
+    }
+
     @Override
     public @Nullable OfflinePlayer matchPlayer(@NotNull String name) {
 
@@ -417,6 +931,7 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
     @Override
     public void unload(@NotNull final OfflinePlayer offline) {
         setPlayerOffline(offline, OfflineHandler.REMOVE_AND_CLOSE);
+        this.loadedPlayers.unload(offline.getUniqueId());
     }
 
     /**
@@ -494,8 +1009,14 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
     }
 
     public void sendSystemMessage(@NotNull Player player, @NotNull String key) {
-        String message = getLocalizedMessage(player, key);
+        sendActionBar(player, getLocalizedMessage(player, key));
+    }
 
+    public void sendSystemMessage(@NotNull Player player, @NotNull String key, Replacement @NotNull... replacements) {
+        sendActionBar(player, getLocalizedMessage(player, key, replacements));
+    }
+
+    private void sendActionBar(@NotNull Player player, @Nullable String message) {
         if (message == null) {
             return;
         }
@@ -519,7 +1040,9 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
      * @param player the Player
      */
     void setPlayerOffline(@NotNull Player player) {
+        this.searchResults.remove(getResultsKey(player));
         setPlayerOffline(player, offlineHandler);
+        this.loadedPlayers.onQuit(player);
     }
 
     private void setPlayerOffline(@NotNull OfflinePlayer player, @NotNull OfflineHandler handler) {
@@ -539,13 +1062,16 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
         }
         inventory.setPlayerOffline();
         if (!inventory.isInUse()) {
+            this.changeTracker.flush(inventory);
             map.remove(key);
         } else {
-            handler.handle().accept(inventory);
+            handler.handle().accept(this, inventory);
         }
     }
 
     void handleCloseInventory(@NotNull ISpecialInventory inventory) {
+        captureHistory(inventory, InventoryHistory.Reason.CLOSE);
+
         Map<UUID, ? extends ISpecialInventory> map = inventory instanceof ISpecialPlayerInventory ? inventories : enderChests;
         UUID key = inventory.getPlayer().getUniqueId();
         @Nullable ISpecialInventory loaded = map.get(key);
@@ -564,31 +1090,39 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
             // We don't want to risk recursively closing the same inventory repeatedly, so we schedule dumping viewers.
             // Worst case we schedule a couple redundant tasks if several people had the inventory open.
             if (inventory.isInUse()) {
-                getServer().getScheduler().runTask(this, () -> ejectViewers(inventory, viewer -> true));
+                this.scheduler.run(() -> ejectViewers(inventory, viewer -> true));
             }
         }
 
         // Schedule task to check in use status later this tick. Closing user is still in viewer list.
-        getServer().getScheduler().runTask(this, () -> {
+        this.scheduler.run(() -> {
             if (loaded.isInUse()) {
                 return;
             }
 
-            // Re-fetch from map - prevents duplicate saves on multi-close.
-            ISpecialInventory current = map.remove(key);
+            // Report final changes before the inventory is no longer tracked.
+            this.changeTracker.flush(loaded);
 
-            if (disableSaving()
-                || current == null
-                || !(current.getPlayer() instanceof Player player)
-                || player.isOnline()) {
-                return;
-            }
+            // Removal and save hold the file lock so that file edits never run between them.
+            try (PlayerDataWriter.FileLock ignored = this.playerDataWriter.lock(key)) {
+                // Re-fetch from map - prevents duplicate saves on multi-close.
+                ISpecialInventory current = map.remove(key);
+
+                if (disableSaving()
+                    || current == null
+                    || !(current.getPlayer() instanceof Player player)
+                    || player.isOnline()) {
+                    return;
+                }
 
-            OpenPlayerSaveEvent event = new OpenPlayerSaveEvent(player, current);
-            getServer().getPluginManager().callEvent(event);
+                OpenPlayerSaveEvent event = new OpenPlayerSaveEvent(player, current);
+                getServer().getPluginManager().callEvent(event);
 
-            if (!event.isCancelled()) {
-                this.accessor.getPlayerDataManager().inject(player).saveData();
+                if (!event.isCancelled()) {
+                    this.playerDataWriter.await(key);
+                    this.accessor.getPlayerDataManager().inject(player).saveData();
+                    this.loadedPlayers.markSaved(player);
+                }
             }
         });
     }
@@ -602,6 +1136,8 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
     void setPlayerOnline(@NotNull Player player) {
         setPlayerOnline(inventories, player, player::updateInventory);
         setPlayerOnline(enderChests, player, null);
+        this.loadedPlayers.onJoin(player);
+        this.playerDataWriter.finishLogin(player.getUniqueId());
 
         if (player.hasPlayedBefore()) {
             return;
@@ -619,7 +1155,7 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
         // New player may also be a more exact match than one already in the cache.
         // I.e. new player "lava1" is a better match for "lava" than "lava123"
         // Player joins are already quite intensive, so this is run on a delay.
-        this.getServer().getScheduler().runTaskLaterAsynchronously(this, () -> {
+        this.scheduler.runLaterAsync(() -> {
             Iterator<Map.Entry<String, PlayerProfile>> iterator = this.offlineLookUpCache.asMap().entrySet().iterator();
             while (iterator.hasNext()) {
                 Map.Entry<String, PlayerProfile> entry = iterator.next();
@@ -665,22 +1201,35 @@ public class OpenInv extends JavaPlugin implements IOpenInv {
                                 && !Objects.equals(viewer.getWorld(), inventory.getPlayer().getWorld()));
 
         if (task != null) {
-            getServer().getScheduler().runTask(this, task);
+            this.scheduler.run(player, task);
         }
     }
 
-    static void ejectViewers(@NotNull ISpecialInventory inventory, @NotNull Predicate<@NotNull HumanEntity> predicate) {
+    void ejectViewers(@NotNull ISpecialInventory inventory, @NotNull Predicate<@NotNull HumanEntity> predicate) {
         Inventory bukkitInventory = inventory.getBukkitInventory();
         for (HumanEntity viewer : new ArrayList<>(bukkitInventory.getViewers())) {
-            if (viewer.getUniqueId().equals(inventory.getPlayer().getUniqueId())
-                    && !viewer.getOpenInventory().getTopInventory().equals(bukkitInventory)) {
-                // Skip owner with other inventory open. They aren't actually a viewer.
-                continue;
-            }
-            if (predicate.test(viewer)) {
-                viewer.closeInventory();
+            if (this.scheduler.isRegionized() && isEnabled()) {
+                // Viewers may be in other regions; their open inventory belongs to their own thread.
+                this.scheduler.run(viewer, () -> ejectViewer(inventory, bukkitInventory, viewer, predicate));
+            } else {
+                ejectViewer(inventory, bukkitInventory, viewer, predicate);
             }
         }
     }
 
+    private static void ejectViewer(
+            @NotNull ISpecialInventory inventory,
+            @NotNull Inventory bukkitInventory,
+            @NotNull HumanEntity viewer,
+            @NotNull Predicate<@NotNull HumanEntity> predicate) {
+        if (viewer.getUniqueId().equals(inventory.getPlayer().getUniqueId())
+                && !viewer.getOpenInventory().getTopInventory().equals(bukkitInventory)) {
+            // Skip owner with other inventory open. They aren't actually a viewer.
+            return;
+        }
+        if (predicate.test(viewer)) {
+            viewer.closeInventory();
+        }
+    }
+
 }
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Writes serialized player data off the main thread.
+ *
+ * <p>Writes run one at a time in submission order, so a later save for a player always lands last. Synchronous saves
+ * and logins wait for pending writes of the same player so that they never read or overwrite stale data.
+ *
+ * <p>Edits of saved player files made outside the server hold the player's file lock. Logins, loads and saves of
+ * offline players take the same lock, so an edited file is never read or overwritten by a copy loaded before the edit.
+ */
+final class PlayerDataWriter {
+
+    private static final long LOGIN_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private final OpenInv plugin;
+    private final ExecutorService executor;
+    private final Map<UUID, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> logins = new ConcurrentHashMap<>();
+    private final Map<UUID, FileLock> locks = new ConcurrentHashMap<>();
+
+    PlayerDataWriter(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OpenInv Player Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Lock a player's saved data file, blocking until no other thread holds it. Each player has their own lock, so
+     * file edits never stall work on other players. The lock must be closed by the locking thread.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return the held lock
+     */
+    @NotNull FileLock lock(@NotNull UUID playerId) {
+        FileLock fileLock = locks.compute(playerId, (key, existing) -> {
+            FileLock value = existing == null ? new FileLock(key) : existing;
+            ++value.users;
+            return value;
+        });
+        fileLock.lock.lock();
+        return fileLock;
+    }
+
+    /**
+     * Mark a player as logging in. The server reads their data file before they join. Must be called while holding the
+     * player's file lock.
+     *
+     * @param playerId the player's {@link UUID}
+     */
+    void startLogin(@NotNull UUID playerId) {
+        logins.put(playerId, System.currentTimeMillis());
+    }
+
+    /**
+     * Mark a player's login as complete.
+     *
+     * @param playerId the player's {@link UUID}
+     */
+    void finishLogin(@NotNull UUID playerId) {
+        logins.remove(playerId);
+    }
+
+    /**
+     * Check if a player is between being allowed to log in and joining. Logins that never completed expire.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return true if the player is logging in
+     */
+    boolean isLoggingIn(@NotNull UUID playerId) {
+        Long started = logins.get(playerId);
+        if (started == null) {
+            return false;
+        }
+        if (System.currentTimeMillis() - started < LOGIN_TIMEOUT_MILLIS) {
+            return true;
+        }
+        logins.remove(playerId, started);
+        return false;
+    }
+
+    /**
+     * Queue a write for a player.
+     *
+     * @param playerId the player's {@link UUID}
+     * @param write the write task
+     * @return a future completed once the data is written
+     */
+    @NotNull CompletableFuture<Void> write(@NotNull UUID playerId, @NotNull Runnable write) {
+        CompletableFuture<Void> future = CompletableFuture.runAsync(write, executor);
+        pending.put(playerId, future);
+        future.whenComplete((ignored, throwable) -> pending.remove(playerId, future));
+        return future;
+    }
+
+    /**
+     * Block until queued writes for a player are done.
+     *
+     * @param playerId the player's {@link UUID}
+     */
+    void await(@NotNull UUID playerId) {
+        CompletableFuture<Void> future = pending.get(playerId);
+        if (future == null) {
+            return;
+        }
+        try {
+            future.join();
+        } catch (CompletionException | CancellationException e) {
+            // Failures are reported to the caller that queued the write.
+        }
+    }
+
+    /**
+     * A held lock on a player's saved data file. Locks are dropped once no thread holds or waits for them.
+     */
+    final class FileLock implements AutoCloseable {
+
+        private final UUID playerId;
+        private final ReentrantLock lock = new ReentrantLock();
+        // Only changed while computing the player's mapping.
+        private int users;
+
+        private FileLock(@NotNull UUID playerId) {
+            this.playerId = playerId;
+        }
+
+        @Override
+        public void close() {
+            lock.unlock();
+            locks.computeIfPresent(playerId, (key, value) -> --value.users == 0 ? null : value);
+        }
+
+    }
+
+    /**
+     * Finish queued writes and stop accepting new ones.
+     */
+    void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out writing player data");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -26,11 +26,19 @@ import org.bukkit.event.block.Action;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.jetbrains.annotations.NotNull;
 
 record PlayerListener(OpenInv plugin) implements Listener {
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerLogin(@NotNull PlayerLoginEvent event) {
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) {
+            plugin.handleLogin(event.getPlayer().getUniqueId());
+        }
+    }
+
     @EventHandler(priority = EventPriority.LOWEST)
     private void onPlayerJoin(@NotNull PlayerJoinEvent event) {
         plugin.setPlayerOnline(event.getPlayer());
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.EconomyAudit;
+import com.lishid.openinv.search.SearchJob;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.TabCompleter;
+import com.lishid.openinv.util.lang.Replacement;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Command for counting tracked items held by all players and trending the totals over time.
+ */
+public class AuditItemsCommand implements TabExecutor {
+
+    private static final String HISTORY = "history";
+    private static final int HISTORY_ENTRIES = 10;
+    private static final String[] HEADER = { "item", "total", "change", "top_holders" };
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
+    private final OpenInv plugin;
+
+    public AuditItemsCommand(OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (EconomyAudit.getTrackedItems(plugin).isEmpty()) {
+            plugin.sendMessage(sender, "messages.info.audit.none");
+            return true;
+        }
+
+        if (args.length > 0 && args[0].equalsIgnoreCase(HISTORY)) {
+            if (args.length < 2) {
+                return false;
+            }
+            showHistory(sender, args[1]);
+            return true;
+        }
+
+        if (args.length > 0) {
+            return false;
+        }
+
+        plugin.getSearchJobs().submit(sender, "audit", job -> audit(sender, job));
+        return true;
+    }
+
+    private @NotNull CompletableFuture<?> audit(@NotNull CommandSender sender, @NotNull SearchJob job) {
+        EconomyAudit audit;
+        try {
+            audit = new EconomyAudit(plugin, job);
+        } catch (IllegalArgumentException e) {
+            plugin.sendMessage(sender, "messages.error.invalidQuery", new Replacement("%target%", String.valueOf(e.getMessage())));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        audit.run().whenComplete((report, throwable) -> plugin.getTaskScheduler().run(() -> {
+            done.complete(null);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "Item audit failed", throwable);
+                plugin.sendMessage(sender, "messages.error.commandException");
+                return;
+            }
+            if (job.isCancelled()) {
+                return;
+            }
+
+            if (report.previousTime() == null) {
+                plugin.sendMessage(sender, "messages.info.audit.first", new Replacement("%count%", String.valueOf(report.players())));
+            } else {
+                plugin.sendMessage(
+                        sender,
+                        "messages.info.audit.summary",
+                        new Replacement("%count%", String.valueOf(report.players())),
+                        new Replacement("%time%", TIME.format(Instant.ofEpochMilli(report.previousTime()))));
+            }
+
+            SearchResults results = SearchResultPages.start(plugin, sender, "audit", HEADER);
+            for (EconomyAudit.Total total : report.totals()) {
+                StringJoiner holders = new StringJoiner(", ");
+                for (EconomyAudit.Holder holder : total.topHolders()) {
+                    String name = plugin.getServer().getOfflinePlayer(holder.playerId()).getName();
+                    holders.add((name == null ? holder.playerId().toString() : name) + ' ' + holder.count());
+                }
+                String change = formatChange(total.total(), total.previous());
+                results.add(
+                        total.label() + ": " + total.total() + " (" + change + ") " + holders,
+                        total.label(),
+                        String.valueOf(total.total()),
+                        change,
+                        holders.toString());
+            }
+            SearchResultPages.finish(plugin, sender, results, "messages.info.audit.none");
+        }));
+        return done;
+    }
+
+    private void showHistory(@NotNull CommandSender sender, @NotNull String label) {
+        plugin.getSearchExecutor().execute(() -> {
+            List<EconomyAudit.Snapshot> history;
+            try {
+                history = EconomyAudit.readHistory(plugin);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to read audit history", e);
+                plugin.getTaskScheduler().run(() -> plugin.sendMessage(sender, "messages.error.commandException"));
+                return;
+            }
+
+            List<Replacement[]> entries = new ArrayList<>();
+            Long previous = null;
+            for (EconomyAudit.Snapshot snapshot : history) {
+                Long total = snapshot.totals().get(label);
+                if (total == null) {
+                    continue;
+                }
+                entries.add(new Replacement[] {
+                        new Replacement("%time%", TIME.format(Instant.ofEpochMilli(snapshot.time()))),
+                        new Replacement("%count%", String.valueOf(total)),
+                        new Replacement("%change%", formatChange(total, previous))
+                });
+                previous = total;
+            }
+
+            plugin.getTaskScheduler().run(() -> {
+                if (entries.isEmpty()) {
+                    plugin.sendMessage(sender, "messages.info.audit.noHistory", new Replacement("%target%", label));
+                    return;
+                }
+                for (Replacement[] entry : entries.subList(Math.max(0, entries.size() - HISTORY_ENTRIES), entries.size())) {
+                    plugin.sendMessage(sender, "messages.info.audit.history", entry);
+                }
+            });
+        });
+    }
+
+    private static @NotNull String formatChange(long total, @Nullable Long previous) {
+        if (previous == null) {
+            return "new";
+        }
+        long change = total - previous;
+        return change >= 0 ? "+" + change : String.valueOf(change);
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (!command.testPermissionSilent(sender) || args.length < 1 || args.length > 2) {
+            return Collections.emptyList();
+        }
+
+        if (args.length == 1) {
+            return TabCompleter.completeString(args[0], new String[] { HISTORY });
+        }
+
+        if (!args[0].equalsIgnoreCase(HISTORY)) {
+            return Collections.emptyList();
+        }
+        return TabCompleter.completeString(args[1], EconomyAudit.getTrackedItems(plugin).keySet().toArray(new String[0]));
+    }
+
+}
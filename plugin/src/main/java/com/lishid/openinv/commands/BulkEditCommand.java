@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.BulkItemEdit;
+import com.lishid.openinv.search.ItemQuery;
+import com.lishid.openinv.search.SearchJob;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.Permissions;
+import com.lishid.openinv.util.TabCompleter;
+import com.lishid.openinv.util.lang.Replacement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command for removing, replacing or capping items in every player's inventory and ender chest.
+ *
+ * <p>Edits are always previewed first. Applying an edit requires a dry run of the same edit by the same sender within
+ * the last few minutes.
+ */
+public class BulkEditCommand implements TabExecutor {
+
+    private static final String CONFIRM = "confirm";
+    private static final String[] ACTIONS = { "remove", "replace:", "cap:" };
+    private static final String[] HEADER = { "player", "uuid", "location", "stacks", "amount", "skipped" };
+    private static final long CONFIRM_WINDOW = TimeUnit.MINUTES.toMillis(5);
+
+    private final OpenInv plugin;
+    private final Map<String, PendingEdit> pending = new ConcurrentHashMap<>();
+
+    public BulkEditCommand(OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        int end = args.length;
+        boolean confirm = end > 0 && args[end - 1].equalsIgnoreCase(CONFIRM);
+        if (confirm) {
+            --end;
+        }
+        if (end < 2) {
+            return false;
+        }
+
+        BulkItemEdit.Action action;
+        try {
+            action = BulkItemEdit.Action.parse(args[end - 1]);
+        } catch (IllegalArgumentException e) {
+            plugin.sendMessage(sender, "messages.error.invalidEditAction", new Replacement("%target%", args[end - 1]));
+            return true;
+        }
+
+        ItemQuery query;
+        try {
+            query = ItemQuery.compile(String.join(" ", Arrays.copyOfRange(args, 0, end - 1)));
+        } catch (IllegalArgumentException e) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.error.invalidQuery",
+                    new Replacement("%target%", String.valueOf(e.getMessage())));
+            return false;
+        }
+
+        // Saved data is edited directly, so this is offline access regardless of who is online.
+        if (plugin.disableOfflineAccess() || !Permissions.OPENOFFLINE.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionPlayerOffline");
+            return true;
+        }
+
+        String target = query + " " + action;
+        if (confirm) {
+            if (plugin.disableSaving()) {
+                plugin.sendMessage(sender, "messages.error.savingDisabled");
+                return true;
+            }
+            PendingEdit previous = pending.remove(sender.getName());
+            if (previous == null
+                    || !previous.target().equals(target)
+                    || previous.time() + CONFIRM_WINDOW < System.currentTimeMillis()) {
+                plugin.sendMessage(sender, "messages.error.editNotPreviewed", new Replacement("%target%", target));
+                return true;
+            }
+        }
+
+        plugin.getSearchJobs().submit(sender, target, job -> edit(sender, target, query, action, !confirm, job));
+        return true;
+    }
+
+    private @NotNull CompletableFuture<?> edit(
+            @NotNull CommandSender sender,
+            @NotNull String target,
+            @NotNull ItemQuery query,
+            @NotNull BulkItemEdit.Action action,
+            boolean dryRun,
+            @NotNull SearchJob job) {
+        BulkItemEdit edit = new BulkItemEdit(plugin, query, action, dryRun, job);
+        SearchResults results = SearchResultPages.start(plugin, sender, target, HEADER);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        edit.run().whenComplete((edits, throwable) -> {
+            done.complete(null);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "Bulk edit failed", throwable);
+                plugin.sendMessage(sender, "messages.error.commandException");
+                return;
+            }
+
+            int players = 0;
+            int stacks = 0;
+            int amount = 0;
+            for (BulkItemEdit.PlayerEdit playerEdit : edits) {
+                String name = plugin.getServer().getOfflinePlayer(playerEdit.playerId()).getName();
+                if (name == null) {
+                    name = playerEdit.playerId().toString();
+                }
+                String location = playerEdit.source().name().toLowerCase();
+                results.add(
+                        name + " (" + location + "): " + playerEdit.stacks() + " stacks, " + playerEdit.amount() + " items"
+                                + (playerEdit.skipped() > 0 ? ", " + playerEdit.skipped() + " nested items skipped" : ""),
+                        name,
+                        playerEdit.playerId().toString(),
+                        location,
+                        String.valueOf(playerEdit.stacks()),
+                        String.valueOf(playerEdit.amount()),
+                        String.valueOf(playerEdit.skipped()));
+                if (playerEdit.stacks() > 0) {
+                    ++players;
+                    stacks += playerEdit.stacks();
+                    amount += playerEdit.amount();
+                }
+            }
+
+            if (edit.getFilesFailed() > 0) {
+                plugin.sendMessage(sender, "messages.info.container.unreadable", new Replacement("%count%", String.valueOf(edit.getFilesFailed())));
+            }
+
+            Replacement[] replacements = {
+                    new Replacement("%target%", target),
+                    new Replacement("%player%", String.valueOf(players)),
+                    new Replacement("%stacks%", String.valueOf(stacks)),
+                    new Replacement("%count%", String.valueOf(amount))
+            };
+            if (job.isCancelled()) {
+                // A cancelled dry run is incomplete and may not be confirmed.
+                plugin.sendMessage(sender, "messages.info.edit.cancelled", replacements);
+            } else if (dryRun) {
+                pending.put(sender.getName(), new PendingEdit(target, System.currentTimeMillis()));
+                plugin.sendMessage(sender, "messages.info.edit.dryRun", replacements);
+            } else {
+                plugin.sendMessage(sender, "messages.info.edit.applied", replacements);
+            }
+            SearchResultPages.finish(plugin, sender, results, "messages.info.edit.noMatches");
+        });
+        return done;
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length < 1 || !command.testPermissionSilent(sender)) {
+            return Collections.emptyList();
+        }
+
+        String argument = args[args.length - 1];
+        List<String> completions = TabCompleter.completeItemQuery(argument);
+        if (args.length > 1) {
+            completions.addAll(TabCompleter.completeString(argument, ACTIONS));
+            completions.addAll(TabCompleter.completeString(argument, new String[] { CONFIRM }));
+        }
+        return completions;
+    }
+
+    private record PendingEdit(@NotNull String target, long time) {}
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.InventoryArchive;
+import com.lishid.openinv.search.SearchJob;
+import com.lishid.openinv.util.Permissions;
+import com.lishid.openinv.util.TabCompleter;
+import com.lishid.openinv.util.lang.Replacement;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command for exporting, importing and verifying archives of every player's inventory and ender chest.
+ */
+public class InventoryArchiveCommand implements TabExecutor {
+
+    private static final String EXPORT = "export";
+    private static final String IMPORT = "import";
+    private static final String VERIFY = "verify";
+    private static final String CONFIRM = "confirm";
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private final OpenInv plugin;
+
+    public InventoryArchiveCommand(OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length < 2) {
+            return false;
+        }
+
+        String operation = args[0].toLowerCase();
+        if (!operation.equals(EXPORT) && !operation.equals(IMPORT) && !operation.equals(VERIFY)) {
+            return false;
+        }
+
+        String name = args[1];
+        if (!NAME.matcher(name).matches()) {
+            plugin.sendMessage(sender, "messages.error.invalidArchive", new Replacement("%target%", name));
+            return true;
+        }
+
+        // Saved data is read directly, so this is offline access regardless of who is online.
+        if (plugin.disableOfflineAccess() || !Permissions.OPENOFFLINE.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionPlayerOffline");
+            return true;
+        }
+
+        Path archive = InventoryArchive.getArchiveFolder(plugin).resolve(name + InventoryArchive.EXTENSION);
+        if (!operation.equals(EXPORT) && !Files.isRegularFile(archive)) {
+            plugin.sendMessage(sender, "messages.error.archiveNotFound", new Replacement("%target%", name));
+            return true;
+        }
+
+        if (operation.equals(IMPORT)) {
+            if (plugin.disableSaving()) {
+                plugin.sendMessage(sender, "messages.error.savingDisabled");
+                return true;
+            }
+            if (args.length < 3 || !args[2].equalsIgnoreCase(CONFIRM)) {
+                plugin.sendMessage(sender, "messages.info.archive.confirm", new Replacement("%target%", name));
+                return true;
+            }
+        }
+
+        plugin.getSearchJobs().submit(sender, operation + " " + name, job -> run(sender, operation, name, archive, job));
+        return true;
+    }
+
+    private @NotNull CompletableFuture<?> run(
+            @NotNull CommandSender sender,
+            @NotNull String operation,
+            @NotNull String name,
+            @NotNull Path archive,
+            @NotNull SearchJob job) {
+        InventoryArchive inventoryArchive = new InventoryArchive(plugin, archive, job);
+        CompletableFuture<Void> future = switch (operation) {
+            case EXPORT -> inventoryArchive.export();
+            case IMPORT -> inventoryArchive.importArchive();
+            default -> inventoryArchive.verify();
+        };
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        future.whenComplete((ignored, throwable) -> plugin.getTaskScheduler().run(() -> {
+            done.complete(null);
+            Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            if (cause instanceof IllegalStateException) {
+                plugin.sendMessage(sender, "messages.error.archiveVersion", new Replacement("%target%", name));
+                return;
+            }
+            if (cause != null) {
+                plugin.getLogger().log(Level.WARNING, "Inventory archive " + operation + " failed", cause);
+                plugin.sendMessage(sender, "messages.error.commandException");
+                return;
+            }
+
+            Replacement[] replacements = {
+                    new Replacement("%target%", name),
+                    new Replacement("%count%", String.valueOf(inventoryArchive.getPlayers())),
+                    new Replacement("%changed%", String.valueOf(inventoryArchive.getChanged())),
+                    new Replacement("%skipped%", String.valueOf(inventoryArchive.getSkipped())),
+                    new Replacement("%failed%", String.valueOf(inventoryArchive.getFailed()))
+            };
+            if (job.isCancelled()) {
+                plugin.sendMessage(sender, "messages.info.archive.cancelled", replacements);
+            } else {
+                plugin.sendMessage(sender, "messages.info.archive." + operation, replacements);
+            }
+        }));
+        return done;
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length < 1 || !command.testPermissionSilent(sender)) {
+            return Collections.emptyList();
+        }
+
+        if (args.length == 1) {
+            return TabCompleter.completeString(args[0], new String[] { EXPORT, IMPORT, VERIFY });
+        }
+
+        if (args.length == 2 && !args[0].equalsIgnoreCase(EXPORT)) {
+            List<String> names = new ArrayList<>();
+            try (Stream<Path> files = Files.list(InventoryArchive.getArchiveFolder(plugin))) {
+                files.map(file -> file.getFileName().toString())
+                        .filter(file -> file.endsWith(InventoryArchive.EXTENSION))
+                        .forEach(file -> names.add(file.substring(0, file.length() - InventoryArchive.EXTENSION.length())));
+            } catch (IOException e) {
+                return Collections.emptyList();
+            }
+            return TabCompleter.completeString(args[1], names.toArray(new String[0]));
+        }
+
+        if (args.length == 3 && args[0].equalsIgnoreCase(IMPORT)) {
+            return TabCompleter.completeString(args[2], new String[] { CONFIRM });
+        }
+
+        return Collections.emptyList();
+    }
+
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.PlayerDataSearch;
+import com.lishid.openinv.util.Permissions;
+import com.lishid.openinv.util.lang.Replacement;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.ClickEvent;
+import net.md_5.bungee.api.chat.TextComponent;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Step through the inventories of a list of players, i.e. search results.
+ *
+ * <p>While a player's inventory is shown, the next few targets are prefetched: names are resolved and data files are
+ * checked off the main thread, then offline players are loaded on the viewer's tick thread one per tick. Each session
+ * is only used from its viewer's tick thread. Loaded players are kept by OpenInv until idle, so opening a prefetched
+ * inventory does not load the player again and skipped players are unloaded as usual.
+ */
+final class InventoryBrowser {
+
+    private final OpenInv plugin;
+    private final OpenInvCommand command;
+    private final Map<UUID, Session> sessions = new ConcurrentHashMap<>();
+
+    InventoryBrowser(@NotNull OpenInv plugin, @NotNull OpenInvCommand command) {
+        this.plugin = plugin;
+        this.command = command;
+    }
+
+    /**
+     * Start browsing a list of targets.
+     *
+     * @param viewer the player browsing
+     * @param targets the names or UUIDs of the targets
+     * @param openinv true to open inventories, false to open ender chests
+     */
+    void start(@NotNull Player viewer, @NotNull List<String> targets, boolean openinv) {
+        if (targets.isEmpty()) {
+            plugin.sendMessage(viewer, "messages.error.noResults");
+            return;
+        }
+
+        Session session = new Session(targets, openinv);
+        sessions.put(viewer.getUniqueId(), session);
+        show(viewer, session);
+    }
+
+    /**
+     * Move to another target.
+     *
+     * @param viewer the player browsing
+     * @param offset the offset from the current target
+     */
+    void move(@NotNull Player viewer, int offset) {
+        Session session = sessions.get(viewer.getUniqueId());
+        if (session == null) {
+            plugin.sendMessage(viewer, "messages.error.notBrowsing");
+            return;
+        }
+
+        int index = session.index + offset;
+        if (index < 0 || index >= session.targets.size()) {
+            plugin.sendMessage(viewer, "messages.info.browse.end");
+            return;
+        }
+        session.index = index;
+        show(viewer, session);
+    }
+
+    /**
+     * Stop browsing, discarding prefetched players.
+     *
+     * @param viewer the player browsing
+     */
+    void stop(@NotNull Player viewer) {
+        if (sessions.remove(viewer.getUniqueId()) != null) {
+            plugin.sendMessage(viewer, "messages.info.browse.stopped");
+        }
+    }
+
+    private void show(@NotNull Player viewer, @NotNull Session session) {
+        int index = session.index;
+        Prefetch prefetch = prefetch(session, index);
+        prefetch.resolved.thenAccept(resolved -> plugin.getTaskScheduler().run(viewer, () -> {
+            // Ignore if the viewer has moved on or left.
+            if (session.index != index || sessions.get(viewer.getUniqueId()) != session || !viewer.isOnline()) {
+                return;
+            }
+
+            OfflinePlayer target = resolved.target();
+            if (target == null || !target.hasPlayedBefore() && !target.isOnline()) {
+                plugin.sendMessage(viewer, "messages.error.invalidPlayer");
+            } else {
+                command.openInventory(viewer, target, session.openinv);
+            }
+
+            sendStatus(viewer, session, target);
+            schedulePrefetch(viewer, session);
+        }));
+    }
+
+    private void sendStatus(@NotNull Player viewer, @NotNull Session session, @Nullable OfflinePlayer target) {
+        String name = target == null || target.getName() == null ? session.targets.get(session.index) : target.getName();
+        String status = plugin.getLocalizedMessage(
+                viewer,
+                "messages.info.browse.status",
+                new Replacement("%id%", String.valueOf(session.index + 1)),
+                new Replacement("%count%", String.valueOf(session.targets.size())),
+                new Replacement("%player%", name));
+        if (status == null || status.isEmpty()) {
+            return;
+        }
+
+        List<BaseComponent> components = new ArrayList<>(List.of(TextComponent.fromLegacyText(status)));
+        if (session.index > 0) {
+            addButton(viewer, components, "messages.info.browse.previous", "/openinv browse previous");
+        }
+        if (session.index < session.targets.size() - 1) {
+            addButton(viewer, components, "messages.info.browse.next", "/openinv browse next");
+        }
+        viewer.spigot().sendMessage(components.toArray(new BaseComponent[0]));
+    }
+
+    private void addButton(
+            @NotNull Player viewer,
+            @NotNull List<BaseComponent> components,
+            @NotNull String key,
+            @NotNull String commandLine) {
+        String label = plugin.getLocalizedMessage(viewer, key);
+        if (label == null || label.isEmpty()) {
+            return;
+        }
+        components.add(new TextComponent(" "));
+        for (BaseComponent component : TextComponent.fromLegacyText(label)) {
+            component.setClickEvent(new ClickEvent(ClickEvent.Action.RUN_COMMAND, commandLine));
+            components.add(component);
+        }
+    }
+
+    private void schedulePrefetch(@NotNull Player viewer, @NotNull Session session) {
+        int distance = Math.max(0, plugin.getConfig().getInt("settings.command.browse.prefetch", 3));
+        int first = Math.max(0, session.index - 1);
+        int last = Math.min(session.targets.size() - 1, session.index + distance);
+
+        // Bound the cache to the window around the current target.
+        Iterator<Map.Entry<Integer, Prefetch>> iterator = session.cache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            int index = iterator.next().getKey();
+            if (index < first || index > last) {
+                iterator.remove();
+            }
+        }
+
+        long delay = 1;
+        for (int index = session.index + 1; index <= last; ++index) {
+            Prefetch prefetch = prefetch(session, index);
+            long loadDelay = delay++;
+            prefetch.resolved.thenAccept(resolved -> plugin.getTaskScheduler().runLater(
+                    viewer,
+                    () -> preload(viewer, session, prefetch, resolved),
+                    loadDelay));
+        }
+        if (first < session.index) {
+            prefetch(session, first);
+        }
+    }
+
+    private void preload(
+            @NotNull Player viewer,
+            @NotNull Session session,
+            @NotNull Prefetch prefetch,
+            @NotNull Resolved resolved) {
+        if (!viewer.isOnline()) {
+            sessions.remove(viewer.getUniqueId(), session);
+            return;
+        }
+
+        // Skip if the session ended, the entry was evicted, or loading would not be used.
+        if (sessions.get(viewer.getUniqueId()) != session
+                || !session.cache.containsValue(prefetch)
+                || resolved.target() == null
+                || resolved.file() == null
+                || resolved.target().isOnline()
+                || plugin.isPlayerLoaded(resolved.target().getUniqueId())
+                || plugin.disableOfflineAccess()
+                || !Permissions.OPENOFFLINE.hasPermission(viewer)) {
+            return;
+        }
+        plugin.loadPlayer(resolved.target());
+    }
+
+    private @NotNull Prefetch prefetch(@NotNull Session session, int index) {
+        Prefetch cached = session.cache.get(index);
+        if (cached != null) {
+            return cached;
+        }
+
+        String name = session.targets.get(index);
+        Path folder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+        Prefetch prefetch = new Prefetch(CompletableFuture.supplyAsync(() -> {
+            OfflinePlayer target = resolve(name);
+            if (target == null) {
+                return new Resolved(null, null);
+            }
+            Path file = folder.resolve(target.getUniqueId() + ".dat");
+            return new Resolved(target, Files.isRegularFile(file) ? file : null);
+        }, plugin.getSearchExecutor()));
+        session.cache.put(index, prefetch);
+        return prefetch;
+    }
+
+    private @Nullable OfflinePlayer resolve(@NotNull String target) {
+        try {
+            return plugin.getServer().getOfflinePlayer(UUID.fromString(target));
+        } catch (IllegalArgumentException e) {
+            return plugin.matchPlayer(target);
+        }
+    }
+
+    private static final class Session {
+
+        private final List<String> targets;
+        private final boolean openinv;
+        private final Map<Integer, Prefetch> cache = new HashMap<>();
+        private int index;
+
+        private Session(@NotNull List<String> targets, boolean openinv) {
+            this.targets = targets;
+            this.openinv = openinv;
+        }
+
+    }
+
+    private static final class Prefetch {
+
+        private final CompletableFuture<Resolved> resolved;
+
+        private Prefetch(@NotNull CompletableFuture<Resolved> resolved) {
+            this.resolved = resolved;
+        }
+
+    }
+
+    private record Resolved(@Nullable OfflinePlayer target, @Nullable Path file) {}
+
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.ContainerIndex;
+import com.lishid.openinv.search.ContainerMatch;
+import com.lishid.openinv.search.RegionContainerSearch;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.search.SearchMonitor;
+import com.lishid.openinv.util.scheduler.TaskScheduler;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Search block entities and entities of loaded chunks on the main thread, spread over as many ticks as needed to
+ * stay within a per-tick time budget.
+ *
+ * <p>On regionized servers each chunk is instead searched on the thread of the region owning it, so regions are
+ * searched concurrently. A bounded number of chunks are queued at once to avoid flooding any single region.
+ */
+final class LoadedChunkSearch {
+
+    /** Maximum chunks queued on region schedulers at once. */
+    private static final int REGION_WINDOW = 64;
+
+    private final OpenInv plugin;
+    private final World world;
+    private final Queue<Long> chunks;
+    private final Predicate<ScannableItem> itemMatcher;
+    private final Consumer<ContainerMatch> matchListener;
+    private final SearchMonitor monitor;
+    private @Nullable Set<String> indexedIds;
+    private boolean loadChunks = false;
+    private final long budgetNanos;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private @Nullable TaskScheduler.Task task;
+
+    LoadedChunkSearch(
+            @NotNull OpenInv plugin,
+            @NotNull World world,
+            @NotNull Collection<Long> chunkKeys,
+            @NotNull Predicate<ScannableItem> itemMatcher,
+            @NotNull Consumer<ContainerMatch> matchListener,
+            @NotNull SearchMonitor monitor) {
+        this.plugin = plugin;
+        this.world = world;
+        this.chunks = new ConcurrentLinkedQueue<>(chunkKeys);
+        this.itemMatcher = itemMatcher;
+        this.matchListener = matchListener;
+        this.monitor = monitor;
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(
+                Math.max(1, plugin.getConfig().getInt("settings.search.tick-budget-millis", 5)));
+    }
+
+    /**
+     * Use the container index, if enabled, to find candidate block containers instead of reading every block entity.
+     *
+     * @param requiredIds the item IDs any match must have, or null if the query does not restrict item type
+     * @return this search
+     */
+    @NotNull LoadedChunkSearch useIndex(@Nullable Set<String> requiredIds) {
+        this.indexedIds = plugin.getContainerIndex() == null ? null : requiredIds;
+        return this;
+    }
+
+    /**
+     * Load existing chunks that are not loaded instead of skipping them. Chunks are never generated.
+     *
+     * @return this search
+     */
+    @NotNull LoadedChunkSearch loadChunks() {
+        this.loadChunks = true;
+        return this;
+    }
+
+    /**
+     * Start searching. On the main thread the first slice runs immediately.
+     *
+     * @return a future completing on a tick thread once all chunks are searched
+     */
+    @NotNull CompletableFuture<Void> start() {
+        monitor.addWork(chunks.size());
+
+        if (plugin.getTaskScheduler().isRegionized()) {
+            AtomicInteger remaining = new AtomicInteger(chunks.size());
+            if (remaining.get() == 0) {
+                future.complete(null);
+            }
+            for (int i = 0; i < REGION_WINDOW && !chunks.isEmpty(); ++i) {
+                searchNextInRegion(remaining);
+            }
+            return future;
+        }
+
+        if (searchSlice()) {
+            task = plugin.getTaskScheduler().runTimer(this::run, 1L, 1L);
+        }
+        return future;
+    }
+
+    private void run() {
+        if (!searchSlice() && task != null) {
+            task.cancel();
+        }
+    }
+
+    /**
+     * Search chunks until the budget for this tick is spent.
+     *
+     * @return true if chunks remain to be searched
+     */
+    private boolean searchSlice() {
+        long deadline = System.nanoTime() + budgetNanos;
+        Long chunkKey;
+        while (!monitor.isCancelled() && (chunkKey = chunks.poll()) != null) {
+            searchChunk(chunkKey);
+            monitor.addProgress(1);
+            if (!chunks.isEmpty() && System.nanoTime() > deadline) {
+                return true;
+            }
+        }
+
+        future.complete(null);
+        return false;
+    }
+
+    /**
+     * Queue the next chunk on the scheduler of the region owning it. Each completed chunk queues the next, keeping at
+     * most {@link #REGION_WINDOW} chunks pending.
+     *
+     * @param remaining the number of chunks not yet completed
+     */
+    private void searchNextInRegion(@NotNull AtomicInteger remaining) {
+        Long chunkKey = chunks.poll();
+        if (chunkKey == null) {
+            return;
+        }
+
+        plugin.getTaskScheduler().run(
+                world,
+                RegionContainerSearch.getChunkX(chunkKey),
+                RegionContainerSearch.getChunkZ(chunkKey),
+                () -> {
+                    try {
+                        if (!monitor.isCancelled()) {
+                            searchChunk(chunkKey);
+                        }
+                        monitor.addProgress(1);
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            future.complete(null);
+                        } else {
+                            searchNextInRegion(remaining);
+                        }
+                    }
+                });
+    }
+
+    private void searchChunk(long chunkKey) {
+        int chunkX = RegionContainerSearch.getChunkX(chunkKey);
+        int chunkZ = RegionContainerSearch.getChunkZ(chunkKey);
+        // Chunks may unload between slices; their saved data is not re-read.
+        if (loadChunks ? world.loadChunk(chunkX, chunkZ, false) : world.isChunkLoaded(chunkX, chunkZ)) {
+            searchChunk(world.getChunkAt(chunkX, chunkZ));
+        }
+    }
+
+    /**
+     * Search a single chunk immediately, ignoring the time budget.
+     *
+     * @param chunk the chunk
+     */
+    private void searchChunk(@NotNull Chunk chunk) {
+        ContainerIndex index = plugin.getContainerIndex();
+        boolean indexed = index != null && indexedIds != null;
+        Collection<BlockState> tileEntities = indexed
+                ? index.getContainers(chunk, indexedIds)
+                : Arrays.asList(chunk.getTileEntities());
+
+        for (BlockState tileEntity : tileEntities) {
+            if (!(tileEntity instanceof InventoryHolder holder)) {
+                continue;
+            }
+            // Indexed double chests are matched per half.
+            Inventory inventory = indexed ? ContainerIndex.getBlockInventory(holder) : holder.getInventory();
+            // Scanner returns false when stopped early by a match.
+            if (plugin.getItemScanner().scan(inventory, item -> !itemMatcher.test(item))) {
+                continue;
+            }
+            matchListener.accept(new ContainerMatch(
+                    inventory.getType().name().toLowerCase(),
+                    tileEntity.getX(),
+                    tileEntity.getY(),
+                    tileEntity.getZ()));
+        }
+
+        for (Entity entity : chunk.getEntities()) {
+            if (plugin.getItemScanner().scan(entity, item -> !itemMatcher.test(item))) {
+                continue;
+            }
+            matchListener.accept(new ContainerMatch(
+                    entity.getType().getKey().getKey(),
+                    entity.getLocation().getBlockX(),
+                    entity.getLocation().getBlockY(),
+                    entity.getLocation().getBlockZ()));
+        }
+    }
+
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.ContainerMatch;
+import com.lishid.openinv.search.RegionContainerSearch;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.search.SearchMonitor;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Search for the containers closest to a location, visiting chunks in rings of increasing distance and stopping as
+ * soon as no unvisited ring can hold a closer match than the current results.
+ *
+ * <p>Each band of rings is searched live for loaded chunks and from region files for unloaded chunks before the next
+ * band starts. Radius searches use bands of a single ring; whole world searches use bands one region wide so that
+ * each region file is opened at most a few times.
+ */
+final class NearestContainerSearch {
+
+    private static final String[] REGION_TYPES = { "region", "entities" };
+
+    private final OpenInv plugin;
+    private final World world;
+    private final Location origin;
+    private final int centerX;
+    private final int centerZ;
+    private final Predicate<ScannableItem> itemMatcher;
+    private final @Nullable Set<String> requiredIds;
+    private final SearchMonitor monitor;
+    private final int limit;
+    private final Queue<ContainerMatch> matches = new ConcurrentLinkedQueue<>();
+    private int chunksFailed = 0;
+
+    NearestContainerSearch(
+            @NotNull OpenInv plugin,
+            @NotNull Location origin,
+            @NotNull Predicate<ScannableItem> itemMatcher,
+            @Nullable Set<String> requiredIds,
+            @NotNull SearchMonitor monitor,
+            int limit) {
+        this.plugin = plugin;
+        this.world = origin.getWorld();
+        this.origin = origin;
+        this.centerX = origin.getBlockX() >> 4;
+        this.centerZ = origin.getBlockZ() >> 4;
+        this.itemMatcher = itemMatcher;
+        this.requiredIds = requiredIds;
+        this.monitor = monitor;
+        this.limit = Math.max(1, limit);
+    }
+
+    /**
+     * Get the number of saved chunks that could not be read.
+     *
+     * @return the number of unreadable chunks
+     */
+    int getChunksFailed() {
+        return chunksFailed;
+    }
+
+    /**
+     * Search existing chunks within a radius, loading unloaded chunks on the tick thread owning them, one ring at a
+     * time. Chunks beyond the point where the nearest matches are known are never loaded.
+     *
+     * @param radius the radius in chunks
+     * @return a future completing on a tick thread with the nearest matches, closest first
+     */
+    @NotNull CompletableFuture<List<ContainerMatch>> searchLoading(int radius) {
+        CompletableFuture<List<ContainerMatch>> future = new CompletableFuture<>();
+        searchLoadingRing(0, radius, future);
+        return future;
+    }
+
+    private void searchLoadingRing(int ring, int radius, @NotNull CompletableFuture<List<ContainerMatch>> future) {
+        if (ring > radius || monitor.isCancelled() || isComplete(ring)) {
+            future.complete(getNearest());
+            return;
+        }
+
+        new LoadedChunkSearch(plugin, world, getRing(ring), itemMatcher, matches::add, monitor)
+                .useIndex(requiredIds)
+                .loadChunks()
+                .start()
+                .whenComplete((unused, throwable) -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                    } else {
+                        searchLoadingRing(ring + 1, radius, future);
+                    }
+                });
+    }
+
+    /**
+     * Search loaded chunks live and unloaded chunks from region files. Must be called on a tick thread.
+     *
+     * @param radius the radius in chunks, or -1 to search the whole world
+     * @return a future completing on a tick thread with the nearest matches, closest first
+     */
+    @NotNull CompletableFuture<List<ContainerMatch>> search(int radius) {
+        boolean wholeWorld = radius < 0;
+        int bandWidth = wholeWorld ? 32 : 1;
+        int maxRing = radius;
+
+        Map<Integer, List<Long>> loadedByRing = new HashMap<>();
+        Set<Long> loaded = new HashSet<>();
+        if (wholeWorld) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                loaded.add(RegionContainerSearch.chunkKey(chunk.getX(), chunk.getZ()));
+            }
+            maxRing = 0;
+            for (String type : REGION_TYPES) {
+                try {
+                    maxRing = Math.max(
+                            maxRing,
+                            RegionContainerSearch.getMaxChunkDistance(
+                                    RegionContainerSearch.getRegionFolder(world, type),
+                                    centerX,
+                                    centerZ));
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        } else {
+            for (int ring = 0; ring <= radius; ++ring) {
+                for (long chunkKey : getRing(ring)) {
+                    int chunkX = RegionContainerSearch.getChunkX(chunkKey);
+                    int chunkZ = RegionContainerSearch.getChunkZ(chunkKey);
+                    if (world.isChunkLoaded(chunkX, chunkZ)) {
+                        loaded.add(chunkKey);
+                    }
+                }
+            }
+        }
+
+        for (long chunkKey : loaded) {
+            int ring = getRing(RegionContainerSearch.getChunkX(chunkKey), RegionContainerSearch.getChunkZ(chunkKey));
+            if (wholeWorld) {
+                // Loaded chunks may not have been saved yet.
+                maxRing = Math.max(maxRing, ring);
+            }
+            loadedByRing.computeIfAbsent(ring, key -> new ArrayList<>()).add(chunkKey);
+        }
+
+        CompletableFuture<List<ContainerMatch>> future = new CompletableFuture<>();
+        searchBand(0, bandWidth, maxRing, loadedByRing, loaded, future);
+        return future;
+    }
+
+    private void searchBand(
+            int minRing,
+            int bandWidth,
+            int maxRing,
+            @NotNull Map<Integer, List<Long>> loadedByRing,
+            @NotNull Set<Long> loaded,
+            @NotNull CompletableFuture<List<ContainerMatch>> future) {
+        if (minRing > maxRing || monitor.isCancelled() || isComplete(minRing)) {
+            future.complete(getNearest());
+            return;
+        }
+
+        int bandMaxRing = Math.min(maxRing, minRing + bandWidth - 1);
+        List<Long> bandChunks = new ArrayList<>();
+        for (int ring = minRing; ring <= bandMaxRing; ++ring) {
+            List<Long> ringChunks = loadedByRing.get(ring);
+            if (ringChunks != null) {
+                bandChunks.addAll(ringChunks);
+            }
+        }
+
+        List<RegionContainerSearch> searches = new ArrayList<>();
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (String type : REGION_TYPES) {
+            Path folder = RegionContainerSearch.getRegionFolder(world, type);
+            RegionContainerSearch search = new RegionContainerSearch(folder, itemMatcher)
+                    .bounds(centerX - bandMaxRing, centerZ - bandMaxRing, centerX + bandMaxRing, centerZ + bandMaxRing)
+                    .filter(chunkKey -> {
+                        int ring = getRing(RegionContainerSearch.getChunkX(chunkKey), RegionContainerSearch.getChunkZ(chunkKey));
+                        return ring >= minRing && !loaded.contains(chunkKey);
+                    })
+                    .listener(matches::add)
+                    .monitor(monitor);
+            searches.add(search);
+            futures.add(search.search(plugin.getSearchExecutor()));
+        }
+        futures.add(new LoadedChunkSearch(plugin, world, bandChunks, itemMatcher, matches::add, monitor)
+                .useIndex(requiredIds)
+                .start());
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).whenComplete((unused, throwable) ->
+                plugin.getTaskScheduler().run(() -> {
+                    for (RegionContainerSearch search : searches) {
+                        chunksFailed += search.getChunksFailed();
+                    }
+                    if (throwable != null) {
+                        plugin.getLogger().log(Level.WARNING, "Unable to search containers", throwable);
+                        future.completeExceptionally(throwable);
+                        return;
+                    }
+                    searchBand(bandMaxRing + 1, bandWidth, maxRing, loadedByRing, loaded, future);
+                }));
+    }
+
+    /**
+     * Check if the nearest matches are known before visiting a ring.
+     *
+     * @param ring the next ring to visit
+     * @return true if no chunk in the ring or beyond can hold a closer match
+     */
+    private boolean isComplete(int ring) {
+        if (matches.size() < limit) {
+            return false;
+        }
+        List<ContainerMatch> nearest = getNearest();
+        double bound = getDistanceBound(ring);
+        return getDistanceSquared(nearest.get(nearest.size() - 1)) <= bound * bound;
+    }
+
+    private @NotNull List<ContainerMatch> getNearest() {
+        List<ContainerMatch> sorted = new ArrayList<>(matches);
+        sorted.sort(Comparator.comparingDouble(this::getDistanceSquared));
+        return sorted.size() > limit ? new ArrayList<>(sorted.subList(0, limit)) : sorted;
+    }
+
+    private double getDistanceSquared(@NotNull ContainerMatch match) {
+        double dX = match.x() + 0.5 - origin.getX();
+        double dY = match.y() + 0.5 - origin.getY();
+        double dZ = match.z() + 0.5 - origin.getZ();
+        return dX * dX + dY * dY + dZ * dZ;
+    }
+
+    /**
+     * Get the shortest horizontal distance from the origin to any block in a ring of chunks.
+     *
+     * @param ring the ring
+     * @return the minimum distance to the ring
+     */
+    private double getDistanceBound(int ring) {
+        if (ring <= 0) {
+            return 0;
+        }
+        double east = ((centerX + ring) << 4) - origin.getX();
+        double west = origin.getX() - ((centerX - ring + 1) << 4);
+        double south = ((centerZ + ring) << 4) - origin.getZ();
+        double north = origin.getZ() - ((centerZ - ring + 1) << 4);
+        return Math.max(0, Math.min(Math.min(east, west), Math.min(south, north)));
+    }
+
+    private int getRing(int chunkX, int chunkZ) {
+        return Math.max(Math.abs(chunkX - centerX), Math.abs(chunkZ - centerZ));
+    }
+
+    private @NotNull List<Long> getRing(int ring) {
+        List<Long> chunkKeys = new ArrayList<>();
+        if (ring == 0) {
+            chunkKeys.add(RegionContainerSearch.chunkKey(centerX, centerZ));
+            return chunkKeys;
+        }
+        for (int offset = -ring; offset <= ring; ++offset) {
+            chunkKeys.add(RegionContainerSearch.chunkKey(centerX + offset, centerZ - ring));
+            chunkKeys.add(RegionContainerSearch.chunkKey(centerX + offset, centerZ + ring));
+        }
+        for (int offset = -ring + 1; offset < ring; ++offset) {
+            chunkKeys.add(RegionContainerSearch.chunkKey(centerX - ring, centerZ + offset));
+            chunkKeys.add(RegionContainerSearch.chunkKey(centerX + ring, centerZ + offset));
+        }
+        return chunkKeys;
+    }
+
+}
@@ -16,32 +16,75 @@
 
 package com.lishid.openinv.commands;
 
+import com.lishid.openinv.LoadedPlayers;
 import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.history.InventoryHistory;
 import com.lishid.openinv.internal.ISpecialInventory;
+import com.lishid.openinv.search.ContainerIndex;
+import com.lishid.openinv.search.PlayerDataDiff;
+import com.lishid.openinv.search.PlayerDataSearch;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.search.SearchJob;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.search.WatchList;
 import com.lishid.openinv.util.Permissions;
 import com.lishid.openinv.util.TabCompleter;
 import com.lishid.openinv.util.lang.Replacement;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Level;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
-import org.bukkit.scheduler.BukkitRunnable;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class OpenInvCommand implements TabExecutor {
 
+    private static final String RESULTS = "results";
+    private static final String EXPORT = "export";
+    private static final String JOBS = "jobs";
+    private static final String CANCEL = "cancel";
+    private static final String INDEX = "index";
+    private static final String STATUS = "status";
+    private static final String WATCH = "watch";
+    private static final String ADD = "add";
+    private static final String REMOVE = "remove";
+    private static final String HISTORY = "history";
+    private static final String ROLLBACK = "rollback";
+    private static final String DIFF = "diff";
+    private static final String BROWSE = "browse";
+    private static final String NEXT = "next";
+    private static final String PREVIOUS = "previous";
+    private static final String STOP = "stop";
+    private static final int HISTORY_ENTRIES = 10;
+    private static final String[] DIFF_HEADER = { "list", "slot", "change", "before", "after", "changed_tags" };
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm").withZone(ZoneId.systemDefault());
+
     private final OpenInv plugin;
     private final HashMap<Player, String> openInvHistory = new HashMap<>();
     private final HashMap<Player, String> openEnderHistory = new HashMap<>();
+    private final InventoryBrowser browser;
 
     public OpenInvCommand(final OpenInv plugin) {
         this.plugin = plugin;
+        this.browser = new InventoryBrowser(plugin, this);
     }
 
     @Override
@@ -53,11 +96,73 @@ public class OpenInvCommand implements TabExecutor {
             return true;
         }
 
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(RESULTS)) {
+            this.showResults(sender, args);
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(JOBS)) {
+            this.showJobs(sender);
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(CANCEL)) {
+            this.cancelJob(sender, args);
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(INDEX)) {
+            this.showIndex(sender);
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(STATUS)) {
+            this.showStatus(sender);
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(WATCH)) {
+            this.editWatchList(sender, args);
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(HISTORY)) {
+            if (args.length < 2) {
+                plugin.sendMessage(sender, "messages.error.invalidPlayer");
+            } else {
+                this.showHistory(sender, args[1]);
+            }
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(ROLLBACK)) {
+            if (args.length < 3) {
+                plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", ""));
+            } else {
+                this.rollback(sender, args[1], args[2]);
+            }
+            return true;
+        }
+
+        if (openInv && args.length > 0 && args[0].equalsIgnoreCase(DIFF)) {
+            if (args.length < 2) {
+                plugin.sendMessage(sender, "messages.error.invalidPlayer");
+            } else {
+                this.showDiff(sender, args[1]);
+            }
+            return true;
+        }
+
         if (!(sender instanceof Player player)) {
             plugin.sendMessage(sender, "messages.error.consoleUnsupported");
             return true;
         }
 
+        if (args.length > 0 && args[0].equalsIgnoreCase(BROWSE)) {
+            this.browse(player, args, openInv);
+            return true;
+        }
+
         String noArgValue;
         if (plugin.noArgsOpensSelf()) {
             noArgValue = player.getUniqueId().toString();
@@ -79,28 +184,21 @@ public class OpenInvCommand implements TabExecutor {
             name = args[0];
         }
 
-        new BukkitRunnable() {
-            @Override
-            public void run() {
-                final OfflinePlayer offlinePlayer = OpenInvCommand.this.plugin.matchPlayer(name);
+        this.plugin.getTaskScheduler().runAsync(() -> {
+            final OfflinePlayer offlinePlayer = this.plugin.matchPlayer(name);
 
-                if (offlinePlayer == null || !offlinePlayer.hasPlayedBefore() && !offlinePlayer.isOnline()) {
-                    plugin.sendMessage(player, "messages.error.invalidPlayer");
+            if (offlinePlayer == null || !offlinePlayer.hasPlayedBefore() && !offlinePlayer.isOnline()) {
+                plugin.sendMessage(player, "messages.error.invalidPlayer");
+                return;
+            }
+
+            this.plugin.getTaskScheduler().run(player, () -> {
+                if (!player.isOnline()) {
                     return;
                 }
-
-                new BukkitRunnable() {
-                    @Override
-                    public void run() {
-                        if (!player.isOnline()) {
-                            return;
-                        }
-                        OpenInvCommand.this.openInventory(player, offlinePlayer, openInv);
-                    }
-                }.runTask(OpenInvCommand.this.plugin);
-
-            }
-        }.runTaskAsynchronously(this.plugin);
+                this.openInventory(player, offlinePlayer, openInv);
+            });
+        });
 
         return true;
     }
@@ -133,7 +231,395 @@ public class OpenInvCommand implements TabExecutor {
         }
     }
 
-    private void openInventory(final Player player, final OfflinePlayer target, boolean openinv) {
+    private void showResults(final CommandSender sender, final String[] args) {
+        SearchResults results = plugin.getSearchResults(sender);
+        if (results == null) {
+            plugin.sendMessage(sender, "messages.error.noResults");
+            return;
+        }
+
+        if (args.length < 2) {
+            SearchResultPages.sendPage(plugin, sender, results, 1);
+            return;
+        }
+
+        if (args[1].equalsIgnoreCase(EXPORT)) {
+            SearchResultPages.export(plugin, sender, results);
+            return;
+        }
+
+        try {
+            SearchResultPages.sendPage(plugin, sender, results, Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", args[1]));
+        }
+    }
+
+    private void showJobs(final CommandSender sender) {
+        Collection<SearchJob> jobs = plugin.getSearchJobs().getJobs();
+        if (jobs.isEmpty()) {
+            plugin.sendMessage(sender, "messages.info.jobs.none");
+            return;
+        }
+
+        for (SearchJob job : jobs) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.info.jobs.entry",
+                    new Replacement("%id%", String.valueOf(job.getId())),
+                    new Replacement("%state%", job.getState().name().toLowerCase()),
+                    new Replacement("%percent%", String.valueOf(job.getPercentComplete())),
+                    new Replacement("%target%", job.getDescription()),
+                    new Replacement("%player%", job.getOwner().getName()));
+        }
+    }
+
+    private void cancelJob(final CommandSender sender, final String[] args) {
+        if (args.length < 2) {
+            plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", ""));
+            return;
+        }
+
+        SearchJob job;
+        try {
+            job = plugin.getSearchJobs().getJob(Integer.parseInt(args[1]));
+        } catch (NumberFormatException e) {
+            plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", args[1]));
+            return;
+        }
+
+        if (job == null) {
+            plugin.sendMessage(sender, "messages.error.invalidJob", new Replacement("%target%", args[1]));
+            return;
+        }
+
+        if (!job.getOwner().equals(sender) && !Permissions.SEARCH_CANCEL_OTHERS.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionCancelJob");
+            return;
+        }
+
+        plugin.getSearchJobs().cancel(job);
+        plugin.sendMessage(sender, "messages.info.jobs.cancelled", new Replacement("%id%", String.valueOf(job.getId())));
+    }
+
+    private void showIndex(final CommandSender sender) {
+        ContainerIndex index = plugin.getContainerIndex();
+        if (index == null) {
+            plugin.sendMessage(sender, "messages.info.index.disabled");
+            return;
+        }
+
+        plugin.sendMessage(
+                sender,
+                "messages.info.index.stats",
+                new Replacement("%chunks%", String.valueOf(index.getChunkCount())),
+                new Replacement("%count%", String.valueOf(index.getEntryCount())),
+                new Replacement("%size%", String.valueOf(index.getEstimatedBytes() / 1024)));
+    }
+
+    private void showStatus(final CommandSender sender) {
+        LoadedPlayers loaded = plugin.getLoadedPlayers();
+        List<LoadedPlayers.Status> status = loaded.getStatus();
+        if (status.isEmpty()) {
+            plugin.sendMessage(sender, "messages.info.loaded.none");
+            return;
+        }
+
+        long bytes = 0;
+        for (LoadedPlayers.Status entry : status) {
+            bytes += entry.estimatedBytes();
+        }
+        plugin.sendMessage(
+                sender,
+                "messages.info.loaded.stats",
+                new Replacement("%count%", String.valueOf(status.size())),
+                new Replacement("%size%", String.valueOf(bytes / 1024)),
+                new Replacement("%time%", String.valueOf(loaded.getIdleSeconds())),
+                new Replacement("%max%", String.valueOf(loaded.getMaxLoaded())));
+
+        for (LoadedPlayers.Status entry : status.subList(0, Math.min(HISTORY_ENTRIES, status.size()))) {
+            String state = entry.inUse() ? "open" : entry.leases() > 0 ? "leased" : "idle";
+            plugin.sendMessage(
+                    sender,
+                    "messages.info.loaded.entry",
+                    new Replacement("%player%", String.valueOf(entry.player().getName())),
+                    new Replacement("%state%", state),
+                    new Replacement("%count%", String.valueOf(entry.leases())),
+                    new Replacement("%time%", String.valueOf(entry.idleMillis() / 1000)),
+                    new Replacement("%size%", String.valueOf(entry.estimatedBytes() / 1024)));
+        }
+    }
+
+    private void editWatchList(final CommandSender sender, final String[] args) {
+        WatchList watchList = plugin.getWatchList();
+
+        if (args.length > 1 && !Permissions.WATCH.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionWatch");
+            return;
+        }
+
+        if (args.length > 2 && args[1].equalsIgnoreCase(ADD)) {
+            String query = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
+            try {
+                watchList.add(query);
+            } catch (IllegalArgumentException e) {
+                plugin.sendMessage(
+                        sender,
+                        "messages.error.invalidQuery",
+                        new Replacement("%target%", String.valueOf(e.getMessage())));
+                return;
+            }
+            plugin.sendMessage(sender, "messages.info.watch.added", new Replacement("%target%", query));
+            return;
+        }
+
+        if (args.length > 2 && args[1].equalsIgnoreCase(REMOVE)) {
+            String removed = null;
+            try {
+                removed = watchList.remove(Integer.parseInt(args[2]) - 1);
+            } catch (NumberFormatException ignored) {
+                // Handled as an invalid index below.
+            }
+            if (removed == null) {
+                plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", args[2]));
+                return;
+            }
+            plugin.sendMessage(sender, "messages.info.watch.removed", new Replacement("%target%", removed));
+            return;
+        }
+
+        List<String> queries = watchList.getQueries();
+        if (queries.isEmpty()) {
+            plugin.sendMessage(sender, "messages.info.watch.none");
+            return;
+        }
+
+        for (int i = 0; i < queries.size(); ++i) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.info.watch.entry",
+                    new Replacement("%id%", String.valueOf(i + 1)),
+                    new Replacement("%target%", queries.get(i)));
+        }
+    }
+
+    private @Nullable InventoryHistory getHistory(final CommandSender sender, final Permissions permission) {
+        if (!permission.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionHistory");
+            return null;
+        }
+
+        InventoryHistory history = plugin.getInventoryHistory();
+        if (history == null) {
+            plugin.sendMessage(sender, "messages.info.history.disabled");
+        }
+        return history;
+    }
+
+    private void showHistory(final CommandSender sender, final String name) {
+        InventoryHistory history = getHistory(sender, Permissions.HISTORY);
+        if (history == null) {
+            return;
+        }
+
+        matchPlayer(sender, name, target -> history.getSnapshots(target.getUniqueId()).whenComplete((snapshots, throwable) ->
+                plugin.getTaskScheduler().run(() -> {
+                    String targetName = target.getName() == null ? name : target.getName();
+                    if (throwable != null) {
+                        plugin.getLogger().log(Level.WARNING, "Unable to read inventory history", throwable);
+                        plugin.sendMessage(sender, "messages.error.commandException");
+                        return;
+                    }
+                    if (snapshots.isEmpty()) {
+                        plugin.sendMessage(sender, "messages.info.history.none", new Replacement("%player%", targetName));
+                        return;
+                    }
+
+                    // Newest first.
+                    for (int i = snapshots.size() - 1; i >= Math.max(0, snapshots.size() - HISTORY_ENTRIES); --i) {
+                        InventoryHistory.Snapshot snapshot = snapshots.get(i);
+                        plugin.sendMessage(
+                                sender,
+                                "messages.info.history.entry",
+                                new Replacement("%id%", String.valueOf(snapshot.id())),
+                                new Replacement("%time%", TIME.format(Instant.ofEpochMilli(snapshot.time()))),
+                                new Replacement("%target%", snapshot.kind().name().toLowerCase()),
+                                new Replacement("%state%", snapshot.reason().name().toLowerCase()),
+                                new Replacement("%count%", String.valueOf(snapshot.stacks())));
+                    }
+                })));
+    }
+
+    private void rollback(final CommandSender sender, final String name, final String idArgument) {
+        InventoryHistory history = getHistory(sender, Permissions.ROLLBACK);
+        if (history == null) {
+            return;
+        }
+
+        int id;
+        try {
+            id = Integer.parseInt(idArgument);
+        } catch (NumberFormatException e) {
+            plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", idArgument));
+            return;
+        }
+
+        matchPlayer(sender, name, target -> {
+            if (!target.isOnline() && !plugin.isPlayerLoaded(target.getUniqueId())) {
+                // Offline players are restored by rewriting their saved data.
+                if (plugin.disableOfflineAccess() || !Permissions.OPENOFFLINE.hasPermission(sender)) {
+                    plugin.sendMessage(sender, "messages.error.permissionPlayerOffline");
+                    return;
+                }
+                if (plugin.disableSaving()) {
+                    plugin.sendMessage(sender, "messages.error.savingDisabled");
+                    return;
+                }
+            }
+
+            String targetName = target.getName() == null ? name : target.getName();
+            history.rollback(target, id).whenComplete((snapshot, throwable) -> {
+                if (throwable != null) {
+                    plugin.getLogger().log(Level.WARNING, "Unable to restore inventory snapshot " + id, throwable);
+                    plugin.sendMessage(sender, "messages.error.commandException");
+                } else if (snapshot == null) {
+                    plugin.sendMessage(
+                            sender,
+                            "messages.error.invalidSnapshot",
+                            new Replacement("%target%", idArgument),
+                            new Replacement("%player%", targetName));
+                } else {
+                    plugin.sendMessage(
+                            sender,
+                            "messages.info.history.restored",
+                            new Replacement("%id%", idArgument),
+                            new Replacement("%target%", snapshot.kind().name().toLowerCase()),
+                            new Replacement("%player%", targetName));
+                }
+            });
+        });
+    }
+
+    private void showDiff(final CommandSender sender, final String name) {
+        if (!Permissions.DIFF.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionDiff");
+            return;
+        }
+
+        matchPlayer(sender, name, target -> {
+            String targetName = target.getName() == null ? name : target.getName();
+            Path file = PlayerDataSearch.getPlayerDataFolder(plugin.getServer()).resolve(target.getUniqueId() + ".dat");
+            if (target.isOnline() || plugin.isPlayerLoaded(target.getUniqueId())) {
+                plugin.sendMessage(sender, "messages.info.diff.loaded", new Replacement("%player%", targetName));
+            }
+
+            String description = DIFF + ' ' + targetName;
+            plugin.getSearchJobs().submit(sender, description, job -> {
+                CompletableFuture<Void> done = new CompletableFuture<>();
+                plugin.getSearchExecutor().execute(() -> {
+                    List<PlayerDataDiff.Change> changes = null;
+                    Throwable failure = null;
+                    if (Files.exists(PlayerDataDiff.getBackup(file))) {
+                        try {
+                            changes = PlayerDataDiff.compare(file);
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    List<PlayerDataDiff.Change> result = changes;
+                    Throwable throwable = failure;
+                    plugin.getTaskScheduler().run(() -> {
+                        done.complete(null);
+                        if (throwable != null) {
+                            plugin.getLogger().log(Level.WARNING, "Unable to compare player data of " + targetName, throwable);
+                            plugin.sendMessage(sender, "messages.error.commandException");
+                            return;
+                        }
+                        if (result == null) {
+                            plugin.sendMessage(sender, "messages.info.diff.noBackup", new Replacement("%player%", targetName));
+                            return;
+                        }
+                        if (job.isCancelled()) {
+                            return;
+                        }
+
+                        SearchResults results = SearchResultPages.start(plugin, sender, targetName, DIFF_HEADER);
+                        for (PlayerDataDiff.Change change : result) {
+                            addDiffResult(results, change);
+                        }
+                        SearchResultPages.finish(plugin, sender, results, "messages.info.diff.none");
+                    });
+                });
+                return done;
+            });
+        });
+    }
+
+    private static void addDiffResult(final SearchResults results, final PlayerDataDiff.Change change) {
+        String list = change.list().name().toLowerCase();
+        String type = change.type().name().toLowerCase();
+        String before = formatItem(change.before());
+        String after = formatItem(change.after());
+        String keys = String.join(", ", change.changedKeys());
+
+        StringBuilder display = new StringBuilder().append(list).append(' ').append(change.slot()).append(": ").append(type)
+                .append(' ').append(before).append(" -> ").append(after);
+        if (!keys.isEmpty()) {
+            display.append(" (").append(keys).append(')');
+        }
+        results.add(display.toString(), list, String.valueOf(change.slot()), type, before, after, keys);
+    }
+
+    private static String formatItem(final @Nullable ScannableItem item) {
+        return item == null ? "empty" : item.getId() + " x" + item.getAmount();
+    }
+
+    private void matchPlayer(final CommandSender sender, final String name, final Consumer<OfflinePlayer> consumer) {
+        plugin.getTaskScheduler().runAsync(() -> {
+            final OfflinePlayer offlinePlayer = plugin.matchPlayer(name);
+
+            plugin.getTaskScheduler().run(sender, () -> {
+                if (offlinePlayer == null || !offlinePlayer.hasPlayedBefore() && !offlinePlayer.isOnline()) {
+                    plugin.sendMessage(sender, "messages.error.invalidPlayer");
+                    return;
+                }
+                consumer.accept(offlinePlayer);
+            });
+        });
+    }
+
+    private void browse(final Player player, final String[] args, boolean openinv) {
+        if (args.length == 2 && args[1].equalsIgnoreCase(NEXT)) {
+            browser.move(player, 1);
+            return;
+        }
+        if (args.length == 2 && args[1].equalsIgnoreCase(PREVIOUS)) {
+            browser.move(player, -1);
+            return;
+        }
+        if (args.length == 2 && args[1].equalsIgnoreCase(STOP)) {
+            browser.stop(player);
+            return;
+        }
+
+        if (args.length > 1 && !args[1].equalsIgnoreCase(RESULTS)) {
+            browser.start(player, List.of(Arrays.copyOfRange(args, 1, args.length)), openinv);
+            return;
+        }
+
+        SearchResults results = plugin.getSearchResults(player);
+        List<String> targets = results == null ? List.of() : results.getColumn("uuid").stream().distinct().toList();
+        browser.start(player, targets, openinv);
+    }
+
+    /**
+     * Open a player's inventory or ender chest after checking permissions.
+     *
+     * @param player the player opening the inventory
+     * @param target the owner of the inventory
+     * @param openinv true to open the inventory, false to open the ender chest
+     */
+    void openInventory(final Player player, final OfflinePlayer target, boolean openinv) {
         Player onlineTarget;
         boolean online = target.isOnline();
 
@@ -215,7 +701,59 @@ public class OpenInvCommand implements TabExecutor {
 
     @Override
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
-        if (!command.testPermissionSilent(sender) || args.length != 1) {
+        if (!command.testPermissionSilent(sender) || args.length < 1) {
+            return Collections.emptyList();
+        }
+
+        if (args.length > 2) {
+            if (command.getName().equals("openinv")
+                    && args[0].equalsIgnoreCase(WATCH)
+                    && args[1].equalsIgnoreCase(ADD)) {
+                return TabCompleter.completeItemQuery(args[args.length - 1]);
+            }
+            if (args.length == 3
+                    && command.getName().equals("openinv")
+                    && args[0].equalsIgnoreCase(WATCH)
+                    && args[1].equalsIgnoreCase(REMOVE)) {
+                int size = plugin.getWatchList().getQueries().size();
+                String[] ids = new String[size];
+                for (int i = 0; i < size; ++i) {
+                    ids[i] = String.valueOf(i + 1);
+                }
+                return TabCompleter.completeString(args[2], ids);
+            }
+            return Collections.emptyList();
+        }
+
+        if (args.length == 2) {
+            if (!command.getName().equals("openinv")) {
+                return Collections.emptyList();
+            }
+            if (args[0].equalsIgnoreCase(RESULTS)) {
+                List<String> completions = new ArrayList<>(TabCompleter.completeInteger(args[1]));
+                completions.addAll(TabCompleter.completeString(args[1], new String[] { EXPORT }));
+                return completions;
+            }
+            if (args[0].equalsIgnoreCase(CANCEL)) {
+                List<String> ids = new ArrayList<>();
+                for (SearchJob job : plugin.getSearchJobs().getJobs()) {
+                    if (job.getOwner().equals(sender) || Permissions.SEARCH_CANCEL_OTHERS.hasPermission(sender)) {
+                        ids.add(String.valueOf(job.getId()));
+                    }
+                }
+                return TabCompleter.completeString(args[1], ids.toArray(new String[0]));
+            }
+            if (args[0].equalsIgnoreCase(WATCH)) {
+                return TabCompleter.completeString(args[1], new String[] { ADD, REMOVE });
+            }
+            if (args[0].equalsIgnoreCase(BROWSE)) {
+                List<String> completions = TabCompleter.completeString(args[1], new String[] { RESULTS, NEXT, PREVIOUS, STOP });
+                completions.addAll(TabCompleter.completeOnlinePlayer(sender, args[1]));
+                return completions;
+            }
+            if (args[0].equalsIgnoreCase(HISTORY) || args[0].equalsIgnoreCase(ROLLBACK) || args[0].equalsIgnoreCase(DIFF)) {
+                return TabCompleter.completeOnlinePlayer(sender, args[1]);
+            }
             return Collections.emptyList();
         }
 
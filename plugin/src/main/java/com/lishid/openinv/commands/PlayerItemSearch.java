@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.NestedItems;
+import com.lishid.openinv.search.PlayerDataSearch;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.search.SearchMonitor;
+import com.lishid.openinv.util.lang.Replacement;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Shared search of online and saved players' items for player search commands.
+ */
+final class PlayerItemSearch {
+
+    /** The names of the exported columns of a {@link NamedMatch}. */
+    static final String[] HEADER = { "player", "uuid", "inventory", "ender_chest" };
+
+    private final OpenInv plugin;
+    private final Predicate<ScannableItem> query;
+    private boolean inventory = true;
+    private boolean enderChest = true;
+    private int minimumAmount = 1;
+
+    PlayerItemSearch(@NotNull OpenInv plugin, @NotNull Predicate<ScannableItem> query) {
+        this.plugin = plugin;
+        this.query = query;
+    }
+
+    @NotNull PlayerItemSearch lists(boolean inventory, boolean enderChest) {
+        this.inventory = inventory;
+        this.enderChest = enderChest;
+        return this;
+    }
+
+    @NotNull PlayerItemSearch minimumAmount(int minimumAmount) {
+        this.minimumAmount = minimumAmount;
+        return this;
+    }
+
+    /**
+     * Search online players and, optionally, saved data of offline players. Must be called on the main thread.
+     * Matches are streamed to the listener as they are found; the listener and completion callback are always run on
+     * the main thread.
+     *
+     * @param sender the sender to notify of progress and errors
+     * @param target the description of the query for messages
+     * @param offline whether to search saved data of offline players
+     * @param monitor the monitor for progress and cancellation
+     * @param matchListener the consumer of each match, keyed by player name
+     * @param completion the callback run once the search is complete
+     * @return a future completing on the main thread after the completion callback
+     */
+    @NotNull CompletableFuture<Void> search(
+            @NotNull CommandSender sender,
+            @NotNull String target,
+            boolean offline,
+            @NotNull SearchMonitor monitor,
+            @NotNull Consumer<NamedMatch> matchListener,
+            @NotNull Runnable completion) {
+        int depth = plugin.getNestedSearchDepth();
+        Set<UUID> online = new HashSet<>();
+
+        Collection<? extends Player> players = plugin.getServer().getOnlinePlayers();
+        monitor.addWork(players.size());
+        for (Player player : players) {
+            monitor.addProgress(1);
+            online.add(player.getUniqueId());
+            boolean matchInventory = inventory && matches(player.getInventory(), depth);
+            boolean matchEnderChest = enderChest && matches(player.getEnderChest(), depth);
+            if (matchInventory || matchEnderChest) {
+                matchListener.accept(new NamedMatch(player.getName(), player.getUniqueId(), matchInventory, matchEnderChest));
+            }
+        }
+
+        if (!offline) {
+            completion.run();
+            return CompletableFuture.completedFuture(null);
+        }
+
+        plugin.sendMessage(sender, "messages.info.player.searching", new Replacement("%target%", target));
+
+        PlayerDataSearch search = new PlayerDataSearch(PlayerDataSearch.getPlayerDataFolder(plugin.getServer()), query, depth)
+                .filter(uuid -> !online.contains(uuid))
+                .lists(inventory, enderChest)
+                .minimumAmount(minimumAmount)
+                .monitor(monitor)
+                // Names are resolved on the main thread. Tasks run in order, so all matches precede completion.
+                .listener(match -> plugin.getTaskScheduler().run(() -> {
+                    OfflinePlayer player = plugin.getServer().getOfflinePlayer(match.uuid());
+                    String name = player.getName() != null ? player.getName() : match.uuid().toString();
+                    matchListener.accept(new NamedMatch(name, match.uuid(), match.inventory(), match.enderChest()));
+                }));
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        search.search(plugin.getSearchExecutor()).whenComplete((offlineMatches, throwable) ->
+                plugin.getTaskScheduler().run(() -> {
+                    if (throwable != null) {
+                        plugin.getLogger().log(Level.WARNING, "Unable to search player data", throwable);
+                        plugin.sendMessage(sender, "messages.error.commandException");
+                    }
+                    completion.run();
+                    future.complete(null);
+                }));
+        return future;
+    }
+
+    private boolean matches(@NotNull Inventory inventory, int depth) {
+        int[] total = new int[1];
+        plugin.getItemScanner().scan(inventory, item -> {
+            total[0] += NestedItems.count(item, query, depth);
+            return total[0] < minimumAmount;
+        });
+        return total[0] >= minimumAmount;
+    }
+
+    /**
+     * A player holding matching items.
+     *
+     * @param name the name of the player
+     * @param uuid the UUID of the player
+     * @param inventory whether the match is in the player's inventory
+     * @param enderChest whether the match is in the player's ender chest
+     */
+    record NamedMatch(@NotNull String name, @NotNull UUID uuid, boolean inventory, boolean enderChest) {
+
+        /**
+         * Get the name of the player followed by the lists holding matches, i.e. "Player (inv,ender)".
+         *
+         * @return the description of the match
+         */
+        @NotNull String describeLists() {
+            StringBuilder builder = new StringBuilder(name).append(" (");
+            if (inventory) {
+                builder.append("inv");
+            }
+            if (enderChest) {
+                if (inventory) {
+                    builder.append(',');
+                }
+                builder.append("ender");
+            }
+            return builder.append(')').toString();
+        }
+
+        /**
+         * Get the exported columns of the match, in the order of {@link #HEADER}.
+         *
+         * @return the columns
+         */
+        String @NotNull [] columns() {
+            return new String[] { name, uuid.toString(), String.valueOf(inventory), String.valueOf(enderChest) };
+        }
+
+    }
+
+}
@@ -17,19 +17,32 @@
 package com.lishid.openinv.commands;
 
 import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.ContainerMatch;
+import com.lishid.openinv.search.ItemQuery;
+import com.lishid.openinv.search.NestedItems;
+import com.lishid.openinv.search.RegionContainerSearch;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.search.SearchJob;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.Permissions;
 import com.lishid.openinv.util.TabCompleter;
 import com.lishid.openinv.util.lang.Replacement;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
 import org.bukkit.Chunk;
-import org.bukkit.Material;
 import org.bukkit.World;
-import org.bukkit.block.BlockState;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
 import org.bukkit.entity.Player;
-import org.bukkit.inventory.InventoryHolder;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -37,6 +50,11 @@ import org.jetbrains.annotations.NotNull;
  */
 public class SearchContainerCommand implements TabExecutor {
 
+    private static final String WORLD_RADIUS = "world";
+    private static final String LIMIT_PREFIX = "limit:";
+    private static final String[] REGION_TYPES = { "region", "entities" };
+    private static final String[] HEADER = { "type", "world", "x", "y", "z" };
+
     private final OpenInv plugin;
 
     public SearchContainerCommand(OpenInv plugin) {
@@ -51,90 +69,284 @@ public class SearchContainerCommand implements TabExecutor {
         }
 
         if (args.length < 1) {
-            // Must supply material
-            return false;
-        }
-
-        Material material = Material.getMaterial(args[0].toUpperCase());
-
-        if (material == null) {
-            plugin.sendMessage(
-                    sender,
-                    "messages.error.invalidMaterial",
-                    new Replacement("%target%", args[0]));
+            // Must supply query
             return false;
         }
 
+        boolean searchUnloaded = plugin.getConfig().getBoolean("settings.command.searchcontainer.search-unloaded", true);
         int radius = 5;
+        boolean wholeWorld = false;
+        int limit = 0;
+        int end = args.length;
 
-        if (args.length > 1) {
+        // A trailing "limit:<count>" caps results to the nearest matches.
+        if (end > 1 && args[end - 1].toLowerCase().startsWith(LIMIT_PREFIX)) {
+            String value = args[end - 1].substring(LIMIT_PREFIX.length());
             try {
-                radius = Integer.parseInt(args[1]);
-            } catch (NumberFormatException e) {
-                // Invalid radius supplied
+                limit = Integer.parseInt(value);
+            } catch (NumberFormatException ignored) {
+                // Handled as a non-positive limit below.
+            }
+            if (limit < 1) {
+                plugin.sendMessage(sender, "messages.error.invalidNumber", new Replacement("%target%", value));
                 return false;
             }
+            --end;
+        }
+
+        // A trailing whole number or "world" is the search radius, anything before it is the query.
+        if (end > 1) {
+            String last = args[end - 1];
+            if (last.equalsIgnoreCase(WORLD_RADIUS)) {
+                if (!searchUnloaded) {
+                    // Whole world searches are only supported from region files.
+                    return false;
+                }
+                if (!Permissions.SEARCHCONTAINER_WORLD.hasPermission(sender)) {
+                    plugin.sendMessage(sender, "messages.error.permissionSearchWorld");
+                    return true;
+                }
+                wholeWorld = true;
+                --end;
+            } else {
+                try {
+                    radius = Integer.parseInt(last);
+                    --end;
+                } catch (NumberFormatException ignored) {
+                    // Part of the query.
+                }
+            }
+        }
+
+        ItemQuery query;
+        try {
+            query = ItemQuery.compile(String.join(" ", Arrays.copyOfRange(args, 0, end)));
+        } catch (IllegalArgumentException e) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.error.invalidQuery",
+                    new Replacement("%target%", String.valueOf(e.getMessage())));
+            return false;
         }
 
         // Clamp radius.
         int configMax = plugin.getConfig().getInt("settings.command.searchcontainer.max-radius", 10);
         radius = Math.max(0, Math.min(radius, configMax));
 
-        World world = senderPlayer.getWorld();
-        Chunk centerChunk = senderPlayer.getLocation().getChunk();
-        StringBuilder locations = new StringBuilder();
+        int searchRadius = radius;
+        boolean searchWorld = wholeWorld;
+        int searchLimit = limit;
+        plugin.getSearchJobs().submit(
+                sender,
+                query.toString(),
+                job -> searchLimit > 0
+                        ? searchNearest(senderPlayer, query, searchWorld ? -1 : searchRadius, searchUnloaded, searchLimit, job)
+                        : search(senderPlayer, query, searchRadius, searchWorld, searchUnloaded, job));
+        return true;
+    }
 
-        for (int dX = -radius; dX <= radius; ++dX) {
-            for (int dZ = -radius; dZ <= radius; ++dZ) {
-                if (!world.loadChunk(centerChunk.getX() + dX, centerChunk.getZ() + dZ, false)) {
-                    continue;
-                }
-                Chunk chunk = world.getChunkAt(centerChunk.getX() + dX, centerChunk.getZ() + dZ);
-                for (BlockState tileEntity : chunk.getTileEntities()) {
-                    if (!(tileEntity instanceof InventoryHolder holder)) {
-                        continue;
-                    }
-                    if (!holder.getInventory().contains(material)) {
-                        continue;
+    private @NotNull CompletableFuture<?> searchNearest(
+            @NotNull Player sender,
+            @NotNull ItemQuery query,
+            int radius,
+            boolean searchUnloaded,
+            int limit,
+            @NotNull SearchJob job) {
+        if (!sender.isOnline()) {
+            // Searcher logged out while the job was queued.
+            return CompletableFuture.completedFuture(null);
+        }
+
+        World world = sender.getWorld();
+        String target = query.toString();
+        SearchResults results = SearchResultPages.start(plugin, sender, target, HEADER);
+        int depth = plugin.getNestedSearchDepth();
+        NearestContainerSearch search = new NearestContainerSearch(
+                plugin,
+                sender.getLocation(),
+                item -> NestedItems.anyMatch(item, query, depth),
+                query.getRequiredIds(),
+                job,
+                limit);
+
+        if (!searchUnloaded) {
+            return search.searchLoading(radius).handle((matches, throwable) -> {
+                if (throwable != null) {
+                    plugin.getLogger().log(Level.WARNING, "Unable to search containers", throwable);
+                    plugin.sendMessage(sender, "messages.error.commandException");
+                } else {
+                    for (ContainerMatch match : matches) {
+                        results.add(match.toString(), columns(world, match));
                     }
-                    locations.append(holder.getInventory().getType().name().toLowerCase()).append(" (")
-                            .append(tileEntity.getX()).append(',').append(tileEntity.getY()).append(',')
-                            .append(tileEntity.getZ()).append("), ");
+                }
+                SearchResultPages.finish(plugin, sender, results, "messages.info.container.noMatches");
+                return null;
+            });
+        }
+
+        plugin.sendMessage(sender, "messages.info.container.searching", new Replacement("%target%", target));
+
+        // Matches are only known to be nearest once the search ends, so they are not streamed.
+        return search.search(radius).handle((matches, throwable) -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "Unable to search containers", throwable);
+                plugin.sendMessage(sender, "messages.error.commandException");
+            } else {
+                for (ContainerMatch match : matches) {
+                    results.add(match.toString(), columns(world, match));
                 }
             }
+            if (search.getChunksFailed() > 0) {
+                plugin.sendMessage(
+                        sender,
+                        "messages.info.container.unreadable",
+                        new Replacement("%count%", String.valueOf(search.getChunksFailed())));
+            }
+            SearchResultPages.finish(plugin, sender, results, "messages.info.container.noMatches");
+            return null;
+        });
+    }
+
+    private @NotNull CompletableFuture<?> search(
+            @NotNull Player sender,
+            @NotNull ItemQuery query,
+            int radius,
+            boolean wholeWorld,
+            boolean searchUnloaded,
+            @NotNull SearchJob job) {
+        if (!sender.isOnline()) {
+            // Searcher logged out while the job was queued.
+            return CompletableFuture.completedFuture(null);
+        }
+
+        World world = sender.getWorld();
+        int centerChunkX = sender.getLocation().getBlockX() >> 4;
+        int centerChunkZ = sender.getLocation().getBlockZ() >> 4;
+        String target = query.toString();
+        SearchResults results = SearchResultPages.start(plugin, sender, target, HEADER);
+        Consumer<ContainerMatch> matchListener = match -> results.add(match.toString(), columns(world, match));
+        int depth = plugin.getNestedSearchDepth();
+        Predicate<ScannableItem> matcher = item -> NestedItems.anyMatch(item, query, depth);
+
+        if (!searchUnloaded) {
+            // Legacy behavior: load existing chunks in radius on the tick thread owning them.
+            List<Long> chunks = new ArrayList<>();
+            for (int dX = -radius; dX <= radius; ++dX) {
+                for (int dZ = -radius; dZ <= radius; ++dZ) {
+                    chunks.add(RegionContainerSearch.chunkKey(centerChunkX + dX, centerChunkZ + dZ));
+                }
+            }
+            return new LoadedChunkSearch(plugin, world, chunks, matcher, matchListener, job)
+                    .useIndex(query.getRequiredIds())
+                    .loadChunks()
+                    .start()
+                    .handle((unused, throwable) -> {
+                        if (throwable != null) {
+                            plugin.getLogger().log(Level.WARNING, "Unable to search containers", throwable);
+                            plugin.sendMessage(sender, "messages.error.commandException");
+                        }
+                        SearchResultPages.finish(plugin, sender, results, "messages.info.container.noMatches");
+                        return null;
+                    });
         }
 
-        // Matches found, delete trailing comma and space
-        if (locations.length() > 0) {
-            locations.delete(locations.length() - 2, locations.length());
+        // Search loaded chunks live; saved data may be outdated for them.
+        Set<Long> loadedChunks = new HashSet<>();
+        if (wholeWorld) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                loadedChunks.add(RegionContainerSearch.chunkKey(chunk.getX(), chunk.getZ()));
+            }
         } else {
-            plugin.sendMessage(
-                    sender,
-                    "messages.info.container.noMatches",
-                    new Replacement("%target%", material.name()));
-            return true;
+            for (int dX = -radius; dX <= radius; ++dX) {
+                for (int dZ = -radius; dZ <= radius; ++dZ) {
+                    int chunkX = centerChunkX + dX;
+                    int chunkZ = centerChunkZ + dZ;
+                    if (world.isChunkLoaded(chunkX, chunkZ)) {
+                        loadedChunks.add(RegionContainerSearch.chunkKey(chunkX, chunkZ));
+                    }
+                }
+            }
         }
 
-        plugin.sendMessage(
-                sender,
-                "messages.info.container.matches",
-                new Replacement("%target%", material.name()),
-                new Replacement("%detail%", locations.toString()));
-        return true;
+        // Search unloaded chunks from region files off the main thread. Since 1.17 entities are saved separately.
+        List<RegionContainerSearch> searches = new ArrayList<>();
+        for (String type : REGION_TYPES) {
+            RegionContainerSearch search = new RegionContainerSearch(
+                    RegionContainerSearch.getRegionFolder(world, type),
+                    matcher)
+                    .filter(chunkKey -> !loadedChunks.contains(chunkKey))
+                    .listener(matchListener)
+                    .monitor(job);
+            if (!wholeWorld) {
+                search.bounds(
+                        centerChunkX - radius,
+                        centerChunkZ - radius,
+                        centerChunkX + radius,
+                        centerChunkZ + radius);
+            }
+            searches.add(search);
+        }
+
+        plugin.sendMessage(sender, "messages.info.container.searching", new Replacement("%target%", target));
+
+        List<CompletableFuture<?>> futures = new ArrayList<>();
+        for (RegionContainerSearch search : searches) {
+            futures.add(search.search(plugin.getSearchExecutor()));
+        }
+        futures.add(new LoadedChunkSearch(plugin, world, loadedChunks, matcher, matchListener, job)
+                .useIndex(query.getRequiredIds())
+                .start());
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).whenComplete((unused, throwable) ->
+                plugin.getTaskScheduler().run(() -> {
+                    if (throwable != null) {
+                        plugin.getLogger().log(Level.WARNING, "Unable to search containers", throwable);
+                        plugin.sendMessage(sender, "messages.error.commandException");
+                    }
+                    int failed = 0;
+                    for (RegionContainerSearch search : searches) {
+                        failed += search.getChunksFailed();
+                    }
+                    if (failed > 0) {
+                        plugin.sendMessage(
+                                sender,
+                                "messages.info.container.unreadable",
+                                new Replacement("%count%", String.valueOf(failed)));
+                    }
+                    SearchResultPages.finish(plugin, sender, results, "messages.info.container.noMatches");
+                    done.complete(null);
+                }));
+
+        return done;
+    }
+
+    private static String @NotNull [] columns(@NotNull World world, @NotNull ContainerMatch match) {
+        return new String[] {
+                match.type(),
+                world.getName(),
+                String.valueOf(match.x()),
+                String.valueOf(match.y()),
+                String.valueOf(match.z())
+        };
     }
 
     @Override
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, String[] args) {
-        if (args.length < 1 || args.length > 2 || !command.testPermissionSilent(sender)) {
+        if (args.length < 1 || !command.testPermissionSilent(sender)) {
             return Collections.emptyList();
         }
 
         String argument = args[args.length - 1];
-        if (args.length == 1) {
-            return TabCompleter.completeEnum(argument, Material.class);
-        } else {
-            return TabCompleter.completeInteger(argument);
+        List<String> completions = TabCompleter.completeItemQuery(argument);
+        if (args.length > 1) {
+            completions.addAll(TabCompleter.completeInteger(argument));
+            completions.addAll(TabCompleter.completeString(argument, new String[] { LIMIT_PREFIX }));
+            if (Permissions.SEARCHCONTAINER_WORLD.hasPermission(sender)) {
+                completions.addAll(TabCompleter.completeString(argument, new String[] { WORLD_RADIUS }));
+            }
         }
+        return completions;
     }
 
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.DuplicateScan;
+import com.lishid.openinv.search.SearchJob;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.Permissions;
+import com.lishid.openinv.util.TabCompleter;
+import com.lishid.openinv.util.lang.Replacement;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command for finding unique items, such as renamed or enchanted gear, that exist more than once.
+ */
+public class SearchDuplicatesCommand implements TabExecutor {
+
+    private static final String REGIONS = "regions";
+    private static final String RESUME = "resume";
+    private static final String[] HEADER = { "fingerprint", "item", "count", "locations" };
+
+    private final OpenInv plugin;
+
+    public SearchDuplicatesCommand(OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        boolean offline = false;
+        boolean regions = false;
+        boolean resume = false;
+        for (String argument : args) {
+            if (argument.equalsIgnoreCase(SearchInvCommand.OFFLINE)) {
+                offline = true;
+            } else if (argument.equalsIgnoreCase(REGIONS)) {
+                regions = true;
+            } else if (argument.equalsIgnoreCase(RESUME)) {
+                resume = true;
+            } else {
+                return false;
+            }
+        }
+
+        if (offline && (plugin.disableOfflineAccess() || !Permissions.OPENOFFLINE.hasPermission(sender))) {
+            plugin.sendMessage(sender, "messages.error.permissionPlayerOffline");
+            return true;
+        }
+
+        if (regions && !Permissions.SEARCHCONTAINER_WORLD.hasPermission(sender)) {
+            plugin.sendMessage(sender, "messages.error.permissionSearchWorld");
+            return true;
+        }
+
+        if (DuplicateScan.isRunning()) {
+            plugin.sendMessage(sender, "messages.error.duplicateScanRunning");
+            return true;
+        }
+
+        String target = String.join(" ", args).trim();
+        if (target.isEmpty()) {
+            target = "duplicates";
+        }
+        String description = target;
+        boolean searchOffline = offline;
+        boolean searchRegions = regions;
+        boolean searchResume = resume;
+        plugin.getSearchJobs().submit(
+                sender,
+                description,
+                job -> search(sender, description, searchOffline, searchRegions, searchResume, job));
+        return true;
+    }
+
+    private @NotNull CompletableFuture<?> search(
+            @NotNull CommandSender sender,
+            @NotNull String target,
+            boolean offline,
+            boolean regions,
+            boolean resume,
+            @NotNull SearchJob job) {
+        DuplicateScan scan = new DuplicateScan(plugin, job);
+        CompletableFuture<List<DuplicateScan.Result>> future = scan.run(offline, regions, resume);
+        if (future == null) {
+            plugin.sendMessage(sender, "messages.error.duplicateScanRunning");
+            return CompletableFuture.completedFuture(null);
+        }
+
+        SearchResults results = SearchResultPages.start(plugin, sender, target, HEADER);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        future.whenComplete((duplicates, throwable) -> plugin.getTaskScheduler().run(() -> {
+            if (throwable != null) {
+                plugin.getLogger().log(Level.WARNING, "Duplicate scan failed", throwable);
+                plugin.sendMessage(sender, "messages.error.commandException");
+            } else {
+                for (DuplicateScan.Result duplicate : duplicates) {
+                    addResult(results, duplicate);
+                }
+            }
+            if (job.isCancelled()) {
+                plugin.sendMessage(sender, "messages.info.duplicates.checkpoint");
+            } else if (scan.isTruncated()) {
+                plugin.sendMessage(sender, "messages.info.duplicates.truncated");
+            }
+            SearchResultPages.finish(plugin, sender, results, "messages.info.duplicates.noMatches");
+            done.complete(null);
+        }));
+        return done;
+    }
+
+    private void addResult(@NotNull SearchResults results, @NotNull DuplicateScan.Result duplicate) {
+        StringJoiner locations = new StringJoiner(", ");
+        for (DuplicateScan.Holder holder : duplicate.holders()) {
+            if (holder.player() == null) {
+                locations.add(holder.description());
+                continue;
+            }
+            String name = plugin.getServer().getOfflinePlayer(holder.player()).getName();
+            locations.add((name == null ? holder.player().toString() : name) + ' ' + holder.description());
+        }
+
+        String fingerprint = String.format("%016x", duplicate.fingerprint());
+        results.add(
+                duplicate.itemId() + " #" + fingerprint + " x" + duplicate.count() + ": " + locations,
+                fingerprint,
+                duplicate.itemId(),
+                String.valueOf(duplicate.count()),
+                locations.toString());
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (args.length < 1 || !command.testPermissionSilent(sender)) {
+            return Collections.emptyList();
+        }
+
+        String[] options = DuplicateScan.hasCheckpoint(plugin)
+                ? new String[] { SearchInvCommand.OFFLINE, REGIONS, RESUME }
+                : new String[] { SearchInvCommand.OFFLINE, REGIONS };
+        return TabCompleter.completeString(args[args.length - 1], options);
+    }
+
+}
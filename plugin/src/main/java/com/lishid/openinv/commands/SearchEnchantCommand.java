@@ -17,22 +17,18 @@
 package com.lishid.openinv.commands;
 
 import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.ItemQuery;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.Permissions;
 import com.lishid.openinv.util.TabCompleter;
-import com.lishid.openinv.util.lang.Replacement;
 import java.util.Collections;
 import java.util.List;
-import org.bukkit.Material;
 import org.bukkit.NamespacedKey;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
 import org.bukkit.enchantments.Enchantment;
-import org.bukkit.entity.Player;
-import org.bukkit.inventory.Inventory;
-import org.bukkit.inventory.ItemStack;
-import org.bukkit.inventory.meta.ItemMeta;
 import org.jetbrains.annotations.NotNull;
-import org.jetbrains.annotations.Nullable;
 
 /**
  * Command adding the ability to search online players' inventories for enchantments of a specific
@@ -56,6 +52,7 @@ public class SearchEnchantCommand implements TabExecutor {
 
         Enchantment enchant = null;
         int level = 0;
+        boolean offline = false;
 
         for (String argument : args) {
             try {
@@ -64,6 +61,12 @@ public class SearchEnchantCommand implements TabExecutor {
             } catch (NumberFormatException ignored) {}
 
             argument = argument.toLowerCase();
+
+            if (argument.equals(SearchInvCommand.OFFLINE)) {
+                offline = true;
+                continue;
+            }
+
             int colon = argument.indexOf(':');
             NamespacedKey key;
             try {
@@ -87,86 +90,39 @@ public class SearchEnchantCommand implements TabExecutor {
             return false;
         }
 
-        StringBuilder players = new StringBuilder();
-        for (Player player : plugin.getServer().getOnlinePlayers()) {
-            boolean flagInventory = containsEnchantment(player.getInventory(), enchant, level);
-            boolean flagEnder = containsEnchantment(player.getEnderChest(), enchant, level);
-
-            // No matches, continue
-            if (!flagInventory && !flagEnder) {
-                continue;
-            }
-
-            // Matches, append details
-            players.append(player.getName()).append(" (");
-            if (flagInventory) {
-                players.append("inv");
-            }
-            if (flagEnder) {
-                if (flagInventory) {
-                    players.append(',');
-                }
-                players.append("ender");
-            }
-            players.append("), ");
-        }
-
-        if (players.length() > 0) {
-            // Matches found, delete trailing comma and space
-            players.delete(players.length() - 2, players.length());
-        } else {
-            plugin.sendMessage(
-                    sender,
-                    "messages.info.player.noMatches",
-                    new Replacement("%target%", (enchant != null ? enchant.getKey().toString() : "") + " >= " + level));
+        if (offline && (plugin.disableOfflineAccess() || !Permissions.OPENOFFLINE.hasPermission(sender))) {
+            plugin.sendMessage(sender, "messages.error.permissionPlayerOffline");
             return true;
         }
 
-        plugin.sendMessage(
-                sender,
-                "messages.info.player.matches",
-                new Replacement("%target%", (enchant != null ? enchant.getKey().toString() : "") + " >= " + level),
-                        new Replacement("%detail%", players.toString()));
+        ItemQuery query = ItemQuery.enchanted(enchant != null ? enchant.getKey().toString() : null, level);
+        String target = (enchant != null ? enchant.getKey().toString() : "") + " >= " + level;
+        boolean searchOffline = offline;
+        plugin.getSearchJobs().submit(sender, target, job -> {
+            SearchResults results = SearchResultPages.start(plugin, sender, target, PlayerItemSearch.HEADER);
+            return new PlayerItemSearch(plugin, query).search(
+                    sender,
+                    target,
+                    searchOffline,
+                    job,
+                    match -> results.add(match.describeLists(), match.columns()),
+                    () -> SearchResultPages.finish(plugin, sender, results, "messages.info.player.noMatches"));
+        });
         return true;
     }
 
-    private boolean containsEnchantment(Inventory inventory, @Nullable Enchantment enchant, int minLevel) {
-        for (ItemStack item : inventory.getContents()) {
-            if (item == null || item.getType() == Material.AIR) {
-                continue;
-            }
-            if (enchant != null) {
-                if (item.containsEnchantment(enchant) && item.getEnchantmentLevel(enchant) >= minLevel) {
-                    return true;
-                }
-            } else {
-                if (!item.hasItemMeta()) {
-                    continue;
-                }
-                ItemMeta meta = item.getItemMeta();
-                if (meta == null || !meta.hasEnchants()) {
-                    continue;
-                }
-                for (int enchLevel : meta.getEnchants().values()) {
-                    if (enchLevel >= minLevel) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
     @Override
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
-        if (!command.testPermissionSilent(sender) || args.length < 1 || args.length > 2) {
+        if (!command.testPermissionSilent(sender) || args.length < 1 || args.length > 3) {
             return Collections.emptyList();
         }
 
         if (args.length == 1) {
             return TabCompleter.completeObject(args[0], enchantment -> enchantment.getKey().toString(), Enchantment.values());
-        } else {
+        } else if (args.length == 2) {
             return TabCompleter.completeInteger(args[1]);
+        } else {
+            return TabCompleter.completeString(args[2], new String[] { SearchInvCommand.OFFLINE });
         }
     }
 
@@ -17,20 +17,23 @@
 package com.lishid.openinv.commands;
 
 import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.ItemQuery;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.Permissions;
 import com.lishid.openinv.util.TabCompleter;
 import com.lishid.openinv.util.lang.Replacement;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import org.bukkit.Material;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabExecutor;
-import org.bukkit.entity.Player;
-import org.bukkit.inventory.Inventory;
 import org.jetbrains.annotations.NotNull;
 
 public class SearchInvCommand implements TabExecutor {
 
+    static final String OFFLINE = "offline";
+
     private final OpenInv plugin;
 
     public SearchInvCommand(OpenInv plugin) {
@@ -40,74 +43,83 @@ public class SearchInvCommand implements TabExecutor {
     @Override
     public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
 
-        Material material = null;
-
-        if (args.length >= 1) {
-            material = Material.getMaterial(args[0].toUpperCase());
-        }
-
-        if (material == null) {
+        if (args.length < 1) {
             plugin.sendMessage(
                     sender,
                     "messages.error.invalidMaterial",
-                    new Replacement("%target%", args.length > 0 ? args[0] : "null"));
+                    new Replacement("%target%", "null"));
             return false;
         }
 
+        int end = args.length;
+        boolean offline = false;
+        if (end > 1 && args[end - 1].equalsIgnoreCase(OFFLINE)) {
+            offline = true;
+            --end;
+        }
+
         int count = 1;
 
-        if (args.length >= 2) {
+        // Legacy syntax: a trailing whole number is the minimum total amount.
+        if (end > 1) {
             try {
-                count = Integer.parseInt(args[1]);
-            } catch (NumberFormatException ex) {
-                plugin.sendMessage(
-                        sender,
-                        "messages.error.invalidNumber",
-                        new Replacement("%target%", args[1]));
-                return false;
-            }
-        }
-
-        StringBuilder players = new StringBuilder();
-        boolean searchInv = command.getName().equals("searchinv");
-        for (Player player : plugin.getServer().getOnlinePlayers()) {
-            Inventory inventory = searchInv ? player.getInventory() : player.getEnderChest();
-            if (inventory.contains(material, count)) {
-                players.append(player.getName()).append(", ");
+                count = Integer.parseInt(args[end - 1]);
+                --end;
+            } catch (NumberFormatException ignored) {
+                // Part of the query.
             }
         }
 
-        // Matches found, delete trailing comma and space
-        if (players.length() > 0) {
-            players.delete(players.length() - 2, players.length());
-        } else {
+        ItemQuery query;
+        try {
+            query = ItemQuery.compile(String.join(" ", Arrays.copyOfRange(args, 0, end)));
+        } catch (IllegalArgumentException e) {
             plugin.sendMessage(
                     sender,
-                    "messages.info.player.noMatches",
-                    new Replacement("%target%", material.name()));
+                    "messages.error.invalidQuery",
+                    new Replacement("%target%", String.valueOf(e.getMessage())));
+            return false;
+        }
+
+        if (offline && (plugin.disableOfflineAccess() || !Permissions.OPENOFFLINE.hasPermission(sender))) {
+            plugin.sendMessage(sender, "messages.error.permissionPlayerOffline");
             return true;
         }
 
-        plugin.sendMessage(
-                sender,
-                "messages.info.player.matches",
-                new Replacement("%target%", material.name()),
-                new Replacement("%detail%", players.toString()));
+        boolean searchInv = command.getName().equals("searchinv");
+        String target = query.toString();
+        PlayerItemSearch search = new PlayerItemSearch(plugin, query)
+                .lists(searchInv, !searchInv)
+                .minimumAmount(count);
+        boolean searchOffline = offline;
+        plugin.getSearchJobs().submit(sender, target, job -> {
+            SearchResults results = SearchResultPages.start(plugin, sender, target, PlayerItemSearch.HEADER);
+            return search.search(
+                    sender,
+                    target,
+                    searchOffline,
+                    job,
+                    match -> results.add(match.name(), match.columns()),
+                    () -> SearchResultPages.finish(plugin, sender, results, "messages.info.player.noMatches"));
+        });
         return true;
     }
 
     @Override
     public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
-        if (args.length < 1 || args.length > 2 || !command.testPermissionSilent(sender)) {
+        if (args.length < 1 || !command.testPermissionSilent(sender)) {
             return Collections.emptyList();
         }
 
         String argument = args[args.length - 1];
         if (args.length == 1) {
-            return TabCompleter.completeEnum(argument, Material.class);
-        } else {
-            return TabCompleter.completeInteger(argument);
+            return TabCompleter.completeItemQuery(argument);
         }
+
+        List<String> completions = TabCompleter.completeItemQuery(argument);
+        completions.addAll(TabCompleter.completeInteger(argument));
+        completions.addAll(TabCompleter.completeString(argument, new String[] { OFFLINE }));
+        return completions;
     }
 
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.PlayerDataIndex;
+import com.lishid.openinv.search.PlayerDataIndex.Filter;
+import com.lishid.openinv.search.PlayerDataIndex.Row;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.TabCompleter;
+import com.lishid.openinv.util.lang.Replacement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.StringJoiner;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Command for finding players by indexed scalar fields of their saved data, i.e. location, level or last played time.
+ */
+public class SearchPlayersCommand implements TabExecutor {
+
+    private final OpenInv plugin;
+
+    public SearchPlayersCommand(OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        PlayerDataIndex index = plugin.getPlayerDataIndex();
+        if (index == null) {
+            plugin.sendMessage(sender, "messages.info.player.indexDisabled");
+            return true;
+        }
+
+        String fields = String.join(", ", index.getFields());
+        if (args.length == 0) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.info.player.indexStats",
+                    new Replacement("%count%", String.valueOf(index.size())),
+                    new Replacement("%fields%", fields),
+                    new Replacement("%size%", String.valueOf(index.getEstimatedBytes() / 1024)));
+            return false;
+        }
+
+        List<Filter> filters = new ArrayList<>();
+        for (String argument : args) {
+            Filter filter;
+            try {
+                filter = Filter.parse(argument);
+            } catch (IllegalArgumentException e) {
+                plugin.sendMessage(sender, "messages.error.invalidQuery", new Replacement("%target%", argument));
+                return true;
+            }
+            if (!index.getFields().contains(filter.field().toLowerCase())) {
+                plugin.sendMessage(
+                        sender,
+                        "messages.error.invalidField",
+                        new Replacement("%target%", filter.field()),
+                        new Replacement("%fields%", fields));
+                return true;
+            }
+            filters.add(filter);
+        }
+
+        if (!index.isBuilt()) {
+            plugin.sendMessage(sender, "messages.info.player.indexBuilding");
+        }
+
+        String target = String.join(" ", args);
+        String[] header = new String[index.getFields().size() + 2];
+        header[0] = "player";
+        header[1] = "uuid";
+        for (int i = 0; i < index.getFields().size(); ++i) {
+            header[i + 2] = index.getFields().get(i);
+        }
+
+        SearchResults results = SearchResultPages.start(plugin, sender, target, header);
+        for (Row row : index.query(filters)) {
+            String name = plugin.getServer().getOfflinePlayer(row.playerId()).getName();
+            if (name == null) {
+                name = row.playerId().toString();
+            }
+
+            String[] columns = new String[header.length];
+            columns[0] = name;
+            columns[1] = row.playerId().toString();
+            StringJoiner detail = new StringJoiner(", ", name + " (", ")");
+            for (int i = 2; i < header.length; ++i) {
+                Object value = row.values().get(header[i]);
+                columns[i] = value == null ? "" : format(value);
+                if (value != null) {
+                    detail.add(header[i] + '=' + columns[i]);
+                }
+            }
+            results.add(detail.toString(), columns);
+        }
+        SearchResultPages.finish(plugin, sender, results, "messages.info.player.noMatches");
+        return true;
+    }
+
+    private static @NotNull String format(@NotNull Object value) {
+        if (value instanceof Double number) {
+            double rounded = Math.rint(number);
+            // Show whole numbers, including epoch timestamps, without a decimal point.
+            if (rounded == number && Math.abs(rounded) < 1e15) {
+                return String.valueOf((long) rounded);
+            }
+            return String.format("%.2f", number);
+        }
+        return value.toString();
+    }
+
+    @Override
+    public List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        PlayerDataIndex index = plugin.getPlayerDataIndex();
+        if (!command.testPermissionSilent(sender) || args.length < 1 || index == null) {
+            return Collections.emptyList();
+        }
+
+        String argument = args[args.length - 1];
+        if (argument.indexOf('=') > -1 || argument.indexOf('<') > -1 || argument.indexOf('>') > -1) {
+            return Collections.emptyList();
+        }
+        return TabCompleter.completeString(argument, index.getFields().toArray(new String[0]));
+    }
+
+}
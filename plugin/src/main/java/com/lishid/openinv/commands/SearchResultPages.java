@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.commands;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.SearchResults;
+import com.lishid.openinv.util.lang.Replacement;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.logging.Level;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Helpers for streaming search results into a sender's paged result buffer.
+ */
+final class SearchResultPages {
+
+    private static final DateTimeFormatter EXPORT_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    /**
+     * Start a new result buffer for a sender, replacing any previous results. The first page is shown as soon as it
+     * fills, even if the search is still running.
+     *
+     * @param plugin the plugin instance
+     * @param sender the sender searching
+     * @param target the description of the search
+     * @param header the names of the exported columns
+     * @return the new results
+     */
+    static @NotNull SearchResults start(
+            @NotNull OpenInv plugin,
+            @NotNull CommandSender sender,
+            @NotNull String target,
+            String @NotNull ... header) {
+        SearchResults results = new SearchResults(
+                target,
+                plugin.getSearchPageSize(),
+                plugin.getSearchMaxResults(),
+                header);
+        results.onFirstPage(() -> plugin.getTaskScheduler().run(() -> sendPage(plugin, sender, results, 1)));
+        plugin.setSearchResults(sender, results);
+        return results;
+    }
+
+    /**
+     * Complete a search and notify the sender. Must be called on the main thread.
+     *
+     * @param plugin the plugin instance
+     * @param sender the sender searching
+     * @param results the results
+     * @param noMatchesKey the message key sent if there are no results
+     */
+    static void finish(
+            @NotNull OpenInv plugin,
+            @NotNull CommandSender sender,
+            @NotNull SearchResults results,
+            @NotNull String noMatchesKey) {
+        boolean firstPageShown = results.complete();
+
+        if (results.size() == 0) {
+            plugin.sendMessage(sender, noMatchesKey, new Replacement("%target%", results.getTarget()));
+        } else if (firstPageShown) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.info.results.complete",
+                    new Replacement("%target%", results.getTarget()),
+                    new Replacement("%count%", String.valueOf(results.size())));
+            sendTruncated(plugin, sender, results);
+        } else {
+            sendPage(plugin, sender, results, 1);
+        }
+    }
+
+    /**
+     * Send a page of results.
+     *
+     * @param plugin the plugin instance
+     * @param sender the sender
+     * @param results the results
+     * @param page the page, starting at 1
+     */
+    static void sendPage(
+            @NotNull OpenInv plugin,
+            @NotNull CommandSender sender,
+            @NotNull SearchResults results,
+            int page) {
+        int pages = results.getPageCount();
+        page = Math.max(1, Math.min(page, pages));
+
+        plugin.sendMessage(
+                sender,
+                "messages.info.results.header",
+                new Replacement("%target%", results.getTarget()),
+                new Replacement("%page%", String.valueOf(page)),
+                new Replacement("%pages%", String.valueOf(pages)),
+                new Replacement("%count%", String.valueOf(results.size())));
+
+        List<String> lines = results.getPage(page);
+        for (String line : lines) {
+            plugin.sendMessage(sender, "messages.info.results.entry", new Replacement("%detail%", line));
+        }
+
+        if (page < pages) {
+            plugin.sendMessage(sender, "messages.info.results.more", new Replacement("%page%", String.valueOf(page + 1)));
+        }
+
+        if (!results.isComplete()) {
+            plugin.sendMessage(sender, "messages.info.results.searching");
+        } else {
+            sendTruncated(plugin, sender, results);
+        }
+    }
+
+    private static void sendTruncated(
+            @NotNull OpenInv plugin,
+            @NotNull CommandSender sender,
+            @NotNull SearchResults results) {
+        if (results.isTruncated()) {
+            plugin.sendMessage(
+                    sender,
+                    "messages.info.results.truncated",
+                    new Replacement("%count%", String.valueOf(results.size())));
+        }
+    }
+
+    /**
+     * Export results to a CSV file in the plugin folder off the main thread.
+     *
+     * @param plugin the plugin instance
+     * @param sender the sender
+     * @param results the results
+     */
+    static void export(@NotNull OpenInv plugin, @NotNull CommandSender sender, @NotNull SearchResults results) {
+        String fileName = sender.getName().replaceAll("[^A-Za-z0-9_-]", "_") + '-' + EXPORT_TIME.format(LocalDateTime.now()) + ".csv";
+        Path file = plugin.getDataFolder().toPath().resolve("results").resolve(fileName);
+
+        plugin.getSearchExecutor().execute(() -> {
+            try {
+                int count = results.exportCsv(file);
+                plugin.getTaskScheduler().run(() -> plugin.sendMessage(
+                        sender,
+                        "messages.info.results.exported",
+                        new Replacement("%count%", String.valueOf(count)),
+                        new Replacement("%target%", "results/" + fileName)));
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to export search results to " + file, e);
+                plugin.getTaskScheduler().run(() -> plugin.sendMessage(sender, "messages.error.commandException"));
+            }
+        });
+    }
+
+    private SearchResultPages() {}
+
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.history;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.search.PlayerDataSearch;
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtIo;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import org.bukkit.Material;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Snapshot history of player inventories and ender chests, allowing edits to be rolled back.
+ *
+ * <p>Snapshots are captured on the main thread when a special inventory is opened or closed and periodically while
+ * it is in use, then written to a {@link SnapshotStore} on a dedicated thread. Items are stored in the same format as
+ * saved player data, so snapshots of players who are not loaded can be restored by rewriting only the affected list
+ * of their data file.
+ */
+public class InventoryHistory {
+
+    private static final int COMPACT_THRESHOLD = 512;
+    private static final int PLAYER_INVENTORY_SIZE = 41;
+    private static final int ENDER_CHEST_SIZE = 27;
+
+    private final OpenInv plugin;
+    private final SnapshotStore store;
+    private final ExecutorService executor;
+    private final int maxSnapshots;
+    private final long maxAge;
+
+    /**
+     * Construct a new {@code InventoryHistory} and open its store in the background. Must be called on the main
+     * thread.
+     *
+     * @param plugin the {@link OpenInv} instance
+     */
+    @SuppressWarnings("deprecation")
+    public InventoryHistory(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+        this.maxSnapshots = Math.max(1, plugin.getConfig().getInt("settings.history.max-snapshots", 50));
+        this.maxAge = TimeUnit.DAYS.toMillis(Math.max(1, plugin.getConfig().getInt("settings.history.max-age-days", 14)));
+        this.store = new SnapshotStore(
+                plugin.getDataFolder().toPath().resolve("history"),
+                plugin.getServer().getUnsafe().getDataVersion());
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "OpenInv History Writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.execute(() -> {
+            try {
+                store.open();
+                store.compact(maxSnapshots, System.currentTimeMillis() - maxAge);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to open inventory history", e);
+            }
+        });
+    }
+
+    /**
+     * Get the interval between snapshots of inventories in use.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @return the interval in ticks, or 0 if periodic snapshots are disabled
+     */
+    public static long getInterval(@NotNull OpenInv plugin) {
+        return Math.max(0, plugin.getConfig().getLong("settings.history.interval-minutes", 5)) * 60 * 20;
+    }
+
+    /**
+     * Capture a snapshot of a player's inventory or ender chest. If the contents are unchanged since the player's
+     * latest snapshot of the same kind, nothing is stored. Must be called on the main thread.
+     *
+     * @param player the player
+     * @param kind the kind of inventory
+     * @param reason the reason for the snapshot
+     */
+    public void capture(@NotNull HumanEntity player, @NotNull Kind kind, @NotNull Reason reason) {
+        List<SnapshotStore.SlotData> contents = new ArrayList<>();
+        ItemStack[] items = kind == Kind.INVENTORY ? player.getInventory().getContents() : player.getEnderChest().getContents();
+        try {
+            for (int i = 0; i < items.length; ++i) {
+                ItemStack itemStack = items[i];
+                if (itemStack == null || itemStack.getType() == Material.AIR) {
+                    continue;
+                }
+                byte slot = kind == Kind.INVENTORY ? toSavedSlot(i) : (byte) i;
+                contents.add(new SnapshotStore.SlotData(slot, serialize(plugin.getItemScanner().wrap(itemStack))));
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, e, () -> "Unable to capture inventory of " + player.getName());
+            return;
+        }
+        append(player.getUniqueId(), kind, reason, contents);
+    }
+
+    private void append(
+            @NotNull UUID playerId,
+            @NotNull Kind kind,
+            @NotNull Reason reason,
+            @NotNull List<SnapshotStore.SlotData> contents) {
+        long time = System.currentTimeMillis();
+        executor.execute(() -> {
+            try {
+                store.append(playerId, kind, reason, time, contents, maxSnapshots);
+                if (store.shouldCompact(COMPACT_THRESHOLD)) {
+                    store.compact(maxSnapshots, System.currentTimeMillis() - maxAge);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, e, () -> "Unable to record inventory history of " + playerId);
+            }
+        });
+    }
+
+    /**
+     * Get a player's snapshots, oldest first.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return a future completing off the main thread with the snapshots
+     */
+    public @NotNull CompletableFuture<List<Snapshot>> getSnapshots(@NotNull UUID playerId) {
+        return CompletableFuture.supplyAsync(() -> store.getSnapshots(playerId), executor);
+    }
+
+    /**
+     * Restore a player's inventory or ender chest from a snapshot.
+     *
+     * <p>If the player is online or loaded by OpenInv, the live inventory is replaced. Otherwise only the affected
+     * list of the player's data file is rewritten, keeping the previous file as {@code .dat_old}. Either way the
+     * contents being replaced are captured first so the rollback itself can be undone.
+     *
+     * @param target the player
+     * @param id the ID of the snapshot
+     * @return a future completing on a tick thread with the restored snapshot or null if the player has no such
+     *         snapshot
+     */
+    public @NotNull CompletableFuture<@Nullable Snapshot> rollback(@NotNull OfflinePlayer target, int id) {
+        CompletableFuture<Snapshot> future = new CompletableFuture<>();
+        executor.execute(() -> {
+            SnapshotStore.Contents contents;
+            try {
+                contents = store.read(id);
+            } catch (IOException e) {
+                plugin.getTaskScheduler().run(() -> future.completeExceptionally(e));
+                return;
+            }
+
+            if (contents == null || !contents.snapshot().playerId().equals(target.getUniqueId())) {
+                plugin.getTaskScheduler().run(() -> future.complete(null));
+                return;
+            }
+            restoreOffline(target, contents, future, true);
+        });
+        return future;
+    }
+
+    /**
+     * Rewrite an offline player's data file on the history executor. Live and loaded players are restored on their own
+     * tick thread instead.
+     */
+    private void restoreOffline(
+            @NotNull OfflinePlayer target,
+            @NotNull SnapshotStore.Contents contents,
+            @NotNull CompletableFuture<Snapshot> future,
+            boolean retry) {
+        Kind kind = contents.snapshot().kind();
+        Path file = PlayerDataSearch.getPlayerDataFolder(plugin.getServer()).resolve(target.getUniqueId() + ".dat");
+        try {
+            // The file is rewritten under the player's file lock unless they are online, logging in or loaded.
+            if (plugin.editOfflinePlayerFile(target.getUniqueId(), () -> restoreFile(target, file, kind, contents))) {
+                plugin.getTaskScheduler().run(() -> future.complete(contents.snapshot()));
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            plugin.getTaskScheduler().run(() -> future.completeExceptionally(e));
+            return;
+        }
+
+        plugin.getTaskScheduler().run(target.getPlayer(), () -> {
+            Player player = getLivePlayer(target);
+            if (player == null) {
+                if (retry) {
+                    // Unloaded in the meantime; the file can be edited now.
+                    executor.execute(() -> restoreOffline(target, contents, future, false));
+                } else {
+                    future.completeExceptionally(new IOException("Player " + target.getUniqueId() + " is logging in"));
+                }
+                return;
+            }
+            try {
+                restoreLive(player, kind, contents);
+                future.complete(contents.snapshot());
+            } catch (IOException | RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void restoreLive(
+            @NotNull Player player,
+            @NotNull Kind kind,
+            @NotNull SnapshotStore.Contents contents) throws IOException {
+        capture(player, kind, Reason.ROLLBACK);
+        Inventory inventory = kind == Kind.INVENTORY ? player.getInventory() : player.getEnderChest();
+        ItemStack[] items = new ItemStack[kind == Kind.INVENTORY ? PLAYER_INVENTORY_SIZE : ENDER_CHEST_SIZE];
+        for (SnapshotStore.SlotData slot : contents.items()) {
+            int index = kind == Kind.INVENTORY ? fromSavedSlot(slot.slot()) : slot.slot();
+            if (index >= 0 && index < items.length) {
+                items[index] = plugin.getItemScanner().toItemStack(deserialize(slot.data()));
+            }
+        }
+        inventory.setContents(items);
+        if (player.isOnline()) {
+            player.updateInventory();
+        }
+    }
+
+    private @Nullable Player getLivePlayer(@NotNull OfflinePlayer target) {
+        Player player = target.getPlayer();
+        if (player == null && plugin.isPlayerLoaded(target.getUniqueId())) {
+            player = plugin.loadPlayer(target);
+        }
+        return player;
+    }
+
+    private void restoreFile(
+            @NotNull OfflinePlayer target,
+            @NotNull Path file,
+            @NotNull Kind kind,
+            @NotNull SnapshotStore.Contents contents) throws IOException {
+        NbtCompound data = NbtIo.readCompressed(file);
+        String key = kind == Kind.INVENTORY ? "Inventory" : "EnderItems";
+
+        List<SnapshotStore.SlotData> previous = new ArrayList<>();
+        NbtList current = data.getList(key, NbtType.COMPOUND);
+        if (current != null) {
+            for (NbtCompound item : current.compounds()) {
+                NbtCompound copy = item.copy();
+                Object slot = copy.remove("Slot");
+                if (slot instanceof Byte number) {
+                    previous.add(new SnapshotStore.SlotData(number, serialize(copy)));
+                }
+            }
+        }
+        append(target.getUniqueId(), kind, Reason.ROLLBACK, previous);
+
+        NbtList restored = new NbtList();
+        for (SnapshotStore.SlotData slot : contents.items()) {
+            NbtCompound item = deserialize(slot.data());
+            item.put("Slot", slot.slot());
+            restored.add(item);
+        }
+        data.put(key, restored);
+        PlayerDataSearch.writePlayerFile(file, data);
+    }
+
+    /**
+     * Finish writing pending snapshots and close the store. Must be called when the plugin is disabled.
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Timed out writing inventory history");
+            }
+            store.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Unable to close inventory history", e);
+        }
+    }
+
+    private static byte @NotNull [] serialize(@NotNull ScannableItem item) throws IOException {
+        NbtCompound compound = new NbtCompound();
+        compound.put("id", item.getId());
+        compound.put("Count", (byte) item.getAmount());
+        NbtCompound tag = item.getTag();
+        if (tag != null) {
+            compound.put("tag", tag);
+        }
+        return serialize(compound);
+    }
+
+    private static byte @NotNull [] serialize(@NotNull NbtCompound compound) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        NbtIo.write(new DataOutputStream(bytes), compound);
+        return bytes.toByteArray();
+    }
+
+    private static @NotNull NbtCompound deserialize(byte @NotNull [] data) throws IOException {
+        return NbtIo.read(new DataInputStream(new ByteArrayInputStream(data)), key -> true);
+    }
+
+    /**
+     * Convert a Bukkit player inventory index into a saved slot number. Armor is saved in slots 100 to 103 and the
+     * off hand in slot -106.
+     */
+    private static byte toSavedSlot(int index) {
+        if (index < 36) {
+            return (byte) index;
+        }
+        if (index < 40) {
+            return (byte) (100 + index - 36);
+        }
+        return -106;
+    }
+
+    private static int fromSavedSlot(byte slot) {
+        if (slot >= 0 && slot < 36) {
+            return slot;
+        }
+        if (slot >= 100 && slot < 104) {
+            return 36 + slot - 100;
+        }
+        return slot == -106 ? 40 : -1;
+    }
+
+    /**
+     * The kind of inventory a snapshot contains.
+     */
+    public enum Kind {
+        INVENTORY,
+        ENDER_CHEST
+    }
+
+    /**
+     * The reason a snapshot was taken.
+     */
+    public enum Reason {
+        OPEN,
+        CLOSE,
+        INTERVAL,
+        ROLLBACK
+    }
+
+    /**
+     * A recorded snapshot.
+     *
+     * @param id the unique ID of the snapshot
+     * @param playerId the {@link UUID} of the player
+     * @param kind the kind of inventory
+     * @param reason the reason the snapshot was taken
+     * @param time the time the snapshot was taken
+     * @param stacks the number of item stacks in the snapshot
+     */
+    public record Snapshot(
+            int id,
+            @NotNull UUID playerId,
+            @NotNull Kind kind,
+            @NotNull Reason reason,
+            long time,
+            int stacks) {}
+
+}
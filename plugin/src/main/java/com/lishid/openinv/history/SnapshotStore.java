@@ -0,0 +1,478 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.history;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Append-only storage for inventory snapshots.
+ *
+ * <p>Item stacks are stored once in an item file, keyed by a hash of their serialized data, so identical stacks are
+ * shared between snapshots and players. Snapshots are appended to a separate file as lists of slots and item keys. Both
+ * files are only ever appended to; records dropped by retention stay on disk until {@link #compact(int, long)}
+ * rewrites both files. A torn record at the end of either file, i.e. from a crash during a write, is truncated on load.
+ *
+ * <p>All methods are synchronized and perform blocking I/O, so the store should only be used off the main thread.
+ */
+final class SnapshotStore {
+
+    private static final int ITEMS_MAGIC = 0x4F494849;
+    private static final int SNAPSHOTS_MAGIC = 0x4F494853;
+    private static final int VERSION = 1;
+
+    private final Path itemsFile;
+    private final Path snapshotsFile;
+    private final int dataVersion;
+    private final MessageDigest digest;
+    private final Map<ItemKey, Blob> blobs = new HashMap<>();
+    private final Map<UUID, List<Entry>> players = new HashMap<>();
+    private final Map<Integer, Entry> entries = new HashMap<>();
+    private @Nullable RandomAccessFile items;
+    private @Nullable RandomAccessFile snapshots;
+    private int nextId = 1;
+    private int dropped;
+
+    /**
+     * Construct a new {@code SnapshotStore}.
+     *
+     * @param folder the folder containing the store's files
+     * @param dataVersion the server's data version; history recorded by a different version is discarded
+     */
+    SnapshotStore(@NotNull Path folder, int dataVersion) {
+        this.itemsFile = folder.resolve("items.dat");
+        this.snapshotsFile = folder.resolve("snapshots.dat");
+        this.dataVersion = dataVersion;
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Open the store, reading existing records.
+     *
+     * @throws IOException if the store cannot be read or created
+     */
+    synchronized void open() throws IOException {
+        Files.createDirectories(itemsFile.getParent());
+
+        if (!readItems()) {
+            // Stored item data is only valid for the version that wrote it.
+            Files.deleteIfExists(itemsFile);
+            Files.deleteIfExists(snapshotsFile);
+            blobs.clear();
+        } else {
+            readSnapshots();
+        }
+
+        items = openAppend(itemsFile, ITEMS_MAGIC, dataVersion);
+        snapshots = openAppend(snapshotsFile, SNAPSHOTS_MAGIC, VERSION);
+    }
+
+    private boolean readItems() throws IOException {
+        if (!Files.exists(itemsFile)) {
+            return true;
+        }
+
+        long position = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(itemsFile)))) {
+            if (input.readInt() != ITEMS_MAGIC || input.readInt() != dataVersion) {
+                return false;
+            }
+            position = 8;
+            while (true) {
+                ItemKey key = new ItemKey(input.readLong(), input.readLong());
+                int length = input.readInt();
+                input.skipNBytes(length);
+                blobs.put(key, new Blob(position + 20, length));
+                position += 20 + length;
+            }
+        } catch (EOFException e) {
+            truncate(itemsFile, position);
+        }
+        return true;
+    }
+
+    private void readSnapshots() throws IOException {
+        if (!Files.exists(snapshotsFile)) {
+            return;
+        }
+
+        long position = 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotsFile)))) {
+            if (input.readInt() != SNAPSHOTS_MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Unsupported snapshot file " + snapshotsFile);
+            }
+            position = 8;
+            while (true) {
+                Entry entry = readEntry(input);
+                position += 34 + entry.slots.length * 17L;
+                // Skip snapshots whose items were lost, i.e. to an interrupted compaction.
+                if (Arrays.stream(entry.items).allMatch(blobs::containsKey)) {
+                    addEntry(entry);
+                    nextId = Math.max(nextId, entry.snapshot.id() + 1);
+                }
+            }
+        } catch (EOFException e) {
+            truncate(snapshotsFile, position);
+        }
+    }
+
+    private static @NotNull Entry readEntry(@NotNull DataInputStream input) throws IOException {
+        int id = input.readInt();
+        UUID playerId = new UUID(input.readLong(), input.readLong());
+        long time = input.readLong();
+        InventoryHistory.Kind kind = InventoryHistory.Kind.values()[input.readByte()];
+        InventoryHistory.Reason reason = InventoryHistory.Reason.values()[input.readByte()];
+        int count = input.readUnsignedShort();
+        byte[] slots = new byte[count];
+        ItemKey[] keys = new ItemKey[count];
+        for (int i = 0; i < count; ++i) {
+            slots[i] = input.readByte();
+            keys[i] = new ItemKey(input.readLong(), input.readLong());
+        }
+        return new Entry(new InventoryHistory.Snapshot(id, playerId, kind, reason, time, count), slots, keys);
+    }
+
+    private static void truncate(@NotNull Path file, long length) throws IOException {
+        try (RandomAccessFile access = new RandomAccessFile(file.toFile(), "rw")) {
+            if (access.length() > length) {
+                access.setLength(length);
+            }
+        }
+    }
+
+    private static @NotNull RandomAccessFile openAppend(@NotNull Path file, int magic, int version) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file.toFile(), "rw");
+        if (access.length() < 8) {
+            access.setLength(0);
+            access.writeInt(magic);
+            access.writeInt(version);
+        }
+        access.seek(access.length());
+        return access;
+    }
+
+    /**
+     * Append a snapshot. If the player's latest snapshot of the same kind has identical contents, nothing is stored.
+     *
+     * @param playerId the player's {@link UUID}
+     * @param kind the kind of inventory
+     * @param reason the reason the snapshot was taken
+     * @param time the time the snapshot was taken
+     * @param contents the serialized items by saved slot number
+     * @param maxSnapshots the maximum number of snapshots retained per player
+     * @return the new snapshot or null if the contents were unchanged
+     * @throws IOException if the snapshot cannot be written
+     */
+    synchronized @Nullable InventoryHistory.Snapshot append(
+            @NotNull UUID playerId,
+            @NotNull InventoryHistory.Kind kind,
+            @NotNull InventoryHistory.Reason reason,
+            long time,
+            @NotNull List<SlotData> contents,
+            int maxSnapshots) throws IOException {
+        if (items == null || snapshots == null) {
+            throw new IOException("Snapshot store is not open");
+        }
+
+        byte[] slots = new byte[contents.size()];
+        ItemKey[] keys = new ItemKey[contents.size()];
+        for (int i = 0; i < keys.length; ++i) {
+            SlotData slot = contents.get(i);
+            slots[i] = slot.slot();
+            keys[i] = getKey(slot.data());
+        }
+
+        Entry latest = getLatest(playerId, kind);
+        if (latest != null && Arrays.equals(latest.slots, slots) && Arrays.equals(latest.items, keys)) {
+            return null;
+        }
+
+        for (int i = 0; i < keys.length; ++i) {
+            if (!blobs.containsKey(keys[i])) {
+                byte[] data = contents.get(i).data();
+                long offset = items.getFilePointer();
+                items.write(encodeBlob(keys[i], data));
+                blobs.put(keys[i], new Blob(offset + 20, data.length));
+            }
+        }
+
+        Entry entry = new Entry(new InventoryHistory.Snapshot(nextId++, playerId, kind, reason, time, keys.length), slots, keys);
+        snapshots.write(encodeEntry(entry));
+        addEntry(entry);
+
+        List<Entry> history = players.get(playerId);
+        while (history.size() > maxSnapshots) {
+            entries.remove(history.remove(0).snapshot.id());
+            ++dropped;
+        }
+        return entry.snapshot;
+    }
+
+    private @NotNull ItemKey getKey(byte @NotNull [] data) {
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest(data));
+        return new ItemKey(hash.getLong(), hash.getLong());
+    }
+
+    private @Nullable Entry getLatest(@NotNull UUID playerId, @NotNull InventoryHistory.Kind kind) {
+        List<Entry> history = players.get(playerId);
+        if (history == null) {
+            return null;
+        }
+        for (int i = history.size() - 1; i >= 0; --i) {
+            Entry entry = history.get(i);
+            if (entry.snapshot.kind() == kind) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void addEntry(@NotNull Entry entry) {
+        players.computeIfAbsent(entry.snapshot.playerId(), key -> new ArrayList<>()).add(entry);
+        entries.put(entry.snapshot.id(), entry);
+    }
+
+    /**
+     * Get a player's snapshots, oldest first.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return the snapshots
+     */
+    synchronized @NotNull List<InventoryHistory.Snapshot> getSnapshots(@NotNull UUID playerId) {
+        List<Entry> history = players.get(playerId);
+        if (history == null) {
+            return List.of();
+        }
+        List<InventoryHistory.Snapshot> result = new ArrayList<>(history.size());
+        for (Entry entry : history) {
+            result.add(entry.snapshot);
+        }
+        return result;
+    }
+
+    /**
+     * Read the contents of a snapshot.
+     *
+     * @param id the ID of the snapshot
+     * @return the snapshot and its serialized items or null if no such snapshot exists
+     * @throws IOException if the items cannot be read
+     */
+    synchronized @Nullable Contents read(int id) throws IOException {
+        Entry entry = entries.get(id);
+        if (entry == null || items == null) {
+            return null;
+        }
+
+        List<SlotData> contents = new ArrayList<>(entry.slots.length);
+        long end = items.getFilePointer();
+        try {
+            for (int i = 0; i < entry.slots.length; ++i) {
+                Blob blob = blobs.get(entry.items[i]);
+                byte[] data = new byte[blob.length()];
+                items.seek(blob.offset());
+                items.readFully(data);
+                contents.add(new SlotData(entry.slots[i], data));
+            }
+        } finally {
+            items.seek(end);
+        }
+        return new Contents(entry.snapshot, contents);
+    }
+
+    /**
+     * Check whether enough records have been dropped that compaction is worthwhile.
+     *
+     * @param threshold the number of dropped snapshots that warrants compaction
+     * @return true if the store should be compacted
+     */
+    synchronized boolean shouldCompact(int threshold) {
+        return dropped >= threshold;
+    }
+
+    /**
+     * Drop expired snapshots and rewrite the store without unreferenced records.
+     *
+     * @param maxSnapshots the maximum number of snapshots retained per player
+     * @param minTime the time before which snapshots are dropped
+     * @throws IOException if the store cannot be rewritten
+     */
+    synchronized void compact(int maxSnapshots, long minTime) throws IOException {
+        if (items == null || snapshots == null) {
+            throw new IOException("Snapshot store is not open");
+        }
+
+        List<Entry> retained = new ArrayList<>();
+        Iterator<List<Entry>> iterator = players.values().iterator();
+        while (iterator.hasNext()) {
+            List<Entry> history = iterator.next();
+            history.removeIf(entry -> entry.snapshot.time() < minTime);
+            while (history.size() > maxSnapshots) {
+                history.remove(0);
+            }
+            if (history.isEmpty()) {
+                iterator.remove();
+            }
+            retained.addAll(history);
+        }
+        retained.sort((first, second) -> Integer.compare(first.snapshot.id(), second.snapshot.id()));
+
+        // Copy referenced items into a new item file.
+        Path itemsTemporary = itemsFile.resolveSibling(itemsFile.getFileName() + ".tmp");
+        Map<ItemKey, Blob> compacted = new HashMap<>();
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(itemsTemporary))) {
+            output.writeInt(ITEMS_MAGIC);
+            output.writeInt(dataVersion);
+            Set<ItemKey> written = new HashSet<>();
+            for (Entry entry : retained) {
+                for (ItemKey key : entry.items) {
+                    if (!written.add(key)) {
+                        continue;
+                    }
+                    Blob blob = blobs.get(key);
+                    byte[] data = new byte[blob.length()];
+                    items.seek(blob.offset());
+                    items.readFully(data);
+                    compacted.put(key, new Blob(output.size() + 20L, data.length));
+                    output.write(encodeBlob(key, data));
+                }
+            }
+        }
+
+        Path snapshotsTemporary = snapshotsFile.resolveSibling(snapshotsFile.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(snapshotsTemporary))) {
+            output.writeInt(SNAPSHOTS_MAGIC);
+            output.writeInt(VERSION);
+            for (Entry entry : retained) {
+                output.write(encodeEntry(entry));
+            }
+        }
+
+        items.close();
+        snapshots.close();
+        // Items first: if interrupted, old snapshots referencing dropped items are skipped on load.
+        Files.move(itemsTemporary, itemsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(snapshotsTemporary, snapshotsFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        items = openAppend(itemsFile, ITEMS_MAGIC, dataVersion);
+        snapshots = openAppend(snapshotsFile, SNAPSHOTS_MAGIC, VERSION);
+
+        blobs.clear();
+        blobs.putAll(compacted);
+        entries.clear();
+        for (Entry entry : retained) {
+            entries.put(entry.snapshot.id(), entry);
+        }
+        dropped = 0;
+    }
+
+    /**
+     * Close the store's files.
+     *
+     * @throws IOException if a file cannot be closed
+     */
+    synchronized void close() throws IOException {
+        try {
+            if (items != null) {
+                items.close();
+            }
+        } finally {
+            items = null;
+            if (snapshots != null) {
+                snapshots.close();
+                snapshots = null;
+            }
+        }
+    }
+
+    private static byte @NotNull [] encodeBlob(@NotNull ItemKey key, byte @NotNull [] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(20 + data.length);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeLong(key.high());
+        output.writeLong(key.low());
+        output.writeInt(data.length);
+        output.write(data);
+        return bytes.toByteArray();
+    }
+
+    private static byte @NotNull [] encodeEntry(@NotNull Entry entry) throws IOException {
+        InventoryHistory.Snapshot snapshot = entry.snapshot;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(34 + entry.slots.length * 17);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(snapshot.id());
+        output.writeLong(snapshot.playerId().getMostSignificantBits());
+        output.writeLong(snapshot.playerId().getLeastSignificantBits());
+        output.writeLong(snapshot.time());
+        output.writeByte(snapshot.kind().ordinal());
+        output.writeByte(snapshot.reason().ordinal());
+        output.writeShort(entry.slots.length);
+        for (int i = 0; i < entry.slots.length; ++i) {
+            output.writeByte(entry.slots[i]);
+            output.writeLong(entry.items[i].high());
+            output.writeLong(entry.items[i].low());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * A serialized item in a saved slot.
+     *
+     * @param slot the slot number as used in saved player data
+     * @param data the uncompressed NBT of the item without its slot
+     */
+    record SlotData(byte slot, byte @NotNull [] data) {}
+
+    /**
+     * A snapshot and its items.
+     *
+     * @param snapshot the snapshot
+     * @param items the serialized items
+     */
+    record Contents(@NotNull InventoryHistory.Snapshot snapshot, @NotNull List<SlotData> items) {}
+
+    private record ItemKey(long high, long low) {}
+
+    private record Blob(long offset, int length) {}
+
+    private record Entry(@NotNull InventoryHistory.Snapshot snapshot, byte @NotNull [] slots, ItemKey @NotNull [] items) {}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.internal;
+
+import com.lishid.openinv.search.ScannableItem;
+import com.lishid.openinv.util.nbt.NbtCompound;
+import java.util.function.Predicate;
+import org.bukkit.entity.Entity;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Read access to item data without Bukkit mirror copies or item meta.
+ */
+public interface IItemScanner {
+
+    /**
+     * Visit each non-empty item in an inventory. Items are backed by the live inventory and are only valid during
+     * the visit. Must be called on the main thread.
+     *
+     * @param inventory the inventory
+     * @param visitor the visitor, returning false to stop visiting
+     * @return false if the visitor stopped early
+     */
+    boolean scan(@NotNull Inventory inventory, @NotNull Predicate<ScannableItem> visitor);
+
+    /**
+     * Visit each non-empty item held by an entity, i.e. storage minecart and chested animal contents, item frame
+     * contents and worn or held equipment. Players are not visited. Items are backed by the live entity and are only
+     * valid during the visit. Must be called on the main thread.
+     *
+     * @param entity the entity
+     * @param visitor the visitor, returning false to stop visiting
+     * @return false if the visitor stopped early
+     */
+    boolean scan(@NotNull Entity entity, @NotNull Predicate<ScannableItem> visitor);
+
+    /**
+     * Get a view of a single Bukkit item.
+     *
+     * @param itemStack the item
+     * @return the view
+     */
+    @NotNull ScannableItem wrap(@NotNull ItemStack itemStack);
+
+    /**
+     * Create a Bukkit item from item data in the format used by saved player data, i.e. {@code {id, Count, tag}}.
+     * Data is expected to be from the current server version.
+     *
+     * @param item the item data
+     * @return the item, empty if the item type is unknown
+     */
+    @NotNull ItemStack toItemStack(@NotNull NbtCompound item);
+
+}
@@ -41,6 +41,14 @@ public interface IPlayerDataManager {
      */
     @NotNull Player inject(@NotNull Player player);
 
+    /**
+     * Serializes a Player's data for saving. Must be called on the main thread.
+     *
+     * @param player the Player
+     * @return a task writing the data that may be run on any thread
+     */
+    @NotNull Runnable prepareSave(@NotNull Player player);
+
     /**
      * Opens an ISpecialInventory for a Player.
      *
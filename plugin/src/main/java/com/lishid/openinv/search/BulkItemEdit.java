@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtIo;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import org.bukkit.Material;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Remove, replace or cap matching items across all players.
+ *
+ * <p>Saved player data is edited directly as NBT on the search executor, including nested contents up to the
+ * configured depth. Each file is read and replaced {@link PlayerDataSearch#writePlayerFile(Path, NbtCompound) safely}
+ * while holding the player's file lock, which logins and OpenInv's loads and saves also take. Players who are online,
+ * logging in or loaded by OpenInv, including those who join during the edit, are never edited on disk; their live
+ * inventories are edited on the main thread instead, at the top level only, so that a later save cannot overwrite the
+ * change. In a dry run nothing is changed and the report lists what would be.
+ */
+public class BulkItemEdit {
+
+    private static final String INVENTORY = "Inventory";
+    private static final String ENDER_CHEST = "EnderItems";
+    private static final int BATCH_SIZE = 64;
+
+    private final OpenInv plugin;
+    private final ItemQuery query;
+    private final Action action;
+    private final boolean dryRun;
+    private final SearchMonitor monitor;
+    private final int depth;
+    private final Queue<PlayerEdit> edits = new ConcurrentLinkedQueue<>();
+    private final Queue<UUID> deferred = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+
+    /**
+     * Construct a new {@code BulkItemEdit}.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @param query the query for items to edit
+     * @param action the edit to apply
+     * @param dryRun whether to only report what would change
+     * @param monitor the monitor used to report progress and check for cancellation
+     */
+    public BulkItemEdit(
+            @NotNull OpenInv plugin,
+            @NotNull ItemQuery query,
+            @NotNull Action action,
+            boolean dryRun,
+            @NotNull SearchMonitor monitor) {
+        this.plugin = plugin;
+        this.query = query;
+        this.action = action;
+        this.dryRun = dryRun;
+        this.monitor = monitor;
+        this.depth = plugin.getNestedSearchDepth();
+    }
+
+    /**
+     * Get the number of player data files that could not be read or written.
+     *
+     * @return the number of failed files
+     */
+    public int getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    /**
+     * Run the edit. Must be called on the main thread.
+     *
+     * @return a future completing on the main thread with the edits made or, in a dry run, the edits that would be made
+     */
+    public @NotNull CompletableFuture<List<PlayerEdit>> run() {
+        Set<UUID> online = new HashSet<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+            editLive(player, true);
+        }
+
+        Path folder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+        List<Path> files;
+        try {
+            files = PlayerDataSearch.listPlayerFiles(folder);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        monitor.addWork(files.size());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int start = 0; start < files.size(); start += BATCH_SIZE) {
+            List<Path> batch = files.subList(start, Math.min(files.size(), start + BATCH_SIZE));
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (Path file : batch) {
+                    editFile(file, online);
+                    monitor.addProgress(1);
+                }
+            }, plugin.getSearchExecutor()));
+        }
+
+        CompletableFuture<List<PlayerEdit>> future = new CompletableFuture<>();
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).whenComplete((unused, throwable) ->
+                plugin.getTaskScheduler().run(() -> {
+                    if (throwable != null) {
+                        future.completeExceptionally(throwable);
+                        return;
+                    }
+                    // Players who joined or were loaded by OpenInv are saved from memory, so their copy must be edited.
+                    for (UUID playerId : deferred) {
+                        Player player = plugin.getServer().getPlayer(playerId);
+                        if (player != null) {
+                            editLive(player, true);
+                            continue;
+                        }
+                        player = plugin.isPlayerLoaded(playerId)
+                                ? plugin.loadPlayer(plugin.getServer().getOfflinePlayer(playerId))
+                                : null;
+                        if (player != null) {
+                            editLive(player, false);
+                        } else {
+                            // Still logging in, or unloaded in the meantime.
+                            filesFailed.incrementAndGet();
+                        }
+                    }
+                    future.complete(new ArrayList<>(edits));
+                }));
+        return future;
+    }
+
+    private void editLive(@NotNull Player player, boolean online) {
+        Counts counts = new Counts();
+        editLive(player.getInventory(), counts);
+        editLive(player.getEnderChest(), counts);
+        if (counts.stacks > 0 || counts.skipped > 0) {
+            edits.add(new PlayerEdit(player.getUniqueId(), online ? Source.ONLINE : Source.LOADED, counts.stacks, counts.amount, counts.skipped));
+        }
+    }
+
+    private void editLive(@NotNull Inventory inventory, @NotNull Counts counts) {
+        for (int slot = 0; slot < inventory.getSize(); ++slot) {
+            ItemStack itemStack = inventory.getItem(slot);
+            if (itemStack == null || itemStack.getType() == Material.AIR) {
+                continue;
+            }
+
+            ScannableItem item = plugin.getItemScanner().wrap(itemStack);
+            if (!query.test(item)) {
+                // Live container items are not edited, but report them so they can be handled by hand.
+                for (ScannableItem content : item.getContents()) {
+                    counts.skipped += NestedItems.count(content, query, depth - 1);
+                }
+                continue;
+            }
+
+            int amount = action.getAffectedAmount(itemStack.getAmount());
+            if (amount == 0) {
+                continue;
+            }
+            ++counts.stacks;
+            counts.amount += amount;
+            if (dryRun) {
+                continue;
+            }
+
+            switch (action.type()) {
+                case REMOVE -> inventory.setItem(slot, null);
+                case REPLACE -> {
+                    Material material = Material.matchMaterial(action.value());
+                    if (material != null) {
+                        itemStack.setType(material);
+                        inventory.setItem(slot, itemStack);
+                    }
+                }
+                case CAP -> {
+                    itemStack.setAmount(action.amount());
+                    inventory.setItem(slot, itemStack);
+                }
+            }
+        }
+    }
+
+    private void editFile(@NotNull Path file, @NotNull Set<UUID> online) {
+        UUID playerId = PlayerDataSearch.getPlayerId(file);
+        if (monitor.isCancelled() || playerId == null || online.contains(playerId)) {
+            return;
+        }
+
+        boolean edited;
+        try {
+            edited = plugin.editOfflinePlayerFile(playerId, () -> editFile(file, playerId));
+        } catch (IOException | RuntimeException e) {
+            filesFailed.incrementAndGet();
+            return;
+        }
+        if (!edited) {
+            // Online, logging in or loaded since the edit started; the live copy would overwrite the file.
+            deferred.add(playerId);
+        }
+    }
+
+    private void editFile(@NotNull Path file, @NotNull UUID playerId) throws IOException {
+        NbtCompound data = NbtIo.readCompressed(file);
+
+        Counts counts = new Counts();
+        editList(data.getList(INVENTORY, NbtType.COMPOUND), depth, counts);
+        editList(data.getList(ENDER_CHEST, NbtType.COMPOUND), depth, counts);
+        if (counts.stacks == 0) {
+            return;
+        }
+
+        if (!dryRun) {
+            try {
+                PlayerDataSearch.writePlayerFile(file, data);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, e, () -> "Unable to write " + file);
+                throw e;
+            }
+        }
+        edits.add(new PlayerEdit(playerId, Source.SAVED, counts.stacks, counts.amount, 0));
+    }
+
+    private void editList(@Nullable NbtList items, int depth, @NotNull Counts counts) {
+        if (items == null) {
+            return;
+        }
+
+        // Iterate backwards so removals do not shift unvisited elements.
+        for (int i = items.size() - 1; i >= 0; --i) {
+            NbtCompound compound = items.getCompound(i);
+            if (compound == null) {
+                continue;
+            }
+
+            NbtItem item = new NbtItem(compound);
+            if (!query.test(item)) {
+                NbtCompound tag = item.getTag();
+                if (depth > 0 && tag != null) {
+                    NbtCompound blockEntityTag = tag.getCompound("BlockEntityTag");
+                    if (blockEntityTag != null) {
+                        editList(blockEntityTag.getList("Items", NbtType.COMPOUND), depth - 1, counts);
+                    }
+                    editList(tag.getList("Items", NbtType.COMPOUND), depth - 1, counts);
+                }
+                continue;
+            }
+
+            int amount = action.getAffectedAmount(item.getAmount());
+            if (amount == 0) {
+                continue;
+            }
+            ++counts.stacks;
+            counts.amount += amount;
+
+            switch (action.type()) {
+                case REMOVE -> items.remove(i);
+                case REPLACE -> compound.put("id", action.value());
+                case CAP -> compound.put("Count", (byte) action.amount());
+            }
+        }
+    }
+
+    private static final class Counts {
+        private int stacks;
+        private int amount;
+        private int skipped;
+    }
+
+    /**
+     * Where a player's items were edited.
+     */
+    public enum Source {
+        /** The live inventory of an online player. */
+        ONLINE,
+        /** The live copy of an offline player loaded by OpenInv. */
+        LOADED,
+        /** The player's saved data file. */
+        SAVED
+    }
+
+    /**
+     * The edits made to one player.
+     *
+     * @param playerId the player's {@link UUID}
+     * @param source where the items were edited
+     * @param stacks the number of stacks changed
+     * @param amount the number of items removed, replaced or capped away
+     * @param skipped the number of matching items inside live container items that were not edited
+     */
+    public record PlayerEdit(@NotNull UUID playerId, @NotNull Source source, int stacks, int amount, int skipped) {}
+
+    /**
+     * An edit applied to each matching item.
+     *
+     * @param type the type of edit
+     * @param value the namespaced replacement item ID, or null
+     * @param amount the maximum stack size for a cap, or 0
+     */
+    public record Action(@NotNull Type type, @Nullable String value, int amount) {
+
+        /**
+         * Parse an action: {@code remove}, {@code replace:<material>} or {@code cap:<amount>}.
+         *
+         * @param action the action
+         * @return the parsed action
+         * @throws IllegalArgumentException if the action is invalid
+         */
+        public static @NotNull Action parse(@NotNull String action) {
+            String lower = action.toLowerCase();
+            if (lower.equals("remove")) {
+                return new Action(Type.REMOVE, null, 0);
+            }
+            if (lower.startsWith("replace:")) {
+                Material material = Material.matchMaterial(lower.substring("replace:".length()));
+                if (material == null || !material.isItem() || material.isAir()) {
+                    throw new IllegalArgumentException(action);
+                }
+                return new Action(Type.REPLACE, material.getKey().toString(), 0);
+            }
+            if (lower.startsWith("cap:")) {
+                int amount;
+                try {
+                    amount = Integer.parseInt(lower.substring("cap:".length()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException(action);
+                }
+                if (amount < 1 || amount > 127) {
+                    throw new IllegalArgumentException(action);
+                }
+                return new Action(Type.CAP, null, amount);
+            }
+            throw new IllegalArgumentException(action);
+        }
+
+        private int getAffectedAmount(int stackAmount) {
+            return type == Type.CAP ? Math.max(0, stackAmount - amount) : stackAmount;
+        }
+
+        @Override
+        public String toString() {
+            return switch (type) {
+                case REMOVE -> "remove";
+                case REPLACE -> "replace:" + value;
+                case CAP -> "cap:" + amount;
+            };
+        }
+
+        /**
+         * The type of an edit.
+         */
+        public enum Type {
+            REMOVE,
+            REPLACE,
+            CAP
+        }
+
+    }
+
+}
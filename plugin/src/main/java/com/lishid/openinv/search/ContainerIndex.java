@@ -0,0 +1,441 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Chunk;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Chest;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.block.BlockBreakEvent;
+import org.bukkit.event.block.BlockDispenseEvent;
+import org.bukkit.event.block.BlockExplodeEvent;
+import org.bukkit.event.block.BlockPlaceEvent;
+import org.bukkit.event.entity.EntityExplodeEvent;
+import org.bukkit.event.inventory.BrewEvent;
+import org.bukkit.event.inventory.FurnaceBurnEvent;
+import org.bukkit.event.inventory.FurnaceSmeltEvent;
+import org.bukkit.event.inventory.InventoryCloseEvent;
+import org.bukkit.event.inventory.InventoryMoveItemEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
+import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryHolder;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * An index of the item types held by block containers in loaded chunks.
+ *
+ * <p>Chunks are indexed lazily the first time they are queried. Events mark changed containers dirty rather than
+ * re-reading them immediately, so hopper chains cost only a set insertion per transfer; dirty and currently viewed
+ * containers are re-read on the next query. Chunks are dropped on unload, and the least recently queried chunks are
+ * evicted when the total number of entries exceeds the configured cap. Nested contents are indexed to the configured
+ * nested search depth, so the index can narrow any query restricted to specific item types.
+ *
+ * <p>Methods reading chunks must be called on the tick thread owning the chunk. The index itself is shared between
+ * region threads on regionized servers, so access to it is synchronized.
+ */
+public class ContainerIndex implements Listener {
+
+    /** Rough heap cost of one item type entry at one position, including both lookup directions. */
+    private static final long BYTES_PER_ENTRY = 96;
+    private static final BlockFace[] CHEST_NEIGHBORS = { BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST };
+
+    private final OpenInv plugin;
+    private final Map<ChunkId, ChunkIndex> chunks = new HashMap<>();
+    /** Indexed chunks in order of last query, coldest first. Events do not count as access. */
+    private final Set<ChunkId> accessOrder = new LinkedHashSet<>();
+    private long entries = 0;
+
+    public ContainerIndex(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Get the containers in a loaded chunk that hold items of any of the given types.
+     *
+     * @param chunk the chunk
+     * @param ids the namespaced item IDs
+     * @return the candidate containers
+     */
+    public synchronized @NotNull List<BlockState> getContainers(@NotNull Chunk chunk, @NotNull Collection<String> ids) {
+        ChunkId chunkId = new ChunkId(chunk.getWorld().getUID(), RegionContainerSearch.chunkKey(chunk.getX(), chunk.getZ()));
+        ChunkIndex index = chunks.get(chunkId);
+        long maxAge = TimeUnit.SECONDS.toMillis(Math.max(1, plugin.getConfig().getInt("settings.search.index.refresh-seconds", 300)));
+
+        if (index == null || System.currentTimeMillis() - index.built > maxAge) {
+            // Changes made by other plugins without events are caught by periodic rebuilds.
+            if (index != null) {
+                remove(chunkId);
+            }
+            index = build(chunk);
+            chunks.put(chunkId, index);
+            accessOrder.add(chunkId);
+            evict(chunkId);
+        } else {
+            accessOrder.remove(chunkId);
+            accessOrder.add(chunkId);
+            refresh(chunk.getWorld(), index);
+        }
+
+        Set<Long> positions = new HashSet<>();
+        for (String id : ids) {
+            Set<Long> idPositions = index.byId.get(id);
+            if (idPositions != null) {
+                positions.addAll(idPositions);
+            }
+        }
+
+        List<BlockState> containers = new ArrayList<>(positions.size());
+        for (long position : positions) {
+            BlockState state = chunk.getWorld().getBlockAt(getX(position), getY(position), getZ(position)).getState();
+            if (state instanceof InventoryHolder) {
+                containers.add(state);
+            }
+        }
+        return containers;
+    }
+
+    /**
+     * Get the number of indexed chunks.
+     *
+     * @return the number of chunks
+     */
+    public synchronized int getChunkCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Get the number of item type entries across all indexed containers.
+     *
+     * @return the number of entries
+     */
+    public synchronized long getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * Get an estimate of the memory used by the index.
+     *
+     * @return the estimated size in bytes
+     */
+    public synchronized long getEstimatedBytes() {
+        return entries * BYTES_PER_ENTRY;
+    }
+
+    /**
+     * Drop all indexed chunks.
+     */
+    public synchronized void clear() {
+        chunks.clear();
+        accessOrder.clear();
+        entries = 0;
+    }
+
+    /**
+     * Get the inventory of a single container block. Double chests are indexed and matched per half so that results
+     * point at the half holding the item.
+     *
+     * @param holder the container
+     * @return the container's own inventory
+     */
+    public static @NotNull Inventory getBlockInventory(@NotNull InventoryHolder holder) {
+        return holder instanceof Chest chest ? chest.getBlockInventory() : holder.getInventory();
+    }
+
+    private @NotNull ChunkIndex build(@NotNull Chunk chunk) {
+        ChunkIndex index = new ChunkIndex();
+        for (BlockState state : chunk.getTileEntities()) {
+            if (state instanceof InventoryHolder holder) {
+                Inventory inventory = getBlockInventory(holder);
+                long position = getPosition(state.getX(), state.getY(), state.getZ());
+                index(index, position, inventory);
+                if (!inventory.getViewers().isEmpty()) {
+                    index.open.add(position);
+                }
+            }
+        }
+        return index;
+    }
+
+    private void refresh(@NotNull World world, @NotNull ChunkIndex index) {
+        if (index.dirty.isEmpty() && index.open.isEmpty()) {
+            return;
+        }
+
+        Set<Long> positions = new HashSet<>(index.dirty);
+        positions.addAll(index.open);
+        index.dirty.clear();
+
+        for (long position : positions) {
+            unindex(index, position);
+            BlockState state = world.getBlockAt(getX(position), getY(position), getZ(position)).getState();
+            if (state instanceof InventoryHolder holder) {
+                index(index, position, getBlockInventory(holder));
+            } else {
+                index.open.remove(position);
+            }
+        }
+    }
+
+    private void index(@NotNull ChunkIndex index, long position, @NotNull Inventory inventory) {
+        int depth = plugin.getNestedSearchDepth();
+        Set<String> ids = new HashSet<>();
+        plugin.getItemScanner().scan(inventory, item -> {
+            collectIds(item, ids, depth);
+            return true;
+        });
+
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        index.byPosition.put(position, ids);
+        for (String id : ids) {
+            index.byId.computeIfAbsent(id, key -> new HashSet<>()).add(position);
+        }
+        index.entries += ids.size();
+        entries += ids.size();
+    }
+
+    private void unindex(@NotNull ChunkIndex index, long position) {
+        Set<String> ids = index.byPosition.remove(position);
+        if (ids == null) {
+            return;
+        }
+
+        for (String id : ids) {
+            Set<Long> positions = index.byId.get(id);
+            if (positions != null && positions.remove(position) && positions.isEmpty()) {
+                index.byId.remove(id);
+            }
+        }
+        index.entries -= ids.size();
+        entries -= ids.size();
+    }
+
+    private static void collectIds(@NotNull ScannableItem item, @NotNull Set<String> ids, int depth) {
+        ids.add(item.getId());
+        if (depth <= 0) {
+            return;
+        }
+        for (ScannableItem content : item.getContents()) {
+            collectIds(content, ids, depth - 1);
+        }
+    }
+
+    private void evict(@NotNull ChunkId keep) {
+        long maxEntries = Math.max(0, plugin.getConfig().getLong("settings.search.index.max-entries", 200_000));
+        Iterator<ChunkId> iterator = accessOrder.iterator();
+        while (entries > maxEntries && iterator.hasNext()) {
+            ChunkId chunkId = iterator.next();
+            if (chunkId.equals(keep)) {
+                continue;
+            }
+            iterator.remove();
+            ChunkIndex index = chunks.remove(chunkId);
+            if (index != null) {
+                entries -= index.entries;
+            }
+        }
+    }
+
+    private synchronized void remove(@NotNull ChunkId chunkId) {
+        accessOrder.remove(chunkId);
+        ChunkIndex index = chunks.remove(chunkId);
+        if (index != null) {
+            entries -= index.entries;
+        }
+    }
+
+    private @Nullable ChunkIndex getIndex(@NotNull World world, int blockX, int blockZ) {
+        if (chunks.isEmpty()) {
+            return null;
+        }
+        return chunks.get(new ChunkId(world.getUID(), RegionContainerSearch.chunkKey(blockX >> 4, blockZ >> 4)));
+    }
+
+    private synchronized void markDirty(@Nullable Block block) {
+        if (block == null) {
+            return;
+        }
+
+        ChunkIndex index = getIndex(block.getWorld(), block.getX(), block.getZ());
+        if (index != null) {
+            index.dirty.add(getPosition(block.getX(), block.getY(), block.getZ()));
+        }
+
+        // Changes to either half of a double chest may be made through the other half's inventory.
+        Material type = block.getType();
+        if (type == Material.CHEST || type == Material.TRAPPED_CHEST) {
+            for (BlockFace face : CHEST_NEIGHBORS) {
+                Block neighbor = block.getRelative(face);
+                if (neighbor.getType() == type) {
+                    ChunkIndex neighborIndex = getIndex(neighbor.getWorld(), neighbor.getX(), neighbor.getZ());
+                    if (neighborIndex != null) {
+                        neighborIndex.dirty.add(getPosition(neighbor.getX(), neighbor.getY(), neighbor.getZ()));
+                    }
+                }
+            }
+        }
+    }
+
+    private synchronized void markDirty(@NotNull Inventory inventory) {
+        Location location = inventory.getLocation();
+        if (location != null && location.getWorld() != null) {
+            markDirty(location.getBlock());
+        }
+    }
+
+    private synchronized void setOpen(@NotNull Inventory inventory, boolean open) {
+        Location location = inventory.getLocation();
+        if (location == null || location.getWorld() == null) {
+            return;
+        }
+        ChunkIndex index = getIndex(location.getWorld(), location.getBlockX(), location.getBlockZ());
+        if (index == null) {
+            return;
+        }
+        long position = getPosition(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+        if (open) {
+            index.open.add(position);
+        } else {
+            index.open.remove(position);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockPlace(@NotNull BlockPlaceEvent event) {
+        markDirty(event.getBlockPlaced());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockBreak(@NotNull BlockBreakEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockExplode(@NotNull BlockExplodeEvent event) {
+        event.blockList().forEach(this::markDirty);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onEntityExplode(@NotNull EntityExplodeEvent event) {
+        event.blockList().forEach(this::markDirty);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBlockDispense(@NotNull BlockDispenseEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFurnaceBurn(@NotNull FurnaceBurnEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onFurnaceSmelt(@NotNull FurnaceSmeltEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onBrew(@NotNull BrewEvent event) {
+        markDirty(event.getBlock());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryMoveItem(@NotNull InventoryMoveItemEvent event) {
+        markDirty(event.getSource());
+        markDirty(event.getDestination());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryPickupItem(@NotNull InventoryPickupItemEvent event) {
+        markDirty(event.getInventory());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryOpen(@NotNull InventoryOpenEvent event) {
+        setOpen(event.getInventory(), true);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onInventoryClose(@NotNull InventoryCloseEvent event) {
+        Inventory inventory = event.getInventory();
+        if (inventory.getViewers().size() <= 1) {
+            setOpen(inventory, false);
+        }
+        markDirty(inventory);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onChunkUnload(@NotNull ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        remove(new ChunkId(chunk.getWorld().getUID(), RegionContainerSearch.chunkKey(chunk.getX(), chunk.getZ())));
+    }
+
+    private static long getPosition(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFFL) << 38 | ((long) z & 0x3FFFFFFL) << 12 | (long) y & 0xFFFL;
+    }
+
+    private static int getX(long position) {
+        return (int) (position >> 38);
+    }
+
+    private static int getY(long position) {
+        return (int) (position << 52 >> 52);
+    }
+
+    private static int getZ(long position) {
+        return (int) (position << 26 >> 38);
+    }
+
+    private record ChunkId(@NotNull UUID world, long key) {}
+
+    private static final class ChunkIndex {
+
+        private final Map<String, Set<Long>> byId = new HashMap<>();
+        private final Map<Long, Set<String>> byPosition = new HashMap<>();
+        private final Set<Long> dirty = new HashSet<>();
+        private final Set<Long> open = new HashSet<>();
+        private final long built = System.currentTimeMillis();
+        private long entries = 0;
+
+    }
+
+}
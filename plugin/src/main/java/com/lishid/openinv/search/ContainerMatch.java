@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A container holding a matching item.
+ *
+ * @param type the type of container
+ * @param x the X coordinate of the container
+ * @param y the Y coordinate of the container
+ * @param z the Z coordinate of the container
+ */
+public record ContainerMatch(@NotNull String type, int x, int y, int z) {
+
+    @Override
+    public String toString() {
+        return type + " (" + x + ',' + y + ',' + z + ')';
+    }
+
+}
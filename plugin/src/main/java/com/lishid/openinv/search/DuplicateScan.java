@@ -0,0 +1,514 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A scan for unique items that exist more than once.
+ *
+ * <p>Every unstackable item with identifying data is reduced to an {@link ItemFingerprint}. Online inventories and
+ * ender chests are read on the main thread, then saved player data and region files are read in parallel on the search
+ * executor, one file per task. Each task buffers its own sightings and merges them once, so workers do not contend per
+ * item. Fingerprints are counted in a primitive open-addressed table capped at a configured size, and locations are
+ * only retained for the first sighting and a capped number of repeats, so memory stays bounded however much data is
+ * read. Completed files, the players counted online and the merged state are written to a checkpoint periodically and
+ * on cancellation, allowing an interrupted scan to resume without counting anyone twice. Loaded chunks are read from
+ * their last save.
+ */
+public class DuplicateScan {
+
+    private static final AtomicBoolean RUNNING = new AtomicBoolean();
+    private static final String[] REGION_TYPES = { "region", "entities" };
+    private static final String ONLINE_UNIT = "online";
+    private static final int CHECKPOINT_VERSION = 2;
+    private static final int CHECKPOINT_INTERVAL = 256;
+
+    private final OpenInv plugin;
+    private final SearchMonitor monitor;
+    private final Set<String> ignoredKeys;
+    private final int maxFingerprints;
+    private final int maxLocations;
+    private final int depth;
+    private final Path checkpointFile;
+
+    // Guarded by this.
+    private long[] keys = new long[1024];
+    private int[] counts = new int[1024];
+    private int[] firstHolders = new int[1024];
+    private int fingerprintCount;
+    private boolean truncated;
+    private final List<Holder> holders = new ArrayList<>();
+    private final Map<Long, Duplicate> duplicates = new HashMap<>();
+    private final Set<String> completedUnits = new HashSet<>();
+    private final Set<UUID> scannedOnline = new HashSet<>();
+    private int unitsSinceCheckpoint;
+
+    /**
+     * Construct a new {@code DuplicateScan}. Must be called on the main thread.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @param monitor the monitor used to report progress and check for cancellation
+     */
+    public DuplicateScan(@NotNull OpenInv plugin, @NotNull SearchMonitor monitor) {
+        this.plugin = plugin;
+        this.monitor = monitor;
+        this.ignoredKeys = Set.copyOf(plugin.getConfig().getStringList("settings.search.duplicates.ignored-tags"));
+        this.maxFingerprints = Math.max(1024, plugin.getConfig().getInt("settings.search.duplicates.max-fingerprints", 2000000));
+        this.maxLocations = Math.max(2, plugin.getConfig().getInt("settings.search.duplicates.max-locations", 10));
+        this.depth = plugin.getNestedSearchDepth();
+        this.checkpointFile = plugin.getDataFolder().toPath().resolve("duplicates.checkpoint");
+    }
+
+    /**
+     * Check whether a duplicate scan is running. Only one scan may run at a time because they share a checkpoint.
+     *
+     * @return true if a scan is running
+     */
+    public static boolean isRunning() {
+        return RUNNING.get();
+    }
+
+    /**
+     * Check whether an interrupted scan can be resumed.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @return true if a checkpoint exists
+     */
+    public static boolean hasCheckpoint(@NotNull OpenInv plugin) {
+        return Files.isRegularFile(plugin.getDataFolder().toPath().resolve("duplicates.checkpoint"));
+    }
+
+    /**
+     * Run the scan. Must be called on the main thread.
+     *
+     * @param offline whether to read saved player data of offline players
+     * @param regions whether to read saved containers of every world
+     * @param resume whether to continue from the last checkpoint
+     * @return a future completing with fingerprints seen more often than the configured threshold, or null if another
+     *         scan is already running
+     */
+    public @Nullable CompletableFuture<List<Result>> run(boolean offline, boolean regions, boolean resume) {
+        if (!RUNNING.compareAndSet(false, true)) {
+            return null;
+        }
+
+        // Snapshot main thread state before going off-thread.
+        Path playerDataFolder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+        Map<String, Path> regionFolders = new HashMap<>();
+        if (regions) {
+            for (World world : plugin.getServer().getWorlds()) {
+                for (String type : REGION_TYPES) {
+                    regionFolders.put(world.getName() + '/' + type, RegionContainerSearch.getRegionFolder(world, type));
+                }
+            }
+        }
+
+        CompletableFuture<Void> loaded = resume
+                ? CompletableFuture.runAsync(this::readCheckpoint, plugin.getSearchExecutor())
+                : CompletableFuture.completedFuture(null);
+
+        CompletableFuture<Void> onlineScanned = loaded.thenCompose(unused -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            plugin.getTaskScheduler().run(() -> {
+                scanOnline();
+                future.complete(null);
+            });
+            return future;
+        });
+
+        return onlineScanned.thenComposeAsync(unused -> {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            if (offline) {
+                Set<UUID> skipped;
+                synchronized (this) {
+                    // Players counted online, including in the interrupted run, must not be counted again.
+                    skipped = new HashSet<>(scannedOnline);
+                }
+                try {
+                    for (Path file : PlayerDataSearch.listPlayerFiles(playerDataFolder)) {
+                        UUID playerId = PlayerDataSearch.getPlayerId(file);
+                        if (!skipped.contains(playerId)) {
+                            submit(futures, "playerdata/" + file.getFileName(), () -> scanPlayerFile(playerDataFolder, file));
+                        }
+                    }
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+            for (Map.Entry<String, Path> folder : regionFolders.entrySet()) {
+                String world = folder.getKey().substring(0, folder.getKey().indexOf('/'));
+                try {
+                    for (Path file : new RegionContainerSearch(folder.getValue(), item -> false).getRegionFiles()) {
+                        submit(futures, folder.getKey() + '/' + file.getFileName(), () -> scanRegionFile(world, folder.getValue(), file));
+                    }
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+            return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new));
+        }, plugin.getSearchExecutor()).handle((unused, throwable) -> {
+            try {
+                if (throwable != null || monitor.isCancelled()) {
+                    writeCheckpoint();
+                } else {
+                    Files.deleteIfExists(checkpointFile);
+                }
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to update duplicate scan checkpoint", e);
+            } finally {
+                RUNNING.set(false);
+            }
+            if (throwable != null) {
+                throw new IllegalStateException(throwable);
+            }
+            return getResults(Math.max(1, plugin.getConfig().getInt("settings.search.duplicates.threshold", 1)));
+        });
+    }
+
+    /**
+     * Check whether the fingerprint table filled up and later unique items were not counted.
+     *
+     * @return true if fingerprints were dropped
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    private void submit(@NotNull List<CompletableFuture<Void>> futures, @NotNull String unit, @NotNull Runnable scan) {
+        synchronized (this) {
+            if (completedUnits.contains(unit)) {
+                return;
+            }
+        }
+        monitor.addWork(1);
+        futures.add(CompletableFuture.runAsync(() -> {
+            if (!monitor.isCancelled()) {
+                scan.run();
+                markComplete(unit);
+            }
+        }, plugin.getSearchExecutor()));
+    }
+
+    private void scanOnline() {
+        synchronized (this) {
+            if (completedUnits.contains(ONLINE_UNIT)) {
+                return;
+            }
+        }
+        List<Sighting> sightings = new ArrayList<>();
+        Set<UUID> scanned = new HashSet<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            scanned.add(player.getUniqueId());
+            Holder inventory = new Holder(player.getUniqueId(), "inventory");
+            plugin.getItemScanner().scan(player.getInventory(), item -> {
+                collect(item, inventory, sightings, depth);
+                return true;
+            });
+            Holder enderChest = new Holder(player.getUniqueId(), "ender chest");
+            plugin.getItemScanner().scan(player.getEnderChest(), item -> {
+                collect(item, enderChest, sightings, depth);
+                return true;
+            });
+        }
+        synchronized (this) {
+            scannedOnline.addAll(scanned);
+        }
+        merge(sightings);
+        markComplete(ONLINE_UNIT);
+    }
+
+    private void scanPlayerFile(@NotNull Path folder, @NotNull Path file) {
+        List<Sighting> sightings = new ArrayList<>();
+        new PlayerDataSearch(folder, item -> false, 0)
+                .monitor(monitor)
+                .itemVisitor((list, item) -> collect(
+                        item,
+                        new Holder(list.uuid(), list.inventory() ? "inventory" : "ender chest"),
+                        sightings,
+                        depth))
+                .searchFile(file);
+        merge(sightings);
+    }
+
+    private void scanRegionFile(@NotNull String world, @NotNull Path folder, @NotNull Path file) {
+        List<Sighting> sightings = new ArrayList<>();
+        new RegionContainerSearch(folder, item -> false)
+                .monitor(monitor)
+                .itemVisitor((container, item) -> collect(item, new Holder(null, world + ' ' + container), sightings, depth))
+                .searchRegion(file);
+        merge(sightings);
+    }
+
+    private void collect(@NotNull ScannableItem item, @NotNull Holder holder, @NotNull List<Sighting> sightings, int depth) {
+        long fingerprint = ItemFingerprint.of(item, ignoredKeys);
+        if (fingerprint != ItemFingerprint.NONE) {
+            sightings.add(new Sighting(fingerprint, ScannableItem.normalizeId(item.getId()), holder));
+        }
+        if (depth > 0) {
+            for (ScannableItem content : item.getContents()) {
+                collect(content, holder, sightings, depth - 1);
+            }
+        }
+    }
+
+    private synchronized void merge(@NotNull List<Sighting> sightings) {
+        Map<Holder, Integer> holderIds = new HashMap<>();
+        for (Sighting sighting : sightings) {
+            int slot = findSlot(sighting.fingerprint());
+            if (keys[slot] == ItemFingerprint.NONE) {
+                if (fingerprintCount >= maxFingerprints) {
+                    truncated = true;
+                    continue;
+                }
+                keys[slot] = sighting.fingerprint();
+                counts[slot] = 1;
+                firstHolders[slot] = getHolderId(sighting.holder(), holderIds);
+                if (++fingerprintCount * 2 > keys.length) {
+                    resize();
+                }
+                continue;
+            }
+
+            ++counts[slot];
+            Duplicate duplicate = duplicates.get(sighting.fingerprint());
+            if (duplicate == null) {
+                duplicate = new Duplicate(sighting.itemId(), new ArrayList<>());
+                duplicate.holders().add(firstHolders[slot]);
+                duplicates.put(sighting.fingerprint(), duplicate);
+            }
+            if (duplicate.holders().size() < maxLocations) {
+                duplicate.holders().add(getHolderId(sighting.holder(), holderIds));
+            }
+        }
+    }
+
+    private int getHolderId(@NotNull Holder holder, @NotNull Map<Holder, Integer> holderIds) {
+        return holderIds.computeIfAbsent(holder, key -> {
+            holders.add(key);
+            return holders.size() - 1;
+        });
+    }
+
+    private int findSlot(long fingerprint) {
+        int mask = keys.length - 1;
+        int slot = (int) fingerprint & mask;
+        while (keys[slot] != ItemFingerprint.NONE && keys[slot] != fingerprint) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        long[] oldKeys = keys;
+        int[] oldCounts = counts;
+        int[] oldFirstHolders = firstHolders;
+        keys = new long[oldKeys.length * 2];
+        counts = new int[keys.length];
+        firstHolders = new int[keys.length];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldKeys[i] != ItemFingerprint.NONE) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                counts[slot] = oldCounts[i];
+                firstHolders[slot] = oldFirstHolders[i];
+            }
+        }
+    }
+
+    private void markComplete(@NotNull String unit) {
+        boolean checkpoint;
+        synchronized (this) {
+            completedUnits.add(unit);
+            checkpoint = ++unitsSinceCheckpoint >= CHECKPOINT_INTERVAL;
+            if (checkpoint) {
+                unitsSinceCheckpoint = 0;
+            }
+        }
+        if (checkpoint) {
+            try {
+                writeCheckpoint();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to write duplicate scan checkpoint", e);
+            }
+        }
+    }
+
+    private synchronized @NotNull List<Result> getResults(int threshold) {
+        List<Result> results = new ArrayList<>();
+        for (Map.Entry<Long, Duplicate> entry : duplicates.entrySet()) {
+            int count = counts[findSlot(entry.getKey())];
+            if (count <= threshold) {
+                continue;
+            }
+            List<Holder> locations = new ArrayList<>();
+            for (int holder : new LinkedHashSet<>(entry.getValue().holders())) {
+                locations.add(holders.get(holder));
+            }
+            results.add(new Result(entry.getKey(), entry.getValue().itemId(), count, locations));
+        }
+        results.sort(Comparator.comparingInt(Result::count).reversed());
+        return results;
+    }
+
+    private synchronized void writeCheckpoint() throws IOException {
+        Files.createDirectories(checkpointFile.getParent());
+        Path temporary = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))) {
+            output.writeInt(CHECKPOINT_VERSION);
+            output.writeInt(completedUnits.size());
+            for (String unit : completedUnits) {
+                output.writeUTF(unit);
+            }
+            output.writeInt(scannedOnline.size());
+            for (UUID player : scannedOnline) {
+                output.writeLong(player.getMostSignificantBits());
+                output.writeLong(player.getLeastSignificantBits());
+            }
+            output.writeInt(holders.size());
+            for (Holder holder : holders) {
+                output.writeBoolean(holder.player() != null);
+                if (holder.player() != null) {
+                    output.writeLong(holder.player().getMostSignificantBits());
+                    output.writeLong(holder.player().getLeastSignificantBits());
+                }
+                output.writeUTF(holder.description());
+            }
+            output.writeBoolean(truncated);
+            output.writeInt(fingerprintCount);
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] != ItemFingerprint.NONE) {
+                    output.writeLong(keys[i]);
+                    output.writeInt(counts[i]);
+                    output.writeInt(firstHolders[i]);
+                }
+            }
+            output.writeInt(duplicates.size());
+            for (Map.Entry<Long, Duplicate> entry : duplicates.entrySet()) {
+                output.writeLong(entry.getKey());
+                output.writeUTF(entry.getValue().itemId());
+                output.writeInt(entry.getValue().holders().size());
+                for (int holder : entry.getValue().holders()) {
+                    output.writeInt(holder);
+                }
+            }
+        }
+        Files.move(temporary, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private synchronized void readCheckpoint() {
+        if (!Files.isRegularFile(checkpointFile)) {
+            return;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(Files.newInputStream(checkpointFile))))) {
+            if (input.readInt() != CHECKPOINT_VERSION) {
+                return;
+            }
+            for (int i = input.readInt(); i > 0; --i) {
+                completedUnits.add(input.readUTF());
+            }
+            for (int i = input.readInt(); i > 0; --i) {
+                scannedOnline.add(new UUID(input.readLong(), input.readLong()));
+            }
+            for (int i = input.readInt(); i > 0; --i) {
+                UUID player = input.readBoolean() ? new UUID(input.readLong(), input.readLong()) : null;
+                holders.add(new Holder(player, input.readUTF()));
+            }
+            truncated = input.readBoolean();
+            for (int i = input.readInt(); i > 0; --i) {
+                long fingerprint = input.readLong();
+                int slot = findSlot(fingerprint);
+                keys[slot] = fingerprint;
+                counts[slot] = input.readInt();
+                firstHolders[slot] = input.readInt();
+                if (++fingerprintCount * 2 > keys.length) {
+                    resize();
+                }
+            }
+            for (int i = input.readInt(); i > 0; --i) {
+                long fingerprint = input.readLong();
+                Duplicate duplicate = new Duplicate(input.readUTF(), new ArrayList<>());
+                for (int j = input.readInt(); j > 0; --j) {
+                    duplicate.holders().add(input.readInt());
+                }
+                duplicates.put(fingerprint, duplicate);
+            }
+        } catch (IOException e) {
+            // A damaged checkpoint restarts the scan from scratch.
+            plugin.getLogger().log(Level.WARNING, "Unable to read duplicate scan checkpoint", e);
+            completedUnits.clear();
+            scannedOnline.clear();
+            holders.clear();
+            duplicates.clear();
+            Arrays.fill(keys, ItemFingerprint.NONE);
+            fingerprintCount = 0;
+            truncated = false;
+        }
+    }
+
+    /**
+     * A player list or container holding an item.
+     *
+     * @param player the player owning the list or null for a container
+     * @param description the list, i.e. {@code inventory}, or the world and container
+     */
+    public record Holder(@Nullable UUID player, @NotNull String description) {}
+
+    /**
+     * A unique item seen more often than the threshold.
+     *
+     * @param fingerprint the {@link ItemFingerprint}
+     * @param itemId the namespaced item ID
+     * @param count the number of times the item was seen
+     * @param holders the distinct holders, up to the configured number of locations
+     */
+    public record Result(long fingerprint, @NotNull String itemId, int count, @NotNull List<Holder> holders) {}
+
+    private record Sighting(long fingerprint, @NotNull String itemId, @NotNull Holder holder) {}
+
+    private record Duplicate(@NotNull String itemId, @NotNull List<Integer> holders) {}
+
+}
@@ -0,0 +1,418 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A server-wide count of tracked items held by players, i.e. diamonds or currency items.
+ *
+ * <p>Each tracked item is a label and an {@link ItemQuery}. Online players are counted live on the main thread and all
+ * other player data files are read in parallel on the search executor. Per-file counts are cached alongside the file's
+ * modification time and size, so later audits only re-read files that changed. The cache is discarded whenever the
+ * tracked items change. Each completed audit appends its totals to a history file so totals can be trended and
+ * compared with the previous audit.
+ */
+public class EconomyAudit {
+
+    private static final int CACHE_VERSION = 1;
+    private static final int BATCH_SIZE = 64;
+
+    private final OpenInv plugin;
+    private final SearchMonitor monitor;
+    private final String[] labels;
+    private final ItemQuery[] queries;
+    private final int depth;
+    private final int topHolders;
+    private final long signature;
+    private final Path cacheFile;
+    private final Path historyFile;
+
+    /**
+     * Construct a new {@code EconomyAudit} for the items in the configuration. Must be called on the main thread.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @param monitor the monitor used to report progress and check for cancellation
+     * @throws IllegalArgumentException if a configured query is invalid; the message is the offending term
+     */
+    public EconomyAudit(@NotNull OpenInv plugin, @NotNull SearchMonitor monitor) {
+        this.plugin = plugin;
+        this.monitor = monitor;
+
+        Map<String, String> items = getTrackedItems(plugin);
+        this.labels = items.keySet().toArray(new String[0]);
+        this.queries = new ItemQuery[labels.length];
+        for (int i = 0; i < labels.length; ++i) {
+            queries[i] = ItemQuery.compile(items.get(labels[i]));
+        }
+
+        this.depth = plugin.getNestedSearchDepth();
+        this.topHolders = Math.max(0, plugin.getConfig().getInt("settings.search.audit.top-holders", 5));
+        this.signature = (items.toString() + depth).hashCode();
+        this.cacheFile = plugin.getDataFolder().toPath().resolve("audit").resolve("cache.dat");
+        this.historyFile = getHistoryFile(plugin);
+    }
+
+    /**
+     * Get the tracked item labels and queries from the configuration.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @return the queries by label, in configuration order
+     */
+    public static @NotNull Map<String, String> getTrackedItems(@NotNull OpenInv plugin) {
+        Map<String, String> items = new LinkedHashMap<>();
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("settings.search.audit.items");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                String query = section.getString(key);
+                if (query != null && !query.isEmpty()) {
+                    items.put(key, query);
+                }
+            }
+        }
+        return items;
+    }
+
+    private static @NotNull Path getHistoryFile(@NotNull OpenInv plugin) {
+        return plugin.getDataFolder().toPath().resolve("audit").resolve("history.dat");
+    }
+
+    /**
+     * Run the audit. Must be called on the main thread.
+     *
+     * @return a future completing with the report
+     */
+    public @NotNull CompletableFuture<Report> run() {
+        Map<UUID, long[]> counts = new HashMap<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            long[] playerCounts = new long[labels.length];
+            plugin.getItemScanner().scan(player.getInventory(), item -> count(item, playerCounts));
+            plugin.getItemScanner().scan(player.getEnderChest(), item -> count(item, playerCounts));
+            counts.put(player.getUniqueId(), playerCounts);
+        }
+        Path playerDataFolder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+
+        return CompletableFuture.supplyAsync(this::readCache, plugin.getSearchExecutor()).thenCompose(cache -> {
+            List<Path> files;
+            try {
+                files = PlayerDataSearch.listPlayerFiles(playerDataFolder);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+
+            monitor.addWork(files.size());
+            Map<UUID, CacheEntry> updated = new ConcurrentHashMap<>();
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int start = 0; start < files.size(); start += BATCH_SIZE) {
+                List<Path> batch = files.subList(start, Math.min(files.size(), start + BATCH_SIZE));
+                futures.add(CompletableFuture.runAsync(() -> {
+                    for (Path file : batch) {
+                        auditFile(playerDataFolder, file, counts, cache, updated);
+                    }
+                }, plugin.getSearchExecutor()));
+            }
+
+            return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenApply(unused -> {
+                // Keep entries of online players whose files still exist so they are not re-read next time. Entries
+                // of deleted files and of changed files that could not be read are dropped.
+                Set<UUID> listed = new HashSet<>();
+                for (Path file : files) {
+                    UUID playerId = PlayerDataSearch.getPlayerId(file);
+                    if (playerId != null) {
+                        listed.add(playerId);
+                    }
+                }
+                for (Map.Entry<UUID, CacheEntry> entry : cache.entrySet()) {
+                    if (counts.containsKey(entry.getKey()) && listed.contains(entry.getKey())) {
+                        updated.putIfAbsent(entry.getKey(), entry.getValue());
+                    }
+                }
+                try {
+                    writeCache(updated);
+                } catch (IOException e) {
+                    plugin.getLogger().log(Level.WARNING, "Unable to write audit cache", e);
+                }
+
+                for (Map.Entry<UUID, CacheEntry> entry : updated.entrySet()) {
+                    counts.putIfAbsent(entry.getKey(), entry.getValue().counts());
+                }
+                return report(counts);
+            });
+        });
+    }
+
+    private boolean count(@NotNull ScannableItem item, long @NotNull [] counts) {
+        for (int i = 0; i < queries.length; ++i) {
+            counts[i] += NestedItems.count(item, queries[i], depth);
+        }
+        return true;
+    }
+
+    private void auditFile(
+            @NotNull Path folder,
+            @NotNull Path file,
+            @NotNull Map<UUID, long[]> online,
+            @NotNull Map<UUID, CacheEntry> cache,
+            @NotNull Map<UUID, CacheEntry> updated) {
+        UUID playerId = PlayerDataSearch.getPlayerId(file);
+        if (monitor.isCancelled() || playerId == null || online.containsKey(playerId)) {
+            monitor.addProgress(1);
+            return;
+        }
+
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            monitor.addProgress(1);
+            return;
+        }
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        CacheEntry cached = cache.get(playerId);
+        if (cached != null && cached.modified() == modified && cached.size() == attributes.size()) {
+            updated.put(playerId, cached);
+            monitor.addProgress(1);
+            return;
+        }
+
+        long[] fileCounts = new long[labels.length];
+        PlayerDataSearch search = new PlayerDataSearch(folder, item -> false, 0)
+                .monitor(monitor)
+                .itemVisitor((list, item) -> count(item, fileCounts));
+        search.searchFile(file);
+        if (search.getFilesRead() > 0) {
+            updated.put(playerId, new CacheEntry(modified, attributes.size(), fileCounts));
+        }
+    }
+
+    private @NotNull Report report(@NotNull Map<UUID, long[]> counts) {
+        long[] totals = new long[labels.length];
+        List<List<Holder>> top = new ArrayList<>();
+        for (int i = 0; i < labels.length; ++i) {
+            int index = i;
+            PriorityQueue<Holder> holders = new PriorityQueue<>(Comparator.comparingLong(Holder::count));
+            for (Map.Entry<UUID, long[]> entry : counts.entrySet()) {
+                long count = entry.getValue()[index];
+                totals[index] += count;
+                if (count > 0 && topHolders > 0) {
+                    holders.add(new Holder(entry.getKey(), count));
+                    if (holders.size() > topHolders) {
+                        holders.poll();
+                    }
+                }
+            }
+            List<Holder> sorted = new ArrayList<>(holders);
+            sorted.sort(Comparator.comparingLong(Holder::count).reversed());
+            top.add(sorted);
+        }
+
+        Snapshot previous = null;
+        Snapshot current = new Snapshot(System.currentTimeMillis(), new LinkedHashMap<>());
+        for (int i = 0; i < labels.length; ++i) {
+            current.totals().put(labels[i], totals[i]);
+        }
+
+        if (!monitor.isCancelled()) {
+            try {
+                List<Snapshot> history = readHistory(historyFile);
+                previous = history.isEmpty() ? null : history.get(history.size() - 1);
+                appendHistory(current);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "Unable to update audit history", e);
+            }
+        }
+
+        List<Total> results = new ArrayList<>();
+        for (int i = 0; i < labels.length; ++i) {
+            Long before = previous == null ? null : previous.totals().get(labels[i]);
+            results.add(new Total(labels[i], totals[i], before, top.get(i)));
+        }
+        return new Report(current.time(), previous == null ? null : previous.time(), counts.size(), results);
+    }
+
+    private @NotNull Map<UUID, CacheEntry> readCache() {
+        Map<UUID, CacheEntry> cache = new HashMap<>();
+        if (!Files.isRegularFile(cacheFile)) {
+            return cache;
+        }
+        try (DataInputStream input = new DataInputStream(
+                new GZIPInputStream(new BufferedInputStream(Files.newInputStream(cacheFile))))) {
+            if (input.readInt() != CACHE_VERSION || input.readLong() != signature || input.readInt() != labels.length) {
+                return cache;
+            }
+            for (int i = input.readInt(); i > 0; --i) {
+                UUID playerId = new UUID(input.readLong(), input.readLong());
+                long modified = input.readLong();
+                long size = input.readLong();
+                long[] counts = new long[labels.length];
+                for (int j = 0; j < counts.length; ++j) {
+                    counts[j] = input.readLong();
+                }
+                cache.put(playerId, new CacheEntry(modified, size, counts));
+            }
+        } catch (IOException e) {
+            // A damaged cache only costs a full re-read.
+            plugin.getLogger().log(Level.WARNING, "Unable to read audit cache", e);
+            cache.clear();
+        }
+        return cache;
+    }
+
+    private void writeCache(@NotNull Map<UUID, CacheEntry> cache) throws IOException {
+        Files.createDirectories(cacheFile.getParent());
+        Path temporary = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary))))) {
+            output.writeInt(CACHE_VERSION);
+            output.writeLong(signature);
+            output.writeInt(labels.length);
+            output.writeInt(cache.size());
+            for (Map.Entry<UUID, CacheEntry> entry : cache.entrySet()) {
+                output.writeLong(entry.getKey().getMostSignificantBits());
+                output.writeLong(entry.getKey().getLeastSignificantBits());
+                output.writeLong(entry.getValue().modified());
+                output.writeLong(entry.getValue().size());
+                for (long count : entry.getValue().counts()) {
+                    output.writeLong(count);
+                }
+            }
+        }
+        Files.move(temporary, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void appendHistory(@NotNull Snapshot snapshot) throws IOException {
+        Files.createDirectories(historyFile.getParent());
+        try (OutputStream stream = Files.newOutputStream(historyFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(stream))) {
+            output.writeLong(snapshot.time());
+            output.writeShort(snapshot.totals().size());
+            for (Map.Entry<String, Long> total : snapshot.totals().entrySet()) {
+                output.writeUTF(total.getKey());
+                output.writeLong(total.getValue());
+            }
+        }
+    }
+
+    /**
+     * Read all audit snapshots, oldest first.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @return the snapshots
+     * @throws IOException if the history cannot be read
+     */
+    public static @NotNull List<Snapshot> readHistory(@NotNull OpenInv plugin) throws IOException {
+        return readHistory(getHistoryFile(plugin));
+    }
+
+    private static @NotNull List<Snapshot> readHistory(@NotNull Path historyFile) throws IOException {
+        List<Snapshot> history = new ArrayList<>();
+        if (!Files.isRegularFile(historyFile)) {
+            return history;
+        }
+        try (InputStream stream = Files.newInputStream(historyFile);
+                DataInputStream input = new DataInputStream(new BufferedInputStream(stream))) {
+            while (true) {
+                long time;
+                try {
+                    time = input.readLong();
+                } catch (EOFException e) {
+                    break;
+                }
+                Map<String, Long> totals = new LinkedHashMap<>();
+                for (int i = input.readUnsignedShort(); i > 0; --i) {
+                    totals.put(input.readUTF(), input.readLong());
+                }
+                history.add(new Snapshot(time, totals));
+            }
+        } catch (EOFException e) {
+            // Ignore a snapshot truncated by a crash mid-write.
+        }
+        return history;
+    }
+
+    private record CacheEntry(long modified, long size, long @NotNull [] counts) {}
+
+    /**
+     * A player holding tracked items.
+     *
+     * @param playerId the player's {@link UUID}
+     * @param count the amount held
+     */
+    public record Holder(@NotNull UUID playerId, long count) {}
+
+    /**
+     * The server-wide total of one tracked item.
+     *
+     * @param label the label of the tracked item
+     * @param total the total amount held
+     * @param previous the total in the previous audit or null if not tracked then
+     * @param topHolders the players holding the most, highest first
+     */
+    public record Total(@NotNull String label, long total, @Nullable Long previous, @NotNull List<Holder> topHolders) {}
+
+    /**
+     * The totals recorded by one audit.
+     *
+     * @param time the time of the audit in epoch milliseconds
+     * @param totals the totals by label
+     */
+    public record Snapshot(long time, @NotNull Map<String, Long> totals) {}
+
+    /**
+     * The result of an audit.
+     *
+     * @param time the time of the audit in epoch milliseconds
+     * @param previousTime the time of the previous audit or null if this is the first
+     * @param players the number of players counted
+     * @param totals the totals of each tracked item
+     */
+    public record Report(long time, @Nullable Long previousTime, int players, @NotNull List<Total> totals) {}
+
+}
@@ -0,0 +1,378 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.LoadedPlayers;
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtIo;
+import com.lishid.openinv.util.nbt.NbtList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Export, import and verify the inventories and ender chests of all players as a single archive.
+ *
+ * <p>An archive is a gzip stream of a header followed by one length-prefixed record per player: the player's
+ * {@link UUID}, the length and CRC32 of the record, and an uncompressed NBT compound holding only the player's
+ * inventory and ender chest lists. Archives are written and read one record at a time, so memory use does not grow
+ * with the number of players.
+ *
+ * <p>Exports read saved data after saving online and loaded players. Imports replace the lists in each player's
+ * saved data in parallel, writing each file under the player's file lock as {@link BulkItemEdit} does; players who are
+ * online, logging in or loaded when their record is imported are skipped, as a later save would overwrite the change.
+ * Verification checks each record against its checksum and
+ * compares it with the player's current saved data.
+ */
+public class InventoryArchive {
+
+    public static final String EXTENSION = ".oia";
+    private static final int MAGIC = 0x4F494141;
+    private static final int FORMAT = 1;
+    private static final String INVENTORY = "Inventory";
+    private static final String ENDER_CHEST = "EnderItems";
+    private static final Set<String> KEYS = Set.of(INVENTORY, ENDER_CHEST);
+
+    private final OpenInv plugin;
+    private final Path archive;
+    private final SearchMonitor monitor;
+    private final AtomicInteger players = new AtomicInteger();
+    private final AtomicInteger changed = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Construct a new {@code InventoryArchive}.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @param archive the archive file
+     * @param monitor the monitor used to report progress and check for cancellation
+     */
+    public InventoryArchive(@NotNull OpenInv plugin, @NotNull Path archive, @NotNull SearchMonitor monitor) {
+        this.plugin = plugin;
+        this.archive = archive;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Get the folder archives are stored in.
+     *
+     * @param plugin the {@link OpenInv} instance
+     * @return the archive folder
+     */
+    public static @NotNull Path getArchiveFolder(@NotNull OpenInv plugin) {
+        return plugin.getDataFolder().toPath().resolve("archives");
+    }
+
+    /**
+     * Get the number of players exported, imported, or matching their saved data.
+     *
+     * @return the number of players
+     */
+    public int getPlayers() {
+        return players.get();
+    }
+
+    /**
+     * Get the number of players whose saved data differs from the archive when verifying.
+     *
+     * @return the number of differing players
+     */
+    public int getChanged() {
+        return changed.get();
+    }
+
+    /**
+     * Get the number of players skipped because they are online, logging in, loaded, or have no saved data.
+     *
+     * @return the number of skipped players
+     */
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * Get the number of files or records that could not be read or written.
+     *
+     * @return the number of failures
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Export all players. Must be called on the main thread.
+     *
+     * @return a future completed once the archive is written
+     */
+    public @NotNull CompletableFuture<Void> export() {
+        // Flush live data so that the export reflects it.
+        plugin.getServer().savePlayers();
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+        for (LoadedPlayers.Status status : plugin.getLoadedPlayers().getStatus()) {
+            saves.add(plugin.saveAsync(status.player()));
+        }
+
+        Path folder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+        int dataVersion = plugin.getServer().getUnsafe().getDataVersion();
+        return CompletableFuture.allOf(saves.toArray(CompletableFuture[]::new))
+                .exceptionally(throwable -> {
+                    plugin.getLogger().log(Level.WARNING, "Unable to save loaded players before export", throwable);
+                    return null;
+                })
+                .thenRunAsync(() -> {
+                    try {
+                        writeArchive(folder, dataVersion);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }, plugin.getSearchExecutor());
+    }
+
+    private void writeArchive(@NotNull Path folder, int dataVersion) throws IOException {
+        List<Path> files = PlayerDataSearch.listPlayerFiles(folder);
+        monitor.addWork(files.size());
+
+        Files.createDirectories(archive.getParent());
+        Path temporary = archive.resolveSibling(archive.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary))))) {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT);
+            output.writeInt(dataVersion);
+
+            for (Path file : files) {
+                if (monitor.isCancelled()) {
+                    break;
+                }
+                UUID playerId = PlayerDataSearch.getPlayerId(file);
+                byte[] record = playerId == null ? null : readRecord(file);
+                monitor.addProgress(1);
+                if (record == null) {
+                    failed.incrementAndGet();
+                    continue;
+                }
+                output.writeLong(playerId.getMostSignificantBits());
+                output.writeLong(playerId.getLeastSignificantBits());
+                output.writeInt(record.length);
+                output.writeInt(checksum(record));
+                output.write(record);
+                players.incrementAndGet();
+            }
+
+            // End marker distinguishes a complete archive from a truncated one.
+            output.writeLong(0);
+            output.writeLong(0);
+            output.writeInt(-1);
+        }
+
+        if (monitor.isCancelled()) {
+            Files.deleteIfExists(temporary);
+            return;
+        }
+        Files.move(temporary, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Import all players in the archive. Must be called on the main thread.
+     *
+     * @return a future completed once all players are imported
+     */
+    public @NotNull CompletableFuture<Void> importArchive() {
+        Set<UUID> online = new HashSet<>();
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            online.add(player.getUniqueId());
+        }
+        Path folder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+        int dataVersion = plugin.getServer().getUnsafe().getDataVersion();
+
+        return readArchive(dataVersion, (playerId, record) -> {
+            if (online.contains(playerId)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            Path file = folder.resolve(playerId + ".dat");
+            try {
+                NbtCompound imported = NbtIo.read(new DataInputStream(new ByteArrayInputStream(record)), key -> true);
+                // Online state is checked again under the player's file lock; players who joined since are skipped.
+                boolean edited = plugin.editOfflinePlayerFile(playerId, () -> {
+                    if (!Files.isRegularFile(file)) {
+                        skipped.incrementAndGet();
+                        return;
+                    }
+                    NbtCompound data = NbtIo.readCompressed(file);
+                    for (String key : KEYS) {
+                        data.put(key, getList(imported, key));
+                    }
+                    PlayerDataSearch.writePlayerFile(file, data);
+                    players.incrementAndGet();
+                });
+                if (!edited) {
+                    skipped.incrementAndGet();
+                }
+            } catch (IOException | RuntimeException e) {
+                plugin.getLogger().log(Level.WARNING, e, () -> "Unable to import " + file);
+                failed.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Verify the archive and compare it with current saved data.
+     *
+     * @return a future completed once all players are checked
+     */
+    public @NotNull CompletableFuture<Void> verify() {
+        Path folder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+        return readArchive(null, (playerId, record) -> {
+            Path file = folder.resolve(playerId + ".dat");
+            if (!Files.isRegularFile(file)) {
+                skipped.incrementAndGet();
+                return;
+            }
+            byte[] current = readRecord(file);
+            if (current == null) {
+                failed.incrementAndGet();
+            } else if (checksum(current) == checksum(record) && current.length == record.length) {
+                players.incrementAndGet();
+            } else {
+                changed.incrementAndGet();
+            }
+        });
+    }
+
+    /**
+     * Read the archive, checking each record's checksum, and handle records in parallel on the search executor.
+     * Handling is throttled so that only a few records are held in memory at once.
+     */
+    private @NotNull CompletableFuture<Void> readArchive(@Nullable Integer dataVersion, @NotNull RecordHandler handler) {
+        int parallelism = Math.max(1, plugin.getConfig().getInt("settings.search.worker-threads", 2));
+        Semaphore permits = new Semaphore(parallelism * 2);
+        List<CompletableFuture<Void>> pending = new ArrayList<>();
+
+        return CompletableFuture.runAsync(() -> {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(new GZIPInputStream(Files.newInputStream(archive))))) {
+                if (input.readInt() != MAGIC || input.readInt() != FORMAT) {
+                    throw new IOException("Not an inventory archive: " + archive);
+                }
+                int archiveVersion = input.readInt();
+                if (dataVersion != null && archiveVersion != dataVersion) {
+                    // Items are not upgraded when written into newer player data, so versions must match.
+                    throw new IllegalStateException("Archive data version " + archiveVersion + " does not match " + dataVersion);
+                }
+
+                while (!monitor.isCancelled()) {
+                    UUID playerId = new UUID(input.readLong(), input.readLong());
+                    int length = input.readInt();
+                    if (length < 0) {
+                        break;
+                    }
+                    int expected = input.readInt();
+                    byte[] record = input.readNBytes(length);
+                    monitor.addWork(1);
+                    if (record.length != length) {
+                        throw new EOFException("Archive is truncated: " + archive);
+                    }
+                    if (checksum(record) != expected) {
+                        failed.incrementAndGet();
+                        monitor.addProgress(1);
+                        continue;
+                    }
+
+                    Runnable task = () -> {
+                        try {
+                            handler.handle(playerId, record);
+                        } finally {
+                            monitor.addProgress(1);
+                        }
+                    };
+                    // Handle records on this thread when all permits are in use rather than blocking, in case the
+                    // search executor has no other threads available.
+                    if (permits.tryAcquire()) {
+                        pending.add(CompletableFuture.runAsync(task, plugin.getSearchExecutor())
+                                .whenComplete((ignored, throwable) -> permits.release()));
+                    } else {
+                        task.run();
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, plugin.getSearchExecutor()).thenCompose(ignored -> CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)));
+    }
+
+    private static byte @Nullable [] readRecord(@NotNull Path file) {
+        try {
+            NbtCompound data = NbtIo.readCompressed(file, KEYS::contains);
+            NbtCompound record = new NbtCompound();
+            // Fixed key order keeps records comparable by checksum.
+            record.put(INVENTORY, getList(data, INVENTORY));
+            record.put(ENDER_CHEST, getList(data, ENDER_CHEST));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream output = new DataOutputStream(bytes)) {
+                NbtIo.write(output, record);
+            }
+            return bytes.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static @NotNull NbtList getList(@NotNull NbtCompound data, @NotNull String key) {
+        NbtList list = data.getList(key);
+        return list == null ? new NbtList() : list;
+    }
+
+    private static int checksum(byte @NotNull [] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return (int) crc.getValue();
+    }
+
+    @FunctionalInterface
+    private interface RecordHandler {
+        void handle(@NotNull UUID playerId, byte @NotNull [] record);
+    }
+
+}
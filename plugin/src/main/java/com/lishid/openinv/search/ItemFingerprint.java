@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtList;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bukkit.Material;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Stable 64-bit fingerprints of unique items.
+ *
+ * <p>Only unstackable items with identifying data, such as a name, lore, enchantments or contents, have fingerprints;
+ * plain tools are indistinguishable from one another. The fingerprint covers the item ID and tag with the configured
+ * volatile keys, i.e. {@code Damage} or {@code RepairCost}, removed from the root of the tag. Compound keys are hashed
+ * in sorted order, so fingerprints do not depend on save order and are stable across restarts.
+ */
+public final class ItemFingerprint {
+
+    /** The fingerprint of items without one. */
+    public static final long NONE = 0;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final Map<String, Boolean> UNSTACKABLE = new ConcurrentHashMap<>();
+
+    /**
+     * Get the fingerprint of an item.
+     *
+     * @param item the item
+     * @param ignoredKeys the root tag keys to ignore
+     * @return the fingerprint or {@link #NONE} if the item is stackable or has no identifying data
+     */
+    public static long of(@NotNull ScannableItem item, @NotNull Set<String> ignoredKeys) {
+        if (!isUnstackable(item.getId())) {
+            return NONE;
+        }
+
+        NbtCompound tag = item.getTag();
+        if (tag == null || ignoredKeys.containsAll(tag.keySet())) {
+            return NONE;
+        }
+
+        long hash = hash(FNV_OFFSET, ScannableItem.normalizeId(item.getId()));
+        String[] keys = tag.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        for (String key : keys) {
+            if (!ignoredKeys.contains(key)) {
+                hash = hash(hash, key);
+                hash = hash(hash, tag.get(key));
+            }
+        }
+
+        hash = mix(hash);
+        // Reserve the empty fingerprint.
+        return hash == NONE ? 1 : hash;
+    }
+
+    private static boolean isUnstackable(@NotNull String id) {
+        return UNSTACKABLE.computeIfAbsent(id, key -> {
+            Material material = Material.matchMaterial(key);
+            return material != null && material.getMaxStackSize() == 1;
+        });
+    }
+
+    private static long hash(long hash, Object value) {
+        if (value instanceof NbtCompound compound) {
+            hash = hashByte(hash, 10);
+            String[] keys = compound.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            for (String key : keys) {
+                hash = hash(hash, key);
+                hash = hash(hash, compound.get(key));
+            }
+            return hashByte(hash, 0);
+        }
+        if (value instanceof NbtList list) {
+            hash = hashLong(hashByte(hash, 9), list.size());
+            for (Object element : list) {
+                hash = hash(hash, element);
+            }
+            return hash;
+        }
+        if (value instanceof String string) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            hash = hashLong(hashByte(hash, 8), bytes.length);
+            for (byte b : bytes) {
+                hash = hashByte(hash, b);
+            }
+            return hash;
+        }
+        if (value instanceof Float number) {
+            return hashLong(hashByte(hash, 5), Float.floatToIntBits(number));
+        }
+        if (value instanceof Double number) {
+            return hashLong(hashByte(hash, 6), Double.doubleToLongBits(number));
+        }
+        if (value instanceof Number number) {
+            // Integral types hash by value so byte and int flags written by different versions agree.
+            return hashLong(hashByte(hash, 1), number.longValue());
+        }
+        if (value instanceof byte[] array) {
+            hash = hashLong(hashByte(hash, 7), array.length);
+            for (byte b : array) {
+                hash = hashByte(hash, b);
+            }
+            return hash;
+        }
+        if (value instanceof int[] array) {
+            hash = hashLong(hashByte(hash, 11), array.length);
+            for (int i : array) {
+                hash = hashLong(hash, i);
+            }
+            return hash;
+        }
+        if (value instanceof long[] array) {
+            hash = hashLong(hashByte(hash, 12), array.length);
+            for (long l : array) {
+                hash = hashLong(hash, l);
+            }
+            return hash;
+        }
+        return hashByte(hash, 0);
+    }
+
+    private static long hashByte(long hash, int value) {
+        return (hash ^ (value & 0xFF)) * FNV_PRIME;
+    }
+
+    private static long hashLong(long hash, long value) {
+        for (int shift = 0; shift < 64; shift += 8) {
+            hash = hashByte(hash, (int) (value >>> shift));
+        }
+        return hash;
+    }
+
+    /**
+     * Finalize a hash so that similar items do not produce similar fingerprints.
+     */
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private ItemFingerprint() {}
+
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.chat.ComponentSerializer;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Tag;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A compiled item query shared by all search commands.
+ *
+ * <p>Queries are whitespace-separated terms which must all match. Any term may be negated with a leading {@code !}.
+ * <ul>
+ *   <li>{@code diamond}, {@code minecraft:diamond}, {@code diamond,emerald} - item type</li>
+ *   <li>{@code #logs}, {@code #minecraft:logs} - item tag</li>
+ *   <li>{@code amount>=16}, {@code amount:1..8} - stack size</li>
+ *   <li>{@code enchant:sharpness>=5}, {@code enchant>3} - enchantment level, for a specific or any enchantment</li>
+ *   <li>{@code name~regex}, {@code lore~"regex with spaces"} - display name or lore, case insensitive</li>
+ *   <li>{@code model=1234} - custom model data</li>
+ *   <li>{@code nbt:path.to.key} - presence of a tag value</li>
+ * </ul>
+ *
+ * <p>Terms are reordered on compilation so that cheap checks such as item type run before tag and regex checks.
+ */
+public final class ItemQuery implements Predicate<ScannableItem> {
+
+    private static final int COST_ID = 1;
+    private static final int COST_AMOUNT = 1;
+    private static final int COST_ENCHANT = 4;
+    private static final int COST_TAG = 8;
+    private static final int COST_TEXT = 16;
+
+    private final String source;
+    private final Node root;
+
+    private ItemQuery(@NotNull String source, @NotNull Node root) {
+        this.source = source;
+        this.root = root;
+    }
+
+    /**
+     * Compile a query.
+     *
+     * @param query the query
+     * @return the compiled query
+     * @throws IllegalArgumentException if the query is invalid; the message is the offending term
+     */
+    public static @NotNull ItemQuery compile(@NotNull String query) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty()) {
+            throw new IllegalArgumentException(query);
+        }
+
+        Node[] nodes = new Node[terms.size()];
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = parseTerm(terms.get(i));
+        }
+
+        return new ItemQuery(String.join(" ", terms), nodes.length == 1 ? nodes[0] : new AllNode(nodes));
+    }
+
+    /**
+     * Create a query matching a single item type.
+     *
+     * @param material the item type
+     * @return the compiled query
+     */
+    public static @NotNull ItemQuery of(@NotNull Material material) {
+        return new ItemQuery(material.getKey().toString(), new IdNode(Set.of(material.getKey().toString())));
+    }
+
+    /**
+     * Create a query matching items with an enchantment level.
+     *
+     * @param enchantment the namespaced enchantment key, or null for any enchantment
+     * @param minLevel the minimum level
+     * @return the compiled query
+     */
+    public static @NotNull ItemQuery enchanted(@Nullable String enchantment, int minLevel) {
+        String source = "enchant" + (enchantment == null ? "" : ':' + enchantment) + ">=" + minLevel;
+        return new ItemQuery(source, new EnchantNode(enchantment, Math.max(1, minLevel), Integer.MAX_VALUE));
+    }
+
+    /**
+     * Get the item IDs an item must have to match, if the query restricts item type.
+     *
+     * @return the required IDs or null if items of any type may match
+     */
+    public @Nullable Set<String> getRequiredIds() {
+        if (root instanceof IdNode idNode) {
+            return Collections.unmodifiableSet(idNode.ids());
+        }
+        if (root instanceof AllNode allNode) {
+            for (Node node : allNode.nodes()) {
+                if (node instanceof IdNode idNode) {
+                    return Collections.unmodifiableSet(idNode.ids());
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean test(@NotNull ScannableItem item) {
+        return root.test(item);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static @NotNull List<String> tokenize(@NotNull String query) {
+        List<String> terms = new ArrayList<>();
+        StringBuilder term = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < query.length(); ++i) {
+            char character = query.charAt(i);
+            if (character == '"') {
+                quoted = !quoted;
+            } else if (!quoted && Character.isWhitespace(character)) {
+                if (term.length() > 0) {
+                    terms.add(term.toString());
+                    term.setLength(0);
+                }
+            } else {
+                term.append(character);
+            }
+        }
+        if (term.length() > 0) {
+            terms.add(term.toString());
+        }
+        return terms;
+    }
+
+    private static @NotNull Node parseTerm(@NotNull String term) {
+        if (term.startsWith("!") && term.length() > 1) {
+            return new NotNode(parseTerm(term.substring(1)));
+        }
+
+        int tilde = term.indexOf('~');
+        if (tilde > 0) {
+            String key = term.substring(0, tilde).toLowerCase();
+            Pattern pattern;
+            try {
+                pattern = Pattern.compile(term.substring(tilde + 1), Pattern.CASE_INSENSITIVE);
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException(term);
+            }
+            return switch (key) {
+                case "name" -> new NameNode(pattern);
+                case "lore" -> new LoreNode(pattern);
+                default -> throw new IllegalArgumentException(term);
+            };
+        }
+
+        String lower = term.toLowerCase();
+        if (lower.startsWith("#")) {
+            return parseTag(term, lower.substring(1));
+        }
+        if (isKeyTerm(lower, "amount")) {
+            int[] range = parseRange(term, lower.substring("amount".length()));
+            return new AmountNode(range[0], range[1]);
+        }
+        if (isKeyTerm(lower, "model")) {
+            int[] range = parseRange(term, lower.substring("model".length()));
+            return new ModelNode(range[0], range[1]);
+        }
+        if (lower.equals("enchant") || isKeyTerm(lower, "enchant")) {
+            return parseEnchant(term, lower.substring("enchant".length()));
+        }
+        if (lower.startsWith("nbt:") && lower.length() > 4) {
+            // Tag keys are case sensitive.
+            return new PathNode(term.substring(4));
+        }
+
+        Set<String> ids = new HashSet<>();
+        for (String name : lower.split(",")) {
+            Material material = Material.matchMaterial(name);
+            if (material == null || !material.isItem()) {
+                throw new IllegalArgumentException(term);
+            }
+            ids.add(material.getKey().toString());
+        }
+        return new IdNode(ids);
+    }
+
+    private static boolean isKeyTerm(@NotNull String term, @NotNull String key) {
+        // Require an operator so that item types like enchanted_book are not mistaken for keys.
+        return term.length() > key.length()
+                && term.startsWith(key)
+                && ":<>=".indexOf(term.charAt(key.length())) != -1;
+    }
+
+    private static @NotNull Node parseTag(@NotNull String term, @NotNull String tagName) {
+        NamespacedKey key = NamespacedKey.fromString(tagName);
+        if (key == null) {
+            throw new IllegalArgumentException(term);
+        }
+        Tag<Material> tag = Bukkit.getTag(Tag.REGISTRY_ITEMS, key, Material.class);
+        if (tag == null) {
+            throw new IllegalArgumentException(term);
+        }
+        Set<String> ids = new HashSet<>();
+        for (Material material : tag.getValues()) {
+            ids.add(material.getKey().toString());
+        }
+        return new IdNode(ids);
+    }
+
+    private static @NotNull Node parseEnchant(@NotNull String term, @NotNull String spec) {
+        String enchantment = null;
+        if (spec.startsWith(":")) {
+            int operator = 1;
+            while (operator < spec.length() && "<>=".indexOf(spec.charAt(operator)) == -1) {
+                ++operator;
+            }
+            NamespacedKey key = NamespacedKey.fromString(spec.substring(1, operator));
+            if (key == null) {
+                throw new IllegalArgumentException(term);
+            }
+            enchantment = key.toString();
+            spec = spec.substring(operator);
+        }
+        int[] range = spec.isEmpty() ? new int[] { 1, Integer.MAX_VALUE } : parseRange(term, spec);
+        // Enchantments are only present at level 1 or higher.
+        return new EnchantNode(enchantment, Math.max(1, range[0]), range[1]);
+    }
+
+    private static int @NotNull [] parseRange(@NotNull String term, @NotNull String spec) {
+        try {
+            if (spec.startsWith(">=")) {
+                return new int[] { Integer.parseInt(spec.substring(2)), Integer.MAX_VALUE };
+            }
+            if (spec.startsWith("<=")) {
+                return new int[] { Integer.MIN_VALUE, Integer.parseInt(spec.substring(2)) };
+            }
+            if (spec.startsWith(">")) {
+                return new int[] { Integer.parseInt(spec.substring(1)) + 1, Integer.MAX_VALUE };
+            }
+            if (spec.startsWith("<")) {
+                return new int[] { Integer.MIN_VALUE, Integer.parseInt(spec.substring(1)) - 1 };
+            }
+            if (spec.startsWith("=")) {
+                int value = Integer.parseInt(spec.substring(1));
+                return new int[] { value, value };
+            }
+            if (spec.startsWith(":")) {
+                spec = spec.substring(1);
+                int dots = spec.indexOf("..");
+                if (dots < 0) {
+                    int value = Integer.parseInt(spec);
+                    return new int[] { value, value };
+                }
+                String min = spec.substring(0, dots);
+                String max = spec.substring(dots + 2);
+                return new int[] {
+                        min.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(min),
+                        max.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(max)
+                };
+            }
+        } catch (NumberFormatException ignored) {
+            // Handled below.
+        }
+        throw new IllegalArgumentException(term);
+    }
+
+    private static @NotNull String toPlainText(@NotNull String json) {
+        try {
+            return BaseComponent.toPlainText(ComponentSerializer.parse(json));
+        } catch (RuntimeException e) {
+            // Not valid JSON, i.e. legacy data. Match raw text.
+            return json;
+        }
+    }
+
+    private interface Node extends Predicate<ScannableItem> {
+
+        /**
+         * Get the relative cost of evaluating the node.
+         *
+         * @return the cost
+         */
+        int cost();
+
+    }
+
+    private record AllNode(@NotNull Node @NotNull [] nodes) implements Node {
+
+        private AllNode {
+            nodes = nodes.clone();
+            Arrays.sort(nodes, Comparator.comparingInt(Node::cost));
+        }
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            for (Node node : nodes) {
+                if (!node.test(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int cost() {
+            int cost = 0;
+            for (Node node : nodes) {
+                cost += node.cost();
+            }
+            return cost;
+        }
+
+    }
+
+    private record NotNode(@NotNull Node node) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            return !node.test(item);
+        }
+
+        @Override
+        public int cost() {
+            return node.cost();
+        }
+
+    }
+
+    private record IdNode(@NotNull Set<String> ids) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            return ids.contains(item.getId());
+        }
+
+        @Override
+        public int cost() {
+            return COST_ID;
+        }
+
+    }
+
+    private record AmountNode(int min, int max) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            int amount = item.getAmount();
+            return amount >= min && amount <= max;
+        }
+
+        @Override
+        public int cost() {
+            return COST_AMOUNT;
+        }
+
+    }
+
+    private record EnchantNode(@Nullable String enchantment, int min, int max) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            int level = item.getEnchantmentLevel(enchantment);
+            return level >= min && level <= max;
+        }
+
+        @Override
+        public int cost() {
+            return COST_ENCHANT;
+        }
+
+    }
+
+    private record ModelNode(int min, int max) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            NbtCompound tag = item.getTag();
+            if (tag == null || !(tag.get("CustomModelData") instanceof Number number)) {
+                return false;
+            }
+            int model = number.intValue();
+            return model >= min && model <= max;
+        }
+
+        @Override
+        public int cost() {
+            return COST_TAG;
+        }
+
+    }
+
+    private record PathNode(@NotNull String path) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            NbtCompound tag = item.getTag();
+            return tag != null && tag.getPath(path) != null;
+        }
+
+        @Override
+        public int cost() {
+            return COST_TAG;
+        }
+
+    }
+
+    private record NameNode(@NotNull Pattern pattern) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            NbtCompound tag = item.getTag();
+            if (tag == null || !(tag.getPath("display.Name") instanceof String name)) {
+                return false;
+            }
+            return pattern.matcher(toPlainText(name)).find();
+        }
+
+        @Override
+        public int cost() {
+            return COST_TEXT;
+        }
+
+    }
+
+    private record LoreNode(@NotNull Pattern pattern) implements Node {
+
+        @Override
+        public boolean test(@NotNull ScannableItem item) {
+            NbtCompound tag = item.getTag();
+            NbtCompound display = tag == null ? null : tag.getCompound("display");
+            NbtList lore = display == null ? null : display.getList("Lore", NbtType.STRING);
+            if (lore == null) {
+                return false;
+            }
+            for (Object line : lore) {
+                if (pattern.matcher(toPlainText((String) line)).find()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public int cost() {
+            return COST_TEXT;
+        }
+
+    }
+
+}
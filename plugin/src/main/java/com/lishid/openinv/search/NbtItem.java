@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A {@link ScannableItem} backed by a saved item compound.
+ */
+public class NbtItem implements ScannableItem {
+
+    private final NbtCompound compound;
+
+    public NbtItem(@NotNull NbtCompound compound) {
+        this.compound = compound;
+    }
+
+    /**
+     * Get the compound backing the item.
+     *
+     * @return the item compound
+     */
+    public @NotNull NbtCompound getCompound() {
+        return compound;
+    }
+
+    @Override
+    public @NotNull String getId() {
+        String id = compound.getString("id");
+        return id == null ? "minecraft:air" : id;
+    }
+
+    @Override
+    public int getAmount() {
+        return compound.getInt("Count", 0);
+    }
+
+    @Override
+    public @Nullable NbtCompound getTag() {
+        return compound.getCompound("tag");
+    }
+
+    @Override
+    public @NotNull List<NbtItem> getContents() {
+        NbtCompound tag = getTag();
+        if (tag == null) {
+            return Collections.emptyList();
+        }
+
+        List<NbtItem> contents = new ArrayList<>();
+        // Container items such as shulker boxes.
+        NbtCompound blockEntityTag = tag.getCompound("BlockEntityTag");
+        if (blockEntityTag != null) {
+            addAll(blockEntityTag.getList("Items", NbtType.COMPOUND), contents);
+        }
+        // Bundles.
+        addAll(tag.getList("Items", NbtType.COMPOUND), contents);
+        return contents;
+    }
+
+    /**
+     * Wrap every item compound in a list.
+     *
+     * @param items the list of item compounds
+     * @return the wrapped items
+     */
+    public static @NotNull List<NbtItem> of(@Nullable NbtList items) {
+        if (items == null || items.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<NbtItem> wrapped = new ArrayList<>(items.size());
+        addAll(items, wrapped);
+        return wrapped;
+    }
+
+    private static void addAll(@Nullable NbtList items, @NotNull List<NbtItem> contents) {
+        if (items == null) {
+            return;
+        }
+        for (NbtCompound item : items.compounds()) {
+            contents.add(new NbtItem(item));
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import java.util.function.Predicate;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Helpers for matching items including the contents of container items.
+ */
+public final class NestedItems {
+
+    /**
+     * Check if an item or any item inside it matches.
+     *
+     * @param item the item
+     * @param predicate the predicate
+     * @param maxDepth the maximum depth of nested contents to search, 0 for top level only
+     * @return true if a match was found
+     */
+    public static boolean anyMatch(
+            @NotNull ScannableItem item,
+            @NotNull Predicate<? super ScannableItem> predicate,
+            int maxDepth) {
+        if (predicate.test(item)) {
+            return true;
+        }
+        if (maxDepth <= 0) {
+            return false;
+        }
+        for (ScannableItem content : item.getContents()) {
+            if (anyMatch(content, predicate, maxDepth - 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Count the total amount of matching items in an item and the items inside it.
+     *
+     * @param item the item
+     * @param predicate the predicate
+     * @param maxDepth the maximum depth of nested contents to search, 0 for top level only
+     * @return the total amount of matching items
+     */
+    public static int count(
+            @NotNull ScannableItem item,
+            @NotNull Predicate<? super ScannableItem> predicate,
+            int maxDepth) {
+        int count = predicate.test(item) ? item.getAmount() : 0;
+        if (maxDepth <= 0) {
+            return count;
+        }
+        for (ScannableItem content : item.getContents()) {
+            count += count(content, predicate, maxDepth - 1);
+        }
+        return count;
+    }
+
+    private NestedItems() {}
+
+}
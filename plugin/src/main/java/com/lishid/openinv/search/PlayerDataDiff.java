@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtIo;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Slot-level comparison of the inventory and ender chest of a player data file and its {@code .dat_old} backup.
+ *
+ * <p>Only the two item lists are parsed from each file, so players are never loaded. Comparison performs blocking I/O
+ * and should be done off the main thread.
+ */
+public final class PlayerDataDiff {
+
+    private static final String INVENTORY = "Inventory";
+    private static final String ENDER_CHEST = "EnderItems";
+    private static final String BACKUP_SUFFIX = "_old";
+
+    /**
+     * Get the backup kept by the server when a player data file is replaced.
+     *
+     * @param file the player data file
+     * @return the backup file
+     */
+    public static @NotNull Path getBackup(@NotNull Path file) {
+        return file.resolveSibling(file.getFileName() + BACKUP_SUFFIX);
+    }
+
+    /**
+     * Compare a player data file with its backup.
+     *
+     * @param file the player data file
+     * @return the changes from the backup to the current file, inventory first, in slot order
+     * @throws IOException if either file is missing or cannot be read
+     */
+    public static @NotNull List<Change> compare(@NotNull Path file) throws IOException {
+        Path backup = getBackup(file);
+        if (!Files.exists(backup)) {
+            throw new IOException("No backup exists for " + file);
+        }
+
+        NbtCompound current = NbtIo.readCompressed(file, key -> key.equals(INVENTORY) || key.equals(ENDER_CHEST));
+        NbtCompound previous = NbtIo.readCompressed(backup, key -> key.equals(INVENTORY) || key.equals(ENDER_CHEST));
+
+        List<Change> changes = new ArrayList<>();
+        compare(ListType.INVENTORY, previous.getList(INVENTORY, NbtType.COMPOUND), current.getList(INVENTORY, NbtType.COMPOUND), changes);
+        compare(ListType.ENDER_CHEST, previous.getList(ENDER_CHEST, NbtType.COMPOUND), current.getList(ENDER_CHEST, NbtType.COMPOUND), changes);
+        return changes;
+    }
+
+    private static void compare(
+            @NotNull ListType list,
+            @Nullable NbtList previous,
+            @Nullable NbtList current,
+            @NotNull List<Change> changes) {
+        TreeMap<Integer, NbtCompound> before = bySlot(previous);
+        TreeMap<Integer, NbtCompound> after = bySlot(current);
+        Set<Integer> slots = new TreeSet<>(before.keySet());
+        slots.addAll(after.keySet());
+
+        for (int slot : slots) {
+            NbtItem old = before.containsKey(slot) ? new NbtItem(before.get(slot)) : null;
+            NbtItem now = after.containsKey(slot) ? new NbtItem(after.get(slot)) : null;
+
+            ChangeType type;
+            Set<String> changedKeys = Set.of();
+            if (old == null) {
+                type = ChangeType.ADDED;
+            } else if (now == null) {
+                type = ChangeType.REMOVED;
+            } else if (!old.getId().equals(now.getId())) {
+                type = ChangeType.REPLACED;
+            } else {
+                changedKeys = getChangedKeys(old.getTag(), now.getTag());
+                if (!changedKeys.isEmpty()) {
+                    type = ChangeType.TAG;
+                } else if (old.getAmount() != now.getAmount()) {
+                    type = ChangeType.AMOUNT;
+                } else {
+                    continue;
+                }
+            }
+            changes.add(new Change(list, slot, type, old, now, changedKeys));
+        }
+    }
+
+    private static @NotNull TreeMap<Integer, NbtCompound> bySlot(@Nullable NbtList items) {
+        TreeMap<Integer, NbtCompound> slots = new TreeMap<>();
+        if (items == null) {
+            return slots;
+        }
+        for (NbtCompound item : items.compounds()) {
+            slots.put(item.getInt("Slot", 0), item);
+        }
+        return slots;
+    }
+
+    private static @NotNull Set<String> getChangedKeys(@Nullable NbtCompound before, @Nullable NbtCompound after) {
+        if (Objects.equals(before, after)) {
+            return Set.of();
+        }
+
+        Set<String> keys = new TreeSet<>();
+        if (before != null) {
+            keys.addAll(before.keySet());
+        }
+        if (after != null) {
+            keys.addAll(after.keySet());
+        }
+
+        Set<String> changed = new TreeSet<>();
+        for (String key : keys) {
+            Object oldValue = before == null ? null : before.get(key);
+            Object newValue = after == null ? null : after.get(key);
+            if (!NbtType.valueEquals(oldValue, newValue)) {
+                changed.add(key);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The list an item slot belongs to.
+     */
+    public enum ListType {
+        INVENTORY,
+        ENDER_CHEST
+    }
+
+    /**
+     * The type of change to a slot.
+     */
+    public enum ChangeType {
+        /** An item was added to an empty slot. */
+        ADDED,
+        /** An item was removed, leaving the slot empty. */
+        REMOVED,
+        /** An item was replaced by a different type of item. */
+        REPLACED,
+        /** An item's amount changed. */
+        AMOUNT,
+        /** An item's tag changed; the amount may also have changed. */
+        TAG
+    }
+
+    /**
+     * A change to a single slot.
+     *
+     * @param list the list containing the slot
+     * @param slot the slot number as used in saved player data
+     * @param type the type of change
+     * @param before the item in the backup or null if the slot was empty
+     * @param after the item in the current file or null if the slot is empty
+     * @param changedKeys the top-level tag keys that differ
+     */
+    public record Change(
+            @NotNull ListType list,
+            int slot,
+            @NotNull ChangeType type,
+            @Nullable NbtItem before,
+            @Nullable NbtItem after,
+            @NotNull Set<String> changedKeys) {}
+
+    private PlayerDataDiff() {}
+
+}
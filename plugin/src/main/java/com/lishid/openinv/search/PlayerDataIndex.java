@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.event.OpenPlayerSaveEvent;
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtIo;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A columnar index of scalar fields from saved player data.
+ *
+ * <p>Each configured field is a dot-separated NBT path such as {@code XpLevel} or {@code Pos.1}. Numeric fields are
+ * stored in a {@code double[]} per field and text fields as {@code int} codes into a per-field dictionary, so a range
+ * query is a scan over a few primitive arrays rather than a load of every player. Player IDs are stored as two
+ * {@code long[]} columns. Missing values are {@code NaN} or code {@code -1} and never match a filter.
+ *
+ * <p>The index is built from every player data file on the search executor and rows are re-read after a player quits
+ * or an offline player is saved. Rows of online players reflect their last save. Methods may be called from any
+ * thread.
+ */
+public class PlayerDataIndex implements Listener {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int BATCH_SIZE = 64;
+    private static final int MISSING = -1;
+
+    private final OpenInv plugin;
+    private final Path playerDataFolder;
+    private final String[] fieldNames;
+    private final String[] fieldPaths;
+    private final Set<String> rootKeys = new HashSet<>();
+    private final Column[] columns;
+    private final Map<UUID, Integer> rows = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] mostBits = new long[INITIAL_CAPACITY];
+    private long[] leastBits = new long[INITIAL_CAPACITY];
+    private int size;
+    private volatile boolean built;
+
+    /**
+     * Construct a new {@code PlayerDataIndex} for the fields in the configuration. Must be called on the main thread.
+     *
+     * @param plugin the {@link OpenInv} instance
+     */
+    public PlayerDataIndex(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+        this.playerDataFolder = PlayerDataSearch.getPlayerDataFolder(plugin.getServer());
+
+        Map<String, String> fields = new LinkedHashMap<>();
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("settings.search.player-index.fields");
+        if (section != null) {
+            for (String key : section.getKeys(false)) {
+                String path = section.getString(key);
+                if (path != null && !path.isEmpty()) {
+                    fields.put(key.toLowerCase(), path);
+                }
+            }
+        }
+
+        this.fieldNames = fields.keySet().toArray(new String[0]);
+        this.fieldPaths = fields.values().toArray(new String[0]);
+        this.columns = new Column[fieldNames.length];
+        for (int i = 0; i < fieldPaths.length; ++i) {
+            int dot = fieldPaths[i].indexOf('.');
+            rootKeys.add(dot == -1 ? fieldPaths[i] : fieldPaths[i].substring(0, dot));
+            columns[i] = new Column();
+        }
+    }
+
+    /**
+     * Read every player data file into the index.
+     *
+     * @return a future completing when all files have been read
+     */
+    public @NotNull CompletableFuture<Void> build() {
+        List<Path> files;
+        try {
+            files = PlayerDataSearch.listPlayerFiles(playerDataFolder);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long start = System.nanoTime();
+        AtomicInteger failed = new AtomicInteger();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < files.size(); i += BATCH_SIZE) {
+            List<Path> batch = files.subList(i, Math.min(files.size(), i + BATCH_SIZE));
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (Path file : batch) {
+                    if (!update(file)) {
+                        failed.incrementAndGet();
+                    }
+                }
+            }, plugin.getSearchExecutor()));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).thenRun(() -> {
+            built = true;
+            plugin.getLogger().info(String.format(
+                    "Indexed %d player data files in %d ms, %d unreadable.",
+                    files.size() - failed.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    failed.get()));
+        });
+    }
+
+    /**
+     * Check whether the initial build has finished. Queries before then only cover files read so far.
+     *
+     * @return true if the index has been built
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * Get the names of the indexed fields in configuration order.
+     *
+     * @return the field names
+     */
+    public @NotNull List<String> getFields() {
+        return Collections.unmodifiableList(Arrays.asList(fieldNames));
+    }
+
+    /**
+     * Get the number of indexed players.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the approximate heap cost of the columns.
+     *
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedBytes() {
+        lock.readLock().lock();
+        try {
+            // Both ID columns plus the row lookup entry.
+            long bytes = mostBits.length * 16L + size * 64L;
+            for (Column column : columns) {
+                bytes += column.getEstimatedBytes();
+            }
+            return bytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Find all players matching every filter.
+     *
+     * @param filters the filters
+     * @return the matching rows
+     * @throws IllegalArgumentException if a filter references a field that is not indexed
+     */
+    public @NotNull List<Row> query(@NotNull Collection<Filter> filters) {
+        int[] fieldIndices = new int[filters.size()];
+        Filter[] filterArray = filters.toArray(new Filter[0]);
+        for (int i = 0; i < filterArray.length; ++i) {
+            fieldIndices[i] = getFieldIndex(filterArray[i].field());
+            if (fieldIndices[i] < 0) {
+                throw new IllegalArgumentException("Field " + filterArray[i].field() + " is not indexed");
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            // Resolve text filters to codes once so the scan only compares primitives.
+            int[] codes = new int[filterArray.length];
+            for (int i = 0; i < filterArray.length; ++i) {
+                Filter filter = filterArray[i];
+                if (filter.text() != null) {
+                    codes[i] = columns[fieldIndices[i]].getCode(filter.text());
+                    if (codes[i] == MISSING) {
+                        return List.of();
+                    }
+                }
+            }
+
+            List<Row> results = new ArrayList<>();
+            rows:
+            for (int row = 0; row < size; ++row) {
+                for (int i = 0; i < filterArray.length; ++i) {
+                    if (!columns[fieldIndices[i]].matches(row, filterArray[i], codes[i])) {
+                        continue rows;
+                    }
+                }
+                results.add(getRow(row));
+            }
+            return results;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Get the indexed values of a player.
+     *
+     * @param playerId the player's {@link UUID}
+     * @return the row or null if the player is not indexed
+     */
+    public @Nullable Row get(@NotNull UUID playerId) {
+        lock.readLock().lock();
+        try {
+            Integer row = rows.get(playerId);
+            return row == null ? null : getRow(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private @NotNull Row getRow(int row) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (int i = 0; i < fieldNames.length; ++i) {
+            Object value = columns[i].get(row);
+            if (value != null) {
+                values.put(fieldNames[i], value);
+            }
+        }
+        return new Row(new UUID(mostBits[row], leastBits[row]), values);
+    }
+
+    private int getFieldIndex(@NotNull String field) {
+        for (int i = 0; i < fieldNames.length; ++i) {
+            if (fieldNames[i].equalsIgnoreCase(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Re-read a player's data file into the index.
+     *
+     * @param file the player data file
+     * @return false if the file could not be read
+     */
+    private boolean update(@NotNull Path file) {
+        UUID playerId = PlayerDataSearch.getPlayerId(file);
+        if (playerId == null || !Files.isRegularFile(file)) {
+            return true;
+        }
+
+        NbtCompound data;
+        try {
+            data = NbtIo.readCompressed(file, rootKeys::contains);
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().log(Level.FINE, e, () -> "Unable to index " + file);
+            return false;
+        }
+
+        Object[] values = new Object[fieldPaths.length];
+        for (int i = 0; i < fieldPaths.length; ++i) {
+            values[i] = data.getPath(fieldPaths[i]);
+        }
+
+        lock.writeLock().lock();
+        try {
+            Integer row = rows.get(playerId);
+            if (row == null) {
+                row = size++;
+                if (row == mostBits.length) {
+                    mostBits = Arrays.copyOf(mostBits, row * 2);
+                    leastBits = Arrays.copyOf(leastBits, row * 2);
+                }
+                mostBits[row] = playerId.getMostSignificantBits();
+                leastBits[row] = playerId.getLeastSignificantBits();
+                rows.put(playerId, row);
+            }
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i].set(row, mostBits.length, values[i]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    private void updateLater(@NotNull UUID playerId) {
+        // Data is written after the event, so read it on the next tick.
+        plugin.getTaskScheduler().run(() -> plugin.getSearchExecutor().execute(
+                () -> update(playerDataFolder.resolve(playerId + ".dat"))));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    private void onPlayerQuit(@NotNull PlayerQuitEvent event) {
+        updateLater(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onPlayerSave(@NotNull OpenPlayerSaveEvent event) {
+        updateLater(event.getPlayer().getUniqueId());
+    }
+
+    /**
+     * A single indexed column. The value type is fixed by the first value stored; values of the other type are treated
+     * as missing.
+     */
+    private static final class Column {
+
+        private double @Nullable [] numbers;
+        private int @Nullable [] codes;
+        private final List<String> dictionary = new ArrayList<>();
+        private final Map<String, Integer> dictionaryCodes = new HashMap<>();
+
+        private void set(int row, int capacity, @Nullable Object value) {
+            if (numbers == null && codes == null) {
+                if (value instanceof Number) {
+                    numbers = new double[capacity];
+                    Arrays.fill(numbers, Double.NaN);
+                } else if (value instanceof String) {
+                    codes = new int[capacity];
+                    Arrays.fill(codes, MISSING);
+                } else {
+                    return;
+                }
+            }
+
+            if (numbers != null) {
+                if (numbers.length < capacity) {
+                    int oldLength = numbers.length;
+                    numbers = Arrays.copyOf(numbers, capacity);
+                    Arrays.fill(numbers, oldLength, capacity, Double.NaN);
+                }
+                numbers[row] = value instanceof Number number ? number.doubleValue() : Double.NaN;
+            } else {
+                if (codes.length < capacity) {
+                    int oldLength = codes.length;
+                    codes = Arrays.copyOf(codes, capacity);
+                    Arrays.fill(codes, oldLength, capacity, MISSING);
+                }
+                codes[row] = value instanceof String text ? dictionaryCodes.computeIfAbsent(text, key -> {
+                    dictionary.add(key);
+                    return dictionary.size() - 1;
+                }) : MISSING;
+            }
+        }
+
+        private @Nullable Object get(int row) {
+            if (numbers != null && row < numbers.length && !Double.isNaN(numbers[row])) {
+                return numbers[row];
+            }
+            if (codes != null && row < codes.length && codes[row] != MISSING) {
+                return dictionary.get(codes[row]);
+            }
+            return null;
+        }
+
+        private int getCode(@NotNull String text) {
+            return dictionaryCodes.getOrDefault(text, MISSING);
+        }
+
+        private boolean matches(int row, @NotNull Filter filter, int code) {
+            if (filter.text() != null) {
+                return codes != null && row < codes.length && codes[row] == code;
+            }
+            if (numbers == null || row >= numbers.length) {
+                return false;
+            }
+            double value = numbers[row];
+            // NaN fails both comparisons.
+            return value >= filter.min() && value <= filter.max();
+        }
+
+        private long getEstimatedBytes() {
+            long bytes = numbers != null ? numbers.length * 8L : codes != null ? codes.length * 4L : 0;
+            for (String value : dictionary) {
+                bytes += 64 + value.length() * 2L;
+            }
+            return bytes;
+        }
+
+    }
+
+    /**
+     * The indexed values of one player.
+     *
+     * @param playerId the player's {@link UUID}
+     * @param values the present values by field name, either {@link Double} or {@link String}
+     */
+    public record Row(@NotNull UUID playerId, @NotNull Map<String, Object> values) {}
+
+    /**
+     * A filter on one field. Numeric filters match values in an inclusive range, text filters match exactly.
+     *
+     * @param field the field name
+     * @param min the minimum value
+     * @param max the maximum value
+     * @param text the exact text or null for a numeric filter
+     */
+    public record Filter(@NotNull String field, double min, double max, @Nullable String text) {
+
+        private static final String[] OPERATORS = { ">=", "<=", ">", "<", "=" };
+
+        /**
+         * Create a filter matching numeric values in an inclusive range.
+         *
+         * @param field the field name
+         * @param min the minimum value
+         * @param max the maximum value
+         * @return the filter
+         */
+        public static @NotNull Filter range(@NotNull String field, double min, double max) {
+            return new Filter(field, min, max, null);
+        }
+
+        /**
+         * Create a filter matching a text value exactly.
+         *
+         * @param field the field name
+         * @param text the text
+         * @return the filter
+         */
+        public static @NotNull Filter equalTo(@NotNull String field, @NotNull String text) {
+            return new Filter(field, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, text);
+        }
+
+        /**
+         * Parse a filter such as {@code level>=30}, {@code y=0..64}, {@code world=minecraft:the_nether} or
+         * {@code last-played<30d}. A number suffixed with {@code d}, {@code h}, {@code m} or {@code s} is that long
+         * before now in epoch milliseconds, so {@code last-played<30d} matches players last seen over 30 days ago.
+         *
+         * @param filter the filter
+         * @return the parsed filter
+         * @throws IllegalArgumentException if the filter is malformed
+         */
+        public static @NotNull Filter parse(@NotNull String filter) {
+            for (String operator : OPERATORS) {
+                int index = filter.indexOf(operator);
+                if (index < 1 || index + operator.length() == filter.length()) {
+                    continue;
+                }
+
+                String field = filter.substring(0, index);
+                String value = filter.substring(index + operator.length());
+
+                if (operator.equals("=")) {
+                    int range = value.indexOf("..");
+                    if (range > -1) {
+                        double min = range == 0 ? Double.NEGATIVE_INFINITY : parseNumber(value.substring(0, range));
+                        double max = range + 2 == value.length()
+                                ? Double.POSITIVE_INFINITY
+                                : parseNumber(value.substring(range + 2));
+                        return range(field, Math.min(min, max), Math.max(min, max));
+                    }
+                    try {
+                        double number = parseNumber(value);
+                        return range(field, number, number);
+                    } catch (NumberFormatException e) {
+                        return equalTo(field, value);
+                    }
+                }
+
+                double number = parseNumber(value);
+                return switch (operator) {
+                    case ">=" -> range(field, number, Double.POSITIVE_INFINITY);
+                    case "<=" -> range(field, Double.NEGATIVE_INFINITY, number);
+                    case ">" -> range(field, Math.nextUp(number), Double.POSITIVE_INFINITY);
+                    default -> range(field, Double.NEGATIVE_INFINITY, Math.nextDown(number));
+                };
+            }
+            throw new IllegalArgumentException("No comparison in " + filter);
+        }
+
+        private static double parseNumber(@NotNull String value) {
+            if (value.length() > 1) {
+                TimeUnit unit = switch (Character.toLowerCase(value.charAt(value.length() - 1))) {
+                    case 'd' -> TimeUnit.DAYS;
+                    case 'h' -> TimeUnit.HOURS;
+                    case 'm' -> TimeUnit.MINUTES;
+                    case 's' -> TimeUnit.SECONDS;
+                    default -> null;
+                };
+                if (unit != null) {
+                    long ago = unit.toMillis(Long.parseLong(value.substring(0, value.length() - 1)));
+                    return System.currentTimeMillis() - ago;
+                }
+            }
+            return Double.parseDouble(value);
+        }
+
+    }
+
+}
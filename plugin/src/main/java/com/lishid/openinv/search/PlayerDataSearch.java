@@ -0,0 +1,358 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtIo;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.bukkit.Server;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Search saved player data for matching items without loading players.
+ *
+ * <p>Only the inventory and ender chest lists of each file are parsed. Files are processed in batches on the supplied
+ * {@link Executor}.
+ */
+public class PlayerDataSearch {
+
+    private static final String INVENTORY = "Inventory";
+    private static final String ENDER_CHEST = "EnderItems";
+    private static final String EXTENSION = ".dat";
+    private static final int BATCH_SIZE = 64;
+
+    private final Path playerDataFolder;
+    private final Predicate<ScannableItem> itemMatcher;
+    private final int maxDepth;
+    private Predicate<UUID> playerFilter = uuid -> true;
+    private boolean inventory = true;
+    private boolean enderChest = true;
+    private int minimumAmount = 1;
+    private Consumer<PlayerMatch> matchListener = match -> {};
+    private @Nullable BiConsumer<PlayerMatch, ScannableItem> itemVisitor;
+    private SearchMonitor monitor = SearchMonitor.NONE;
+    private final AtomicInteger filesRead = new AtomicInteger();
+    private final AtomicInteger filesFailed = new AtomicInteger();
+
+    /**
+     * Construct a new {@code PlayerDataSearch}.
+     *
+     * @param playerDataFolder the folder containing player data files
+     * @param itemMatcher the predicate for items
+     * @param maxDepth the maximum depth of nested contents to search
+     */
+    public PlayerDataSearch(@NotNull Path playerDataFolder, @NotNull Predicate<ScannableItem> itemMatcher, int maxDepth) {
+        this.playerDataFolder = playerDataFolder;
+        this.itemMatcher = itemMatcher;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Get the folder containing player data files. Must be called on the main thread.
+     *
+     * @param server the server
+     * @return the player data folder
+     */
+    public static @NotNull Path getPlayerDataFolder(@NotNull Server server) {
+        return server.getWorlds().get(0).getWorldFolder().toPath().resolve("playerdata");
+    }
+
+    /**
+     * List all player data files in a folder.
+     *
+     * @param playerDataFolder the folder containing player data files
+     * @return the player data files
+     * @throws IOException if the folder cannot be listed
+     */
+    public static @NotNull List<Path> listPlayerFiles(@NotNull Path playerDataFolder) throws IOException {
+        if (!Files.isDirectory(playerDataFolder)) {
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(playerDataFolder)) {
+            return files.filter(path -> getPlayerId(path) != null).toList();
+        }
+    }
+
+    /**
+     * Get the {@link UUID} of the owner of a player data file.
+     *
+     * @param file the player data file
+     * @return the owner's UUID or null if the file is not a player data file
+     */
+    public static @Nullable UUID getPlayerId(@NotNull Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(EXTENSION)) {
+            return null;
+        }
+        try {
+            return UUID.fromString(name.substring(0, name.length() - EXTENSION.length()));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Replace a player data file. The new data is written to a uniquely named temporary file, the current file is
+     * copied to {@code <uuid>.dat_old} as the server does, and the new file is moved into place atomically. The backup
+     * is also written under a temporary name first, so an interrupted write never leaves a truncated file behind.
+     *
+     * <p>Callers must hold {@link com.lishid.openinv.OpenInv#editOfflinePlayerFile(UUID, FileEdit) the player's file
+     * lock}, which serializes writes to the same file.
+     *
+     * @param file the player data file
+     * @param data the new player data
+     * @throws IOException if the file cannot be written
+     */
+    public static void writePlayerFile(@NotNull Path file, @NotNull NbtCompound data) throws IOException {
+        String name = file.getFileName().toString();
+        Path folder = file.toAbsolutePath().getParent();
+        String prefix = (name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name) + '-';
+        Path temporary = Files.createTempFile(folder, prefix, EXTENSION);
+        try {
+            NbtIo.writeCompressed(temporary, data);
+            if (Files.exists(file)) {
+                Path backup = Files.createTempFile(folder, prefix, EXTENSION + "_old");
+                try {
+                    Files.copy(file, backup, StandardCopyOption.REPLACE_EXISTING);
+                    Files.move(backup, file.resolveSibling(name + "_old"),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(backup);
+                }
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * An edit of a player data file made while holding the player's file lock.
+     */
+    @FunctionalInterface
+    public interface FileEdit {
+
+        /**
+         * Read and rewrite the file.
+         *
+         * @throws IOException if the file cannot be read or written
+         */
+        void edit() throws IOException;
+
+    }
+
+    /**
+     * Restrict the search to players matching a filter, i.e. excluding players who are online.
+     *
+     * @param playerFilter the filter
+     * @return this search
+     */
+    public @NotNull PlayerDataSearch filter(@NotNull Predicate<UUID> playerFilter) {
+        this.playerFilter = playerFilter;
+        return this;
+    }
+
+    /**
+     * Set which of each player's item lists are searched.
+     *
+     * @param inventory whether to search the inventory
+     * @param enderChest whether to search the ender chest
+     * @return this search
+     */
+    public @NotNull PlayerDataSearch lists(boolean inventory, boolean enderChest) {
+        this.inventory = inventory;
+        this.enderChest = enderChest;
+        return this;
+    }
+
+    /**
+     * Set the total amount of matching items required in a list for it to match.
+     *
+     * @param minimumAmount the minimum total amount
+     * @return this search
+     */
+    public @NotNull PlayerDataSearch minimumAmount(int minimumAmount) {
+        this.minimumAmount = minimumAmount;
+        return this;
+    }
+
+    /**
+     * Set a listener notified of each match as soon as it is found. The listener is called on worker threads.
+     *
+     * @param matchListener the listener
+     * @return this search
+     */
+    public @NotNull PlayerDataSearch listener(@NotNull Consumer<PlayerMatch> matchListener) {
+        this.matchListener = matchListener;
+        return this;
+    }
+
+    /**
+     * Set a visitor called with every top-level item read and the list holding it, whether or not it matches. The
+     * list is described as a match on only that list. Items are only valid during the visit. The visitor is called on
+     * worker threads.
+     *
+     * @param itemVisitor the visitor
+     * @return this search
+     */
+    public @NotNull PlayerDataSearch itemVisitor(@NotNull BiConsumer<PlayerMatch, ScannableItem> itemVisitor) {
+        this.itemVisitor = itemVisitor;
+        return this;
+    }
+
+    /**
+     * Set the monitor used to report progress and check for cancellation.
+     *
+     * @param monitor the monitor
+     * @return this search
+     */
+    public @NotNull PlayerDataSearch monitor(@NotNull SearchMonitor monitor) {
+        this.monitor = monitor;
+        return this;
+    }
+
+    /**
+     * Get the number of files read so far.
+     *
+     * @return the number of files read
+     */
+    public int getFilesRead() {
+        return filesRead.get();
+    }
+
+    /**
+     * Get the number of files that could not be read.
+     *
+     * @return the number of files that could not be read
+     */
+    public int getFilesFailed() {
+        return filesFailed.get();
+    }
+
+    /**
+     * Run the search.
+     *
+     * @param executor the executor to run batches on
+     * @return a future completing with all matches
+     */
+    public @NotNull CompletableFuture<List<PlayerMatch>> search(@NotNull Executor executor) {
+        List<Path> files;
+        try {
+            files = listPlayerFiles(playerDataFolder);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        monitor.addWork(files.size());
+        Queue<PlayerMatch> matches = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int start = 0; start < files.size(); start += BATCH_SIZE) {
+            List<Path> batch = files.subList(start, Math.min(files.size(), start + BATCH_SIZE));
+            futures.add(CompletableFuture.runAsync(() -> batch.forEach(file -> searchFile(file, matches)), executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .thenApply(unused -> new ArrayList<>(matches));
+    }
+
+    /**
+     * Search a single player data file on the calling thread. Progress is reported to the monitor as a single unit of
+     * work.
+     *
+     * @param file the player data file
+     * @return the match or null if the file does not match
+     */
+    public @Nullable PlayerMatch searchFile(@NotNull Path file) {
+        Queue<PlayerMatch> matches = new ArrayDeque<>(1);
+        searchFile(file, matches);
+        return matches.peek();
+    }
+
+    private void searchFile(@NotNull Path file, @NotNull Queue<PlayerMatch> matches) {
+        if (monitor.isCancelled()) {
+            return;
+        }
+        monitor.addProgress(1);
+
+        UUID uuid = getPlayerId(file);
+        if (uuid == null || !playerFilter.test(uuid)) {
+            return;
+        }
+
+        NbtCompound data;
+        try {
+            data = NbtIo.readCompressed(file, key -> inventory && key.equals(INVENTORY) || enderChest && key.equals(ENDER_CHEST));
+        } catch (IOException | RuntimeException e) {
+            filesFailed.incrementAndGet();
+            return;
+        }
+        filesRead.incrementAndGet();
+
+        if (itemVisitor != null) {
+            visitItems(new PlayerMatch(uuid, true, false), inventory ? data.getList(INVENTORY, NbtType.COMPOUND) : null);
+            visitItems(new PlayerMatch(uuid, false, true), enderChest ? data.getList(ENDER_CHEST, NbtType.COMPOUND) : null);
+        }
+
+        boolean matchInventory = inventory && matches(data.getList(INVENTORY, NbtType.COMPOUND));
+        boolean matchEnderChest = enderChest && matches(data.getList(ENDER_CHEST, NbtType.COMPOUND));
+        if (matchInventory || matchEnderChest) {
+            PlayerMatch match = new PlayerMatch(uuid, matchInventory, matchEnderChest);
+            matches.add(match);
+            matchListener.accept(match);
+        }
+    }
+
+    private void visitItems(@NotNull PlayerMatch list, @Nullable NbtList items) {
+        if (itemVisitor == null) {
+            return;
+        }
+        for (NbtItem item : NbtItem.of(items)) {
+            itemVisitor.accept(list, item);
+        }
+    }
+
+    private boolean matches(@Nullable NbtList items) {
+        int total = 0;
+        for (NbtItem item : NbtItem.of(items)) {
+            total += NestedItems.count(item, itemMatcher, maxDepth);
+            if (total >= minimumAmount) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
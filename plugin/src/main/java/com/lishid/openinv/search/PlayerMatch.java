@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import java.util.UUID;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A player holding a matching item.
+ *
+ * @param uuid the UUID of the player
+ * @param inventory whether the match is in the player's inventory
+ * @param enderChest whether the match is in the player's ender chest
+ */
+public record PlayerMatch(@NotNull UUID uuid, boolean inventory, boolean enderChest) {
+
+}
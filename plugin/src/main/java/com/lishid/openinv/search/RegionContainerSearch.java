@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import com.lishid.openinv.util.nbt.RegionFile;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Search for containers holding matching items by reading region files directly.
+ *
+ * <p>Chunks are never loaded or created. Each region file is handled by a separate task on the supplied
+ * {@link Executor}, and only the block entity and entity lists of each chunk are parsed. Since 1.17 entities are saved
+ * separately, so the entity region folder must be searched with a second instance. Because saved data may lag behind
+ * loaded chunks, callers should exclude loaded chunks and search those live instead.
+ */
+public class RegionContainerSearch {
+
+    private static final Predicate<String> CHUNK_KEYS =
+            key -> key.equals("block_entities") || key.equals("Entities") || key.equals("Level");
+    /** Entity keys holding lists of items, i.e. minecart and chested animal contents or worn equipment. */
+    private static final String[] ENTITY_ITEM_LISTS = { "Items", "Inventory", "ArmorItems", "HandItems" };
+    /** Entity keys holding a single item, i.e. item frame contents or horse equipment. */
+    private static final String[] ENTITY_ITEMS = { "Item", "SaddleItem", "ArmorItem", "DecorItem" };
+
+    private final Path regionFolder;
+    private final Predicate<ScannableItem> itemMatcher;
+    private int minChunkX = Integer.MIN_VALUE;
+    private int minChunkZ = Integer.MIN_VALUE;
+    private int maxChunkX = Integer.MAX_VALUE;
+    private int maxChunkZ = Integer.MAX_VALUE;
+    private LongPredicate chunkFilter = chunkKey -> true;
+    private Consumer<ContainerMatch> matchListener = match -> {};
+    private @Nullable BiConsumer<ContainerMatch, ScannableItem> itemVisitor;
+    private SearchMonitor monitor = SearchMonitor.NONE;
+    private final AtomicInteger chunksRead = new AtomicInteger();
+    private final AtomicInteger chunksFailed = new AtomicInteger();
+
+    /**
+     * Construct a new {@code RegionContainerSearch}.
+     *
+     * @param regionFolder the folder containing region files
+     * @param itemMatcher the predicate for top-level items
+     */
+    public RegionContainerSearch(@NotNull Path regionFolder, @NotNull Predicate<ScannableItem> itemMatcher) {
+        this.regionFolder = regionFolder;
+        this.itemMatcher = itemMatcher;
+    }
+
+    /**
+     * Get the folder containing a type of region file for a world.
+     *
+     * @param world the world
+     * @param type the type of region file, i.e. {@code region} or {@code entities}
+     * @return the folder
+     */
+    public static @NotNull Path getRegionFolder(@NotNull World world, @NotNull String type) {
+        Path folder = world.getWorldFolder().toPath();
+        return switch (world.getEnvironment()) {
+            case NETHER -> folder.resolve("DIM-1").resolve(type);
+            case THE_END -> folder.resolve("DIM1").resolve(type);
+            default -> folder.resolve(type);
+        };
+    }
+
+    /**
+     * Get a unique key for a chunk's coordinates.
+     *
+     * @param chunkX the chunk X coordinate
+     * @param chunkZ the chunk Z coordinate
+     * @return the key
+     */
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return (long) chunkX & 0xFFFFFFFFL | ((long) chunkZ & 0xFFFFFFFFL) << 32;
+    }
+
+    /**
+     * Get the chunk X coordinate of a {@link #chunkKey(int, int) chunk key}.
+     *
+     * @param chunkKey the key
+     * @return the chunk X coordinate
+     */
+    public static int getChunkX(long chunkKey) {
+        return (int) chunkKey;
+    }
+
+    /**
+     * Get the chunk Z coordinate of a {@link #chunkKey(int, int) chunk key}.
+     *
+     * @param chunkKey the key
+     * @return the chunk Z coordinate
+     */
+    public static int getChunkZ(long chunkKey) {
+        return (int) (chunkKey >>> 32);
+    }
+
+    /**
+     * Get the greatest distance in chunks along either axis from a chunk to any chunk covered by a region file.
+     *
+     * @param regionFolder the folder containing region files
+     * @param chunkX the chunk X coordinate
+     * @param chunkZ the chunk Z coordinate
+     * @return the distance, 0 if there are no region files
+     * @throws IOException if the folder cannot be listed
+     */
+    public static int getMaxChunkDistance(@NotNull Path regionFolder, int chunkX, int chunkZ) throws IOException {
+        if (!Files.isDirectory(regionFolder)) {
+            return 0;
+        }
+        int distance = 0;
+        try (Stream<Path> files = Files.list(regionFolder)) {
+            for (Path path : (Iterable<Path>) files::iterator) {
+                String name = path.getFileName().toString();
+                if (!RegionFile.isRegionFile(name)) {
+                    continue;
+                }
+                String[] parts = name.split("\\.");
+                int minX = Integer.parseInt(parts[1]) << 5;
+                int minZ = Integer.parseInt(parts[2]) << 5;
+                distance = Math.max(distance, Math.max(Math.abs(minX - chunkX), Math.abs(minX + 31 - chunkX)));
+                distance = Math.max(distance, Math.max(Math.abs(minZ - chunkZ), Math.abs(minZ + 31 - chunkZ)));
+            }
+        }
+        return distance;
+    }
+
+    /**
+     * Restrict the search to a rectangle of chunks.
+     *
+     * @param minChunkX the lowest chunk X coordinate, inclusive
+     * @param minChunkZ the lowest chunk Z coordinate, inclusive
+     * @param maxChunkX the highest chunk X coordinate, inclusive
+     * @param maxChunkZ the highest chunk Z coordinate, inclusive
+     * @return this search
+     */
+    public @NotNull RegionContainerSearch bounds(int minChunkX, int minChunkZ, int maxChunkX, int maxChunkZ) {
+        this.minChunkX = minChunkX;
+        this.minChunkZ = minChunkZ;
+        this.maxChunkX = maxChunkX;
+        this.maxChunkZ = maxChunkZ;
+        return this;
+    }
+
+    /**
+     * Restrict the search to chunks whose {@link #chunkKey(int, int) key} matches a filter.
+     *
+     * @param chunkFilter the filter
+     * @return this search
+     */
+    public @NotNull RegionContainerSearch filter(@NotNull LongPredicate chunkFilter) {
+        this.chunkFilter = chunkFilter;
+        return this;
+    }
+
+    /**
+     * Set a listener notified of each match as soon as it is found. The listener is called on worker threads.
+     *
+     * @param matchListener the listener
+     * @return this search
+     */
+    public @NotNull RegionContainerSearch listener(@NotNull Consumer<ContainerMatch> matchListener) {
+        this.matchListener = matchListener;
+        return this;
+    }
+
+    /**
+     * Set a visitor called with every top-level item read and the container holding it, whether or not it matches.
+     * Items are only valid during the visit. The visitor is called on worker threads.
+     *
+     * @param itemVisitor the visitor
+     * @return this search
+     */
+    public @NotNull RegionContainerSearch itemVisitor(@NotNull BiConsumer<ContainerMatch, ScannableItem> itemVisitor) {
+        this.itemVisitor = itemVisitor;
+        return this;
+    }
+
+    /**
+     * Set the monitor used to report progress and check for cancellation.
+     *
+     * @param monitor the monitor
+     * @return this search
+     */
+    public @NotNull RegionContainerSearch monitor(@NotNull SearchMonitor monitor) {
+        this.monitor = monitor;
+        return this;
+    }
+
+    /**
+     * Get the number of chunks read so far.
+     *
+     * @return the number of chunks read
+     */
+    public int getChunksRead() {
+        return chunksRead.get();
+    }
+
+    /**
+     * Get the number of chunks that could not be read, usually due to concurrent writes.
+     *
+     * @return the number of chunks that could not be read
+     */
+    public int getChunksFailed() {
+        return chunksFailed.get();
+    }
+
+    /**
+     * Run the search.
+     *
+     * @param executor the executor to run region tasks on
+     * @return a future completing with all matches
+     */
+    public @NotNull CompletableFuture<List<ContainerMatch>> search(@NotNull Executor executor) {
+        List<Path> regions;
+        try {
+            regions = listRegions();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        monitor.addWork(regions.size());
+        Queue<ContainerMatch> matches = new ConcurrentLinkedQueue<>();
+        CompletableFuture<?>[] futures = regions.stream()
+                .map(region -> CompletableFuture.runAsync(() -> searchRegion(region, matches), executor))
+                .toArray(CompletableFuture[]::new);
+
+        return CompletableFuture.allOf(futures).thenApply(unused -> new ArrayList<>(matches));
+    }
+
+    /**
+     * List the region files within the search bounds.
+     *
+     * @return the region files
+     * @throws IOException if the folder cannot be listed
+     */
+    public @NotNull List<Path> getRegionFiles() throws IOException {
+        return listRegions();
+    }
+
+    /**
+     * Search a single region file on the calling thread. Progress is reported to the monitor as a single unit of work.
+     *
+     * @param regionFile the region file
+     * @return the matches in the region
+     */
+    public @NotNull List<ContainerMatch> searchRegion(@NotNull Path regionFile) {
+        Queue<ContainerMatch> matches = new ArrayDeque<>();
+        searchRegion(regionFile, matches);
+        return new ArrayList<>(matches);
+    }
+
+    private @NotNull List<Path> listRegions() throws IOException {
+        if (!Files.isDirectory(regionFolder)) {
+            return List.of();
+        }
+        int minRegionX = minChunkX >> 5;
+        int minRegionZ = minChunkZ >> 5;
+        int maxRegionX = maxChunkX >> 5;
+        int maxRegionZ = maxChunkZ >> 5;
+        try (Stream<Path> files = Files.list(regionFolder)) {
+            return files.filter(path -> {
+                String name = path.getFileName().toString();
+                if (!RegionFile.isRegionFile(name)) {
+                    return false;
+                }
+                String[] parts = name.split("\\.");
+                int regionX = Integer.parseInt(parts[1]);
+                int regionZ = Integer.parseInt(parts[2]);
+                return regionX >= minRegionX && regionX <= maxRegionX && regionZ >= minRegionZ && regionZ <= maxRegionZ;
+            }).toList();
+        }
+    }
+
+    private void searchRegion(@NotNull Path path, @NotNull Queue<ContainerMatch> matches) {
+        if (monitor.isCancelled()) {
+            return;
+        }
+        try (RegionFile region = new RegionFile(path)) {
+            int baseX = region.getRegionX() << 5;
+            int baseZ = region.getRegionZ() << 5;
+            for (int localZ = 0; localZ < 32; ++localZ) {
+                int chunkZ = baseZ + localZ;
+                if (chunkZ < minChunkZ || chunkZ > maxChunkZ) {
+                    continue;
+                }
+                for (int localX = 0; localX < 32; ++localX) {
+                    int chunkX = baseX + localX;
+                    if (chunkX < minChunkX || chunkX > maxChunkX
+                            || !region.hasChunk(localX, localZ)
+                            || !chunkFilter.test(chunkKey(chunkX, chunkZ))) {
+                        continue;
+                    }
+                    if (monitor.isCancelled()) {
+                        return;
+                    }
+                    searchChunk(region, localX, localZ, matches);
+                }
+            }
+        } catch (IOException e) {
+            // Region could not be opened; count as a single failure and carry on with other regions.
+            chunksFailed.incrementAndGet();
+        } finally {
+            monitor.addProgress(1);
+        }
+    }
+
+    private void searchChunk(
+            @NotNull RegionFile region,
+            int localX,
+            int localZ,
+            @NotNull Queue<ContainerMatch> matches) {
+        NbtCompound chunk;
+        try {
+            chunk = region.readChunk(localX, localZ, CHUNK_KEYS);
+        } catch (IOException | RuntimeException e) {
+            chunksFailed.incrementAndGet();
+            return;
+        }
+
+        if (chunk == null) {
+            return;
+        }
+
+        chunksRead.incrementAndGet();
+
+        NbtList blockEntities = getChunkList(chunk, "block_entities", "TileEntities");
+        if (blockEntities != null) {
+            for (NbtCompound blockEntity : blockEntities.compounds()) {
+                NbtList items = blockEntity.getList("Items", NbtType.COMPOUND);
+                if (itemVisitor != null) {
+                    visitItems(getBlockContainer(blockEntity), items);
+                }
+                if (anyMatch(items)) {
+                    addMatch(matches, getBlockContainer(blockEntity));
+                }
+            }
+        }
+
+        NbtList entities = getChunkList(chunk, "Entities", "Entities");
+        if (entities != null) {
+            for (NbtCompound entity : entities.compounds()) {
+                searchEntity(entity, matches);
+            }
+        }
+    }
+
+    private void searchEntity(@NotNull NbtCompound entity, @NotNull Queue<ContainerMatch> matches) {
+        if (itemVisitor != null) {
+            ContainerMatch container = getEntityContainer(entity);
+            for (String key : ENTITY_ITEM_LISTS) {
+                visitItems(container, entity.getList(key, NbtType.COMPOUND));
+            }
+            for (String key : ENTITY_ITEMS) {
+                NbtCompound item = entity.getCompound(key);
+                if (item != null && isItem(item)) {
+                    itemVisitor.accept(container, new NbtItem(item));
+                }
+            }
+        }
+
+        if (entityMatches(entity)) {
+            addMatch(matches, getEntityContainer(entity));
+        }
+
+        // Riders, i.e. chested animals or armor stands on minecarts.
+        NbtList passengers = entity.getList("Passengers", NbtType.COMPOUND);
+        if (passengers != null) {
+            for (NbtCompound passenger : passengers.compounds()) {
+                searchEntity(passenger, matches);
+            }
+        }
+    }
+
+    private boolean entityMatches(@NotNull NbtCompound entity) {
+        for (String key : ENTITY_ITEM_LISTS) {
+            if (anyMatch(entity.getList(key, NbtType.COMPOUND))) {
+                return true;
+            }
+        }
+        for (String key : ENTITY_ITEMS) {
+            NbtCompound item = entity.getCompound(key);
+            if (item != null && isItem(item) && itemMatcher.test(new NbtItem(item))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean anyMatch(@Nullable NbtList items) {
+        if (items == null || items.isEmpty()) {
+            return false;
+        }
+        for (NbtCompound item : items.compounds()) {
+            // Equipment lists contain empty compounds for empty slots.
+            if (isItem(item) && itemMatcher.test(new NbtItem(item))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void visitItems(@NotNull ContainerMatch container, @Nullable NbtList items) {
+        if (itemVisitor == null || items == null) {
+            return;
+        }
+        for (NbtCompound item : items.compounds()) {
+            if (isItem(item)) {
+                itemVisitor.accept(container, new NbtItem(item));
+            }
+        }
+    }
+
+    private void addMatch(@NotNull Queue<ContainerMatch> matches, @NotNull ContainerMatch match) {
+        matches.add(match);
+        matchListener.accept(match);
+    }
+
+    private static @NotNull ContainerMatch getBlockContainer(@NotNull NbtCompound blockEntity) {
+        return new ContainerMatch(
+                getType(blockEntity.getString("id")),
+                blockEntity.getInt("x", 0),
+                blockEntity.getInt("y", 0),
+                blockEntity.getInt("z", 0));
+    }
+
+    private static @NotNull ContainerMatch getEntityContainer(@NotNull NbtCompound entity) {
+        NbtList pos = entity.getList("Pos", NbtType.DOUBLE);
+        return new ContainerMatch(
+                getType(entity.getString("id")),
+                getBlockCoordinate(pos, 0),
+                getBlockCoordinate(pos, 1),
+                getBlockCoordinate(pos, 2));
+    }
+
+    private static boolean isItem(@NotNull NbtCompound item) {
+        return item.getString("id") != null && item.getInt("Count", 0) > 0;
+    }
+
+    private static int getBlockCoordinate(@Nullable NbtList pos, int index) {
+        if (pos == null || pos.size() <= index || !(pos.get(index) instanceof Number number)) {
+            return 0;
+        }
+        return (int) Math.floor(number.doubleValue());
+    }
+
+    private static @Nullable NbtList getChunkList(@NotNull NbtCompound chunk, @NotNull String key, @NotNull String legacyKey) {
+        NbtList list = chunk.getList(key, NbtType.COMPOUND);
+        if (list != null) {
+            return list;
+        }
+        // Legacy chunks that have not been upgraded since 1.18 store data in a "Level" compound.
+        NbtCompound level = chunk.getCompound("Level");
+        return level == null ? null : level.getList(legacyKey, NbtType.COMPOUND);
+    }
+
+    private static @NotNull String getType(@Nullable String id) {
+        if (id == null) {
+            return "unknown";
+        }
+        int colon = id.indexOf(':');
+        return colon < 0 ? id : id.substring(colon + 1);
+    }
+
+}
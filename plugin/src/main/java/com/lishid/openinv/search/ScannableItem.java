@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.util.nbt.NbtCompound;
+import com.lishid.openinv.util.nbt.NbtList;
+import com.lishid.openinv.util.nbt.NbtType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A read-only view of an item stack for searching.
+ *
+ * <p>Implementations may be backed directly by live server data. Views are only guaranteed to be valid for the
+ * duration of the visit they were supplied to and must not be retained.
+ */
+public interface ScannableItem {
+
+    /**
+     * Get the namespaced ID of the item type, i.e. {@code minecraft:diamond}.
+     *
+     * @return the item ID
+     */
+    @NotNull String getId();
+
+    /**
+     * Get the number of items in the stack.
+     *
+     * @return the amount
+     */
+    int getAmount();
+
+    /**
+     * Get the item's tag. Implementations backed by server data may convert lazily, so cheaper checks should be
+     * performed first.
+     *
+     * @return the tag or null if the item has no tag
+     */
+    @Nullable NbtCompound getTag();
+
+    /**
+     * Get items stored inside this item, such as the contents of a shulker box or bundle.
+     *
+     * @return the contained items
+     */
+    @NotNull Iterable<? extends ScannableItem> getContents();
+
+    /**
+     * Get the highest level of an enchantment applied to the item.
+     *
+     * @param enchantment the namespaced enchantment key, or null for any enchantment
+     * @return the highest matching level, or 0 if not enchanted
+     */
+    default int getEnchantmentLevel(@Nullable String enchantment) {
+        NbtCompound tag = getTag();
+        if (tag == null) {
+            return 0;
+        }
+
+        NbtList enchantments = tag.getList("Enchantments", NbtType.COMPOUND);
+        if (enchantments == null) {
+            return 0;
+        }
+
+        int level = 0;
+        for (NbtCompound entry : enchantments.compounds()) {
+            if (enchantment == null || enchantment.equals(normalizeId(entry.getString("id")))) {
+                level = Math.max(level, entry.getInt("lvl", 0));
+            }
+        }
+        return level;
+    }
+
+    /**
+     * Add the default namespace to an ID if it is missing.
+     *
+     * @param id the ID
+     * @return the namespaced ID, or an empty string if the ID is null
+     */
+    static @NotNull String normalizeId(@Nullable String id) {
+        if (id == null) {
+            return "";
+        }
+        return id.indexOf(':') < 0 ? "minecraft:" + id : id;
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A search queued or running in a {@link SearchJobManager}.
+ */
+public class SearchJob implements SearchMonitor {
+
+    private final int id;
+    private final CommandSender owner;
+    private final String description;
+    private final Function<SearchJob, CompletableFuture<?>> task;
+    private final AtomicLong work = new AtomicLong();
+    private final AtomicLong progress = new AtomicLong();
+    private volatile State state = State.QUEUED;
+
+    SearchJob(
+            int id,
+            @NotNull CommandSender owner,
+            @NotNull String description,
+            @NotNull Function<SearchJob, CompletableFuture<?>> task) {
+        this.id = id;
+        this.owner = owner;
+        this.description = description;
+        this.task = task;
+    }
+
+    /**
+     * Get the ID of the job.
+     *
+     * @return the ID
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the sender who started the job.
+     *
+     * @return the owner
+     */
+    public @NotNull CommandSender getOwner() {
+        return owner;
+    }
+
+    /**
+     * Get the description of the search.
+     *
+     * @return the description
+     */
+    public @NotNull String getDescription() {
+        return description;
+    }
+
+    /**
+     * Get the state of the job.
+     *
+     * @return the state
+     */
+    public @NotNull State getState() {
+        return state;
+    }
+
+    void setState(@NotNull State state) {
+        this.state = state;
+    }
+
+    @NotNull Function<SearchJob, CompletableFuture<?>> getTask() {
+        return task;
+    }
+
+    /**
+     * Get the percentage of known work completed. Work may be added as the search discovers it.
+     *
+     * @return the percentage completed, from 0 to 100
+     */
+    public int getPercentComplete() {
+        long total = work.get();
+        if (total <= 0) {
+            return 0;
+        }
+        return (int) Math.min(100, progress.get() * 100 / total);
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return state == State.CANCELLED;
+    }
+
+    @Override
+    public void addWork(int units) {
+        work.addAndGet(units);
+    }
+
+    @Override
+    public void addProgress(int units) {
+        progress.addAndGet(units);
+    }
+
+    /**
+     * The state of a search job.
+     */
+    public enum State {
+        QUEUED,
+        RUNNING,
+        COMPLETE,
+        CANCELLED
+    }
+
+}
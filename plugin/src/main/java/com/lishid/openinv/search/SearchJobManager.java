@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.util.lang.Replacement;
+import com.lishid.openinv.util.scheduler.TaskScheduler;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.logging.Level;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A queue of search jobs limiting how many searches run at once, globally and per sender.
+ *
+ * <p>All methods must be called on the main thread. Jobs are started on the main thread and report progress to their
+ * owners in the action bar while running.
+ */
+public class SearchJobManager {
+
+    private static final long PROGRESS_INTERVAL = 10L;
+
+    private final OpenInv plugin;
+    private final Map<Integer, SearchJob> jobs = new LinkedHashMap<>();
+    private final Queue<SearchJob> queue = new ArrayDeque<>();
+    private int nextId = 1;
+    private int running = 0;
+    private @Nullable TaskScheduler.Task progressTask;
+
+    public SearchJobManager(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+    }
+
+    /**
+     * Queue a search. The task is run on the main thread, or on regionized servers the owner's thread, once a slot is
+     * free and must return a future completing when the search is done. Searches should stop early when the job is {@link SearchJob#isCancelled() cancelled}.
+     *
+     * @param owner the sender starting the search
+     * @param description the description of the search
+     * @param task the search
+     * @return the job or null if the owner has too many jobs
+     */
+    public synchronized @Nullable SearchJob submit(
+            @NotNull CommandSender owner,
+            @NotNull String description,
+            @NotNull Function<SearchJob, CompletableFuture<?>> task) {
+        int maxPerSender = Math.max(1, plugin.getConfig().getInt("settings.search.max-jobs-per-sender", 2));
+        int owned = 0;
+        for (SearchJob job : jobs.values()) {
+            if (job.getOwner().equals(owner)) {
+                ++owned;
+            }
+        }
+        if (owned >= maxPerSender) {
+            plugin.sendMessage(
+                    owner,
+                    "messages.error.tooManyJobs",
+                    new Replacement("%count%", String.valueOf(maxPerSender)));
+            return null;
+        }
+
+        SearchJob job = new SearchJob(nextId++, owner, description, task);
+        jobs.put(job.getId(), job);
+        queue.add(job);
+        startJobs();
+
+        if (job.getState() == SearchJob.State.QUEUED) {
+            plugin.sendMessage(
+                    owner,
+                    "messages.info.jobs.queued",
+                    new Replacement("%id%", String.valueOf(job.getId())),
+                    new Replacement("%count%", String.valueOf(queue.size())));
+        }
+
+        return job;
+    }
+
+    /**
+     * Get all queued and running jobs in order of submission.
+     *
+     * @return the jobs
+     */
+    public synchronized @NotNull Collection<SearchJob> getJobs() {
+        return new ArrayList<>(jobs.values());
+    }
+
+    /**
+     * Get a queued or running job by ID.
+     *
+     * @param id the ID
+     * @return the job or null if no such job is queued or running
+     */
+    public synchronized @Nullable SearchJob getJob(int id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * Cancel a job. Queued jobs are removed immediately; running jobs stop at the next opportunity.
+     *
+     * @param job the job
+     */
+    public synchronized void cancel(@NotNull SearchJob job) {
+        if (job.getState() == SearchJob.State.QUEUED) {
+            queue.remove(job);
+            jobs.remove(job.getId());
+        }
+        if (job.getState() == SearchJob.State.QUEUED || job.getState() == SearchJob.State.RUNNING) {
+            job.setState(SearchJob.State.CANCELLED);
+        }
+    }
+
+    /**
+     * Cancel all jobs and stop reporting progress.
+     */
+    public synchronized void shutdown() {
+        for (SearchJob job : getJobs()) {
+            cancel(job);
+        }
+        if (progressTask != null) {
+            progressTask.cancel();
+            progressTask = null;
+        }
+    }
+
+    private void startJobs() {
+        int maxConcurrent = Math.max(1, plugin.getConfig().getInt("settings.search.max-concurrent-jobs", 2));
+        while (running < maxConcurrent && !queue.isEmpty()) {
+            SearchJob job = queue.poll();
+            job.setState(SearchJob.State.RUNNING);
+            ++running;
+
+            if (plugin.getTaskScheduler().isRegionized()) {
+                // Searches read the owner's surroundings, which belong to the owner's region. Jobs of owners who
+                // logged out in the meantime are cancelled rather than run on the global region.
+                plugin.getTaskScheduler().run(job.getOwner(), () -> run(job));
+            } else {
+                run(job);
+            }
+        }
+
+        if (running > 0 && progressTask == null) {
+            progressTask = plugin.getTaskScheduler().runTimer(this::sendProgress, PROGRESS_INTERVAL, PROGRESS_INTERVAL);
+        }
+    }
+
+    private void run(@NotNull SearchJob job) {
+        CompletableFuture<?> future;
+        if (job.getOwner() instanceof Player player && !player.isOnline()) {
+            // The owner logged out before the job started; their location no longer belongs to them.
+            job.setState(SearchJob.State.CANCELLED);
+            future = CompletableFuture.completedFuture(null);
+        } else {
+            try {
+                future = job.getTask().apply(job);
+            } catch (RuntimeException e) {
+                future = CompletableFuture.failedFuture(e);
+            }
+        }
+
+        future.whenComplete((unused, throwable) -> plugin.getTaskScheduler().run(() -> complete(job, throwable)));
+    }
+
+    private synchronized void complete(@NotNull SearchJob job, @Nullable Throwable throwable) {
+        --running;
+        jobs.remove(job.getId());
+
+        if (throwable != null) {
+            plugin.getLogger().log(Level.WARNING, "Search #" + job.getId() + " failed", throwable);
+            plugin.sendMessage(job.getOwner(), "messages.error.commandException");
+        }
+
+        if (job.getState() == SearchJob.State.RUNNING) {
+            job.setState(SearchJob.State.COMPLETE);
+        }
+
+        startJobs();
+    }
+
+    private synchronized void sendProgress() {
+        if (running <= 0) {
+            if (progressTask != null) {
+                progressTask.cancel();
+                progressTask = null;
+            }
+            return;
+        }
+
+        for (SearchJob job : jobs.values()) {
+            if (job.getState() == SearchJob.State.RUNNING && job.getOwner() instanceof Player player && player.isOnline()) {
+                plugin.sendSystemMessage(
+                        player,
+                        "messages.info.jobs.progress",
+                        new Replacement("%id%", String.valueOf(job.getId())),
+                        new Replacement("%percent%", String.valueOf(job.getPercentComplete())),
+                        new Replacement("%target%", job.getDescription()));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+/**
+ * Progress reporting and cancellation for a running search. Implementations must be thread-safe.
+ */
+public interface SearchMonitor {
+
+    /** A monitor that is never cancelled and discards progress. */
+    SearchMonitor NONE = new SearchMonitor() {
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public void addWork(int units) {}
+
+        @Override
+        public void addProgress(int units) {}
+    };
+
+    /**
+     * Get whether the search should stop as soon as possible.
+     *
+     * @return true if the search is cancelled
+     */
+    boolean isCancelled();
+
+    /**
+     * Add to the total amount of work, i.e. the number of files to read.
+     *
+     * @param units the amount of work
+     */
+    void addWork(int units);
+
+    /**
+     * Add to the amount of work completed.
+     *
+     * @param units the amount of work completed
+     */
+    void addProgress(int units);
+
+}
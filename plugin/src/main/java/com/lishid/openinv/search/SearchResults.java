@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A paged buffer of search results that may be appended to while the search is still running.
+ *
+ * <p>Results may be added from any thread. Each result has a display line and a row of columns for export. Results past
+ * the configured maximum are dropped and the results are marked truncated, so a broad search cannot hold unbounded
+ * memory for as long as its sender keeps the results.
+ */
+public class SearchResults {
+
+    private static final Pattern NUMBER = Pattern.compile("-\\d+(\\.\\d+)?");
+
+    private final String target;
+    private final String[] header;
+    private final int pageSize;
+    private final int maxRows;
+    private final List<Row> rows = new ArrayList<>();
+    private @Nullable Runnable firstPageListener;
+    private boolean firstPageFilled;
+    private boolean complete;
+    private boolean truncated;
+
+    /**
+     * Construct a new {@code SearchResults}.
+     *
+     * @param target the description of the search
+     * @param pageSize the number of results per page
+     * @param maxRows the maximum number of results kept
+     * @param header the names of the exported columns
+     */
+    public SearchResults(@NotNull String target, int pageSize, int maxRows, String @NotNull ... header) {
+        this.target = target;
+        this.pageSize = Math.max(1, pageSize);
+        this.maxRows = Math.max(1, maxRows);
+        this.header = header;
+    }
+
+    /**
+     * Set a listener run once when the first page fills before the search completes. The listener is called on the
+     * thread adding the result that filled the page.
+     *
+     * @param firstPageListener the listener
+     */
+    public synchronized void onFirstPage(@NotNull Runnable firstPageListener) {
+        this.firstPageListener = firstPageListener;
+    }
+
+    /**
+     * Add a result. Results past the maximum are dropped and the results are marked truncated.
+     *
+     * @param display the line displayed to the searcher
+     * @param columns the exported columns
+     */
+    public void add(@NotNull String display, String @NotNull ... columns) {
+        Runnable listener = null;
+        synchronized (this) {
+            if (rows.size() >= maxRows) {
+                truncated = true;
+                return;
+            }
+            rows.add(new Row(display, columns));
+            if (!complete && !firstPageFilled && rows.size() >= pageSize) {
+                firstPageFilled = true;
+                listener = firstPageListener;
+            }
+        }
+        // Run outside the lock, the listener may query the results.
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Mark the search complete.
+     *
+     * @return true if the first page listener was already run
+     */
+    public synchronized boolean complete() {
+        complete = true;
+        return firstPageFilled;
+    }
+
+    /**
+     * Get whether the search has completed.
+     *
+     * @return true if no more results will be added
+     */
+    public synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Get whether results were dropped because the maximum was reached.
+     *
+     * @return true if results were dropped
+     */
+    public synchronized boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Get the description of the search.
+     *
+     * @return the description of the search
+     */
+    public @NotNull String getTarget() {
+        return target;
+    }
+
+    /**
+     * Get the number of results so far.
+     *
+     * @return the number of results
+     */
+    public synchronized int size() {
+        return rows.size();
+    }
+
+    /**
+     * Get the number of pages so far. There is always at least one page.
+     *
+     * @return the number of pages
+     */
+    public synchronized int getPageCount() {
+        return Math.max(1, (rows.size() + pageSize - 1) / pageSize);
+    }
+
+    /**
+     * Get the display lines of a page.
+     *
+     * @param page the page, starting at 1
+     * @return the lines of the page, empty if the page does not exist
+     */
+    public synchronized @NotNull List<String> getPage(int page) {
+        int start = (page - 1) * pageSize;
+        if (page < 1 || start >= rows.size()) {
+            return List.of();
+        }
+        List<String> lines = new ArrayList<>(pageSize);
+        for (Row row : rows.subList(start, Math.min(rows.size(), start + pageSize))) {
+            lines.add(row.display());
+        }
+        return lines;
+    }
+
+    /**
+     * Get the values of a column for all results so far.
+     *
+     * @param column the name of the column
+     * @return the values in result order, empty if the results have no such column
+     */
+    public synchronized @NotNull List<String> getColumn(@NotNull String column) {
+        int index = Arrays.asList(header).indexOf(column);
+        if (index < 0) {
+            return List.of();
+        }
+        List<String> values = new ArrayList<>(rows.size());
+        for (Row row : rows) {
+            if (index < row.columns().length) {
+                values.add(row.columns()[index]);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Write the results so far to a CSV file.
+     *
+     * @param file the file to write
+     * @return the number of results written
+     * @throws IOException if the file cannot be written
+     */
+    public int exportCsv(@NotNull Path file) throws IOException {
+        List<Row> snapshot;
+        synchronized (this) {
+            snapshot = new ArrayList<>(rows);
+        }
+
+        Path parent = file.getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writeCsvLine(writer, header);
+            for (Row row : snapshot) {
+                writeCsvLine(writer, row.columns());
+            }
+        }
+        return snapshot.size();
+    }
+
+    private static void writeCsvLine(@NotNull BufferedWriter writer, String @NotNull [] values) throws IOException {
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            String value = values[i];
+            if (isFormula(value)) {
+                // Spreadsheets evaluate cells starting with these; item names and lore are player-controlled.
+                value = '\'' + value;
+            }
+            if (value.indexOf(',') > -1 || value.indexOf('"') > -1 || value.indexOf('\n') > -1 || value.indexOf('\r') > -1) {
+                writer.write('"');
+                writer.write(value.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(value);
+            }
+        }
+        writer.newLine();
+    }
+
+    private static boolean isFormula(@NotNull String value) {
+        if (value.isEmpty()) {
+            return false;
+        }
+        char first = value.charAt(0);
+        if (first == '-' && NUMBER.matcher(value).matches()) {
+            // Negative numbers such as coordinates are not formulas.
+            return false;
+        }
+        return first == '=' || first == '+' || first == '-' || first == '@' || first == '\t' || first == '\r';
+    }
+
+    private record Row(@NotNull String display, String @NotNull [] columns) {}
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.search;
+
+import com.lishid.openinv.OpenInv;
+import com.lishid.openinv.internal.ISpecialInventory;
+import com.lishid.openinv.util.InventoryAccess;
+import com.lishid.openinv.util.Permissions;
+import com.lishid.openinv.util.lang.Replacement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.bukkit.Material;
+import org.bukkit.entity.HumanEntity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityPickupItemEvent;
+import org.bukkit.event.inventory.ClickType;
+import org.bukkit.event.inventory.InventoryClickEvent;
+import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.InventoryView;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A list of flagged item queries checked as items change hands.
+ *
+ * <p>Only the items involved in a pickup, click or drag are checked, so there is no periodic scan and an empty list
+ * costs nothing. Matches are only recorded for the player acquiring an item: the player picking it up or taking it out
+ * of an open inventory, or the owner of an open special inventory it is put into.
+ * Matches are aggregated per player and staff with {@link Permissions#WATCH_ALERT} are alerted at most once per
+ * configured interval per player.
+ *
+ * <p>All methods must be called on the main thread.
+ */
+public class WatchList implements Listener {
+
+    private static final String CONFIG_KEY = "settings.search.watch.items";
+
+    private final OpenInv plugin;
+    private final List<Entry> entries = new CopyOnWriteArrayList<>();
+    private final Map<UUID, Alert> pending = new HashMap<>();
+    private final Map<UUID, Long> lastAlerts = new HashMap<>();
+
+    /**
+     * Construct a new {@code WatchList} from the configured queries. Invalid queries are logged and skipped.
+     *
+     * @param plugin the {@link OpenInv} instance
+     */
+    public WatchList(@NotNull OpenInv plugin) {
+        this.plugin = plugin;
+        for (String source : plugin.getConfig().getStringList(CONFIG_KEY)) {
+            try {
+                entries.add(new Entry(source, ItemQuery.compile(source)));
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Ignoring invalid watch list query \"" + source + "\": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Get the watched queries in order.
+     *
+     * @return the query strings
+     */
+    public @NotNull List<String> getQueries() {
+        List<String> queries = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            queries.add(entry.source());
+        }
+        return Collections.unmodifiableList(queries);
+    }
+
+    /**
+     * Add a query to the watch list and save it to the configuration.
+     *
+     * @param query the query
+     * @throws IllegalArgumentException if the query is invalid; the message is the offending term
+     */
+    public void add(@NotNull String query) {
+        entries.add(new Entry(query, ItemQuery.compile(query)));
+        save();
+    }
+
+    /**
+     * Remove a query from the watch list and save the change to the configuration.
+     *
+     * @param index the zero-based index of the query
+     * @return the removed query or null if the index is out of bounds
+     */
+    public @Nullable String remove(int index) {
+        if (index < 0 || index >= entries.size()) {
+            return null;
+        }
+        String removed = entries.remove(index).source();
+        save();
+        return removed;
+    }
+
+    private void save() {
+        plugin.getConfig().set(CONFIG_KEY, new ArrayList<>(getQueries()));
+        plugin.saveConfig();
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onEntityPickupItem(@NotNull EntityPickupItemEvent event) {
+        if (!entries.isEmpty() && event.getEntity() instanceof Player player) {
+            check(player, event.getItem().getItemStack());
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryClick(@NotNull InventoryClickEvent event) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        InventoryView view = event.getView();
+        Inventory clicked = event.getClickedInventory();
+        if (clicked == null) {
+            return;
+        }
+
+        // Only items changing hands are checked: items taken out of the top inventory are acquired by the clicker,
+        // items put into an open special inventory are acquired by its owner.
+        HumanEntity holder = event.getWhoClicked();
+        boolean top = clicked.equals(view.getTopInventory());
+        HumanEntity owner = getSpecialOwner(view, holder);
+        switch (event.getAction()) {
+            case PICKUP_ALL, PICKUP_HALF, PICKUP_ONE, PICKUP_SOME -> {
+                if (top) {
+                    check(holder, event.getCurrentItem());
+                }
+            }
+            case PLACE_ALL, PLACE_ONE, PLACE_SOME -> {
+                if (top) {
+                    check(owner, event.getCursor());
+                }
+            }
+            case SWAP_WITH_CURSOR -> {
+                if (top) {
+                    check(holder, event.getCurrentItem());
+                    check(owner, event.getCursor());
+                }
+            }
+            case MOVE_TO_OTHER_INVENTORY -> check(top ? holder : owner, event.getCurrentItem());
+            case HOTBAR_SWAP, HOTBAR_MOVE_AND_READD -> {
+                if (top) {
+                    check(holder, event.getCurrentItem());
+                    check(owner, event.getClick() == ClickType.NUMBER_KEY
+                            ? view.getBottomInventory().getItem(event.getHotbarButton())
+                            : holder.getInventory().getItemInOffHand());
+                }
+            }
+            case COLLECT_TO_CURSOR -> {
+                ItemStack cursor = event.getCursor();
+                if (cursor != null && view.getTopInventory().containsAtLeast(cursor, 1)) {
+                    check(holder, cursor);
+                }
+            }
+            case CLONE_STACK -> check(holder, event.getCurrentItem());
+            default -> {
+                // Drops and no-ops do not move items into anyone's possession.
+            }
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    private void onInventoryDrag(@NotNull InventoryDragEvent event) {
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        // The cursor is already held by the dragging player; only slots in an open special inventory change hands.
+        InventoryView view = event.getView();
+        int topSize = view.getTopInventory().getSize();
+        if (event.getRawSlots().stream().anyMatch(slot -> slot < topSize)) {
+            check(getSpecialOwner(view, event.getWhoClicked()), event.getOldCursor());
+        }
+    }
+
+    @EventHandler
+    private void onPlayerQuit(@NotNull PlayerQuitEvent event) {
+        UUID playerId = event.getPlayer().getUniqueId();
+        synchronized (this) {
+            if (!pending.containsKey(playerId)) {
+                lastAlerts.remove(playerId);
+            }
+        }
+    }
+
+    private static @Nullable HumanEntity getSpecialOwner(@NotNull InventoryView view, @NotNull HumanEntity viewer) {
+        Inventory top = view.getTopInventory();
+        ISpecialInventory special = InventoryAccess.getPlayerInventory(top);
+        if (special == null) {
+            special = InventoryAccess.getEnderChest(top);
+        }
+        if (special == null || special.getPlayer().getUniqueId().equals(viewer.getUniqueId())) {
+            return null;
+        }
+        return special.getPlayer();
+    }
+
+    private void check(@Nullable HumanEntity player, @Nullable ItemStack itemStack) {
+        if (player == null || itemStack == null || itemStack.getType() == Material.AIR) {
+            return;
+        }
+
+        ScannableItem item = plugin.getItemScanner().wrap(itemStack);
+        int depth = plugin.getNestedSearchDepth();
+        for (Entry entry : entries) {
+            if (NestedItems.anyMatch(item, entry.query(), depth)) {
+                record(player, entry);
+            }
+        }
+    }
+
+    private synchronized void record(@NotNull HumanEntity player, @NotNull Entry entry) {
+        UUID playerId = player.getUniqueId();
+        Alert alert = pending.get(playerId);
+        if (alert != null) {
+            alert.matches().merge(entry.source(), 1, Integer::sum);
+            return;
+        }
+
+        alert = new Alert(player.getName(), new LinkedHashMap<>());
+        alert.matches().put(entry.source(), 1);
+        pending.put(playerId, alert);
+
+        // Aggregate everything until the player's next alert is due.
+        long intervalMillis = Math.max(0, plugin.getConfig().getLong("settings.search.watch.alert-interval-seconds", 30)) * 1000;
+        long due = lastAlerts.getOrDefault(playerId, 0L) + intervalMillis;
+        long delayTicks = Math.max(1, (due - System.currentTimeMillis()) / 50);
+        plugin.getTaskScheduler().runLater(() -> sendAlert(playerId), delayTicks);
+    }
+
+    private synchronized void sendAlert(@NotNull UUID playerId) {
+        Alert alert = pending.remove(playerId);
+        if (alert == null) {
+            return;
+        }
+        lastAlerts.put(playerId, System.currentTimeMillis());
+
+        StringJoiner matches = new StringJoiner(", ");
+        for (Map.Entry<String, Integer> match : alert.matches().entrySet()) {
+            matches.add(match.getValue() > 1 ? match.getKey() + " (x" + match.getValue() + ")" : match.getKey());
+        }
+
+        Replacement[] replacements = {
+                new Replacement("%player%", alert.name()),
+                new Replacement("%target%", matches.toString())
+        };
+        plugin.sendMessage(plugin.getServer().getConsoleSender(), "messages.info.watch.alert", replacements);
+        for (Player staff : plugin.getServer().getOnlinePlayers()) {
+            if (Permissions.WATCH_ALERT.hasPermission(staff)) {
+                plugin.sendMessage(staff, "messages.info.watch.alert", replacements);
+            }
+        }
+    }
+
+    private record Entry(@NotNull String source, @NotNull ItemQuery query) {}
+
+    private record Alert(@NotNull String name, @NotNull Map<String, Integer> matches) {}
+
+}
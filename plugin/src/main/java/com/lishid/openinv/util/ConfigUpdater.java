@@ -20,6 +20,7 @@ import com.lishid.openinv.OpenInv;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import org.bukkit.OfflinePlayer;
@@ -44,7 +45,7 @@ public record ConfigUpdater(OpenInv plugin) {
             plugin.getLogger().warning("Could not back up config.yml before updating!");
         }
 
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+        plugin.getTaskScheduler().runAsync(() -> {
             if (version < 2) {
                 updateConfig1To2();
             }
@@ -60,16 +61,65 @@ public record ConfigUpdater(OpenInv plugin) {
             if (version < 6) {
                 updateConfig5To6();
             }
+            if (version < 7) {
+                updateConfig6To7();
+            }
 
-            plugin.getServer().getScheduler().runTask(plugin, () -> {
+            plugin.getTaskScheduler().run(() -> {
                 plugin.saveConfig();
                 plugin.getLogger().info("Configuration update complete!");
             });
         });
     }
 
+    private void updateConfig6To7() {
+        plugin.getTaskScheduler().run(() -> {
+            plugin.getConfig().set("settings.command.searchcontainer.search-unloaded", true);
+            plugin.getConfig().set("settings.command.browse.prefetch", 3);
+            plugin.getConfig().set("settings.loaded-players.idle-seconds", 60);
+            plugin.getConfig().set("settings.loaded-players.max", 50);
+            plugin.getConfig().set("settings.lease.leak-traces", false);
+            plugin.getConfig().set("settings.leak-detector.enabled", false);
+            plugin.getConfig().set("settings.leak-detector.report-after-minutes", 10);
+            plugin.getConfig().set("settings.history.enabled", false);
+            plugin.getConfig().set("settings.history.interval-minutes", 5);
+            plugin.getConfig().set("settings.history.max-snapshots", 50);
+            plugin.getConfig().set("settings.history.max-age-days", 14);
+            plugin.getConfig().set("settings.search.nested-depth", 2);
+            plugin.getConfig().set("settings.search.worker-threads", 2);
+            plugin.getConfig().set("settings.search.page-size", 10);
+            plugin.getConfig().set("settings.search.max-results", 10000);
+            plugin.getConfig().set("settings.search.tick-budget-millis", 5);
+            plugin.getConfig().set("settings.search.max-concurrent-jobs", 2);
+            plugin.getConfig().set("settings.search.max-jobs-per-sender", 2);
+            plugin.getConfig().set("settings.search.index.enabled", false);
+            plugin.getConfig().set("settings.search.index.max-entries", 200000);
+            plugin.getConfig().set("settings.search.index.refresh-seconds", 300);
+            plugin.getConfig().set("settings.search.player-index.enabled", false);
+            plugin.getConfig().set("settings.search.player-index.fields.world", "Dimension");
+            plugin.getConfig().set("settings.search.player-index.fields.x", "Pos.0");
+            plugin.getConfig().set("settings.search.player-index.fields.y", "Pos.1");
+            plugin.getConfig().set("settings.search.player-index.fields.z", "Pos.2");
+            plugin.getConfig().set("settings.search.player-index.fields.level", "XpLevel");
+            plugin.getConfig().set("settings.search.player-index.fields.game-mode", "playerGameType");
+            plugin.getConfig().set("settings.search.player-index.fields.last-played", "bukkit.lastPlayed");
+            plugin.getConfig().set("settings.search.watch.items", List.of());
+            plugin.getConfig().set("settings.search.watch.alert-interval-seconds", 30);
+            plugin.getConfig().set("settings.search.duplicates.threshold", 1);
+            plugin.getConfig().set("settings.search.duplicates.ignored-tags", List.of("Damage", "RepairCost"));
+            plugin.getConfig().set("settings.search.duplicates.max-fingerprints", 2000000);
+            plugin.getConfig().set("settings.search.duplicates.max-locations", 10);
+            plugin.getConfig().set("settings.search.audit.items.diamond", "diamond");
+            plugin.getConfig().set("settings.search.audit.items.diamond_block", "diamond_block");
+            plugin.getConfig().set("settings.search.audit.items.netherite_ingot", "netherite_ingot");
+            plugin.getConfig().set("settings.search.audit.items.netherite_block", "netherite_block");
+            plugin.getConfig().set("settings.search.audit.top-holders", 5);
+            plugin.getConfig().set("config-version", 7);
+        });
+    }
+
     private void updateConfig5To6() {
-        plugin.getServer().getScheduler().runTask(plugin, () -> {
+        plugin.getTaskScheduler().run(() -> {
             plugin.getConfig().set("settings.command.open.no-args-opens-self", false);
             plugin.getConfig().set("settings.command.searchcontainer.max-radius", 10);
             plugin.getConfig().set("config-version", 6);
@@ -77,14 +127,14 @@ public record ConfigUpdater(OpenInv plugin) {
     }
 
     private void updateConfig4To5() {
-        plugin.getServer().getScheduler().runTask(plugin, () -> {
+        plugin.getTaskScheduler().run(() -> {
             plugin.getConfig().set("settings.disable-offline-access", false);
             plugin.getConfig().set("config-version", 5);
         });
     }
 
     private void updateConfig3To4() {
-        plugin.getServer().getScheduler().runTask(plugin, () -> {
+        plugin.getTaskScheduler().run(() -> {
             plugin.getConfig().set("notify", null);
             plugin.getConfig().set("settings.locale", "en_US");
             plugin.getConfig().set("config-version", 4);
@@ -92,7 +142,7 @@ public record ConfigUpdater(OpenInv plugin) {
     }
 
     private void updateConfig2To3() {
-        plugin.getServer().getScheduler().runTask(plugin, () -> {
+        plugin.getTaskScheduler().run(() -> {
             plugin.getConfig().set("config-version", 3);
             plugin.getConfig().set("items.open-inv", null);
             plugin.getConfig().set("ItemOpenInv", null);
@@ -104,7 +154,7 @@ public record ConfigUpdater(OpenInv plugin) {
     }
 
     private void updateConfig1To2() {
-        plugin.getServer().getScheduler().runTask(plugin, () -> {
+        plugin.getTaskScheduler().run(() -> {
             // Get the old config settings
             boolean notifySilentChest = plugin.getConfig().getBoolean("NotifySilentChest", true);
             boolean notifyAnyChest = plugin.getConfig().getBoolean("NotifyAnyChest", true);
@@ -143,7 +193,7 @@ public record ConfigUpdater(OpenInv plugin) {
             }
         }
 
-        plugin.getServer().getScheduler().runTask(plugin, () -> {
+        plugin.getTaskScheduler().run(() -> {
             // Wipe old ConfigurationSection
             plugin.getConfig().set(sectionName, null);
 
@@ -32,6 +32,13 @@ public enum Permissions {
     ENDERCHEST("openender"),
     ENDERCHEST_ALL("openenderall"),
     SEARCH("search"),
+    SEARCH_CANCEL_OTHERS("search.cancelothers"),
+    SEARCHCONTAINER_WORLD("searchcontainer.world"),
+    WATCH("watch"),
+    WATCH_ALERT("watch.alert"),
+    HISTORY("history"),
+    ROLLBACK("rollback"),
+    DIFF("diff"),
     EDITINV("editinv"),
     EDITENDER("editender"),
     OPENSELF("openself"),
@@ -22,6 +22,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.function.Function;
 import org.bukkit.Bukkit;
+import org.bukkit.Material;
 import org.bukkit.command.CommandSender;
 import org.bukkit.entity.Player;
 import org.bukkit.util.StringUtil;
@@ -31,6 +32,8 @@ import org.bukkit.util.StringUtil;
  */
 public class TabCompleter {
 
+    private static final String[] QUERY_KEYS = { "amount>=", "enchant:", "model=", "name~", "lore~", "nbt:", "#" };
+
     /**
      * Offer tab completions for whole numbers.
      *
@@ -96,6 +99,36 @@ public class TabCompleter {
         return completions;
     }
 
+    /**
+     * Offer tab completions for a term of an item query.
+     *
+     * @param argument the argument to complete
+     * @return the matching item types and query keys
+     */
+    public static List<String> completeItemQuery(String argument) {
+        String prefix = argument.startsWith("!") ? "!" : "";
+        String term = argument.substring(prefix.length()).toLowerCase(Locale.ENGLISH);
+        List<String> completions = new ArrayList<>();
+
+        for (String key : QUERY_KEYS) {
+            if (key.startsWith(term)) {
+                completions.add(prefix + key);
+            }
+        }
+
+        for (Material material : Material.values()) {
+            if (material.isLegacy() || !material.isItem()) {
+                continue;
+            }
+            String name = material.name().toLowerCase(Locale.ENGLISH);
+            if (name.startsWith(term)) {
+                completions.add(prefix + name);
+            }
+        }
+
+        return completions;
+    }
+
     /**
      * Offer tab completions for visible online Players' names.
      *
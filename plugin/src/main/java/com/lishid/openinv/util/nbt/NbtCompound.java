@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.nbt;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A lightweight, version-independent compound tag.
+ *
+ * <p>Values are stored as plain Java types: {@link Byte}, {@link Short}, {@link Integer}, {@link Long},
+ * {@link Float}, {@link Double}, {@code byte[]}, {@link String}, {@link NbtList}, {@code NbtCompound},
+ * {@code int[]}, and {@code long[]}.
+ */
+public final class NbtCompound {
+
+    private final Map<String, Object> values;
+
+    public NbtCompound() {
+        this.values = new LinkedHashMap<>();
+    }
+
+    NbtCompound(int expectedSize) {
+        this.values = new LinkedHashMap<>(Math.max(4, (int) (expectedSize / 0.75F) + 1));
+    }
+
+    /**
+     * Get a raw value.
+     *
+     * @param key the key of the value
+     * @return the value or null if not present
+     */
+    public @Nullable Object get(@NotNull String key) {
+        return values.get(key);
+    }
+
+    /**
+     * Set a raw value.
+     *
+     * @param key the key of the value
+     * @param value the value
+     * @throws IllegalArgumentException if the value is not a supported type
+     */
+    public void put(@NotNull String key, @NotNull Object value) {
+        NbtType.of(value);
+        values.put(key, value);
+    }
+
+    public @Nullable Object remove(@NotNull String key) {
+        return values.remove(key);
+    }
+
+    public boolean contains(@NotNull String key) {
+        return values.containsKey(key);
+    }
+
+    public @NotNull Set<String> keySet() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    public @NotNull Set<Map.Entry<String, Object>> entrySet() {
+        return Collections.unmodifiableSet(values.entrySet());
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public @Nullable String getString(@NotNull String key) {
+        return values.get(key) instanceof String string ? string : null;
+    }
+
+    public int getInt(@NotNull String key, int defaultValue) {
+        return values.get(key) instanceof Number number ? number.intValue() : defaultValue;
+    }
+
+    public long getLong(@NotNull String key, long defaultValue) {
+        return values.get(key) instanceof Number number ? number.longValue() : defaultValue;
+    }
+
+    public double getDouble(@NotNull String key, double defaultValue) {
+        return values.get(key) instanceof Number number ? number.doubleValue() : defaultValue;
+    }
+
+    public @Nullable NbtCompound getCompound(@NotNull String key) {
+        return values.get(key) instanceof NbtCompound compound ? compound : null;
+    }
+
+    public @Nullable NbtList getList(@NotNull String key) {
+        return values.get(key) instanceof NbtList list ? list : null;
+    }
+
+    /**
+     * Get a list only if its elements are of the specified type. Empty lists are always returned.
+     *
+     * @param key the key of the list
+     * @param elementType the {@link NbtType} ID of the elements
+     * @return the list or null if not present or of a different type
+     */
+    public @Nullable NbtList getList(@NotNull String key, byte elementType) {
+        NbtList list = getList(key);
+        if (list == null || !list.isEmpty() && list.getElementType() != elementType) {
+            return null;
+        }
+        return list;
+    }
+
+    /**
+     * Get a value by a dot-separated path of compound keys and list indices, i.e. {@code display.Name} or
+     * {@code Pos.1}.
+     *
+     * @param path the path
+     * @return the value or null if any part of the path is not present
+     */
+    public @Nullable Object getPath(@NotNull String path) {
+        Object value = this;
+        int start = 0;
+        while (true) {
+            int dot = path.indexOf('.', start);
+            String key = path.substring(start, dot == -1 ? path.length() : dot);
+            if (value instanceof NbtCompound compound) {
+                value = compound.get(key);
+            } else if (value instanceof NbtList list) {
+                value = getElement(list, key);
+            } else {
+                return null;
+            }
+            if (dot == -1 || value == null) {
+                return value;
+            }
+            start = dot + 1;
+        }
+    }
+
+    private static @Nullable Object getElement(@NotNull NbtList list, @NotNull String index) {
+        try {
+            int i = Integer.parseInt(index);
+            return i >= 0 && i < list.size() ? list.get(i) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create a deep copy of the compound.
+     *
+     * @return the copy
+     */
+    public @NotNull NbtCompound copy() {
+        NbtCompound copy = new NbtCompound(values.size());
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            copy.values.put(entry.getKey(), NbtType.copy(entry.getValue()));
+        }
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NbtCompound compound) || compound.values.size() != values.size()) {
+            return false;
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            if (!NbtType.valueEquals(entry.getValue(), compound.values.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            hash += Objects.hashCode(entry.getKey()) ^ NbtType.valueHash(entry.getValue());
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.nbt;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Minimal NBT reader and writer operating on plain Java types.
+ *
+ * <p>This is intentionally independent of server internals so that data files may be inspected off the main thread
+ * without constructing any game objects. Reads may be restricted to a subset of root keys, in which case the
+ * remaining data is skipped without allocation.
+ */
+public final class NbtIo {
+
+    private static final int MAX_DEPTH = 512;
+    /** Largest array read, in bytes. Corrupt lengths are rejected instead of allocated. */
+    private static final int MAX_ARRAY_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * Read a gzip-compressed NBT file such as a playerdata file.
+     *
+     * @param file the file
+     * @return the root compound
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static @NotNull NbtCompound readCompressed(@NotNull Path file) throws IOException {
+        return readCompressed(file, key -> true);
+    }
+
+    /**
+     * Read a gzip-compressed NBT file, retaining only the specified root keys.
+     *
+     * @param file the file
+     * @param rootKeys the filter for root keys to retain
+     * @return the root compound
+     * @throws IOException if the file cannot be read or is malformed
+     */
+    public static @NotNull NbtCompound readCompressed(
+            @NotNull Path file,
+            @NotNull Predicate<String> rootKeys) throws IOException {
+        try (InputStream stream = Files.newInputStream(file)) {
+            return readCompressed(stream, rootKeys);
+        }
+    }
+
+    /**
+     * Read a gzip-compressed NBT stream, retaining only the specified root keys.
+     *
+     * @param stream the stream
+     * @param rootKeys the filter for root keys to retain
+     * @return the root compound
+     * @throws IOException if the stream cannot be read or is malformed
+     */
+    public static @NotNull NbtCompound readCompressed(
+            @NotNull InputStream stream,
+            @NotNull Predicate<String> rootKeys) throws IOException {
+        return read(new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream))), rootKeys);
+    }
+
+    /**
+     * Read an uncompressed named root compound, retaining only the specified root keys.
+     *
+     * @param input the input
+     * @param rootKeys the filter for root keys to retain
+     * @return the root compound
+     * @throws IOException if the input cannot be read or is malformed
+     */
+    public static @NotNull NbtCompound read(
+            @NotNull DataInput input,
+            @NotNull Predicate<String> rootKeys) throws IOException {
+        byte type = input.readByte();
+        if (type != NbtType.COMPOUND) {
+            throw new IOException("Root tag must be a compound, found type " + type);
+        }
+        // Root name, unused.
+        skipFully(input, input.readUnsignedShort());
+        return readCompound(input, 0, rootKeys);
+    }
+
+    private static @NotNull NbtCompound readCompound(
+            @NotNull DataInput input,
+            int depth,
+            @NotNull Predicate<String> keys) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+        }
+        NbtCompound compound = new NbtCompound();
+        byte type;
+        while ((type = input.readByte()) != NbtType.END) {
+            String key = input.readUTF();
+            if (keys.test(key)) {
+                compound.put(key, readPayload(input, type, depth + 1));
+            } else {
+                skipPayload(input, type, depth + 1);
+            }
+        }
+        return compound;
+    }
+
+    private static @NotNull Object readPayload(@NotNull DataInput input, byte type, int depth) throws IOException {
+        switch (type) {
+            case NbtType.BYTE:
+                return input.readByte();
+            case NbtType.SHORT:
+                return input.readShort();
+            case NbtType.INT:
+                return input.readInt();
+            case NbtType.LONG:
+                return input.readLong();
+            case NbtType.FLOAT:
+                return input.readFloat();
+            case NbtType.DOUBLE:
+                return input.readDouble();
+            case NbtType.BYTE_ARRAY: {
+                byte[] value = new byte[checkArrayLength(input.readInt(), Byte.BYTES)];
+                input.readFully(value);
+                return value;
+            }
+            case NbtType.STRING:
+                return input.readUTF();
+            case NbtType.LIST: {
+                if (depth > MAX_DEPTH) {
+                    throw new IOException("Tried to read NBT tag with too high complexity, depth > " + MAX_DEPTH);
+                }
+                byte elementType = input.readByte();
+                int length = checkLength(input.readInt());
+                if (elementType == NbtType.END && length > 0) {
+                    throw new IOException("Missing type on ListTag");
+                }
+                NbtList list = new NbtList(elementType, Math.min(length, 1024));
+                for (int i = 0; i < length; ++i) {
+                    list.add(readPayload(input, elementType, depth + 1));
+                }
+                return list;
+            }
+            case NbtType.COMPOUND:
+                return readCompound(input, depth, key -> true);
+            case NbtType.INT_ARRAY: {
+                int[] value = new int[checkArrayLength(input.readInt(), Integer.BYTES)];
+                for (int i = 0; i < value.length; ++i) {
+                    value[i] = input.readInt();
+                }
+                return value;
+            }
+            case NbtType.LONG_ARRAY: {
+                long[] value = new long[checkArrayLength(input.readInt(), Long.BYTES)];
+                for (int i = 0; i < value.length; ++i) {
+                    value[i] = input.readLong();
+                }
+                return value;
+            }
+            default:
+                throw new IOException("Invalid tag type " + type);
+        }
+    }
+
+    private static void skipPayload(@NotNull DataInput input, byte type, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("Tried to skip NBT tag with too high complexity, depth > " + MAX_DEPTH);
+        }
+        switch (type) {
+            case NbtType.BYTE -> skipFully(input, 1);
+            case NbtType.SHORT -> skipFully(input, 2);
+            case NbtType.INT, NbtType.FLOAT -> skipFully(input, 4);
+            case NbtType.LONG, NbtType.DOUBLE -> skipFully(input, 8);
+            case NbtType.BYTE_ARRAY -> skipFully(input, checkLength(input.readInt()));
+            case NbtType.STRING -> skipFully(input, input.readUnsignedShort());
+            case NbtType.LIST -> {
+                byte elementType = input.readByte();
+                int length = checkLength(input.readInt());
+                for (int i = 0; i < length; ++i) {
+                    skipPayload(input, elementType, depth + 1);
+                }
+            }
+            case NbtType.COMPOUND -> {
+                byte elementType;
+                while ((elementType = input.readByte()) != NbtType.END) {
+                    skipFully(input, input.readUnsignedShort());
+                    skipPayload(input, elementType, depth + 1);
+                }
+            }
+            case NbtType.INT_ARRAY -> skipFully(input, checkLength(input.readInt()) * 4L);
+            case NbtType.LONG_ARRAY -> skipFully(input, checkLength(input.readInt()) * 8L);
+            default -> throw new IOException("Invalid tag type " + type);
+        }
+    }
+
+    private static void skipFully(@NotNull DataInput input, long bytes) throws IOException {
+        while (bytes > 0) {
+            int skipped = input.skipBytes((int) Math.min(bytes, Integer.MAX_VALUE));
+            if (skipped <= 0) {
+                // DataInput#skipBytes may skip nothing without reaching EOF; fall back to reading.
+                input.readByte();
+                skipped = 1;
+            }
+            bytes -= skipped;
+        }
+    }
+
+    private static int checkLength(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Negative tag length " + length);
+        }
+        return length;
+    }
+
+    private static int checkArrayLength(int length, int elementBytes) throws IOException {
+        if ((long) checkLength(length) * elementBytes > MAX_ARRAY_BYTES) {
+            throw new IOException("Tried to read NBT array of " + length + " elements, exceeding " + MAX_ARRAY_BYTES + " bytes");
+        }
+        return length;
+    }
+
+    /**
+     * Write a gzip-compressed NBT file. Callers are responsible for atomic replacement where required.
+     *
+     * @param file the file
+     * @param compound the root compound
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeCompressed(@NotNull Path file, @NotNull NbtCompound compound) throws IOException {
+        try (OutputStream stream = Files.newOutputStream(file)) {
+            writeCompressed(stream, compound);
+        }
+    }
+
+    /**
+     * Write a gzip-compressed NBT stream. The underlying stream is not closed.
+     *
+     * @param stream the stream
+     * @param compound the root compound
+     * @throws IOException if the stream cannot be written
+     */
+    public static void writeCompressed(@NotNull OutputStream stream, @NotNull NbtCompound compound) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(new NonClosingOutputStream(stream));
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(gzip));
+        write(output, compound);
+        output.flush();
+        gzip.finish();
+        output.close();
+    }
+
+    /**
+     * Write an uncompressed named root compound with an empty name.
+     *
+     * @param output the output
+     * @param compound the root compound
+     * @throws IOException if the output cannot be written
+     */
+    public static void write(@NotNull DataOutput output, @NotNull NbtCompound compound) throws IOException {
+        output.writeByte(NbtType.COMPOUND);
+        output.writeUTF("");
+        writePayload(output, compound);
+    }
+
+    private static void writePayload(@NotNull DataOutput output, @NotNull Object value) throws IOException {
+        if (value instanceof Byte number) {
+            output.writeByte(number);
+        } else if (value instanceof Short number) {
+            output.writeShort(number);
+        } else if (value instanceof Integer number) {
+            output.writeInt(number);
+        } else if (value instanceof Long number) {
+            output.writeLong(number);
+        } else if (value instanceof Float number) {
+            output.writeFloat(number);
+        } else if (value instanceof Double number) {
+            output.writeDouble(number);
+        } else if (value instanceof byte[] array) {
+            output.writeInt(array.length);
+            output.write(array);
+        } else if (value instanceof String string) {
+            output.writeUTF(string);
+        } else if (value instanceof NbtList list) {
+            output.writeByte(list.isEmpty() ? NbtType.END : list.getElementType());
+            output.writeInt(list.size());
+            for (Object element : list) {
+                writePayload(output, element);
+            }
+        } else if (value instanceof NbtCompound compound) {
+            for (Map.Entry<String, Object> entry : compound.entrySet()) {
+                output.writeByte(NbtType.of(entry.getValue()));
+                output.writeUTF(entry.getKey());
+                writePayload(output, entry.getValue());
+            }
+            output.writeByte(NbtType.END);
+        } else if (value instanceof int[] array) {
+            output.writeInt(array.length);
+            for (int element : array) {
+                output.writeInt(element);
+            }
+        } else if (value instanceof long[] array) {
+            output.writeInt(array.length);
+            for (long element : array) {
+                output.writeLong(element);
+            }
+        } else {
+            throw new IOException("Unsupported NBT value type " + value.getClass().getName());
+        }
+    }
+
+    private static final class NonClosingOutputStream extends java.io.FilterOutputStream {
+
+        private NonClosingOutputStream(@NotNull OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte @NotNull [] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+
+    }
+
+    private NbtIo() {}
+
+}
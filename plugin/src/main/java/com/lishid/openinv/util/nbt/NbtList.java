@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.nbt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A lightweight, version-independent list tag. All elements must be of the same type.
+ */
+public final class NbtList implements Iterable<Object> {
+
+    private final List<Object> values;
+    private byte elementType;
+
+    public NbtList() {
+        this(NbtType.END, 0);
+    }
+
+    NbtList(byte elementType, int expectedSize) {
+        this.elementType = elementType;
+        this.values = new ArrayList<>(expectedSize);
+    }
+
+    /**
+     * Get the {@link NbtType} ID of the list's elements. Empty lists may have any type.
+     *
+     * @return the element type
+     */
+    public byte getElementType() {
+        return elementType;
+    }
+
+    public int size() {
+        return values.size();
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    public @NotNull Object get(int index) {
+        return values.get(index);
+    }
+
+    public @Nullable NbtCompound getCompound(int index) {
+        return values.get(index) instanceof NbtCompound compound ? compound : null;
+    }
+
+    /**
+     * Add a value to the list.
+     *
+     * @param value the value
+     * @throws IllegalArgumentException if the value is not of the list's element type
+     */
+    public void add(@NotNull Object value) {
+        byte type = NbtType.of(value);
+        if (values.isEmpty()) {
+            elementType = type;
+        } else if (type != elementType) {
+            throw new IllegalArgumentException("Cannot add type " + type + " to list of type " + elementType);
+        }
+        values.add(value);
+    }
+
+    public @NotNull Object set(int index, @NotNull Object value) {
+        if (NbtType.of(value) != elementType) {
+            throw new IllegalArgumentException("Cannot set type " + NbtType.of(value) + " in list of type " + elementType);
+        }
+        return values.set(index, value);
+    }
+
+    public @NotNull Object remove(int index) {
+        return values.remove(index);
+    }
+
+    /**
+     * Get the compound elements of the list. If the list is not a list of compounds, this is empty.
+     *
+     * @return the compounds in the list
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public @NotNull List<NbtCompound> compounds() {
+        if (elementType != NbtType.COMPOUND) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList((List) values);
+    }
+
+    public @NotNull NbtList copy() {
+        NbtList copy = new NbtList(elementType, values.size());
+        for (Object value : values) {
+            copy.values.add(NbtType.copy(value));
+        }
+        return copy;
+    }
+
+    @Override
+    public @NotNull Iterator<Object> iterator() {
+        return Collections.unmodifiableList(values).iterator();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof NbtList list) || list.values.size() != values.size()) {
+            return false;
+        }
+        for (int i = 0; i < values.size(); ++i) {
+            if (!NbtType.valueEquals(values.get(i), list.values.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 1;
+        for (Object value : values) {
+            hash = 31 * hash + NbtType.valueHash(value);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return values.toString();
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.nbt;
+
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Constants and helpers for NBT tag types.
+ */
+public final class NbtType {
+
+    public static final byte END = 0;
+    public static final byte BYTE = 1;
+    public static final byte SHORT = 2;
+    public static final byte INT = 3;
+    public static final byte LONG = 4;
+    public static final byte FLOAT = 5;
+    public static final byte DOUBLE = 6;
+    public static final byte BYTE_ARRAY = 7;
+    public static final byte STRING = 8;
+    public static final byte LIST = 9;
+    public static final byte COMPOUND = 10;
+    public static final byte INT_ARRAY = 11;
+    public static final byte LONG_ARRAY = 12;
+
+    /**
+     * Get the type ID of a value.
+     *
+     * @param value the value
+     * @return the type ID
+     * @throws IllegalArgumentException if the value is not a supported type
+     */
+    public static byte of(@NotNull Object value) {
+        if (value instanceof Byte) {
+            return BYTE;
+        } else if (value instanceof Short) {
+            return SHORT;
+        } else if (value instanceof Integer) {
+            return INT;
+        } else if (value instanceof Long) {
+            return LONG;
+        } else if (value instanceof Float) {
+            return FLOAT;
+        } else if (value instanceof Double) {
+            return DOUBLE;
+        } else if (value instanceof byte[]) {
+            return BYTE_ARRAY;
+        } else if (value instanceof String) {
+            return STRING;
+        } else if (value instanceof NbtList) {
+            return LIST;
+        } else if (value instanceof NbtCompound) {
+            return COMPOUND;
+        } else if (value instanceof int[]) {
+            return INT_ARRAY;
+        } else if (value instanceof long[]) {
+            return LONG_ARRAY;
+        }
+        throw new IllegalArgumentException("Unsupported NBT value type " + value.getClass().getName());
+    }
+
+    static @NotNull Object copy(@NotNull Object value) {
+        if (value instanceof NbtCompound compound) {
+            return compound.copy();
+        } else if (value instanceof NbtList list) {
+            return list.copy();
+        } else if (value instanceof byte[] array) {
+            return array.clone();
+        } else if (value instanceof int[] array) {
+            return array.clone();
+        } else if (value instanceof long[] array) {
+            return array.clone();
+        }
+        // Remaining types are immutable.
+        return value;
+    }
+
+    /**
+     * Compare two values, comparing arrays by content.
+     *
+     * @param value the first value
+     * @param other the second value
+     * @return true if the values are equal
+     */
+    public static boolean valueEquals(@Nullable Object value, @Nullable Object other) {
+        if (value instanceof byte[] array) {
+            return other instanceof byte[] otherArray && Arrays.equals(array, otherArray);
+        } else if (value instanceof int[] array) {
+            return other instanceof int[] otherArray && Arrays.equals(array, otherArray);
+        } else if (value instanceof long[] array) {
+            return other instanceof long[] otherArray && Arrays.equals(array, otherArray);
+        }
+        return value == null ? other == null : value.equals(other);
+    }
+
+    static int valueHash(@Nullable Object value) {
+        if (value instanceof byte[] array) {
+            return Arrays.hashCode(array);
+        } else if (value instanceof int[] array) {
+            return Arrays.hashCode(array);
+        } else if (value instanceof long[] array) {
+            return Arrays.hashCode(array);
+        }
+        return value == null ? 0 : value.hashCode();
+    }
+
+    private NbtType() {}
+
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.nbt;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * A read-only view of an Anvil region file.
+ *
+ * <p>The file is memory-mapped rather than read so that only sectors belonging to requested chunks are paged in.
+ * The server may write to the file concurrently; chunks that are mid-write may fail to decompress and should be
+ * treated as unreadable rather than fatal.
+ */
+public final class RegionFile implements Closeable {
+
+    private static final Pattern REGION_NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+    private static final int SECTOR_BYTES = 4096;
+    private static final int EXTERNAL_FLAG = 128;
+
+    private final Path path;
+    private final int regionX;
+    private final int regionZ;
+    private final FileChannel channel;
+    private final @Nullable MappedByteBuffer buffer;
+
+    /**
+     * Open a region file. The file name must follow the vanilla {@code r.<x>.<z>.mca} format.
+     *
+     * @param path the path to the region file
+     * @throws IOException if the file cannot be opened or is not a region file
+     */
+    public RegionFile(@NotNull Path path) throws IOException {
+        Matcher matcher = REGION_NAME.matcher(path.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IOException("Not a region file: " + path);
+        }
+        this.path = path;
+        this.regionX = Integer.parseInt(matcher.group(1));
+        this.regionZ = Integer.parseInt(matcher.group(2));
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        long size = channel.size();
+        // Files smaller than the header contain no chunks.
+        this.buffer = size < SECTOR_BYTES * 2L ? null : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+
+    /**
+     * Check whether a file name is that of a region file.
+     *
+     * @param fileName the file name
+     * @return true if the name is a region file name
+     */
+    public static boolean isRegionFile(@NotNull String fileName) {
+        return REGION_NAME.matcher(fileName).matches();
+    }
+
+    /**
+     * Get the region X coordinate.
+     *
+     * @return the region X coordinate
+     */
+    public int getRegionX() {
+        return regionX;
+    }
+
+    /**
+     * Get the region Z coordinate.
+     *
+     * @return the region Z coordinate
+     */
+    public int getRegionZ() {
+        return regionZ;
+    }
+
+    /**
+     * Check whether a chunk is present in the region.
+     *
+     * @param localX the chunk X coordinate within the region, 0-31
+     * @param localZ the chunk Z coordinate within the region, 0-31
+     * @return true if the chunk has been saved
+     */
+    public boolean hasChunk(int localX, int localZ) {
+        return getOffset(localX, localZ) != 0;
+    }
+
+    private int getOffset(int localX, int localZ) {
+        if (buffer == null) {
+            return 0;
+        }
+        return buffer.getInt(4 * ((localX & 31) + (localZ & 31) * 32));
+    }
+
+    /**
+     * Read a chunk's data, retaining only the specified root keys.
+     *
+     * @param localX the chunk X coordinate within the region, 0-31
+     * @param localZ the chunk Z coordinate within the region, 0-31
+     * @param rootKeys the filter for root keys to retain
+     * @return the chunk data or null if the chunk is not present
+     * @throws IOException if the chunk data is malformed
+     */
+    public @Nullable NbtCompound readChunk(
+            int localX,
+            int localZ,
+            @NotNull Predicate<String> rootKeys) throws IOException {
+        int offset = getOffset(localX, localZ);
+        if (offset == 0 || buffer == null) {
+            return null;
+        }
+
+        long start = (long) (offset >>> 8) * SECTOR_BYTES;
+        int sectors = offset & 0xFF;
+        if (start + 5 > buffer.capacity()) {
+            throw new IOException(String.format("Chunk %s,%s in %s points outside of file", localX, localZ, path));
+        }
+
+        ByteBuffer chunk = buffer.duplicate();
+        chunk.position((int) start);
+        int length = chunk.getInt();
+        if (length <= 1 || length > sectors * SECTOR_BYTES || start + 4 + length > buffer.capacity()) {
+            throw new IOException(String.format("Chunk %s,%s in %s has invalid length %s", localX, localZ, path, length));
+        }
+        byte compression = chunk.get();
+        chunk.limit((int) start + 4 + length);
+
+        InputStream raw;
+        if ((compression & EXTERNAL_FLAG) != 0) {
+            // Oversized chunks are stored in separate files named by absolute chunk coordinates.
+            int chunkX = (regionX << 5) + (localX & 31);
+            int chunkZ = (regionZ << 5) + (localZ & 31);
+            Path external = path.resolveSibling("c." + chunkX + "." + chunkZ + ".mcc");
+            raw = Files.newInputStream(external);
+            compression &= ~EXTERNAL_FLAG;
+        } else {
+            raw = new ByteBufferInputStream(chunk.slice());
+        }
+
+        try (InputStream decompressed = decompress(raw, compression)) {
+            return NbtIo.read(new DataInputStream(decompressed), rootKeys);
+        }
+    }
+
+    private static @NotNull InputStream decompress(@NotNull InputStream raw, byte compression) throws IOException {
+        return switch (compression) {
+            case 1 -> new GZIPInputStream(raw);
+            case 2 -> new InflaterInputStream(raw);
+            case 3 -> raw;
+            default -> {
+                raw.close();
+                throw new IOException("Unsupported chunk compression type " + compression);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(@NotNull ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte @NotNull [] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public long skip(long bytes) {
+            int skipped = (int) Math.max(0, Math.min(bytes, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.scheduler;
+
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Scheduler running all synchronous tasks on the main thread.
+ */
+final class BukkitTaskScheduler implements TaskScheduler {
+
+    private final Plugin plugin;
+    private final BukkitScheduler scheduler;
+
+    BukkitTaskScheduler(@NotNull Plugin plugin) {
+        this.plugin = plugin;
+        this.scheduler = plugin.getServer().getScheduler();
+    }
+
+    @Override
+    public boolean isRegionized() {
+        return false;
+    }
+
+    @Override
+    public void run(@NotNull Runnable task) {
+        scheduler.runTask(plugin, task);
+    }
+
+    @Override
+    public void runLater(@NotNull Runnable task, long delayTicks) {
+        scheduler.runTaskLater(plugin, task, delayTicks);
+    }
+
+    @Override
+    public @NotNull Task runTimer(@NotNull Runnable task, long delayTicks, long periodTicks) {
+        BukkitTask bukkitTask = scheduler.runTaskTimer(plugin, task, delayTicks, periodTicks);
+        return bukkitTask::cancel;
+    }
+
+    @Override
+    public void run(@Nullable CommandSender sender, @NotNull Runnable task) {
+        run(task);
+    }
+
+    @Override
+    public void runLater(@Nullable CommandSender sender, @NotNull Runnable task, long delayTicks) {
+        runLater(task, delayTicks);
+    }
+
+    @Override
+    public void run(@NotNull World world, int chunkX, int chunkZ, @NotNull Runnable task) {
+        run(task);
+    }
+
+    @Override
+    public void runAsync(@NotNull Runnable task) {
+        scheduler.runTaskAsynchronously(plugin, task);
+    }
+
+    @Override
+    public void runLaterAsync(@NotNull Runnable task, long delayTicks) {
+        scheduler.runTaskLaterAsynchronously(plugin, task, delayTicks);
+    }
+
+    @Override
+    public void cancelTasks() {
+        scheduler.cancelTasks(plugin);
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.scheduler;
+
+import io.papermc.paper.threadedregions.scheduler.ScheduledTask;
+import java.util.concurrent.TimeUnit;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Scheduler dispatching tasks to the region, entity, global and async schedulers of Folia.
+ *
+ * <p>Only loaded when running on Folia; the schedulers are part of the Paper API but not of Bukkit.
+ */
+final class FoliaTaskScheduler implements TaskScheduler {
+
+    private final Plugin plugin;
+
+    FoliaTaskScheduler(@NotNull Plugin plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean isRegionized() {
+        return true;
+    }
+
+    @Override
+    public void run(@NotNull Runnable task) {
+        plugin.getServer().getGlobalRegionScheduler().execute(plugin, task);
+    }
+
+    @Override
+    public void runLater(@NotNull Runnable task, long delayTicks) {
+        // Folia rejects delays below 1 tick.
+        plugin.getServer().getGlobalRegionScheduler().runDelayed(plugin, scheduled -> task.run(), Math.max(1, delayTicks));
+    }
+
+    @Override
+    public @NotNull Task runTimer(@NotNull Runnable task, long delayTicks, long periodTicks) {
+        ScheduledTask scheduled = plugin.getServer().getGlobalRegionScheduler().runAtFixedRate(
+                plugin,
+                ignored -> task.run(),
+                Math.max(1, delayTicks),
+                Math.max(1, periodTicks));
+        return scheduled::cancel;
+    }
+
+    @Override
+    public void run(@Nullable CommandSender sender, @NotNull Runnable task) {
+        runLater(sender, task, 1);
+    }
+
+    @Override
+    public void runLater(@Nullable CommandSender sender, @NotNull Runnable task, long delayTicks) {
+        if (!(sender instanceof Entity entity)) {
+            runLater(task, delayTicks);
+            return;
+        }
+
+        // Retired entities are gone from every region; fall through to the global region like Bukkit would.
+        Runnable retired = () -> run(task);
+        if (!entity.getScheduler().execute(plugin, task, retired, Math.max(1, delayTicks))) {
+            retired.run();
+        }
+    }
+
+    @Override
+    public void run(@NotNull World world, int chunkX, int chunkZ, @NotNull Runnable task) {
+        plugin.getServer().getRegionScheduler().execute(plugin, world, chunkX, chunkZ, task);
+    }
+
+    @Override
+    public void runAsync(@NotNull Runnable task) {
+        plugin.getServer().getAsyncScheduler().runNow(plugin, scheduled -> task.run());
+    }
+
+    @Override
+    public void runLaterAsync(@NotNull Runnable task, long delayTicks) {
+        plugin.getServer().getAsyncScheduler().runDelayed(
+                plugin,
+                scheduled -> task.run(),
+                Math.max(1, delayTicks) * 50,
+                TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void cancelTasks() {
+        plugin.getServer().getGlobalRegionScheduler().cancelTasks(plugin);
+        plugin.getServer().getAsyncScheduler().cancelTasks(plugin);
+    }
+
+}
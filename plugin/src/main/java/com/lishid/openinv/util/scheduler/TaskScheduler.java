@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2011-2022 lishid. All rights reserved.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, version 3.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.lishid.openinv.util.scheduler;
+
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Schedules tasks on the thread that owns the state they touch.
+ *
+ * <p>On Bukkit every synchronous task runs on the main thread. On Folia, tasks for an entity run on the thread of the
+ * region the entity is in, tasks for a chunk run on the thread of the region owning the chunk, and all other
+ * synchronous tasks run on the global region. Offline players loaded by OpenInv are not part of any region and are
+ * managed from the global region.
+ */
+public interface TaskScheduler {
+
+    /**
+     * Create a scheduler for the current server implementation.
+     *
+     * @param plugin the plugin owning scheduled tasks
+     * @return the scheduler
+     */
+    static @NotNull TaskScheduler create(@NotNull Plugin plugin) {
+        return isFolia() ? new FoliaTaskScheduler(plugin) : new BukkitTaskScheduler(plugin);
+    }
+
+    /**
+     * Check if the server uses regionized threading.
+     *
+     * @return true if the server is running Folia
+     */
+    static boolean isFolia() {
+        try {
+            Class.forName("io.papermc.paper.threadedregions.RegionizedServer");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Check if tasks may run concurrently on several tick threads.
+     *
+     * @return true if ticking is split across regions
+     */
+    boolean isRegionized();
+
+    /**
+     * Run a task on the main thread or global region next tick.
+     *
+     * @param task the task
+     */
+    void run(@NotNull Runnable task);
+
+    /**
+     * Run a task on the main thread or global region after a delay.
+     *
+     * @param task the task
+     * @param delayTicks the delay in ticks
+     */
+    void runLater(@NotNull Runnable task, long delayTicks);
+
+    /**
+     * Run a task repeatedly on the main thread or global region.
+     *
+     * @param task the task
+     * @param delayTicks the delay before the first run in ticks
+     * @param periodTicks the delay between runs in ticks
+     * @return the scheduled task
+     */
+    @NotNull Task runTimer(@NotNull Runnable task, long delayTicks, long periodTicks);
+
+    /**
+     * Run a task for a command sender next tick. Tasks for entities follow the entity between regions; if the entity
+     * is removed before the task runs, the task runs on the global region instead. Other senders use the global
+     * region.
+     *
+     * @param sender the sender, or null to use the global region
+     * @param task the task
+     */
+    void run(@Nullable CommandSender sender, @NotNull Runnable task);
+
+    /**
+     * Run a task for a command sender after a delay.
+     *
+     * @param sender the sender, or null to use the global region
+     * @param task the task
+     * @param delayTicks the delay in ticks
+     * @see #run(CommandSender, Runnable)
+     */
+    void runLater(@Nullable CommandSender sender, @NotNull Runnable task, long delayTicks);
+
+    /**
+     * Run a task on the thread owning a chunk next tick.
+     *
+     * @param world the world
+     * @param chunkX the chunk X coordinate
+     * @param chunkZ the chunk Z coordinate
+     * @param task the task
+     */
+    void run(@NotNull World world, int chunkX, int chunkZ, @NotNull Runnable task);
+
+    /**
+     * Run a task off the tick threads.
+     *
+     * @param task the task
+     */
+    void runAsync(@NotNull Runnable task);
+
+    /**
+     * Run a task off the tick threads after a delay.
+     *
+     * @param task the task
+     * @param delayTicks the delay in ticks
+     */
+    void runLaterAsync(@NotNull Runnable task, long delayTicks);
+
+    /**
+     * Cancel all tasks scheduled by the plugin.
+     */
+    void cancelTasks();
+
+    /**
+     * A repeating task.
+     */
+    interface Task {
+
+        /**
+         * Stop the task from running again.
+         */
+        void cancel();
+
+    }
+
+}